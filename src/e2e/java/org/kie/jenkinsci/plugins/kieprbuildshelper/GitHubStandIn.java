@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Local HTTP server standing in for the parts of the GitHub REST API used by the builders (repositories, open PRs,
+ * single PRs, PR files) and for the raw repository-list.txt files. The API is served under /api, the raw files under
+ * /raw. All the PRs are open and mergeable.
+ *
+ * The API requests (including the conditional ones answered with 304) and the raw file requests are counted, so that
+ * the number of requests per build can be reported.
+ */
+class GitHubStandIn implements AutoCloseable {
+
+    private static final Pattern REPO_PATH = Pattern.compile("/api/repos/([^/]+)/([^/]+)");
+    private static final Pattern PULLS_PATH = Pattern.compile("/api/repos/([^/]+)/([^/]+)/pulls");
+    private static final Pattern PULL_PATH = Pattern.compile("/api/repos/([^/]+)/([^/]+)/pulls/(\\d+)");
+    private static final Pattern PULL_FILES_PATH = Pattern.compile("/api/repos/([^/]+)/([^/]+)/pulls/(\\d+)/files");
+    private static final Pattern RAW_PATH = Pattern.compile("/raw/([^/]+)/([^/]+)/([^/]+)/(.+)");
+
+    private final HttpServer server;
+    private final Map<String, List<JSONObject>> pullRequestsByRepo = new ConcurrentHashMap<>();
+    private final Map<String, String> rawFiles = new ConcurrentHashMap<>();
+
+    private final AtomicInteger apiRequests = new AtomicInteger();
+    private final AtomicInteger notModifiedRequests = new AtomicInteger();
+    private final AtomicInteger rawRequests = new AtomicInteger();
+
+    GitHubStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+    }
+
+    String getApiUrl() {
+        return getBaseUrl() + "/api";
+    }
+
+    String getRawUrl() {
+        return getBaseUrl() + "/raw";
+    }
+
+    private String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Registers open PR, from the branch of the fork owned by the author.
+     */
+    void addPullRequest(GitHubRepository repo, int number, String baseBranch, String author, String headBranch, String headSha) {
+        JSONObject pr = new JSONObject();
+        pr.put("number", number);
+        pr.put("state", "open");
+        pr.put("mergeable", true);
+        pr.put("url", getApiUrl() + "/repos/" + repo.getFullName() + "/pulls/" + number);
+        pr.put("html_url", "https://github.com/" + repo.getFullName() + "/pull/" + number);
+        pr.put("base", pointer(repo, baseBranch, "0000000000000000000000000000000000000000"));
+        pr.put("head", pointer(new GitHubRepository(author, repo.getName()), headBranch, headSha));
+        pullRequestsByRepo.computeIfAbsent(repo.getFullName(), key -> Collections.synchronizedList(new ArrayList<>())).add(pr);
+    }
+
+    void addRawFile(GitHubRepository repo, String branch, String path, String content) {
+        rawFiles.put(repo.getFullName() + "/" + branch + "/" + path, content);
+    }
+
+    int getApiRequests() {
+        return apiRequests.get();
+    }
+
+    int getNotModifiedRequests() {
+        return notModifiedRequests.get();
+    }
+
+    int getRawRequests() {
+        return rawRequests.get();
+    }
+
+    void resetCounters() {
+        apiRequests.set(0);
+        notModifiedRequests.set(0);
+        rawRequests.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private JSONObject pointer(GitHubRepository repo, String branch, String sha) {
+        JSONObject pointer = new JSONObject();
+        pointer.put("ref", branch);
+        pointer.put("sha", sha);
+        pointer.put("label", repo.getOwner() + ":" + branch);
+        pointer.put("user", user(repo.getOwner()));
+        pointer.put("repo", repository(repo));
+        return pointer;
+    }
+
+    private JSONObject repository(GitHubRepository repo) {
+        JSONObject json = new JSONObject();
+        json.put("name", repo.getName());
+        json.put("full_name", repo.getFullName());
+        json.put("owner", user(repo.getOwner()));
+        json.put("url", getApiUrl() + "/repos/" + repo.getFullName());
+        json.put("html_url", "https://github.com/" + repo.getFullName());
+        return json;
+    }
+
+    private static JSONObject user(String login) {
+        JSONObject user = new JSONObject();
+        user.put("login", login);
+        user.put("type", "User");
+        return user;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith("/raw/")) {
+                rawRequests.incrementAndGet();
+                handleRaw(exchange, path);
+            } else {
+                apiRequests.incrementAndGet();
+                handleApi(exchange, path);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleRaw(HttpExchange exchange, String path) throws IOException {
+        Matcher matcher = RAW_PATH.matcher(path);
+        String content = matcher.matches() ?
+                rawFiles.get(matcher.group(1) + "/" + matcher.group(2) + "/" + matcher.group(3) + "/" + matcher.group(4)) : null;
+        if (content == null) {
+            send(exchange, 404, "404: Not Found", null);
+        } else {
+            send(exchange, 200, content, null);
+        }
+    }
+
+    private void handleApi(HttpExchange exchange, String path) throws IOException {
+        // generous rate limit, so that the requests are not throttled more than by GitHubRequestScheduler itself
+        exchange.getResponseHeaders().add("X-RateLimit-Limit", "5000");
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", "4999");
+        exchange.getResponseHeaders().add("X-RateLimit-Reset",
+                                          String.valueOf(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600));
+        exchange.getResponseHeaders().add("X-RateLimit-Resource", "core");
+        Matcher matcher;
+        if ((matcher = PULL_FILES_PATH.matcher(path)).matches()) {
+            send(exchange, 200, new JSONArray().toString(), null);
+        } else if ((matcher = PULL_PATH.matcher(path)).matches()) {
+            int number = Integer.parseInt(matcher.group(3));
+            JSONObject pr = pullRequests(matcher.group(1) + "/" + matcher.group(2)).stream()
+                    .filter(json -> json.getInt("number") == number)
+                    .findFirst()
+                    .orElse(null);
+            sendJson(exchange, pr);
+        } else if ((matcher = PULLS_PATH.matcher(path)).matches()) {
+            JSONArray prs = new JSONArray();
+            if ("1".equals(queryParameter(exchange, "page", "1"))) {
+                // all the PRs fit into the first page
+                prs.addAll(pullRequests(matcher.group(1) + "/" + matcher.group(2)));
+            }
+            sendJson(exchange, prs);
+        } else if ((matcher = REPO_PATH.matcher(path)).matches()) {
+            sendJson(exchange, repository(new GitHubRepository(matcher.group(1), matcher.group(2))));
+        } else {
+            send(exchange, 404, "{\"message\":\"Not Found\"}", null);
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name, String defaultValue) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private List<JSONObject> pullRequests(String repoFullName) {
+        List<JSONObject> prs = pullRequestsByRepo.getOrDefault(repoFullName, Collections.emptyList());
+        synchronized (prs) {
+            return new ArrayList<>(prs);
+        }
+    }
+
+    private void sendJson(HttpExchange exchange, Object json) throws IOException {
+        if (json == null) {
+            send(exchange, 404, "{\"message\":\"Not Found\"}", null);
+            return;
+        }
+        String body = json.toString();
+        String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedRequests.incrementAndGet();
+            send(exchange, 304, null, etag);
+        } else {
+            send(exchange, 200, body, etag);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, String etag) throws IOException {
+        if (etag != null) {
+            exchange.getResponseHeaders().add("ETag", etag);
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", body.startsWith("{") || body.startsWith("[") ?
+                "application/json; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.tasks.Builder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * End-to-end benchmark of the orchestration done by the builders (GitHub lookups, repository list, mirrors, clones),
+ * separately from Maven. The builders run in a Jenkins test instance against a synthetic chain of local git
+ * repositories (see {@link SyntheticRepositoryChain}) and a local stand-in of GitHub (see {@link GitHubStandIn}).
+ *
+ * For every chain size, every builder runs twice, the first build of the chain starts with empty reference mirrors.
+ * The wall time, the time spent by the plugin outside of Maven, the number of GitHub requests and the peak heap of the
+ * controller (which also runs the builds) are printed and written as CSV to target/orchestration-benchmark.csv.
+ *
+ * Run by the "benchmarks" profile. Configurable using the system properties:
+ * <ul>
+ *     <li>benchmark.chainSizes - comma separated chain sizes, 5,25,50,100,200 by default</li>
+ *     <li>benchmark.mavenHome - Maven used to build the repositories. By default, a stub which does not build
+ *         anything is used, so that only the plugin overhead is measured</li>
+ * </ul>
+ */
+public class OrchestrationBenchmark {
+
+    private static final String GITHUB_TOKEN = "benchmark-token";
+    private static final int BUILDS_PER_BUILDER = 2;
+
+    private static GitHubStandIn gitHub;
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startGitHubStandIn() throws IOException {
+        gitHub = new GitHubStandIn();
+        // needs to be set before the plugin classes reading them are initialized
+        System.setProperty(GitHubClientFactory.API_URL_PROPERTY, gitHub.getApiUrl());
+        System.setProperty(RepositoryListCache.BASE_URL_PROPERTY, gitHub.getRawUrl());
+    }
+
+    @AfterClass
+    public static void stopGitHubStandIn() {
+        gitHub.close();
+        System.clearProperty(GitHubClientFactory.API_URL_PROPERTY);
+        System.clearProperty(RepositoryListCache.BASE_URL_PROPERTY);
+        System.clearProperty(GitHubRepository.CLONE_URL_PROPERTY);
+    }
+
+    {
+        // the builds of the largest chains take longer than the default timeout
+        jenkins.timeout = 0;
+    }
+
+    @Test
+    public void benchmarkBuilders() throws Exception {
+        SyntheticRepositoryChain chain = new SyntheticRepositoryChain(tmp.newFolder("repositories"), gitHub);
+        System.setProperty(GitHubRepository.CLONE_URL_PROPERTY, chain.getCloneUrl());
+        KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().setGhOAuthToken(GITHUB_TOKEN);
+        String mavenHome = getMavenHome();
+        EnvironmentVariablesNodeProperty environment = new EnvironmentVariablesNodeProperty();
+        jenkins.jenkins.getGlobalNodeProperties().add(environment);
+
+        List<Result> results = new ArrayList<>();
+        for (int size : getChainSizes()) {
+            chain.create(size);
+            GitHubRepository prRepo = SyntheticRepositoryChain.prRepository(size);
+            int prNumber = SyntheticRepositoryChain.prNumber(size, size / 2);
+            environment.getEnvVars().put("ghprbPullLink", "https://github.com/" + prRepo.getFullName() + "/pull/" + prNumber);
+            environment.getEnvVars().put(ReferenceMirrors.REFERENCE_DIR_ENV_VAR, tmp.newFolder("reference-" + size).getPath());
+
+            List<Builder> builders = Arrays.asList(
+                    new UpstreamReposBuilder(mavenHome, "", "-B install"),
+                    new DownstreamReposBuilder(mavenHome, "", "-B install"),
+                    new StandardBuildUpstreamReposBuilder(prRepo.getFullName(), SyntheticRepositoryChain.branch(size),
+                                                          mavenHome, "", "-B install"));
+            for (Builder builder : builders) {
+                FreeStyleProject project = jenkins.createFreeStyleProject();
+                project.getBuildersList().add(builder);
+                for (int run = 1; run <= BUILDS_PER_BUILDER; run++) {
+                    results.add(runBuild(project, size, run));
+                }
+            }
+        }
+        report(results);
+    }
+
+    private Result runBuild(FreeStyleProject project, int size, int run) throws Exception {
+        gitHub.resetCounters();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+        // sum of the peaks of the individual pools, i.e. upper estimate of the peak heap usage
+        long peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        BuildPerformanceAction performance = build.getAction(BuildPerformanceAction.class);
+        long mavenMillis = performance.getPhaseDurations().getOrDefault(BuildPerformanceAction.PHASE_MAVEN, 0L);
+        return new Result(performance.getBuilder(), size, run, build.getDuration(), performance.getTotalMillis() - mavenMillis,
+                          mavenMillis, gitHub.getApiRequests(), gitHub.getNotModifiedRequests(), gitHub.getRawRequests(),
+                          performance.getCounters().getOrDefault(BuildPerformanceAction.BUILT_REPOSITORIES, 0L), peakHeapBytes);
+    }
+
+    private String getMavenHome() throws IOException {
+        String mavenHome = System.getProperty("benchmark.mavenHome");
+        if (mavenHome != null && !mavenHome.trim().isEmpty()) {
+            return mavenHome.trim();
+        }
+        File stubHome = tmp.newFolder("maven-stub");
+        File mvn = new File(stubHome, "bin/mvn");
+        Files.createDirectories(mvn.getParentFile().toPath());
+        Files.write(mvn.toPath(), "#!/bin/sh\nexit 0\n".getBytes(StandardCharsets.UTF_8));
+        if (!mvn.setExecutable(true)) {
+            throw new IOException("Failed to make " + mvn + " executable");
+        }
+        return stubHome.getPath();
+    }
+
+    private static List<Integer> getChainSizes() {
+        return Arrays.stream(System.getProperty("benchmark.chainSizes", "5,25,50,100,200").split(","))
+                .map(String::trim)
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static void report(List<Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("builder,repositories,run,wallMillis,pluginMillis,mavenMillis,apiRequests,apiNotModified,rawRequests,builtRepositories,peakHeapMB");
+        results.forEach(result -> lines.add(result.toCsv()));
+        File reportFile = new File("target/orchestration-benchmark.csv");
+        Files.createDirectories(reportFile.getAbsoluteFile().getParentFile().toPath());
+        Files.write(reportFile.toPath(), lines, StandardCharsets.UTF_8);
+
+        PrintStream out = System.out;
+        out.println();
+        out.printf("%-50s %6s %4s %10s %10s %10s %6s %6s %6s %6s %10s%n", "Builder", "Repos", "Run", "Wall [ms]", "Plugin [ms]",
+                   "Maven [ms]", "API", "304", "Raw", "Built", "Heap [MB]");
+        for (Result result : results) {
+            out.printf("%-50s %6d %4d %10d %10d %10d %6d %6d %6d %6d %10d%n", result.builder, result.size, result.run,
+                       result.wallMillis, result.pluginMillis, result.mavenMillis, result.apiRequests, result.notModified,
+                       result.rawRequests, result.builtRepositories, result.peakHeapBytes / (1024 * 1024));
+        }
+        out.println("Results written to " + reportFile.getAbsolutePath());
+    }
+
+    private static class Result {
+        private final String builder;
+        private final int size;
+        private final int run;
+        private final long wallMillis;
+        private final long pluginMillis;
+        private final long mavenMillis;
+        private final int apiRequests;
+        private final int notModified;
+        private final int rawRequests;
+        private final long builtRepositories;
+        private final long peakHeapBytes;
+
+        private Result(String builder, int size, int run, long wallMillis, long pluginMillis, long mavenMillis, int apiRequests,
+                       int notModified, int rawRequests, long builtRepositories, long peakHeapBytes) {
+            this.builder = builder;
+            this.size = size;
+            this.run = run;
+            this.wallMillis = wallMillis;
+            this.pluginMillis = pluginMillis;
+            this.mavenMillis = mavenMillis;
+            this.apiRequests = apiRequests;
+            this.notModified = notModified;
+            this.rawRequests = rawRequests;
+            this.builtRepositories = builtRepositories;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        private String toCsv() {
+            return String.join(",", '"' + builder + '"', String.valueOf(size), String.valueOf(run), String.valueOf(wallMillis),
+                               String.valueOf(pluginMillis), String.valueOf(mavenMillis), String.valueOf(apiRequests),
+                               String.valueOf(notModified), String.valueOf(rawRequests), String.valueOf(builtRepositories),
+                               String.valueOf(peakHeapBytes / (1024 * 1024)));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+
+/**
+ * Chain of bare git repositories with tiny Maven projects, every project depending on the project of the previous
+ * repository. The first repository is the {@link RepositoryLists#KIE_BOOTSTRAP_REPO} with the repository-list.txt.
+ *
+ * The repositories are created at {@code <basedir>/<owner>/<repo>.git}, so that they can be cloned using
+ * {@link GitHubRepository#CLONE_URL_PROPERTY} set to the basedir URL. Chains of different sizes share the
+ * repositories, every chain has its own branch ({@code chain-<size>}), with its own repository-list.txt in the
+ * bootstrap repository.
+ */
+class SyntheticRepositoryChain {
+
+    static final String PR_AUTHOR = "contributor";
+
+    private static final PersonIdent AUTHOR = new PersonIdent("Benchmark", "benchmark@example.com");
+
+    /**
+     * Every n-th repository of the chain has PR related to the PR being built (the same author and branch).
+     */
+    private static final int RELATED_PR_INTERVAL = 10;
+
+    private final File basedir;
+    private final GitHubStandIn gitHub;
+    private final List<String> createdRepositories = new ArrayList<>();
+
+    SyntheticRepositoryChain(File basedir, GitHubStandIn gitHub) {
+        this.basedir = basedir;
+        this.gitHub = gitHub;
+    }
+
+    String getCloneUrl() {
+        return basedir.toURI().toString().replaceAll("/$", "");
+    }
+
+    static String branch(int size) {
+        return "chain-" + size;
+    }
+
+    static String prBranch(int size) {
+        return "benchmark-pr-" + size;
+    }
+
+    static String repositoryName(int index) {
+        return index == 0 ? RepositoryLists.KIE_BOOTSTRAP_REPO.getName() : String.format("benchmark-repository-%03d", index);
+    }
+
+    /**
+     * @return repository in the middle of the chain, the PR being built is submitted against it
+     */
+    static GitHubRepository prRepository(int size) {
+        return new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, repositoryName(size / 2));
+    }
+
+    static int prNumber(int size, int index) {
+        return size * 1000 + index;
+    }
+
+    /**
+     * Creates (or extends) the repositories of the chain and registers the chain PRs with the GitHub stand-in.
+     */
+    void create(int size) throws IOException, GitAPIException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            names.add(repositoryName(i));
+        }
+        for (int i = createdRepositories.size(); i < size; i++) {
+            createRepository(i);
+            createdRepositories.add(repositoryName(i));
+        }
+        for (int i = 0; i < size; i++) {
+            boolean hasPR = i == size / 2 || i > 0 && i % RELATED_PR_INTERVAL == 0;
+            createBranches(i, size, hasPR, names);
+        }
+        gitHub.addRawFile(RepositoryLists.KIE_BOOTSTRAP_REPO, branch(size), RepositoryListCache.REPOSITORY_LIST_PATH,
+                          String.join("\n", names) + "\n");
+    }
+
+    private void createRepository(int index) throws IOException, GitAPIException {
+        String name = repositoryName(index);
+        File bareDir = bareDir(name);
+        Git.init().setBare(true).setDirectory(bareDir).call().close();
+        File workDir = workDir(name);
+        try (Git git = Git.init().setDirectory(workDir).call()) {
+            write(new File(workDir, "pom.xml"), pom(index));
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Tiny Maven project " + name).setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+            git.push().setRemote(bareDir.toURI().toString()).setRefSpecs(new RefSpec("refs/heads/master:refs/heads/master")).call();
+        }
+    }
+
+    private void createBranches(int index, int size, boolean hasPR, List<String> names) throws IOException, GitAPIException {
+        String name = repositoryName(index);
+        File workDir = workDir(name);
+        try (Git git = Git.open(workDir)) {
+            List<RefSpec> refSpecs = new ArrayList<>();
+            git.checkout().setName("master").call();
+            if (index == 0) {
+                // the bootstrap repository has its own repository-list.txt for every chain
+                git.checkout().setCreateBranch(true).setName(branch(size)).setStartPoint("master").call();
+                write(new File(workDir, RepositoryListCache.REPOSITORY_LIST_PATH), String.join("\n", names) + "\n");
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("Repository list of " + branch(size)).setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+                refSpecs.add(new RefSpec("refs/heads/" + branch(size) + ":refs/heads/" + branch(size)));
+            } else {
+                refSpecs.add(new RefSpec("refs/heads/master:refs/heads/" + branch(size)));
+            }
+            if (hasPR) {
+                int number = prNumber(size, index);
+                git.checkout().setCreateBranch(true).setName(prBranch(size) + "-" + index).setStartPoint(index == 0 ? branch(size) : "master").call();
+                write(new File(workDir, "CHANGES.txt"), "Change of PR " + number + "\n");
+                git.add().addFilepattern(".").call();
+                RevCommit commit = git.commit().setMessage("PR " + number).setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+                // the PR changes are on top of the base branch, so the head is also the merge result
+                String prRef = "refs/heads/" + prBranch(size) + "-" + index;
+                refSpecs.add(new RefSpec(prRef + ":refs/pull/" + number + "/head"));
+                refSpecs.add(new RefSpec(prRef + ":refs/pull/" + number + "/merge"));
+                gitHub.addPullRequest(new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, name), number, branch(size), PR_AUTHOR,
+                                      prBranch(size), commit.getName());
+            }
+            git.push().setRemote(bareDir(name).toURI().toString()).setRefSpecs(refSpecs).setForce(true).call();
+            git.checkout().setName("master").call();
+        }
+    }
+
+    private File bareDir(String name) {
+        return new File(basedir, RepositoryLists.KIE_ORG_UNIT + "/" + name + ".git");
+    }
+
+    private File workDir(String name) {
+        return new File(basedir, "work/" + name);
+    }
+
+    private static String pom(int index) {
+        StringBuilder pom = new StringBuilder()
+                .append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n")
+                .append("  <modelVersion>4.0.0</modelVersion>\n")
+                .append("  <groupId>org.kie.benchmark</groupId>\n")
+                .append("  <artifactId>").append(repositoryName(index)).append("</artifactId>\n")
+                .append("  <version>1.0-SNAPSHOT</version>\n")
+                .append("  <packaging>pom</packaging>\n");
+        if (index > 0) {
+            pom.append("  <dependencies>\n")
+                    .append("    <dependency>\n")
+                    .append("      <groupId>org.kie.benchmark</groupId>\n")
+                    .append("      <artifactId>").append(repositoryName(index - 1)).append("</artifactId>\n")
+                    .append("      <version>1.0-SNAPSHOT</version>\n")
+                    .append("      <type>pom</type>\n")
+                    .append("    </dependency>\n")
+                    .append("  </dependencies>\n");
+        }
+        return pom.append("</project>\n").toString();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Synthetic repository chains used by the benchmarks. The chain starts with the real KIE repositories (in the order
+ * from the repository-list.txt) and continues with generated ones, so that the hardcoded filters still match.
+ */
+final class BenchmarkRepositories {
+
+    static final List<String> KIE_REPOSITORIES = Collections.unmodifiableList(Arrays.asList(
+            "lienzo-core", "lienzo-tests", "droolsjbpm-build-bootstrap", "kie-soup", "appformer", "droolsjbpm-knowledge",
+            "drools", "optaplanner", "jbpm", "kie-jpmml-integration", "droolsjbpm-integration", "openshift-drools-hacep",
+            "droolsjbpm-tools", "kie-uberfire-extensions", "kie-wb-playground", "kie-wb-common", "drools-wb",
+            "optaplanner-wb", "jbpm-designer", "jbpm-work-items", "jbpm-wb", "kie-docs", "optaweb-employee-rostering",
+            "optaweb-vehicle-routing", "kie-wb-distributions"));
+
+    private BenchmarkRepositories() {
+    }
+
+    static List<String> repositoryNames(int chainSize) {
+        List<String> names = new ArrayList<>(KIE_REPOSITORIES.subList(0, Math.min(chainSize, KIE_REPOSITORIES.size())));
+        for (int i = names.size(); i < chainSize; i++) {
+            names.add("generated-repository-" + i);
+        }
+        return names;
+    }
+
+    static List<Tuple<GitHubRepository, GitBranch>> repositories(int chainSize) {
+        List<Tuple<GitHubRepository, GitBranch>> repos = new ArrayList<>();
+        for (String name : repositoryNames(chainSize)) {
+            repos.add(Tuple.of(new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, name), GitBranch.MASTER));
+        }
+        return repos;
+    }
+
+    /**
+     * Repository in the middle of the chain, so that both the upstream and the downstream part are non-trivial.
+     */
+    static GitHubRepository baseRepository(int chainSize) {
+        List<String> names = repositoryNames(chainSize);
+        return new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, names.get(names.size() / 2));
+    }
+
+    /**
+     * Index where the modules of every repository depend on the modules of the repository with half its position in
+     * the chain (a binary tree rooted in the first repository), so that only part of the chain is related to any
+     * repository.
+     *
+     * @param modulesPerRepo number of modules of every repository
+     */
+    static MavenModuleIndex index(int chainSize, int modulesPerRepo) {
+        List<String> names = repositoryNames(chainSize);
+        Map<String, List<MavenModule>> modulesByRepo = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            List<MavenModule> modules = new ArrayList<>();
+            for (int m = 0; m < modulesPerRepo; m++) {
+                Set<String> dependencies = new LinkedHashSet<>();
+                if (i > 0) {
+                    dependencies.add(MavenModule.toKey("org.kie", names.get((i - 1) / 2) + "-" + m));
+                }
+                modules.add(new MavenModule(names.get(i), "module-" + m, "org.kie", names.get(i) + "-" + m,
+                                            names.get(i) + " " + m, dependencies));
+            }
+            modulesByRepo.put(names.get(i), modules);
+        }
+        return new MavenModuleIndex(modulesByRepo);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of the PR links (ghprbPullLink) of the whole repository chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GitHubLinksBenchmark {
+
+    @Param({"25", "100", "200"})
+    private int chainSize;
+
+    private String[] prLinks;
+
+    @Setup
+    public void setUp() {
+        List<String> names = BenchmarkRepositories.repositoryNames(chainSize);
+        prLinks = new String[names.size()];
+        for (int i = 0; i < prLinks.length; i++) {
+            // mix of the link variants seen in the builds
+            prLinks[i] = "https://github.com/" + RepositoryLists.KIE_ORG_UNIT + "/" + names.get(i) + "/pull/" + (1000 + i) +
+                    (i % 2 == 0 ? "" : "/");
+        }
+    }
+
+    @Benchmark
+    public void parsePRLink(Blackhole blackhole) {
+        for (String prLink : prLinks) {
+            blackhole.consume(GitHubPRSummary.parsePRLink(prLink));
+        }
+    }
+
+    @Benchmark
+    public void extractRepositoryName(Blackhole blackhole) {
+        for (String prLink : prLinks) {
+            blackhole.consume(GitHubUtils.extractRepositoryName(prLink));
+        }
+    }
+}
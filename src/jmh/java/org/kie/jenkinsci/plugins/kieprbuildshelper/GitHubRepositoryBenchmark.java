@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link GitHubRepository#equals(Object)} and {@link GitHubRepository#hashCode()}, as used by the lookups of the
+ * repositories in the chain (lists of the already mirrored/built repositories, maps keyed by the repository). The
+ * looked up instances are equal copies, not the same instances, as when the repositories come from different sources
+ * (repository-list.txt, PR links, GitHub API).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GitHubRepositoryBenchmark {
+
+    @Param({"25", "100", "200"})
+    private int chainSize;
+
+    private List<GitHubRepository> repoList;
+    private Set<GitHubRepository> repoSet;
+    private GitHubRepository[] lookups;
+
+    @Setup
+    public void setUp() {
+        repoList = new ArrayList<>();
+        List<String> names = BenchmarkRepositories.repositoryNames(chainSize);
+        lookups = new GitHubRepository[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            repoList.add(new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, names.get(i)));
+            // forks are looked up as well, those are not found
+            String owner = i % 4 == 0 ? "contributor" : RepositoryLists.KIE_ORG_UNIT;
+            lookups[i] = new GitHubRepository(owner, names.get(i));
+        }
+        repoSet = new HashSet<>(repoList);
+    }
+
+    @Benchmark
+    public void hashCodes(Blackhole blackhole) {
+        for (GitHubRepository repo : lookups) {
+            blackhole.consume(repo.hashCode());
+        }
+    }
+
+    @Benchmark
+    public void listContains(Blackhole blackhole) {
+        for (GitHubRepository repo : lookups) {
+            blackhole.consume(repoList.contains(repo));
+        }
+    }
+
+    @Benchmark
+    public void setContains(Blackhole blackhole) {
+        for (GitHubRepository repo : lookups) {
+            blackhole.consume(repoSet.contains(repo));
+        }
+    }
+
+    @Benchmark
+    public Set<GitHubRepository> buildSet() {
+        return new HashSet<>(repoList);
+    }
+}
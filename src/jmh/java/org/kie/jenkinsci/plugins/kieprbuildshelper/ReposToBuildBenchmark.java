@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resolution of the upstream and downstream repositories to build. The builders are used without the repository
+ * dependency index, i.e. with the hardcoded filter, as when the repositories are not mirrored on the agent yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReposToBuildBenchmark {
+
+    @Param({"25", "100", "200"})
+    private int chainSize;
+
+    private List<Tuple<GitHubRepository, GitBranch>> repos;
+    private GitHubRepository prRepo;
+    private UpstreamReposBuilder upstreamReposBuilder;
+    private DownstreamReposBuilder downstreamReposBuilder;
+
+    @Setup
+    public void setUp() {
+        repos = BenchmarkRepositories.repositories(chainSize);
+        prRepo = BenchmarkRepositories.baseRepository(chainSize);
+        upstreamReposBuilder = new UpstreamReposBuilder("/opt/tools/apache-maven", "", "");
+        downstreamReposBuilder = new DownstreamReposBuilder("/opt/tools/apache-maven", "", "");
+    }
+
+    @Benchmark
+    public List<Tuple<GitHubRepository, GitBranch>> upstreamRepos() {
+        return upstreamReposBuilder.getReposToBuild(prRepo, repos);
+    }
+
+    @Benchmark
+    public List<Tuple<GitHubRepository, GitBranch>> downstreamRepos() {
+        return downstreamReposBuilder.getReposToBuild(prRepo, repos);
+    }
+}
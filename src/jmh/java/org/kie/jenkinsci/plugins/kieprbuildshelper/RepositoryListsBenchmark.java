@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filtering of the repository chain, with and without the dependencies between the repositories known.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RepositoryListsBenchmark {
+
+    @Param({"25", "100", "200"})
+    private int chainSize;
+
+    private List<Tuple<GitHubRepository, GitBranch>> repos;
+    private GitHubRepository baseRepo;
+    private GitHubRepository kieDocsRepo;
+    private MavenModuleIndex index;
+
+    @Setup
+    public void setUp() {
+        repos = BenchmarkRepositories.repositories(chainSize);
+        baseRepo = BenchmarkRepositories.baseRepository(chainSize);
+        kieDocsRepo = new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, "kie-docs");
+        index = BenchmarkRepositories.index(chainSize, 10);
+    }
+
+    @Benchmark
+    public List<Tuple<GitHubRepository, GitBranch>> hardcodedFilter() {
+        return RepositoryLists.filterOutUnnecessaryRepos(repos, baseRepo, null);
+    }
+
+    @Benchmark
+    public List<Tuple<GitHubRepository, GitBranch>> hardcodedFilterForKieDocs() {
+        return RepositoryLists.filterOutUnnecessaryRepos(repos, kieDocsRepo, null);
+    }
+
+    @Benchmark
+    public List<Tuple<GitHubRepository, GitBranch>> indexFilter() {
+        return RepositoryLists.filterOutUnnecessaryRepos(repos, baseRepo, index);
+    }
+
+    @Benchmark
+    public MavenModuleIndex buildIndex() {
+        return BenchmarkRepositories.index(chainSize, 10);
+    }
+}
@@ -15,11 +15,21 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import hudson.EnvVars;
 import hudson.FilePath;
@@ -27,20 +37,97 @@ import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import org.eclipse.jgit.transport.RefSpec;
 import org.kohsuke.github.GitHub;
+import org.kohsuke.stapler.DataBoundSetter;
 
 public abstract class AbstractPRBuilder extends Builder {
 
+    /**
+     * Maximum number of repositories (per build) for which the PRs are being resolved at the same time.
+     */
+    private static final int MAX_PARALLEL_PR_RESOLUTIONS = 8;
+
     private transient PrintStream buildLogger;
 
     private transient GitHubPRSummary pr;
+    private transient MavenModuleIndex repositoryIndex;
     private final MavenBuildConfig mavenBuildConfig;
+    private int cloneParallelism = 1;
+    private boolean reuseRepositories;
+    private boolean trashRepositories;
+    private CloneStrategy cloneStrategy = CloneStrategy.FULL;
+    private GitEngine gitEngine = GitEngine.CLI;
 
     public AbstractPRBuilder(String mavenHome, String mavenOpts, String mavenArgs) {
         this.mavenBuildConfig = new MavenBuildConfig(mavenHome, mavenOpts, mavenArgs);
     }
 
+    /**
+     * @return maximum number of repositories cloned at the same time
+     */
+    public int getCloneParallelism() {
+        // builders configured before the option existed are loaded with 0
+        return Math.max(1, cloneParallelism);
+    }
+
+    @DataBoundSetter
+    public void setCloneParallelism(int cloneParallelism) {
+        this.cloneParallelism = cloneParallelism;
+    }
+
+    /**
+     * @return whether to keep the cloned repositories between builds and just update them to the required refspecs,
+     *         instead of deleting them and cloning from scratch
+     */
+    public boolean isReuseRepositories() {
+        return reuseRepositories;
+    }
+
+    @DataBoundSetter
+    public void setReuseRepositories(boolean reuseRepositories) {
+        this.reuseRepositories = reuseRepositories;
+    }
+
+    /**
+     * @return whether to move the repositories cloned by the previous build to the agent trash instead of deleting
+     *         them before the build, see {@link WorkspaceTrash}
+     */
+    public boolean isTrashRepositories() {
+        return trashRepositories;
+    }
+
+    @DataBoundSetter
+    public void setTrashRepositories(boolean trashRepositories) {
+        this.trashRepositories = trashRepositories;
+    }
+
+    /**
+     * @return how to get the required revisions into the cloned repositories
+     */
+    public CloneStrategy getCloneStrategy() {
+        return cloneStrategy == null ? CloneStrategy.FULL : cloneStrategy;
+    }
+
+    @DataBoundSetter
+    public void setCloneStrategy(CloneStrategy cloneStrategy) {
+        this.cloneStrategy = cloneStrategy;
+    }
+
+    /**
+     * @return git implementation used to clone the repositories
+     */
+    public GitEngine getGitEngine() {
+        return gitEngine == null ? GitEngine.CLI : gitEngine;
+    }
+
+    @DataBoundSetter
+    public void setGitEngine(GitEngine gitEngine) {
+        this.gitEngine = gitEngine;
+    }
+
     public String getMavenHome() {
         return mavenBuildConfig.getMavenHome();
     }
@@ -53,6 +140,78 @@ public abstract class AbstractPRBuilder extends Builder {
         return mavenBuildConfig.getMavenArgs();
     }
 
+    public MavenBuildMode getBuildMode() {
+        return mavenBuildConfig.getBuildMode();
+    }
+
+    @DataBoundSetter
+    public void setBuildMode(MavenBuildMode buildMode) {
+        mavenBuildConfig.setBuildMode(buildMode);
+    }
+
+    public int getBuildParallelism() {
+        return mavenBuildConfig.getBuildParallelism();
+    }
+
+    @DataBoundSetter
+    public void setBuildParallelism(int buildParallelism) {
+        mavenBuildConfig.setBuildParallelism(buildParallelism);
+    }
+
+    public int getBuildMemoryBudget() {
+        return mavenBuildConfig.getBuildMemoryBudget();
+    }
+
+    @DataBoundSetter
+    public void setBuildMemoryBudget(int buildMemoryBudget) {
+        mavenBuildConfig.setBuildMemoryBudget(buildMemoryBudget);
+    }
+
+    public MavenEngine getMavenEngine() {
+        return mavenBuildConfig.getMavenEngine();
+    }
+
+    @DataBoundSetter
+    public void setMavenEngine(MavenEngine mavenEngine) {
+        mavenBuildConfig.setMavenEngine(mavenEngine);
+    }
+
+    public String getMvndHome() {
+        return mavenBuildConfig.getMvndHome();
+    }
+
+    @DataBoundSetter
+    public void setMvndHome(String mvndHome) {
+        mavenBuildConfig.setMvndHome(mvndHome);
+    }
+
+    public String getArtifactsCleanUpPatterns() {
+        return mavenBuildConfig.getArtifactsCleanUpPatterns();
+    }
+
+    @DataBoundSetter
+    public void setArtifactsCleanUpPatterns(String artifactsCleanUpPatterns) {
+        mavenBuildConfig.setArtifactsCleanUpPatterns(artifactsCleanUpPatterns);
+    }
+
+    public MavenOutput getMavenOutput() {
+        return mavenBuildConfig.getMavenOutput();
+    }
+
+    @DataBoundSetter
+    public void setMavenOutput(MavenOutput mavenOutput) {
+        mavenBuildConfig.setMavenOutput(mavenOutput);
+    }
+
+    public boolean isArchiveAllMavenLogs() {
+        return mavenBuildConfig.isArchiveAllMavenLogs();
+    }
+
+    @DataBoundSetter
+    public void setArchiveAllMavenLogs(boolean archiveAllMavenLogs) {
+        mavenBuildConfig.setArchiveAllMavenLogs(archiveAllMavenLogs);
+    }
+
     protected abstract String getDescription();
 
     protected abstract FilePath getBuildDir(FilePath workspace);
@@ -60,24 +219,85 @@ public abstract class AbstractPRBuilder extends Builder {
     protected abstract List<Tuple<GitHubRepository, GitBranch>> getReposToBuild(GitHubRepository prRepo,
                                                                                 List<Tuple<GitHubRepository, GitBranch>> allRepos);
 
+    /**
+     * Selects which of the cloned repositories (and optionally which of their modules) get built. All the repositories
+     * are built in full by default.
+     *
+     * @param pr                the PR being built
+     * @param reposToBuild      cloned repositories with the refspecs they were cloned from, in the build order
+     * @param workspace         workspace of the build
+     * @param reposDir          directory the repositories were cloned into
+     * @param restClient        GitHub REST client
+     * @param repositoriesBuild the build to configure, e.g. see {@link RepositoriesBuild#setModuleSelection(Map)}
+     * @return repositories to build, in the build order
+     */
+    protected List<GitHubRepository> selectReposToBuild(GitHubPRSummary pr, List<Tuple<GitHubRepository, RefSpec>> reposToBuild,
+                                                        FilePath workspace, FilePath reposDir, GitHubRestClient restClient,
+                                                        RepositoriesBuild repositoriesBuild) throws IOException, InterruptedException {
+        return reposToBuild.stream().map(Tuple::_1).collect(Collectors.toList());
+    }
+
+    /**
+     * @return index of all the repositories of the currently running build, or null in case the dependencies between
+     *         the repositories are not known, see {@link RepositoryDependencyIndex}
+     */
+    protected MavenModuleIndex getRepositoryIndex() {
+        return repositoryIndex;
+    }
+
+    protected MavenBuildConfig getMavenBuildConfig() {
+        return mavenBuildConfig;
+    }
+
+    /**
+     * @return build logger of the currently running build
+     */
+    protected PrintStream getBuildLogger() {
+        return buildLogger;
+    }
+
     @Override
     public boolean perform(@SuppressWarnings("rawtypes") AbstractBuild build, Launcher launcher, BuildListener listener) {
+        GitHubRequestScheduler.BuildBudget gitHubBudget = GitHubRequestScheduler.getInstance().createBudget(build.getFullDisplayName());
+        GitHubRequestScheduler.BuildBudget previousBudget = GitHubRequestScheduler.setCurrentBudget(gitHubBudget);
+        FilePath referenceDir = null;
+        List<GitHubRepository> mirroredRepos = new ArrayList<>();
+        BuildPerformanceAction performance = new BuildPerformanceAction(getDescription());
+        build.addAction(performance);
+        RepositoriesBuild repositoriesBuild = null;
         try {
+            performance.startPhase(BuildPerformanceAction.PHASE_INIT);
             buildLogger = listener.getLogger();
             buildLogger.println(getDescription() + " started.");
             EnvVars envVars = build.getEnvironment(launcher.getListener());
-            GitHub github = connectToGitHubWithOAuthToken();
+            File referenceBasedir = ReferenceMirrors.getReferenceBasedir(envVars);
+            referenceDir = new FilePath(launcher.getChannel(), referenceBasedir.getPath());
+            GitHubClientFactory gitHubClientFactory = GitHubClientFactory.getInstance();
+            GitHub github = gitHubClientFactory.getGitHub(getGhOAuthToken());
+            GitHubRestClient restClient = gitHubClientFactory.getRestClient(getGhOAuthToken());
             initFromEnvVars(envVars, github);
+            gitHubBudget.advance();
 
             // clean-up the destination directory to avoid stale content
+            performance.startPhase(BuildPerformanceAction.PHASE_WORKSPACE_CLEAN_UP);
             FilePath reposDir = getBuildDir(build.getWorkspace());
-            buildLogger.println("Cleaning-up directory " + reposDir.getRemote());
-            reposDir.deleteRecursive();
+            if (reuseRepositories) {
+                buildLogger.println("Reusing repositories cloned by previous builds in " + reposDir.getRemote());
+            } else if (trashRepositories) {
+                buildLogger.println("Moving directory " + reposDir.getRemote() + " to the trash");
+                performance.recordTrash(WorkspaceTrash.moveToTrash(reposDir, build.getBuiltOn(),
+                        KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().getTrashMinFreeSpaceBytes(), listener));
+            } else {
+                buildLogger.println("Cleaning-up directory " + reposDir.getRemote());
+                reposDir.deleteRecursive();
+            }
             GitBranch prSourceBranch = pr.getSourceBranch();
             GitBranch prTargetBranch = pr.getTargetBranch();
 
+            performance.startPhase(BuildPerformanceAction.PHASE_PR_LOOKUPS);
             Optional<GitHubPRSummary> bootstrapRepoPR =
-                    GitHubUtils.findOpenPullRequest(RepositoryLists.KIE_BOOTSTRAP_REPO, prSourceBranch, pr.getSourceRepo().getOwner(), github);
+                    GitHubUtils.findOpenPullRequest(RepositoryLists.KIE_BOOTSTRAP_REPO, prSourceBranch, pr.getSourceRepo().getOwner(),
+                                                    github, restClient);
 
             // figure out the location of the repository-list.txt
             // there are generally two cases:
@@ -101,64 +321,164 @@ public abstract class AbstractPRBuilder extends Builder {
             buildLogger.printf("Using repository-list.txt from %s,%s.\n", repositoryListLocation._1(), repositoryListLocation._2());
 
 
-            List<Tuple<GitHubRepository, GitBranch>> allRepos = RepositoryLists.create(repositoryListLocation, prTargetBranch);
+            performance.startPhase(BuildPerformanceAction.PHASE_REPOSITORY_LIST);
+            FilePath bootstrapMirror = GitHubUtils.getReferenceRepository(launcher, referenceBasedir,
+                                                                          RepositoryLists.KIE_BOOTSTRAP_REPO);
+            List<Tuple<GitHubRepository, GitBranch>> allRepos = RepositoryLists.create(repositoryListLocation, prTargetBranch, bootstrapMirror);
+            gitHubBudget.advance();
 
+            repositoryIndex = RepositoryDependencyIndex.getInstance().getIndex(referenceDir, allRepos, buildLogger);
             List<Tuple<GitHubRepository, GitBranch>> filteredRepos = getReposToBuild(pr.getTargetRepo(), allRepos);
-            List<Tuple<GitHubRepository, RefSpec>> reposToBuild = transformToRefSpecs(filteredRepos, github);
+            performance.startPhase(BuildPerformanceAction.PHASE_PR_LOOKUPS);
+            List<Tuple<GitHubRepository, RefSpec>> reposToBuild = transformToRefSpecs(filteredRepos,
+                                                                                      createPRLookup(filteredRepos, github, restClient),
+                                                                                      MAX_PARALLEL_PR_RESOLUTIONS);
+            buildLogger.println(OpenPullRequestIndex.getInstance().getStatistics());
+            buildLogger.println(gitHubClientFactory.getStatistics());
+            buildLogger.println(GitHubRequestScheduler.getInstance().getStatistics());
+            buildLogger.println(gitHubBudget);
             GitHubUtils.logRepositories(reposToBuild, buildLogger);
-            GitHubUtils.cloneRepositories(reposDir, reposToBuild, GitHubUtils.GIT_REFERENCE_BASEDIR, listener);
+            mirroredRepos.add(RepositoryLists.KIE_BOOTSTRAP_REPO);
+            reposToBuild.stream().map(Tuple::_1).filter(repo -> !mirroredRepos.contains(repo)).forEach(mirroredRepos::add);
+            performance.startPhase(BuildPerformanceAction.PHASE_MIRRORS);
+            ReferenceMirrors.getInstance().prepareMirrors(referenceDir, mirroredRepos, listener);
+            // the repositories not being built are mirrored in the background, so that their dependencies are known
+            allRepos.stream().map(Tuple::_1).filter(repo -> !mirroredRepos.contains(repo)).forEach(mirroredRepos::add);
+            performance.startPhase(BuildPerformanceAction.PHASE_CLONE);
+            CloneConfig cloneConfig = new CloneConfig(getCloneParallelism(), reuseRepositories, getCloneStrategy(), getGitEngine());
+            Map<String, CloneRepositoriesCallable.CloneResult> cloneResults =
+                    GitHubUtils.cloneRepositories(reposDir, reposToBuild, referenceBasedir, cloneConfig, listener);
+            performance.recordClones(cloneResults);
             // build the repositories using Maven
-            for (Tuple<GitHubRepository, RefSpec> repoWithRefSpec : reposToBuild) {
-                GitHubRepository repo = repoWithRefSpec._1();
-                MavenProject mavenProject = new MavenProject(new FilePath(reposDir, repo.getName()), mavenBuildConfig.getMavenHome(),
-                                                             mavenBuildConfig.getMavenOpts(), launcher, listener);
-                mavenProject.build(mavenBuildConfig.getMavenArgs(), envVars, buildLogger);
-                mavenProject.cleanUpBuildArtifacts(build.getWorkspace());
+            performance.startPhase(BuildPerformanceAction.PHASE_MAVEN);
+            repositoriesBuild =
+                    new RepositoriesBuild(reposDir, mavenBuildConfig, envVars, launcher, listener);
+            if (mavenBuildConfig.isUseArtifactCache()) {
+                repositoriesBuild.useArtifactCache(cloneResults, KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().getArtifactCacheSizeBytes());
             }
+            List<GitHubRepository> selectedRepos =
+                    selectReposToBuild(pr, reposToBuild, build.getWorkspace(), reposDir, restClient, repositoriesBuild);
+            repositoriesBuild.build(selectedRepos, true);
+            performance.finishPhase();
         } catch (Exception ex) {
+            performance.failPhase();
             buildLogger.println("Unexpected error while executing the " + getDescription() + "! " + ex.getMessage());
             ex.printStackTrace(buildLogger);
             return false;
+        } finally {
+            if (repositoriesBuild != null) {
+                repositoriesBuild.archiveMavenLogs(build);
+            }
+            performance.recordStatistics(gitHubBudget, repositoriesBuild);
+            PluginMetrics.getInstance().recordBuild(performance);
+            GitHubRequestScheduler.setCurrentBudget(previousBudget);
+            if (!mirroredRepos.isEmpty()) {
+                ReferenceMirrors.getInstance().refreshMirrorsAsync(referenceDir, mirroredRepos);
+            }
         }
         buildLogger.println(getDescription() + " finished successfully.");
         return true;
     }
 
-    private List<Tuple<GitHubRepository, RefSpec>> transformToRefSpecs(List<Tuple<GitHubRepository, GitBranch>> repos, GitHub github) {
-        List<Tuple<GitHubRepository, RefSpec>> result = new ArrayList<>();
-        for (Tuple<GitHubRepository, GitBranch> repoWithBranch: repos) {
-            GitHubRepository otherRepo = repoWithBranch._1();
-            Optional<GitHubPRSummary> otherRepoPR = GitHubUtils.findOpenPullRequest(otherRepo,
-                                                                               pr.getSourceBranch(),
-                                                                               pr.getSourceRepo().getOwner(),
-                                                                               github);
-            // in case the other repo has a PR we are looking for, it also needs to be mergeable, if not fail fast
-            otherRepoPR.ifPresent(pr -> {
-                if (!pr.isMergeable()) {
-                    throw new RuntimeException("PR " + pr.getNumber() + " for repo " + pr.getTargetRepo() + " is " +
-                                                       "not automatically mergeable. Please fix the conflicts first!");
+    /**
+     * Creates the function used to find the open PR (with the same source branch as the PR being built) in the specified
+     * repository.
+     */
+    private Function<GitHubRepository, Optional<GitHubPRSummary>> createPRLookup(List<Tuple<GitHubRepository, GitBranch>> repos,
+                                                                                 GitHub github, GitHubRestClient restClient)
+            throws IOException {
+        GitBranch sourceBranch = pr.getSourceBranch();
+        String prAuthor = pr.getSourceRepo().getOwner();
+        if (KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().isSearchPullRequests()) {
+            List<GitHubRepository> reposToSearch = repos.stream().map(Tuple::_1).collect(Collectors.toList());
+            Map<GitHubRepository, PullRequestSearch.Result> foundPRs =
+                    new PullRequestSearch(restClient).findOpenPullRequests(reposToSearch, sourceBranch, prAuthor);
+            buildLogger.println("Found " + foundPRs.size() + " related PRs using GitHub search.");
+            return repo -> Optional.ofNullable(foundPRs.get(repo)).map(result -> {
+                try {
+                    return result.toPRSummary(github);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to get info about PR " + result.getNumber() + " for " + repo, e);
                 }
             });
-            GitBranch baseBranch = repoWithBranch._2();
-            RefSpec refspec = new RefSpec(otherRepoPR
-                                             .map(pr -> "pull/" + pr.getNumber() + "/merge:pr" + pr.getNumber() + "-" + pr.getSourceBranch().getName() + "-merge")
-                                             .orElse(baseBranch.getName() + ":" + baseBranch.getName() + "-pr-build"));
-            result.add(Tuple.of(otherRepo, refspec));
         }
-        return result;
+        return repo -> GitHubUtils.findOpenPullRequest(repo, sourceBranch, prAuthor, github, restClient);
+    }
+
+    /**
+     * Resolves the refspecs for all the specified repositories. The repositories are resolved concurrently (looking up
+     * the PRs and waiting for their mergeable status can take quite some time), but the order of the returned list is
+     * the same as the order of the specified repositories. The first failure (e.g. PR which is not mergeable) is thrown
+     * right away and the remaining resolutions are cancelled.
+     *
+     * @param maxParallel maximum number of repositories resolved at the same time
+     */
+    static List<Tuple<GitHubRepository, RefSpec>> transformToRefSpecs(List<Tuple<GitHubRepository, GitBranch>> repos,
+                                                                     Function<GitHubRepository, Optional<GitHubPRSummary>> prLookup,
+                                                                     int maxParallel) throws InterruptedException {
+        List<Tuple<GitHubRepository, RefSpec>> result = new ArrayList<>();
+        if (repos.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(repos.size(), maxParallel),
+                                                                new NamingThreadFactory(new DaemonThreadFactory(), "KIE PR resolution"));
+        try {
+            CompletionService<Tuple<GitHubRepository, RefSpec>> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<Tuple<GitHubRepository, RefSpec>>> futures = new ArrayList<>();
+            GitHubRequestScheduler.BuildBudget budget = GitHubRequestScheduler.getCurrentBudget();
+            for (Tuple<GitHubRepository, GitBranch> repoWithBranch : repos) {
+                futures.add(completionService.submit(
+                        () -> GitHubRequestScheduler.callWithBudget(budget, () -> transformToRefSpec(repoWithBranch, prLookup))));
+            }
+            // wait for the results in the order of completion, so that we fail fast on the first error
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException("Error while resolving refspecs for repositories " + repos, e.getCause());
+                }
+            }
+            for (Future<Tuple<GitHubRepository, RefSpec>> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        } catch (ExecutionException e) {
+            // can not happen, all the futures are already completed successfully
+            throw new IllegalStateException(e);
+        } finally {
+            // cancels the remaining resolutions in case one of them failed
+            executor.shutdownNow();
+        }
     }
 
-    private GitHub connectToGitHubWithOAuthToken() {
+    private static Tuple<GitHubRepository, RefSpec> transformToRefSpec(Tuple<GitHubRepository, GitBranch> repoWithBranch,
+                                                                Function<GitHubRepository, Optional<GitHubPRSummary>> prLookup) {
+        GitHubRepository otherRepo = repoWithBranch._1();
+        Optional<GitHubPRSummary> otherRepoPR = prLookup.apply(otherRepo);
+        // in case the other repo has a PR we are looking for, it also needs to be mergeable, if not fail fast
+        otherRepoPR.ifPresent(pr -> {
+            if (!pr.isMergeable()) {
+                throw new RuntimeException("PR " + pr.getNumber() + " for repo " + pr.getTargetRepo() + " is " +
+                                                   "not automatically mergeable. Please fix the conflicts first!");
+            }
+        });
+        GitBranch baseBranch = repoWithBranch._2();
+        RefSpec refspec = new RefSpec(otherRepoPR
+                                         .map(pr -> "pull/" + pr.getNumber() + "/merge:pr" + pr.getNumber() + "-" + pr.getSourceBranch().getName() + "-merge")
+                                         .orElse(baseBranch.getName() + ":" + baseBranch.getName() + "-pr-build"));
+        return Tuple.of(otherRepo, refspec);
+    }
+
+    private String getGhOAuthToken() {
         KiePRBuildsHelper.KiePRBuildsHelperDescriptor globalSettings = KiePRBuildsHelper.getKiePRBuildsHelperDescriptor();
         String ghOAuthToken = globalSettings.getGhOAuthToken();
         if (ghOAuthToken == null) {
             throw new IllegalStateException("No GitHub OAuth token found. Please set one on global Jenkins configuration page.");
         }
-        try {
-            return GitHub.connectUsingOAuth(ghOAuthToken);
-        } catch (IOException e) {
-            throw new RuntimeException("Can not connect to GitHub using the configured OAuth token!", e);
-        }
+        return ghOAuthToken;
     }
 
     /**
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds out which modules (of which repositories) need to be built because of a change. Changed files are mapped to
+ * the modules containing them, the affected modules are the changed ones plus all the modules (transitively) depending
+ * on them, across all the repositories in the {@link MavenModuleIndex}.
+ */
+public class AffectedModulesSelector {
+
+    private final MavenModuleIndex index;
+    private final Map<String, Set<MavenModule>> dependents = new HashMap<>();
+
+    public AffectedModulesSelector(MavenModuleIndex index) {
+        this.index = index;
+        for (String repo : index.getRepositories()) {
+            for (MavenModule module : index.getModules(repo)) {
+                for (String dependencyKey : module.getDependencies()) {
+                    dependents.computeIfAbsent(dependencyKey, key -> new LinkedHashSet<>()).add(module);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the changed files to the modules containing them. Files in the directory of an aggregator module (module
+     * with submodules), other than its pom.xml, are ignored as they are not part of any build (e.g. README.md).
+     *
+     * @param repo         repository the files were changed in
+     * @param changedFiles paths of the changed files, relative to the repository root
+     * @return the changed modules
+     */
+    public Set<MavenModule> findChangedModules(String repo, Collection<String> changedFiles) {
+        Set<MavenModule> changedModules = new LinkedHashSet<>();
+        List<MavenModule> modules = index.getModules(repo);
+        for (String file : changedFiles) {
+            MavenModule module = findContainingModule(modules, file);
+            if (module == null) {
+                continue;
+            }
+            String fileInModule = module.getPath().isEmpty() ? file : file.substring(module.getPath().length() + 1);
+            if (fileInModule.equals("pom.xml") || !hasSubmodules(modules, module)) {
+                changedModules.add(module);
+            }
+        }
+        return changedModules;
+    }
+
+    /**
+     * @return the changed modules plus all the modules (transitively) depending on them
+     */
+    public Set<MavenModule> findAffectedModules(Collection<MavenModule> changedModules) {
+        Set<MavenModule> affected = new LinkedHashSet<>(changedModules);
+        Deque<MavenModule> toVisit = new ArrayDeque<>(changedModules);
+        while (!toVisit.isEmpty()) {
+            MavenModule module = toVisit.poll();
+            for (MavenModule dependent : dependents.getOrDefault(module.getKey(), Collections.emptySet())) {
+                if (affected.add(dependent)) {
+                    toVisit.add(dependent);
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Decides how to build each of the repositories, so that all the affected modules get built.
+     *
+     * Modules declared only in profiles are not selected using -pl, Maven fails in case the selected module is not
+     * part of the reactor (the profile is not active). In case the profile is active, the affected ones get built
+     * anyway thanks to -amd, as long as they depend on some of the selected modules. Repositories where only such
+     * modules are affected are built in full.
+     *
+     * @param repos           repositories to decide about, in the build order
+     * @param affectedModules see {@link #findAffectedModules(Collection)}
+     * @return selection for every specified repository, in the same order
+     */
+    public Map<String, Selection> select(List<String> repos, Set<MavenModule> affectedModules) {
+        Map<String, Selection> selections = new LinkedHashMap<>();
+        for (String repo : repos) {
+            List<MavenModule> modules = index.getModules(repo);
+            List<String> affectedPaths = new ArrayList<>();
+            int affectedProfileOnly = 0;
+            for (MavenModule module : modules) {
+                if (!affectedModules.contains(module)) {
+                    continue;
+                }
+                if (module.isProfileOnly()) {
+                    affectedProfileOnly++;
+                } else {
+                    affectedPaths.add(module.getPath());
+                }
+            }
+            Selection selection;
+            if (modules.isEmpty()) {
+                selection = Selection.full("the repository does not contain pom.xml, so its dependencies are not known");
+            } else if (affectedPaths.isEmpty() && affectedProfileOnly == 0) {
+                selection = Selection.skip("none of its " + modules.size() + " modules depends on the changed modules");
+            } else if (affectedPaths.contains("")) {
+                selection = Selection.full("its root module depends on the changed modules");
+            } else if (affectedPaths.isEmpty()) {
+                selection = Selection.full("only its modules declared in profiles (" + affectedProfileOnly +
+                        ") depend on the changed modules, those can not be selected");
+            } else {
+                selection = Selection.partial(affectedPaths, (affectedPaths.size() + affectedProfileOnly) + " of its " +
+                        modules.size() + " modules depend on the changed modules" + (affectedProfileOnly == 0 ? "" :
+                        " (" + affectedProfileOnly + " of them declared in profiles, built by -amd if the profile is active)"));
+            }
+            selections.put(repo, selection);
+        }
+        return selections;
+    }
+
+    /**
+     * @return the deepest module whose directory contains the file, null if there is no such module
+     */
+    private static MavenModule findContainingModule(List<MavenModule> modules, String file) {
+        MavenModule containing = null;
+        for (MavenModule module : modules) {
+            if (isUnder(file, module.getPath()) &&
+                    (containing == null || module.getPath().length() > containing.getPath().length())) {
+                containing = module;
+            }
+        }
+        return containing;
+    }
+
+    private static boolean hasSubmodules(List<MavenModule> modules, MavenModule parent) {
+        for (MavenModule module : modules) {
+            if (module != parent && isUnder(module.getPath(), parent.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnder(String path, String dir) {
+        return dir.isEmpty() || path.startsWith(dir + "/");
+    }
+
+    /**
+     * What to build from a single repository.
+     */
+    public static class Selection {
+        private final boolean skipped;
+        private final List<String> modulePaths;
+        private final String reason;
+
+        private Selection(boolean skipped, List<String> modulePaths, String reason) {
+            this.skipped = skipped;
+            this.modulePaths = modulePaths;
+            this.reason = reason;
+        }
+
+        static Selection full(String reason) {
+            return new Selection(false, null, reason);
+        }
+
+        static Selection skip(String reason) {
+            return new Selection(true, null, reason);
+        }
+
+        static Selection partial(List<String> modulePaths, String reason) {
+            return new Selection(false, modulePaths, reason);
+        }
+
+        /**
+         * @return whether the repository does not need to be built at all
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return whether the whole repository needs to be built
+         */
+        public boolean isFull() {
+            return !skipped && modulePaths == null;
+        }
+
+        /**
+         * @return paths of the modules to build (relative to the repository root), null for full or skipped build
+         */
+        public List<String> getModulePaths() {
+            return modulePaths;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                return "skipped, " + reason;
+            }
+            return (modulePaths == null ? "full build" : "modules " + modulePaths) + ", " + reason;
+        }
+    }
+}
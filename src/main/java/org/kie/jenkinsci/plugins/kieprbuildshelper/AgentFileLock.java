@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a file on the agent, used to serialize the updates of shared agent directories (e.g. reference
+ * mirrors) between concurrent builds, also from different Jenkins instances sharing the agent.
+ */
+public final class AgentFileLock {
+
+    /**
+     * Serializes the locking from within single agent JVM, file locks are held on behalf of the whole JVM.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private AgentFileLock() {
+    }
+
+    /**
+     * @param lockFile file to lock, created if it does not exist
+     * @param wait     whether to wait for the lock, or give up immediately in case it is held by someone else
+     * @return the lock (which needs to be closed), or null in case the lock is held by someone else and we should
+     *         not wait for it
+     */
+    public static Closeable lock(File lockFile, boolean wait) throws IOException, InterruptedException {
+        ReentrantLock jvmLock = JVM_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new ReentrantLock());
+        if (wait) {
+            jvmLock.lockInterruptibly();
+        } else if (!jvmLock.tryLock()) {
+            return null;
+        }
+        FileChannel fileChannel = null;
+        try {
+            fileChannel = new RandomAccessFile(lockFile, "rw").getChannel();
+            FileLock fileLock = wait ? fileChannel.lock() : fileChannel.tryLock();
+            if (fileLock == null) {
+                fileChannel.close();
+                jvmLock.unlock();
+                return null;
+            }
+            FileChannel lockedChannel = fileChannel;
+            return () -> {
+                try {
+                    fileLock.release();
+                    lockedChannel.close();
+                } finally {
+                    jvmLock.unlock();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+            jvmLock.unlock();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,696 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Cache of the Maven artifacts installed by the repository builds, stored on the agent. Entries are keyed by the
+ * repository, its commit SHA, SHAs of the repositories built before it, the Maven arguments and the build environment
+ * (JDK, Maven installation and MAVEN_OPTS, see {@link #computeKey(String, String, List, String, String)}), so the
+ * repository does not need to be built again in case the same revision was already built on the agent, e.g. by another
+ * PR build. On a hit, the artifacts are restored into the local Maven repository using hard links (copied in case the
+ * cache and the local repository are on different file systems).
+ *
+ * The whole version directories of the modules ({@code groupId/artifactId/version}) installed by the build are stored,
+ * not just the files written by it. Maven installer keeps the modification time of the source files, so e.g. the
+ * installed poms have the modification time of the checked-out pom.xml and can not be told apart by it. The version
+ * directory is recognized as installed by the build by the metadata files Maven writes on every install
+ * (maven-metadata-local.xml, _remote.repositories). As the local repository might be shared with the concurrent builds
+ * on the agent, the artifacts in the version directory must have the same content as the build outputs of the module
+ * (its pom.xml and the files in its target directory), otherwise the repository is not cached.
+ *
+ * Entries are stored as copies, so that the local repository and the cache do not share the files. The restored hard
+ * links do share them, in case Maven later overwrites a restored file in place (installing different revision of the
+ * same module), the change is detected (size and modification time are recorded for every file) and the entry is
+ * discarded. Least recently used entries are evicted once the cache grows over the maximum size.
+ *
+ * The cache directory can be configured per agent using the {@link #CACHE_DIR_ENV_VAR} environment variable.
+ */
+public class ArtifactCache {
+
+    public static final String CACHE_DIR_ENV_VAR = "KIE_ARTIFACT_CACHE_DIR";
+
+    public static final File DEFAULT_CACHE_DIR = new File("/home/jenkins/kie-artifact-cache/");
+
+    private static final Pattern LOCAL_REPO_PATTERN = Pattern.compile("(^|\\s)-Dmaven\\.repo\\.local=(\\S+)");
+
+    private static final String LOCK_FILE = "cache.lock";
+    private static final String STATS_FILE = "cache-stats.properties";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * Maven file timestamps might be truncated to seconds (or set a bit before the build start, in case of the clock
+     * differences), files modified shortly before the build started are considered to be installed by the build as well.
+     */
+    private static final long MODIFICATION_TIME_SLACK_MILLIS = 2000;
+
+    private final FilePath cacheDir;
+    private final String localRepository;
+    private final long maxSizeBytes;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param cacheDir        cache directory on the agent
+     * @param localRepository local Maven repository the artifacts get installed into, null for the default one
+     *                        (~/.m2/repository of the agent user)
+     * @param maxSizeBytes    maximum size of the cache, least recently used entries are evicted above it
+     */
+    public ArtifactCache(FilePath cacheDir, String localRepository, long maxSizeBytes) {
+        this.cacheDir = cacheDir;
+        this.localRepository = localRepository;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @param envVars environment variables of the build (or of the node)
+     * @return cache directory configured for the node, or the default {@link #DEFAULT_CACHE_DIR}
+     */
+    public static File getCacheDir(EnvVars envVars) {
+        String cacheDir = envVars.get(CACHE_DIR_ENV_VAR);
+        if (cacheDir == null || cacheDir.trim().isEmpty()) {
+            return DEFAULT_CACHE_DIR;
+        }
+        return new File(cacheDir.trim());
+    }
+
+    /**
+     * @return local Maven repository set using -Dmaven.repo.local in the Maven arguments or MAVEN_OPTS, null if not set
+     *         (the localRepository from settings.xml is not taken into account)
+     */
+    public static String findLocalRepository(String mavenArgs, String mavenOpts) {
+        for (String options : Arrays.asList(mavenArgs, mavenOpts)) {
+            if (options != null) {
+                Matcher matcher = LOCAL_REPO_PATTERN.matcher(options);
+                if (matcher.find()) {
+                    return matcher.group(2);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the cache key of a repository build. SHAs of the repositories built before it are part of the key, as the
+     * build results depend on them as well (e.g. PR in an upstream repository).
+     *
+     * @param repo         name of the repository
+     * @param sha          SHA of the commit being built
+     * @param upstreamShas SHAs of the repositories built before it, in the build order
+     * @param mavenArgs    effective Maven arguments of the build
+     * @param environment  build environment, see {@link #describeEnvironment(String, String, String)}
+     */
+    public static String computeKey(String repo, String sha, List<String> upstreamShas, String mavenArgs, String environment) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((sha + "\n" + String.join(",", upstreamShas) + "\n" + mavenArgs.trim() + "\n" + environment)
+                                  .getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(repo).append('-');
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by the JVM!", e);
+        }
+    }
+
+    /**
+     * @param jdk        JDK the build runs with, see {@link #describeJdk(VirtualChannel, EnvVars)}
+     * @param mavenHome  Maven (or mvnd) installation directory
+     * @param mavenOpts  MAVEN_OPTS of the build
+     * @return description of the build environment, part of the cache key
+     */
+    public static String describeEnvironment(String jdk, String mavenHome, String mavenOpts) {
+        return "jdk=" + jdk + "\nmaven=" + mavenHome + "\nopts=" + (mavenOpts == null ? "" : mavenOpts.trim());
+    }
+
+    /**
+     * @param channel channel of the agent the build runs on
+     * @param envVars environment variables of the build, JAVA_HOME is used by Maven in case it is set
+     * @return JDK used by Maven on the agent, the directory together with the version from its release file
+     */
+    public static String describeJdk(VirtualChannel channel, EnvVars envVars) throws IOException, InterruptedException {
+        return channel.call(new DescribeJdkCallable(envVars.get("JAVA_HOME")));
+    }
+
+    /**
+     * Restores the artifacts of the entry into the local Maven repository.
+     *
+     * @return the result of the lookup, see {@link Lookup#isHit()}
+     */
+    public Lookup restore(String key) throws IOException, InterruptedException {
+        Lookup lookup = cacheDir.act(new RestoreCallable(key, localRepository));
+        (lookup.isHit() ? hits : misses).incrementAndGet();
+        return lookup;
+    }
+
+    /**
+     * Stores the artifacts installed by the build of the repository into the cache.
+     *
+     * @param key     key of the entry
+     * @param repoDir directory of the built repository on the agent, the installed artifacts are compared with the
+     *                build outputs of the modules
+     * @param modules modules of the repository, their versions installed since the lookup get stored
+     * @param lookup  the (missed) lookup done before the build, see {@link #restore(String)}
+     * @return number of bytes stored
+     * @throws IOException in case the artifacts could not be stored, e.g. when a concurrent build installed the modules
+     *                     into the same local repository
+     */
+    public long store(String key, FilePath repoDir, Collection<MavenModule> modules, Lookup lookup)
+            throws IOException, InterruptedException {
+        return cacheDir.act(new StoreCallable(key, localRepository, repoDir.getRemote(), new ArrayList<>(modules),
+                                              lookup.getAgentTimeMillis() - MODIFICATION_TIME_SLACK_MILLIS, maxSizeBytes));
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return statistics of this build, together with the overall statistics of the cache on the agent
+     */
+    public String getStatistics() throws IOException, InterruptedException {
+        CacheStatistics overall = cacheDir.act(new StatisticsCallable());
+        int lookups = getHits() + getMisses();
+        return String.format("Artifact cache %s: %d hits, %d misses in this build (hit rate %s), %d hits in %d lookups overall " +
+                                     "(hit rate %s), %d entries, %s of %s", cacheDir.getRemote(), getHits(), getMisses(),
+                             formatRate(getHits(), lookups), overall.hits, overall.hits + overall.misses,
+                             formatRate(overall.hits, overall.hits + overall.misses), overall.entries,
+                             FormatUtils.formatBytes(overall.sizeBytes),
+                             FormatUtils.formatBytes(maxSizeBytes));
+    }
+
+    private static String formatRate(long hits, long lookups) {
+        return lookups == 0 ? "n/a" : String.format("%.0f%%", 100.0 * hits / lookups);
+    }
+
+    private static File localRepositoryDir(String localRepository) {
+        if (localRepository != null) {
+            return new File(localRepository);
+        }
+        return new File(System.getProperty("user.home"), ".m2/repository");
+    }
+
+    private static List<ManifestEntry> readManifest(File manifest) throws IOException {
+        List<ManifestEntry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3) {
+                    entries.add(new ManifestEntry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void deleteEntry(File cacheDir, String key) throws IOException {
+        Files.deleteIfExists(new File(cacheDir, key + MANIFEST_SUFFIX).toPath());
+        Util.deleteRecursive(new File(cacheDir, key));
+    }
+
+    private static CacheStatistics readStatistics(File cacheDir) throws IOException {
+        CacheStatistics statistics = readCounters(cacheDir);
+        File[] manifests = cacheDir.listFiles((dir, name) -> name.endsWith(MANIFEST_SUFFIX));
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                statistics.entries++;
+                for (ManifestEntry entry : readManifest(manifest)) {
+                    statistics.sizeBytes += entry.size;
+                }
+            }
+        }
+        return statistics;
+    }
+
+    private static CacheStatistics readCounters(File cacheDir) throws IOException {
+        CacheStatistics statistics = new CacheStatistics();
+        File statsFile = new File(cacheDir, STATS_FILE);
+        if (statsFile.isFile()) {
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(statsFile.toPath())) {
+                properties.load(input);
+            }
+            statistics.hits = Long.parseLong(properties.getProperty("hits", "0"));
+            statistics.misses = Long.parseLong(properties.getProperty("misses", "0"));
+        }
+        return statistics;
+    }
+
+    private static void recordLookup(File cacheDir, boolean hit) throws IOException {
+        CacheStatistics statistics = readCounters(cacheDir);
+        Properties properties = new Properties();
+        properties.setProperty("hits", Long.toString(statistics.hits + (hit ? 1 : 0)));
+        properties.setProperty("misses", Long.toString(statistics.misses + (hit ? 0 : 1)));
+        try (OutputStream output = Files.newOutputStream(new File(cacheDir, STATS_FILE).toPath())) {
+            properties.store(output, "KIE artifact cache statistics");
+        }
+    }
+
+    /**
+     * Result of the cache lookup.
+     */
+    public static class Lookup implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean hit;
+        private final long agentTimeMillis;
+        private final int files;
+        private final long bytes;
+
+        private Lookup(boolean hit, long agentTimeMillis, int files, long bytes) {
+            this.hit = hit;
+            this.agentTimeMillis = agentTimeMillis;
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return whether the artifacts were found and restored
+         */
+        public boolean isHit() {
+            return hit;
+        }
+
+        /**
+         * @return time of the lookup, according to the agent clock
+         */
+        public long getAgentTimeMillis() {
+            return agentTimeMillis;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private static class CacheStatistics implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long hits;
+        private long misses;
+        private int entries;
+        private long sizeBytes;
+    }
+
+    /**
+     * Base of the callables working with the cache directory, the modifications are done while holding the cache lock.
+     */
+    private abstract static class CacheCallable<T> extends MasterToSlaveFileCallable<T> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public T invoke(File cacheDir, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+                throw new IOException("Can not create artifact cache directory " + cacheDir);
+            }
+            try (Closeable lock = AgentFileLock.lock(new File(cacheDir, LOCK_FILE), true)) {
+                return invokeLocked(cacheDir);
+            }
+        }
+
+        protected abstract T invokeLocked(File cacheDir) throws IOException, InterruptedException;
+    }
+
+    private static class ManifestEntry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        private ManifestEntry(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class RestoreCallable extends CacheCallable<Lookup> {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String localRepository;
+
+        private RestoreCallable(String key, String localRepository) {
+            this.key = key;
+            this.localRepository = localRepository;
+        }
+
+        @Override
+        protected Lookup invokeLocked(File cacheDir) throws IOException {
+            long now = System.currentTimeMillis();
+            File manifest = new File(cacheDir, key + MANIFEST_SUFFIX);
+            if (!manifest.isFile()) {
+                recordLookup(cacheDir, false);
+                return new Lookup(false, now, 0, 0);
+            }
+            File entryDir = new File(cacheDir, key);
+            List<ManifestEntry> entries = readManifest(manifest);
+            for (ManifestEntry entry : entries) {
+                File cached = new File(entryDir, entry.path);
+                if (cached.length() != entry.size || cached.lastModified() != entry.lastModified) {
+                    // overwritten through a hard link in the local repository, the entry can not be trusted anymore
+                    deleteEntry(cacheDir, key);
+                    recordLookup(cacheDir, false);
+                    return new Lookup(false, now, 0, 0);
+                }
+            }
+            File localRepo = localRepositoryDir(localRepository);
+            long bytes = 0;
+            for (ManifestEntry entry : entries) {
+                Path target = new File(localRepo, entry.path).toPath();
+                Files.createDirectories(target.getParent());
+                restoreFile(new File(entryDir, entry.path).toPath(), target);
+                bytes += entry.size;
+            }
+            // used for the LRU eviction
+            if (!manifest.setLastModified(now)) {
+                throw new IOException("Can not update last access time of " + manifest);
+            }
+            recordLookup(cacheDir, true);
+            return new Lookup(true, now, entries.size(), bytes);
+        }
+
+        /**
+         * Links (or copies) the cached file next to the target first and then renames it over the target, so the
+         * concurrent builds reading the local repository never see the file missing or partially written.
+         */
+        private static void restoreFile(Path cached, Path target) throws IOException {
+            Path temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                try {
+                    Files.createLink(temp, cached);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // e.g. different file systems
+                    Files.copy(cached, temp, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static class StoreCallable extends MasterToSlaveFileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String localRepository;
+        private final String repoDir;
+        private final List<MavenModule> modules;
+        private final long installedSinceMillis;
+        private final long maxSizeBytes;
+
+        private StoreCallable(String key, String localRepository, String repoDir, List<MavenModule> modules,
+                              long installedSinceMillis, long maxSizeBytes) {
+            this.key = key;
+            this.localRepository = localRepository;
+            this.repoDir = repoDir;
+            this.modules = modules;
+            this.installedSinceMillis = installedSinceMillis;
+            this.maxSizeBytes = maxSizeBytes;
+        }
+
+        @Override
+        public Long invoke(File cacheDir, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+                throw new IOException("Can not create artifact cache directory " + cacheDir);
+            }
+            // copy the files outside of the lock, the copy can take a while and the other builds do not see it yet
+            File tempDir = new File(cacheDir, key + ".tmp-" + UUID.randomUUID());
+            File localRepo = localRepositoryDir(localRepository);
+            List<ManifestEntry> entries = new ArrayList<>();
+            try {
+                for (MavenModule module : modules) {
+                    File artifactDir = new File(localRepo, module.getGroupId().replace('.', '/') + "/" + module.getArtifactId());
+                    if (!artifactDir.isDirectory()) {
+                        continue;
+                    }
+                    List<Path> buildOutputs = findBuildOutputs(new File(repoDir, module.getPath()));
+                    for (Path installedFile : findInstalledFiles(artifactDir, installedSinceMillis, buildOutputs)) {
+                        String relativePath = localRepo.toPath().relativize(installedFile).toString().replace(File.separatorChar, '/');
+                        Path cached = new File(tempDir, relativePath).toPath();
+                        Files.createDirectories(cached.getParent());
+                        Files.copy(installedFile, cached, StandardCopyOption.COPY_ATTRIBUTES);
+                        File cachedFile = cached.toFile();
+                        entries.add(new ManifestEntry(relativePath, cachedFile.length(), cachedFile.lastModified()));
+                    }
+                }
+                if (entries.isEmpty()) {
+                    return 0L;
+                }
+                try (Closeable lock = AgentFileLock.lock(new File(cacheDir, LOCK_FILE), true)) {
+                    return storeEntry(cacheDir, tempDir, entries);
+                }
+            } finally {
+                if (tempDir.exists()) {
+                    Util.deleteRecursive(tempDir);
+                }
+            }
+        }
+
+        /**
+         * @return files the build of the module could have installed: its pom.xml (or the one written by the
+         *         flatten-maven-plugin) and the files in its target directory
+         */
+        static List<Path> findBuildOutputs(File moduleDir) {
+            List<Path> outputs = new ArrayList<>();
+            for (String pom : Arrays.asList("pom.xml", ".flattened-pom.xml")) {
+                File pomFile = new File(moduleDir, pom);
+                if (pomFile.isFile()) {
+                    outputs.add(pomFile.toPath());
+                }
+            }
+            File[] targetFiles = new File(moduleDir, "target").listFiles(File::isFile);
+            if (targetFiles != null) {
+                Arrays.stream(targetFiles).map(File::toPath).forEach(outputs::add);
+            }
+            return outputs;
+        }
+
+        /**
+         * The local repository might be shared with the concurrent builds on the agent, the version directories written
+         * since the lookup are stored only in case all their artifacts have the content of the build outputs of the
+         * module. In case a concurrent build installed (or overwrote) any of them, the repository is not cached at all,
+         * so that the entry never contains artifacts of a different revision.
+         *
+         * @param buildOutputs files produced by the build of the module, see {@link #findBuildOutputs(File)}
+         * @return files of the version directories of the module written since the specified time, together with the
+         *         metadata files of the module itself written since then
+         * @throws IOException in case a version directory written since then contains artifacts not produced by the build
+         */
+        static List<Path> findInstalledFiles(File artifactDir, long installedSinceMillis, List<Path> buildOutputs)
+                throws IOException {
+            List<Path> installedFiles = new ArrayList<>();
+            File[] children = artifactDir.listFiles();
+            if (children == null) {
+                return installedFiles;
+            }
+            for (File child : children) {
+                if (child.isFile() && child.lastModified() >= installedSinceMillis) {
+                    installedFiles.add(child.toPath());
+                } else if (child.isDirectory() && isInstalledSince(child, installedSinceMillis)) {
+                    List<Path> versionFiles;
+                    try (Stream<Path> files = Files.walk(child.toPath())) {
+                        versionFiles = files.filter(Files::isRegularFile).collect(Collectors.toList());
+                    }
+                    for (Path versionFile : versionFiles) {
+                        if (!isMetadata(versionFile) && !isBuildOutput(versionFile, buildOutputs)) {
+                            throw new IOException(versionFile + " was not produced by the build, the local repository is " +
+                                                          "shared with a concurrent build of the module");
+                        }
+                    }
+                    installedFiles.addAll(versionFiles);
+                }
+            }
+            return installedFiles;
+        }
+
+        /**
+         * @return whether any file of the version directory was written since the specified time, Maven rewrites the
+         *         metadata files on every install even if the artifacts keep the modification time of their sources
+         */
+        private static boolean isInstalledSince(File versionDir, long installedSinceMillis) {
+            File[] files = versionDir.listFiles(File::isFile);
+            if (files == null) {
+                return false;
+            }
+            return Arrays.stream(files).anyMatch(file -> file.lastModified() >= installedSinceMillis);
+        }
+
+        /**
+         * @return whether the file is written by Maven itself (metadata, checksums), not copied from the build outputs
+         */
+        private static boolean isMetadata(Path file) {
+            String name = file.getFileName().toString();
+            return name.startsWith("maven-metadata") || name.endsWith(".repositories") || name.endsWith(".lastUpdated") ||
+                    name.equals("resolver-status.properties") || name.endsWith(".sha1") || name.endsWith(".md5");
+        }
+
+        private static boolean isBuildOutput(Path installedFile, List<Path> buildOutputs) throws IOException {
+            long size = Files.size(installedFile);
+            for (Path output : buildOutputs) {
+                if (Files.size(output) == size && hasSameContent(installedFile, output)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean hasSameContent(Path first, Path second) throws IOException {
+            try (InputStream firstInput = Files.newInputStream(first);
+                 InputStream secondInput = Files.newInputStream(second)) {
+                byte[] firstBuffer = new byte[8192];
+                byte[] secondBuffer = new byte[8192];
+                int read;
+                while ((read = firstInput.read(firstBuffer)) > 0) {
+                    int offset = 0;
+                    while (offset < read) {
+                        int secondRead = secondInput.read(secondBuffer, offset, read - offset);
+                        if (secondRead < 0) {
+                            return false;
+                        }
+                        offset += secondRead;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (firstBuffer[i] != secondBuffer[i]) {
+                            return false;
+                        }
+                    }
+                }
+                return secondInput.read() < 0;
+            }
+        }
+
+        private long storeEntry(File cacheDir, File tempDir, List<ManifestEntry> entries) throws IOException {
+            // concurrent build of the same revision might have stored it in the meantime
+            deleteEntry(cacheDir, key);
+            Files.move(tempDir.toPath(), new File(cacheDir, key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            long bytes = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(new File(cacheDir, key + MANIFEST_SUFFIX).toPath(), StandardCharsets.UTF_8)) {
+                for (ManifestEntry entry : entries) {
+                    writer.write(entry.path + "\t" + entry.size + "\t" + entry.lastModified + "\n");
+                    bytes += entry.size;
+                }
+            }
+            evictLeastRecentlyUsed(cacheDir);
+            return bytes;
+        }
+
+        private void evictLeastRecentlyUsed(File cacheDir) throws IOException {
+            File[] manifests = cacheDir.listFiles((dir, name) -> name.endsWith(MANIFEST_SUFFIX));
+            if (manifests == null) {
+                return;
+            }
+            long totalSize = 0;
+            List<Long> sizes = new ArrayList<>();
+            Arrays.sort(manifests, Comparator.comparingLong(File::lastModified));
+            for (File manifest : manifests) {
+                long size = 0;
+                for (ManifestEntry entry : readManifest(manifest)) {
+                    size += entry.size;
+                }
+                sizes.add(size);
+                totalSize += size;
+            }
+            for (int i = 0; i < manifests.length && totalSize > maxSizeBytes; i++) {
+                String entryKey = manifests[i].getName().substring(0, manifests[i].getName().length() - MANIFEST_SUFFIX.length());
+                if (!entryKey.equals(key)) {
+                    deleteEntry(cacheDir, entryKey);
+                    totalSize -= sizes.get(i);
+                }
+            }
+        }
+    }
+
+    private static class DescribeJdkCallable extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String javaHome;
+
+        private DescribeJdkCallable(String javaHome) {
+            this.javaHome = javaHome;
+        }
+
+        @Override
+        public String call() throws IOException {
+            if (javaHome == null || javaHome.trim().isEmpty()) {
+                // Maven uses the java from the PATH, most likely the one the agent runs with
+                return System.getProperty("java.home") + " " + System.getProperty("java.version");
+            }
+            File release = new File(javaHome.trim(), "release");
+            if (!release.isFile()) {
+                return javaHome.trim();
+            }
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(release.toPath())) {
+                properties.load(input);
+            }
+            return javaHome.trim() + " " + properties.getProperty("JAVA_VERSION", "unknown");
+        }
+    }
+
+    private static class StatisticsCallable extends CacheCallable<CacheStatistics> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected CacheStatistics invokeLocked(File cacheDir) throws IOException {
+            return readStatistics(cacheDir);
+        }
+    }
+}
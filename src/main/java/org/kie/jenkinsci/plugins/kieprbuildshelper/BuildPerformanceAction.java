@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Time spent in the individual phases of the build, together with the GitHub API, clone and Maven statistics. Shown as
+ * a summary on the build page and available as JSON ({@code <build URL>/kie-performance/api/json}).
+ *
+ * The phases are expected to be executed one after another, starting a phase finishes the previous one. Durations of
+ * a phase executed multiple times are summed up.
+ */
+@ExportedBean
+public class BuildPerformanceAction implements Action {
+
+    public static final String PHASE_INIT = "init";
+    public static final String PHASE_WORKSPACE_CLEAN_UP = "workspaceCleanUp";
+    public static final String PHASE_REPOSITORY_LIST = "repositoryList";
+    public static final String PHASE_PR_LOOKUPS = "prLookups";
+    public static final String PHASE_MIRRORS = "mirrors";
+    public static final String PHASE_CLONE = "clone";
+    public static final String PHASE_MAVEN = "maven";
+
+    public static final String GITHUB_REQUESTS = "gitHubRequests";
+    public static final String GITHUB_NOT_MODIFIED = "gitHubNotModified";
+    public static final String MERGEABLE_POLLS = "mergeablePolls";
+    public static final String MERGEABLE_WAIT_MILLIS = "mergeableWaitMillis";
+    public static final String CLONED_REPOSITORIES = "clonedRepositories";
+    public static final String CLONE_GIT_DIR_GROWTH_BYTES = "cloneGitDirGrowthBytes";
+    public static final String BUILT_REPOSITORIES = "builtRepositories";
+    public static final String ARTIFACTS_CLEAN_UP_MILLIS = "artifactsCleanUpMillis";
+    public static final String ARTIFACTS_CLEAN_UP_BYTES = "artifactsCleanUpBytes";
+    public static final String MAVEN_OUTPUT_LINES = "mavenOutputLines";
+    public static final String MAVEN_OUTPUT_BYTES = "mavenOutputBytes";
+    public static final String MAVEN_CONSOLE_LINES = "mavenConsoleLines";
+    public static final String TRASH_PENDING_DIRECTORIES = "trashPendingDirectories";
+    public static final String TRASH_THROTTLE_MILLIS = "trashThrottleMillis";
+
+    private final String builder;
+    private final Map<String, Long> phaseDurations = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, Long> cloneDurations = new LinkedHashMap<>();
+    private final Map<String, Long> mavenDurations = new LinkedHashMap<>();
+    private boolean failed;
+    private String failedPhase;
+
+    private transient String currentPhase;
+    private transient long currentPhaseStartNanos;
+
+    /**
+     * @param builder description of the builder which executed the build
+     */
+    public BuildPerformanceAction(String builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Starts timing the specified phase, finishing the current one (if any).
+     */
+    public synchronized void startPhase(String phase) {
+        finishPhase();
+        currentPhase = phase;
+        currentPhaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Finishes the current phase (if any).
+     */
+    public synchronized void finishPhase() {
+        if (currentPhase != null) {
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - currentPhaseStartNanos);
+            phaseDurations.merge(currentPhase, durationMillis, Long::sum);
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * Marks the current phase as the one the build failed in and finishes it.
+     */
+    public synchronized void failPhase() {
+        failed = true;
+        failedPhase = currentPhase;
+        finishPhase();
+    }
+
+    public synchronized void setCounter(String counter, long value) {
+        counters.put(counter, value);
+    }
+
+    public synchronized void recordClones(Map<String, CloneRepositoriesCallable.CloneResult> cloneResults) {
+        long bytes = 0;
+        for (Map.Entry<String, CloneRepositoriesCallable.CloneResult> cloneResult : cloneResults.entrySet()) {
+            cloneDurations.put(cloneResult.getKey(), cloneResult.getValue().getDurationMillis());
+            bytes += Math.max(0, cloneResult.getValue().getGitDirGrowthBytes());
+        }
+        counters.merge(CLONED_REPOSITORIES, (long) cloneResults.size(), Long::sum);
+        counters.merge(CLONE_GIT_DIR_GROWTH_BYTES, bytes, Long::sum);
+    }
+
+    public synchronized void recordMavenDurations(Map<String, Long> durations) {
+        mavenDurations.putAll(durations);
+        counters.merge(BUILT_REPOSITORIES, (long) durations.size(), Long::sum);
+    }
+
+    /**
+     * @param trash status of the agent trash after the repositories of the previous build were moved into it, can be null
+     */
+    public void recordTrash(WorkspaceTrash.TrashResult trash) {
+        if (trash != null) {
+            setCounter(TRASH_PENDING_DIRECTORIES, trash.getPendingDirectories());
+            setCounter(TRASH_THROTTLE_MILLIS, trash.getThrottledMillis());
+        }
+    }
+
+    /**
+     * Records the statistics of the finished (or failed) build.
+     *
+     * @param gitHubBudget      GitHub API usage of the build, can be null
+     * @param repositoriesBuild Maven build of the repositories, null if it was not started
+     */
+    public void recordStatistics(GitHubRequestScheduler.BuildBudget gitHubBudget, RepositoriesBuild repositoriesBuild) {
+        if (gitHubBudget != null) {
+            setCounter(GITHUB_REQUESTS, gitHubBudget.getRequests());
+            setCounter(GITHUB_NOT_MODIFIED, gitHubBudget.getNotModified());
+            setCounter(MERGEABLE_POLLS, gitHubBudget.getMergeablePolls());
+            setCounter(MERGEABLE_WAIT_MILLIS, gitHubBudget.getMergeableWaitMillis());
+        }
+        if (repositoriesBuild != null) {
+            recordMavenDurations(repositoriesBuild.getMavenDurations());
+            setCounter(ARTIFACTS_CLEAN_UP_MILLIS, repositoriesBuild.getCleanUpMillis());
+            setCounter(ARTIFACTS_CLEAN_UP_BYTES, repositoriesBuild.getCleanUpBytes());
+            MavenLogPipeline.Statistics mavenOutput = repositoriesBuild.getMavenOutputStatistics();
+            if (mavenOutput != null) {
+                setCounter(MAVEN_OUTPUT_LINES, mavenOutput.getLines());
+                setCounter(MAVEN_OUTPUT_BYTES, mavenOutput.getBytes());
+                setCounter(MAVEN_CONSOLE_LINES, mavenOutput.getConsoleLines());
+            }
+        }
+    }
+
+    @Exported
+    public String getBuilder() {
+        return builder;
+    }
+
+    /**
+     * @return duration (in milliseconds) of the individual phases, in the order they were executed
+     */
+    @Exported
+    public synchronized Map<String, Long> getPhaseDurations() {
+        return new LinkedHashMap<>(phaseDurations);
+    }
+
+    @Exported
+    public synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    /**
+     * @return clone duration (in milliseconds) of the individual repositories
+     */
+    @Exported
+    public synchronized Map<String, Long> getCloneDurations() {
+        return new LinkedHashMap<>(cloneDurations);
+    }
+
+    /**
+     * @return Maven build duration (in milliseconds) of the individual repositories
+     */
+    @Exported
+    public synchronized Map<String, Long> getMavenDurations() {
+        return new LinkedHashMap<>(mavenDurations);
+    }
+
+    @Exported
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return phase the build failed in, or null if it did not fail
+     */
+    @Exported
+    public synchronized String getFailedPhase() {
+        return failedPhase;
+    }
+
+    @Exported
+    public synchronized long getTotalMillis() {
+        return phaseDurations.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public String formatMillis(long millis) {
+        return FormatUtils.formatMillis(millis);
+    }
+
+    public String formatBytes(long bytes) {
+        return FormatUtils.formatBytes(bytes);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        // shown only as a summary on the build page
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "KIE PR build performance";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "kie-performance";
+    }
+}
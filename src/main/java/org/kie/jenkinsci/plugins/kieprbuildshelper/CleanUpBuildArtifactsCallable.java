@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Deletes the big build artifacts (unpacked application servers, GWT caches, etc) not needed after the build of the
+ * repository finished, so that the workspace does not grow too much while building the whole chain.
+ *
+ * The directory tree of the repository is traversed once, in parallel, on the machine the repository is located on.
+ * The directories matching any of the glob patterns are deleted as soon as they are found, without traversing them any
+ * further. The patterns are matched against the directory paths relative to the repository root, a pattern starting
+ * with {@code **}{@code /} matches also the directories right in the root. The .git directory is never traversed.
+ */
+public class CleanUpBuildArtifactsCallable extends MasterToSlaveFileCallable<CleanUpBuildArtifactsCallable.CleanUpResult> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Same directories as were deleted by the original clean-up script.
+     */
+    public static final List<String> DEFAULT_PATTERNS = Collections.unmodifiableList(Arrays.asList(
+            "**/target/**wildfly*Final",
+            "**/target/cargo",
+            "**/gwt-unitCache"));
+
+    private final List<String> patterns;
+
+    /**
+     * @param patterns glob patterns of the directories to delete
+     */
+    public CleanUpBuildArtifactsCallable(List<String> patterns) {
+        this.patterns = new ArrayList<>(patterns);
+    }
+
+    /**
+     * @param patterns glob patterns, one per line. Blank lines are ignored.
+     * @return the patterns, or {@link #DEFAULT_PATTERNS} in case no patterns are specified
+     */
+    public static List<String> parsePatterns(String patterns) {
+        if (patterns == null) {
+            return DEFAULT_PATTERNS;
+        }
+        List<String> parsed = Arrays.stream(patterns.split("\\r?\\n"))
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .collect(Collectors.toList());
+        return parsed.isEmpty() ? DEFAULT_PATTERNS : parsed;
+    }
+
+    @Override
+    public CleanUpResult invoke(File basedir, VirtualChannel channel) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        if (!basedir.isDirectory()) {
+            return new CleanUpResult(0, 0, 0, 0);
+        }
+        Path root = basedir.toPath();
+        List<PathMatcher> matchers = createMatchers(patterns);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Totals totals = pool.invoke(new CleanUpTask(root, root, matchers));
+            return new CleanUpResult(totals.visitedDirectories, totals.deletedDirectories, totals.bytesFreed,
+                                     TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static List<PathMatcher> createMatchers(List<String> patterns) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            if (pattern.startsWith("**/")) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring("**/".length())));
+            }
+        }
+        return matchers;
+    }
+
+    static boolean matches(Path relativePath, List<PathMatcher> matchers) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the matching subdirectories of single directory and forks the traversal of the other ones.
+     */
+    private static class CleanUpTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path dir;
+        private final List<PathMatcher> matchers;
+
+        private CleanUpTask(Path root, Path dir, List<PathMatcher> matchers) {
+            this.root = root;
+            this.dir = dir;
+            this.matchers = matchers;
+        }
+
+        @Override
+        protected Totals compute() {
+            Totals totals = new Totals();
+            totals.visitedDirectories++;
+            List<CleanUpTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    if (!Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) || ".git".equals(child.getFileName().toString())) {
+                        continue;
+                    }
+                    if (matches(root.relativize(child), matchers)) {
+                        totals.bytesFreed += deleteRecursively(child);
+                        totals.deletedDirectories++;
+                    } else {
+                        CleanUpTask subtask = new CleanUpTask(root, child, matchers);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to clean-up build artifacts in " + dir, e);
+            }
+            for (CleanUpTask subtask : subtasks) {
+                totals.add(subtask.join());
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * @return number of bytes freed
+     */
+    private static long deleteRecursively(Path dir) throws IOException {
+        long[] bytes = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                bytes[0] += attrs.size();
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path visitedDir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(visitedDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return bytes[0];
+    }
+
+    private static class Totals {
+        private long visitedDirectories;
+        private long deletedDirectories;
+        private long bytesFreed;
+
+        private void add(Totals other) {
+            visitedDirectories += other.visitedDirectories;
+            deletedDirectories += other.deletedDirectories;
+            bytesFreed += other.bytesFreed;
+        }
+    }
+
+    /**
+     * Result of the clean-up of single repository.
+     */
+    public static class CleanUpResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long visitedDirectories;
+        private final long deletedDirectories;
+        private final long bytesFreed;
+        private final long durationMillis;
+
+        public CleanUpResult(long visitedDirectories, long deletedDirectories, long bytesFreed, long durationMillis) {
+            this.visitedDirectories = visitedDirectories;
+            this.deletedDirectories = deletedDirectories;
+            this.bytesFreed = bytesFreed;
+            this.durationMillis = durationMillis;
+        }
+
+        public long getVisitedDirectories() {
+            return visitedDirectories;
+        }
+
+        public long getDeletedDirectories() {
+            return deletedDirectories;
+        }
+
+        public long getBytesFreed() {
+            return bytesFreed;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "deleted " + deletedDirectories + " directories (" + FormatUtils.formatBytes(bytesFreed) +
+                    ") out of " + visitedDirectories + " traversed in " + FormatUtils.formatMillis(durationMillis);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.Serializable;
+
+/**
+ * Options of the clone phase, see {@link CloneRepositoriesCallable}.
+ */
+public class CloneConfig implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int parallelism;
+    private final boolean incremental;
+    private final CloneStrategy strategy;
+    private final GitEngine engine;
+
+    /**
+     * @param parallelism maximum number of repositories cloned at the same time
+     * @param incremental whether to reuse the repositories cloned by previous builds
+     * @param strategy    how to get the requested refspec into the repository directory
+     * @param engine      git implementation used for the clones
+     */
+    public CloneConfig(int parallelism, boolean incremental, CloneStrategy strategy, GitEngine engine) {
+        this.parallelism = Math.max(1, parallelism);
+        this.incremental = incremental;
+        this.strategy = strategy == null ? CloneStrategy.FULL : strategy;
+        this.engine = engine == null ? GitEngine.CLI : engine;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public CloneStrategy getStrategy() {
+        return strategy;
+    }
+
+    public GitEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    public String toString() {
+        return "strategy=" + strategy + ", engine=" + engine + ", parallelism=" + parallelism + ", incremental=" + incremental;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.MasterToSlaveFileCallable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * Clones the repositories into the subdirectories of the base directory, running directly on the agent.
+ *
+ * Up to {@link CloneConfig#getParallelism()} repositories are cloned at the same time, using the configured
+ * {@link CloneStrategy}. The output of each clone is prefixed with the
+ * repository name, so that the logs from different repositories do not get mixed together. In case any of the clones
+ * fails, the remaining ones are cancelled.
+ *
+ * In the incremental mode, repositories cloned by previous builds are reused. Only the requested refspec is fetched and
+ * the working tree is hard-reset and cleaned, directories of repositories which are not requested anymore get pruned.
+ * The strategy each repository was cloned with is recorded in its .git/config, repositories cloned using different
+ * strategy (e.g. shallow clone when the full one is requested now) are cloned again.
+ * The reused working trees are verified to be clean, otherwise the repositories are cloned again. In both modes the
+ * checked-out HEAD is verified to match the commit the requested ref pointed to on GitHub right before the fetch.
+ */
+public class CloneRepositoriesCallable extends MasterToSlaveFileCallable<Map<String, CloneRepositoriesCallable.CloneResult>> {
+    private static final long serialVersionUID = 1L;
+
+    private static final String CONFIG_SECTION = "kiePrBuildsHelper";
+    private static final String CONFIG_CLONE_STRATEGY = "cloneStrategy";
+
+    private final List<CloneRequest> requests;
+    private final String referenceBasedir;
+    private final CloneConfig config;
+    private final TaskListener listener;
+
+    public CloneRepositoriesCallable(List<Tuple<GitHubRepository, RefSpec>> repositoriesWithRefspec, File referenceBasedir,
+                                     CloneConfig config, TaskListener listener) {
+        this.requests = new ArrayList<>();
+        for (Tuple<GitHubRepository, RefSpec> repoWithRefSpec : repositoriesWithRefspec) {
+            GitHubRepository repo = repoWithRefSpec._1();
+            requests.add(new CloneRequest(repo.getOwner(), repo.getName(), repoWithRefSpec._2().toString()));
+        }
+        this.referenceBasedir = referenceBasedir.getPath();
+        this.config = config;
+        this.listener = listener;
+    }
+
+    /**
+     * @return results of the individual clones, keyed by repository name, in the same order the repositories were
+     *         specified
+     */
+    @Override
+    public Map<String, CloneResult> invoke(File basedir, VirtualChannel channel) throws IOException, InterruptedException {
+        Map<String, CloneResult> results = new LinkedHashMap<>();
+        PrintStream logger = listener.getLogger();
+        if (config.isIncremental()) {
+            pruneUnrequestedRepositories(basedir, logger);
+        }
+        if (requests.isEmpty()) {
+            return results;
+        }
+        long start = System.nanoTime();
+        int threads = Math.min(config.getParallelism(), requests.size());
+        logger.printf("Cloning %d repositories (%d at a time) using %s strategy and %s engine.%n", requests.size(), threads,
+                      config.getStrategy(), config.getEngine());
+        if (config.getEngine() == GitEngine.JGIT && JGitRepositoryFetcher.getEffectiveStrategy(config.getStrategy()) != config.getStrategy()) {
+            logger.printf("%s strategy is not supported by %s engine, falling back to %s strategy (full history of the " +
+                                  "requested revisions is fetched).%n", config.getStrategy(), config.getEngine(),
+                          JGitRepositoryFetcher.getEffectiveStrategy(config.getStrategy()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamingThreadFactory(new DaemonThreadFactory(), "KIE repository clone"));
+        try {
+            CompletionService<CloneResult> completionService = new ExecutorCompletionService<>(executor);
+            List<Future<CloneResult>> futures = new ArrayList<>();
+            for (CloneRequest request : requests) {
+                futures.add(completionService.submit(() -> cloneRepository(basedir, request)));
+            }
+            // wait for the clones in the order of completion, so that we fail fast on the first error
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    logger.println("Cloning failed, cancelling the remaining clones.");
+                    throw new IOException("Error while cloning repositories into " + basedir, e.getCause());
+                }
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                results.put(requests.get(i).name, futures.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            // can not happen, all the futures are already completed successfully
+            throw new IllegalStateException(e);
+        } finally {
+            // interrupts the git processes still running in case one of the clones failed
+            executor.shutdownNow();
+        }
+        long totalBytes = results.values().stream().mapToLong(CloneResult::getGitDirGrowthBytes).sum();
+        logger.printf("Cloned %d repositories in %s using %s strategy and %s engine, .git directories grew by %s.%n", requests.size(),
+                      FormatUtils.formatMillis(elapsedMillis(start)), config.getStrategy(), config.getEngine(),
+                      FormatUtils.formatBytes(totalBytes));
+        return results;
+    }
+
+    private CloneResult cloneRepository(File basedir, CloneRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        File repoDir = new File(basedir, request.name);
+        if (!repoDir.mkdirs() && !repoDir.isDirectory()) {
+            throw new IOException("Can not create directory " + repoDir);
+        }
+        StreamTaskListener repoListener = new StreamTaskListener(
+                new PrefixedOutputStream(listener.getLogger(), "[" + request.name + "] "), StandardCharsets.UTF_8);
+        try {
+            GitClient gitClient = Git.with(repoListener, new EnvVars())
+                    .in(repoDir)
+                    .using(config.getEngine().getClientImplementation())
+                    .getClient();
+            GitHubRepository repo = new GitHubRepository(request.owner, request.name);
+            RefSpec refspec = new RefSpec(request.refspec);
+            CloneStrategy strategy = config.getEngine() == GitEngine.JGIT ?
+                    JGitRepositoryFetcher.getEffectiveStrategy(config.getStrategy()) : config.getStrategy();
+            File gitDir = new File(repoDir, ".git");
+            ObjectId fetched = null;
+            boolean updated = false;
+            long sizeBefore = 0;
+            boolean reuse = config.isIncremental() && gitDir.isDirectory();
+            if (reuse) {
+                CloneStrategy recordedStrategy = readCloneStrategy(repoDir);
+                if (recordedStrategy != strategy) {
+                    repoListener.getLogger().println("Existing repository was cloned using " +
+                                                             (recordedStrategy == null ? "unknown" : recordedStrategy) +
+                                                             " strategy, cloning it again using " + strategy + " strategy.");
+                    reuse = false;
+                }
+            }
+            if (reuse) {
+                try {
+                    sizeBefore = sizeOf(gitDir);
+                    if (config.getEngine() == GitEngine.JGIT) {
+                        fetched = JGitRepositoryFetcher.update(repoDir, refspec, repoListener.getLogger());
+                    } else {
+                        strategy.update(gitClient, repoDir, refspec, repoListener);
+                        fetched = GitHubUtils.readFetchHead(repoDir);
+                    }
+                    GitHubUtils.verifyClean(repoDir);
+                    updated = true;
+                } catch (GitException e) {
+                    repoListener.getLogger().println("Can not update existing repository, cloning it again: " + e.getMessage());
+                }
+            }
+            if (!updated) {
+                Util.deleteContentsRecursive(repoDir);
+                sizeBefore = 0;
+                File referenceDir = new File(referenceBasedir, request.name + ".git");
+                if (config.getEngine() == GitEngine.JGIT) {
+                    fetched = JGitRepositoryFetcher.cloneFresh(repoDir, repo, refspec, referenceDir, strategy, repoListener.getLogger());
+                } else {
+                    strategy.cloneFresh(gitClient, repoDir, repo, refspec, referenceDir, repoListener);
+                    fetched = GitHubUtils.readFetchHead(repoDir);
+                }
+                recordCloneStrategy(repoDir, strategy);
+            }
+            ObjectId head = GitHubUtils.verifyCheckedOut(gitClient, refspec, fetched);
+            long duration = elapsedMillis(start);
+            // objects borrowed from the reference repository are not stored in the clone, so this is roughly what had to
+            // be transferred from GitHub (not exactly, e.g. the packs get unpacked or the working tree files change)
+            long bytes = Math.max(0, sizeOf(gitDir) - sizeBefore);
+            repoListener.getLogger().printf("%s %s in %s using %s strategy and %s engine, .git directory grew by %s.%n",
+                                            updated ? "Updated to" : "Cloned", head.name(), FormatUtils.formatMillis(duration),
+                                            strategy, config.getEngine(), FormatUtils.formatBytes(bytes));
+            return new CloneResult(head.name(), duration, bytes, strategy, updated);
+        } finally {
+            repoListener.close();
+        }
+    }
+
+    /**
+     * Records the strategy the repository was cloned with into its .git/config.
+     */
+    static void recordCloneStrategy(File repoDir, CloneStrategy strategy) throws IOException {
+        Repository repository = new FileRepositoryBuilder().setWorkTree(repoDir).setMustExist(true).build();
+        try {
+            StoredConfig gitConfig = repository.getConfig();
+            gitConfig.setString(CONFIG_SECTION, null, CONFIG_CLONE_STRATEGY, strategy.name());
+            gitConfig.save();
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * @return strategy the repository was cloned with, null if it is not known (e.g. cloned by older version of the
+     *         plugin or the repository is broken)
+     */
+    static CloneStrategy readCloneStrategy(File repoDir) {
+        try {
+            Repository repository = new FileRepositoryBuilder().setWorkTree(repoDir).setMustExist(true).build();
+            try {
+                String strategy = repository.getConfig().getString(CONFIG_SECTION, null, CONFIG_CLONE_STRATEGY);
+                return strategy == null ? null : CloneStrategy.valueOf(strategy);
+            } finally {
+                repository.close();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the directories of repositories which are no longer requested (e.g. they were removed from the chain).
+     */
+    private void pruneUnrequestedRepositories(File basedir, PrintStream logger) throws IOException {
+        File[] existingDirs = basedir.listFiles(File::isDirectory);
+        if (existingDirs == null) {
+            return;
+        }
+        Set<String> requestedNames = new HashSet<>();
+        requests.forEach(request -> requestedNames.add(request.name));
+        for (File existingDir : existingDirs) {
+            if (!requestedNames.contains(existingDir.getName())) {
+                logger.println("Pruning repository directory " + existingDir + ", the repository is not needed anymore.");
+                Util.deleteRecursive(existingDir);
+            }
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static long sizeOf(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Result of cloning (or updating) single repository.
+     */
+    public static class CloneResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String sha;
+        private final long durationMillis;
+        private final long bytes;
+        private final CloneStrategy strategy;
+        private final boolean incremental;
+
+        public CloneResult(String sha, long durationMillis, long bytes, CloneStrategy strategy, boolean incremental) {
+            this.sha = sha;
+            this.durationMillis = durationMillis;
+            this.bytes = bytes;
+            this.strategy = strategy;
+            this.incremental = incremental;
+        }
+
+        /**
+         * @return SHA of the checked-out commit
+         */
+        public String getSha() {
+            return sha;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return growth of the .git directory, roughly the amount of data transferred from GitHub (the objects
+         *         borrowed from the reference repository are not stored in the clone)
+         */
+        public long getGitDirGrowthBytes() {
+            return bytes;
+        }
+
+        public CloneStrategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * @return whether existing repository was updated, instead of cloning it from scratch
+         */
+        public boolean isIncremental() {
+            return incremental;
+        }
+    }
+
+    private static class CloneRequest implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String owner;
+        private final String name;
+        private final String refspec;
+
+        private CloneRequest(String owner, String name, String refspec) {
+            this.owner = owner;
+            this.name = name;
+            this.refspec = refspec;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.util.ArgumentListBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.RefSpec;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+/**
+ * Ways of getting the requested refspec into the repository directory.
+ *
+ * Apart from {@link #FULL}, the strategies do not clone the repository at all. They initialize an empty repository
+ * (using the reference repository as alternate object store, same as {@code git clone --reference} does) and fetch
+ * just the requested refspec, optionally limiting what is downloaded. The git CLI is called directly, as the git
+ * client does not support the fetch options.
+ */
+public enum CloneStrategy {
+
+    FULL("Full clone, then fetch of the requested revision"),
+    SHALLOW("Shallow fetch of the requested revision only (depth 1)", "--depth=1"),
+    BLOBLESS("Blobless partial clone, file contents downloaded only for the checkout (requires git 2.20+)", "--filter=blob:none"),
+    INIT_FETCH("Init and single fetch of the requested revision, without initial clone");
+
+    private final String displayName;
+    private final List<String> fetchOptions;
+
+    CloneStrategy(String displayName, String... fetchOptions) {
+        this.displayName = displayName;
+        this.fetchOptions = Arrays.asList(fetchOptions);
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Clones the repository into empty directory and checkouts the destination part of the refspec.
+     */
+    public void cloneFresh(GitClient gitClient, File repoDir, GitHubRepository ghRepo, RefSpec refspec, File referenceDir,
+                           TaskListener listener) throws IOException, InterruptedException {
+        if (this == FULL) {
+            GitHubUtils.cloneFetchCheckout(gitClient, ghRepo, refspec, referenceDir);
+            return;
+        }
+        gitClient.init();
+        gitClient.setRemoteUrl("origin", ghRepo.getReadOnlyCloneURL());
+        File referenceObjects = new File(referenceDir, "objects");
+        if (referenceObjects.isDirectory()) {
+            FilePath alternates = new FilePath(new File(repoDir, ".git/objects/info/alternates"));
+            alternates.write(referenceObjects.getAbsolutePath() + "\n", StandardCharsets.UTF_8.name());
+        }
+        if (this == BLOBLESS) {
+            // marks the origin as promisor remote, so that the missing blobs are fetched lazily
+            git(repoDir, listener, "config", "remote.origin.promisor", "true");
+            git(repoDir, listener, "config", "remote.origin.partialclonefilter", "blob:none");
+        }
+        fetchCheckout(repoDir, refspec, listener);
+    }
+
+    /**
+     * Updates existing clone created using the same strategy to the refspec, see
+     * {@link GitHubUtils#fetchResetClean(GitClient, RefSpec)}.
+     */
+    public void update(GitClient gitClient, File repoDir, RefSpec refspec, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (this == FULL) {
+            GitHubUtils.fetchResetClean(gitClient, refspec);
+            return;
+        }
+        fetchCheckout(repoDir, refspec, listener);
+        gitClient.clean();
+    }
+
+    private void fetchCheckout(File repoDir, RefSpec refspec, TaskListener listener) throws IOException, InterruptedException {
+        // fetch into remote tracking ref, the destination branch may be checked-out and git refuses to fetch into it
+        String trackingRef = Constants.R_REMOTES + "origin/" + refspec.getDestination();
+        ArgumentListBuilder fetch = new ArgumentListBuilder("fetch", "--no-tags");
+        fetch.add(fetchOptions);
+        fetch.add("origin", "+" + refspec.getSource() + ":" + trackingRef);
+        git(repoDir, listener, fetch.toCommandArray());
+        git(repoDir, listener, "checkout", "-f", "-B", refspec.getDestination(), trackingRef);
+    }
+
+    private static void git(File repoDir, TaskListener listener, String... args) throws IOException, InterruptedException {
+        ArgumentListBuilder command = new ArgumentListBuilder("git").add(args);
+        int exitCode = new Launcher.LocalLauncher(listener).launch()
+                .cmds(command)
+                .pwd(repoDir)
+                .stdout(listener)
+                .join();
+        if (exitCode != 0) {
+            throw new GitException("Command '" + command + "' returned status code " + exitCode);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import hudson.Extension;
 import hudson.FilePath;
@@ -12,7 +19,9 @@ import hudson.model.BuildListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import net.sf.json.JSONObject;
+import org.eclipse.jgit.transport.RefSpec;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /**
@@ -36,14 +45,31 @@ import org.kohsuke.stapler.StaplerRequest;
  * - collects info about the current repository and branch to test
  * - clones all needed downstream repositories
  * - builds gathered downstream repositories using Maven (full build with tests enabled)
+ *
+ * With the change-aware build enabled, only the modules affected by the PR are built (see
+ * {@link #selectReposToBuild(GitHubPRSummary, List, FilePath, FilePath, GitHubRestClient, RepositoriesBuild)}).
  */
 public class DownstreamReposBuilder extends AbstractPRBuilder {
 
+    private boolean changeAwareBuild;
+
     @DataBoundConstructor
     public DownstreamReposBuilder(String mavenHome, String mavenOpts, String mavenArgs) {
         super(mavenHome, mavenOpts, mavenArgs);
     }
 
+    /**
+     * @return whether to build only the downstream modules affected by the PR, instead of the whole downstream repositories
+     */
+    public boolean isChangeAwareBuild() {
+        return changeAwareBuild;
+    }
+
+    @DataBoundSetter
+    public void setChangeAwareBuild(boolean changeAwareBuild) {
+        this.changeAwareBuild = changeAwareBuild;
+    }
+
     @Override
     protected String getDescription() {
         return "Downstream repositories builder for PR builds";
@@ -65,7 +91,7 @@ public class DownstreamReposBuilder extends AbstractPRBuilder {
     protected List<Tuple<GitHubRepository, GitBranch>> getReposToBuild(GitHubRepository prRepo, List<Tuple<GitHubRepository, GitBranch>> allRepos) {
         List<Tuple<GitHubRepository, GitBranch>> downstreamRepos = new ArrayList<>();
         boolean prRepoFound = false;
-        for (Tuple<GitHubRepository, GitBranch> repoWithBranch : RepositoryLists.filterOutUnnecessaryRepos(allRepos, prRepo)) {
+        for (Tuple<GitHubRepository, GitBranch> repoWithBranch : RepositoryLists.filterOutUnnecessaryRepos(allRepos, prRepo, getRepositoryIndex())) {
             GitHubRepository repo = repoWithBranch._1();
             if (prRepoFound) {
                 downstreamRepos.add(repoWithBranch);
@@ -77,6 +103,72 @@ public class DownstreamReposBuilder extends AbstractPRBuilder {
         return downstreamRepos;
     }
 
+    /**
+     * In the change-aware mode, maps the files changed by the PR to the modules of the PR repository and builds only the
+     * downstream modules depending on them (-pl ... -amd). Downstream repositories not depending on any of the changed
+     * modules are skipped. The PR repository is expected to be checked out in the workspace root (by the PR job itself),
+     * in case it is not, all the repositories are built in full.
+     */
+    @Override
+    protected List<GitHubRepository> selectReposToBuild(GitHubPRSummary pr, List<Tuple<GitHubRepository, RefSpec>> reposToBuild,
+                                                        FilePath workspace, FilePath reposDir, GitHubRestClient restClient,
+                                                        RepositoriesBuild repositoriesBuild) throws IOException, InterruptedException {
+        List<GitHubRepository> repos = super.selectReposToBuild(pr, reposToBuild, workspace, reposDir, restClient, repositoriesBuild);
+        if (!changeAwareBuild || repos.isEmpty()) {
+            return repos;
+        }
+        PrintStream buildLogger = getBuildLogger();
+        String prRepoName = pr.getTargetRepo().getName();
+        List<MavenModule> prRepoModules = MavenModuleIndex.scanRepository(workspace, prRepoName);
+        if (prRepoModules.isEmpty()) {
+            buildLogger.println("No pom.xml of the PR repository " + prRepoName + " found in the workspace " + workspace.getRemote() +
+                                        ", building all the downstream repositories in full.");
+            return repos;
+        }
+        Map<String, List<MavenModule>> modulesByRepo = new LinkedHashMap<>();
+        modulesByRepo.put(prRepoName, prRepoModules);
+        MavenModuleIndex downstreamIndex = MavenModuleIndex.scan(reposDir, repos);
+        repos.forEach(repo -> modulesByRepo.put(repo.getName(), downstreamIndex.getModules(repo.getName())));
+        MavenModuleIndex index = new MavenModuleIndex(modulesByRepo);
+        AffectedModulesSelector selector = new AffectedModulesSelector(index);
+
+        Set<String> changedFiles = GitHubUtils.getChangedFiles(restClient, pr.getTargetRepo(), pr.getNumber());
+        Set<MavenModule> changedModules = new LinkedHashSet<>(selector.findChangedModules(prRepoName, changedFiles));
+        buildLogger.println("PR " + pr.getNumber() + " changes " + changedFiles.size() + " files in modules " +
+                                    changedModules.stream().map(MavenModule::getKey).collect(Collectors.toList()));
+        // the related PRs in the downstream repositories are not inspected, they are built in full
+        Set<String> reposWithPR = new LinkedHashSet<>();
+        for (Tuple<GitHubRepository, RefSpec> repoWithRefSpec : reposToBuild) {
+            if (repoWithRefSpec._2().getSource().startsWith("pull/")) {
+                reposWithPR.add(repoWithRefSpec._1().getName());
+                changedModules.addAll(index.getModules(repoWithRefSpec._1().getName()));
+            }
+        }
+        Set<MavenModule> affectedModules = selector.findAffectedModules(changedModules);
+        Map<String, AffectedModulesSelector.Selection> selections =
+                selector.select(repos.stream().map(GitHubRepository::getName).collect(Collectors.toList()), affectedModules);
+
+        List<GitHubRepository> selectedRepos = new ArrayList<>();
+        Map<String, List<String>> modulePaths = new LinkedHashMap<>();
+        for (GitHubRepository repo : repos) {
+            AffectedModulesSelector.Selection selection = selections.get(repo.getName());
+            if (reposWithPR.contains(repo.getName())) {
+                buildLogger.println("Repository " + repo.getName() + ": full build, the repository has related PR.");
+                selectedRepos.add(repo);
+                continue;
+            }
+            buildLogger.println("Repository " + repo.getName() + ": " + selection + ".");
+            if (!selection.isSkipped()) {
+                selectedRepos.add(repo);
+            }
+            if (selection.getModulePaths() != null) {
+                modulePaths.put(repo.getName(), selection.getModulePaths());
+            }
+        }
+        repositoriesBuild.setModuleSelection(modulePaths);
+        return selectedRepos;
+    }
+
     @Override
     public DownstreamReposBuilder.Descriptor getDescriptor() {
         return (DownstreamReposBuilder.Descriptor) super.getDescriptor();
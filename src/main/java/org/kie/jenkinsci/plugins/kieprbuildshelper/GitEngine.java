@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+/**
+ * Git implementation used to clone the repositories.
+ */
+public enum GitEngine {
+
+    CLI("git", "Command line git (new process for every git command)"),
+    JGIT("jgit", "JGit running inside the agent JVM (single fetch per repository, shared object caches)");
+
+    private final String clientImplementation;
+    private final String displayName;
+
+    GitEngine(String clientImplementation, String displayName) {
+        this.clientImplementation = clientImplementation;
+        this.displayName = displayName;
+    }
+
+    /**
+     * @return name of the git client implementation, see {@link org.jenkinsci.plugins.gitclient.Git#using(String)}
+     */
+    public String getClientImplementation() {
+        return clientImplementation;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
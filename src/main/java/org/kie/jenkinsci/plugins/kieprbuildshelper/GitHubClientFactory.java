@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+import com.squareup.okhttp.Response;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.HttpConnector;
+
+/**
+ * Controller-wide factory for the GitHub clients. The clients are shared by all the builds, until the OAuth token in the
+ * global configuration changes.
+ *
+ * All the requests go through single HTTP client with keep-alive connection pool and on-disk HTTP response cache.
+ * Cached responses are always revalidated, so GitHub just confirms they are still up-to-date with 304 responses, which
+ * do not count against the rate limit. Every request is throttled by the {@link GitHubRequestScheduler}.
+ */
+public class GitHubClientFactory {
+
+    /**
+     * System property overriding the GitHub API URL, e.g. for GitHub Enterprise (https://&lt;host&gt;/api/v3).
+     */
+    public static final String API_URL_PROPERTY = GitHubClientFactory.class.getName() + ".apiUrl";
+    public static final String DEFAULT_API_URL = "https://api.github.com";
+
+    private static final long CACHE_SIZE_BYTES = 50L * 1024 * 1024;
+    private static final int MAX_IDLE_CONNECTIONS = 20;
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final GitHubClientFactory INSTANCE = new GitHubClientFactory();
+
+    public static GitHubClientFactory getInstance() {
+        return INSTANCE;
+    }
+
+    private String oauthToken;
+    private GitHub github;
+    private GitHubRestClient restClient;
+    private OkHttpClient httpClient;
+    private OkUrlFactory urlFactory;
+    private Cache cache;
+
+    /**
+     * @param oauthToken GitHub OAuth token used to authenticate the requests
+     * @return GitHub client, shared with other builds using the same token
+     */
+    public synchronized GitHub getGitHub(String oauthToken) throws IOException {
+        init(oauthToken);
+        return github;
+    }
+
+    /**
+     * @param oauthToken GitHub OAuth token used to authenticate the requests
+     * @return GitHub REST client, shared with other builds using the same token
+     */
+    public synchronized GitHubRestClient getRestClient(String oauthToken) throws IOException {
+        init(oauthToken);
+        return restClient;
+    }
+
+    public synchronized String getStatistics() {
+        if (httpClient == null) {
+            return "GitHub client: not initialized";
+        }
+        ConnectionPool pool = httpClient.getConnectionPool();
+        return String.format("GitHub client: connections=%d (idle %d), cache requests=%d, cache hits=%d, network requests=%d, cache size=%d kB",
+                             pool.getConnectionCount(), pool.getIdleConnectionCount(), cache.getRequestCount(),
+                             cache.getHitCount(), cache.getNetworkCount(), cache.getSize() / 1024);
+    }
+
+    private void init(String oauthToken) throws IOException {
+        if (github != null && oauthToken.equals(this.oauthToken)) {
+            return;
+        }
+        if (httpClient == null) {
+            cache = new Cache(new File(Jenkins.getInstance().getRootDir(), "kie-pr-builds-helper/github-cache"), CACHE_SIZE_BYTES);
+            httpClient = new OkHttpClient();
+            httpClient.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+            httpClient.setCache(cache);
+            httpClient.networkInterceptors().add(chain -> {
+                Response response = chain.proceed(chain.request());
+                recordRateLimit(response);
+                return response;
+            });
+            urlFactory = new OkUrlFactory(httpClient);
+        }
+        HttpConnector connector = url -> {
+            try {
+                GitHubRequestScheduler.getInstance().acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for permission to send GitHub request " + url);
+            }
+            HttpURLConnection connection = urlFactory.open(url);
+            // GitHub allows caching the responses for 60 seconds, but e.g. PR mergeable status changes much faster,
+            // so always revalidate the cached responses (which is for free as far as the rate limit is concerned)
+            connection.setRequestProperty("Cache-Control", "max-age=0");
+            return connection;
+        };
+        String apiUrl = System.getProperty(API_URL_PROPERTY, DEFAULT_API_URL);
+        github = new GitHubBuilder()
+                .withEndpoint(apiUrl)
+                .withOAuthToken(oauthToken)
+                .withConnector(connector)
+                .build();
+        restClient = new GitHubRestClient(apiUrl, oauthToken, connector);
+        this.oauthToken = oauthToken;
+    }
+
+    private static void recordRateLimit(Response response) {
+        String remaining = response.header("X-RateLimit-Remaining");
+        String reset = response.header("X-RateLimit-Reset");
+        String resource = response.header("X-RateLimit-Resource");
+        // search and GraphQL APIs have their own rate limits, track just the core one
+        if (remaining != null && reset != null && (resource == null || "core".equals(resource))) {
+            try {
+                GitHubRequestScheduler.getInstance().recordResponse(Integer.parseInt(remaining), Long.parseLong(reset),
+                                                                    response.code() == HttpURLConnection.HTTP_NOT_MODIFIED);
+            } catch (NumberFormatException e) {
+                // ignore, GitHub did not return valid rate limit info
+            }
+        }
+    }
+}
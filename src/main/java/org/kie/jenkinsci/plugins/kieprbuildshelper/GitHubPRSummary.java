@@ -15,24 +15,27 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
-import com.evanlennick.retry4j.CallExecutor;
-import com.evanlennick.retry4j.CallResults;
-import com.evanlennick.retry4j.config.RetryConfig;
-import com.evanlennick.retry4j.config.RetryConfigBuilder;
-import com.evanlennick.retry4j.exception.RetriesExhaustedException;
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GitHub;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.time.temporal.ChronoUnit;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class GitHubPRSummary {
 
     private static final Logger logger = LoggerFactory.getLogger(GitHubPRSummary.class);
 
+    /**
+     * Maximum time to wait for the mergeable status. The poller gives up after
+     * {@link MergeableStatusPoller#MAX_WAIT_MILLIS} on its own, the extra minute covers the last poll, so the build never
+     * hangs in case the polling gets stuck.
+     */
+    static final long MERGEABLE_STATUS_TIMEOUT_MILLIS = MergeableStatusPoller.MAX_WAIT_MILLIS + TimeUnit.MINUTES.toMillis(1);
+
     private final int number;
     private final GitHubRepository targetRepo;
     private final GitBranch targetBranch;
@@ -87,15 +90,11 @@ public class GitHubPRSummary {
      * @return summary about the GitHub PR
      */
     public static GitHubPRSummary fromPRLink(String prLink, GitHub github) throws IOException {
-        String str = removeGithubDotCom(prLink);
-        String[] parts = str.split("/");
-        String targetRepoOwner = parts[0];
-        String targetRepoName = parts[1];
-        // parts[2] == "pull", not needed
-        int number = Integer.parseInt(parts[3]);
+        Tuple<GitHubRepository, Integer> targetRepoWithNumber = parsePRLink(prLink);
+        GitHubRepository targetRepo = targetRepoWithNumber._1();
         GHPullRequest pr;
         try {
-            pr = github.getRepository(targetRepoOwner + "/" + targetRepoName).getPullRequest(number);
+            pr = github.getRepository(targetRepo.getOwner() + "/" + targetRepo.getName()).getPullRequest(targetRepoWithNumber._2());
             return GitHubPRSummary.fromGHPullRequest(pr, github);
         } catch (IOException e) {
             throw new RuntimeException("Error getting info about PR " + prLink, e);
@@ -117,41 +116,55 @@ public class GitHubPRSummary {
     }
 
     private static boolean getMergeableStatus(final GHPullRequest originPR, final GitHubRepository repo, final int prNumber, final GitHub github) {
+        MergeableStatusPoller poller = MergeableStatusPoller.getInstance();
+        Boolean cached = poller.getCachedStatus(originPR, repo);
+        if (cached != null) {
+            return cached;
+        }
         // try the original PR object first, in case it was already populated with data
         try {
             Boolean mergeable = originPR.getMergeable();
             if (mergeable != null) {
+                poller.cacheStatus(originPR, repo, mergeable);
                 return mergeable;
             }
         } catch (IOException e) {
-            // ignore and try again with the below retry config
+            // ignore and let the poller try again
         }
-        Callable<Boolean> isMergeableCallable = () -> {
-            logger.debug("Trying to get mergeable status for PR #{}, repo {}", prNumber, repo);
-            // this is a workaround for incomplete json message received by github api (in some cases). The mergeable
-            // status is sometimes 'null' and subsequent calls to pr.getMergeable() won't fetch the updated content
-            GHPullRequest pr = github.getRepository(repo.getFullName()).getPullRequest(prNumber);
-            Boolean isMergeable = pr.getMergeable();
-            if (isMergeable == null) {
-                throw new IOException("Can not get 'mergeable' status for PR " + pr);
-            }
-            return isMergeable;
-        };
-        RetryConfig retryConfig = new RetryConfigBuilder()
-                .retryOnSpecificExceptions(IOException.class)
-                .withMaxNumberOfTries(5)
-                .withDelayBetweenTries(3, ChronoUnit.SECONDS)
-                .withExponentialBackoff()
-                .build();
+        long waitStart = System.nanoTime();
+        logger.debug("Waiting up to {} ms for mergeable status for PR #{}, repo {}", MERGEABLE_STATUS_TIMEOUT_MILLIS,
+                     prNumber, repo);
         try {
-            CallResults<Boolean> callResult = new CallExecutor(retryConfig).execute(isMergeableCallable);
-            return  callResult.getResult();
-        } catch (RetriesExhaustedException ree) {
-            //the call exhausted all tries without succeeding
-            throw new RuntimeException("Failed to get mergeable status for PR #" + prNumber + ", repo " + repo, ree);
+            return poller.getMergeableStatus(originPR, repo, github).get(MERGEABLE_STATUS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Mergeable status for PR #{}, repo {} not available in {} ms", prNumber, repo,
+                        MERGEABLE_STATUS_TIMEOUT_MILLIS);
+            throw new RuntimeException("Timed out after " + MERGEABLE_STATUS_TIMEOUT_MILLIS + " ms while waiting for " +
+                                               "mergeable status for PR #" + prNumber + ", repo " + repo, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for mergeable status for PR #" + prNumber + ", repo " + repo, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to get mergeable status for PR #" + prNumber + ", repo " + repo, e.getCause());
+        } finally {
+            GitHubRequestScheduler.BuildBudget budget = GitHubRequestScheduler.getCurrentBudget();
+            if (budget != null) {
+                budget.recordMergeableWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart));
+            }
         }
     }
 
+    /**
+     * @param prLink link to the PR, e.g. https://github.com/kiegroup/drools/pull/1234
+     * @return target repository of the PR and the PR number
+     */
+    static Tuple<GitHubRepository, Integer> parsePRLink(String prLink) {
+        String str = removeGithubDotCom(prLink);
+        String[] parts = str.split("/");
+        // parts[2] == "pull", not needed
+        return Tuple.of(new GitHubRepository(parts[0], parts[1]), Integer.parseInt(parts[3]));
+    }
+
     /**
      * Removes the 'github.com/' prefix from the specified the PR link.
      *
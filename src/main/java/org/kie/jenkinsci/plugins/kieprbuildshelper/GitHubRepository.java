@@ -15,7 +15,18 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.util.Locale;
+
 public class GitHubRepository {
+
+    /**
+     * System property overriding the base URL the repositories are cloned from (e.g. to clone from local bare
+     * repositories, file:///data/repos/&lt;owner&gt;/&lt;repo&gt;.git). Needs to be set on the agents as well, as the
+     * repositories are cloned there.
+     */
+    public static final String CLONE_URL_PROPERTY = GitHubRepository.class.getName() + ".cloneUrl";
+    public static final String DEFAULT_CLONE_URL = "git://github.com";
+
     private final String owner;
     private final String name;
 
@@ -64,7 +75,7 @@ public class GitHubRepository {
     }
 
     public String getReadOnlyCloneURL() {
-        return "git://github.com/" + owner + "/" + name + ".git";
+        return System.getProperty(CLONE_URL_PROPERTY, DEFAULT_CLONE_URL) + "/" + owner + "/" + name + ".git";
     }
 
     @Override
@@ -89,8 +100,9 @@ public class GitHubRepository {
 
     @Override
     public int hashCode() {
-        int result = owner != null ? owner.hashCode() : 0;
-        result = 31 * result + (name != null ? name.hashCode() : 0);
+        // needs to be consistent with equals(), which ignores the case
+        int result = owner != null ? owner.toLowerCase(Locale.ENGLISH).hashCode() : 0;
+        result = 31 * result + (name != null ? name.toLowerCase(Locale.ENGLISH).hashCode() : 0);
         return result;
     }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controller-wide scheduler which every GitHub request made by the plugin has to go through.
+ *
+ * Bursts of requests (e.g. lots of PR builds triggered at once) are smoothed using a token bucket. The refill rate
+ * is derived from the remaining rate limit budget reported by GitHub in the response headers, so that the budget is
+ * spread until the rate limit gets reset. When there are more requests waiting, the ones from builds which are further
+ * along are served first.
+ *
+ * Once the remaining budget drops below {@link #RESERVED_BUDGET}, the requests are throttled to one per the time left
+ * until the rate limit gets reset. No request waits longer than {@link #DEFAULT_MAX_WAIT_MILLIS}, it fails instead of
+ * blocking the build until the reset.
+ *
+ * Requests are attributed to the {@link BuildBudget} of the build which is currently executing in the calling thread,
+ * see {@link #callWithBudget(BuildBudget, Callable)}.
+ */
+public class GitHubRequestScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(GitHubRequestScheduler.class);
+
+    /**
+     * Maximum time single request waits for its turn.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+    static final int BURST_CAPACITY = 20;
+    /**
+     * Part of the rate limit budget not used for smoothing, so that the requests already in progress can finish.
+     */
+    static final int RESERVED_BUDGET = 50;
+    private static final int MAX_RECENT_BUDGETS = 100;
+
+    private static final GitHubRequestScheduler INSTANCE = new GitHubRequestScheduler(System::currentTimeMillis, DEFAULT_MAX_WAIT_MILLIS);
+
+    public static GitHubRequestScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private static final ThreadLocal<BuildBudget> CURRENT_BUDGET = new ThreadLocal<>();
+
+    private final LongSupplier clock;
+    private final long maxWaitMillis;
+    private final Object lock = new Object();
+    private final AtomicLong waiterSequence = new AtomicLong();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparingInt((Waiter waiter) -> -waiter.priority).thenComparingLong(waiter -> waiter.sequence));
+    private final Deque<BuildBudget> recentBudgets = new ArrayDeque<>();
+
+    private double tokens = BURST_CAPACITY;
+    private long lastRefill;
+    private int rateLimitRemaining = -1;
+    private long rateLimitResetMillis;
+    private boolean throttled;
+
+    GitHubRequestScheduler(LongSupplier clock, long maxWaitMillis) {
+        this.clock = clock;
+        this.maxWaitMillis = maxWaitMillis;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Executes the callable with the specified budget attached to the current thread, so that all the GitHub requests
+     * made by the callable are attributed to it.
+     */
+    public static <T> T callWithBudget(BuildBudget budget, Callable<T> callable) throws Exception {
+        BuildBudget previous = setCurrentBudget(budget);
+        try {
+            return callable.call();
+        } finally {
+            setCurrentBudget(previous);
+        }
+    }
+
+    /**
+     * Attaches the budget to the current thread.
+     *
+     * @param budget budget to attach, null to detach the current one
+     * @return budget attached to the thread before
+     */
+    public static BuildBudget setCurrentBudget(BuildBudget budget) {
+        BuildBudget previous = CURRENT_BUDGET.get();
+        if (budget == null) {
+            CURRENT_BUDGET.remove();
+        } else {
+            CURRENT_BUDGET.set(budget);
+        }
+        return previous;
+    }
+
+    /**
+     * @return budget attached to the current thread, or null if there is none
+     */
+    public static BuildBudget getCurrentBudget() {
+        return CURRENT_BUDGET.get();
+    }
+
+    /**
+     * Blocks until the next request can be sent to GitHub.
+     *
+     * @throws IOException in case the request would have to wait longer than the maximum wait time, e.g. because the
+     *                     rate limit is nearly exhausted
+     */
+    public void acquire() throws IOException, InterruptedException {
+        BuildBudget budget = CURRENT_BUDGET.get();
+        Waiter waiter = new Waiter(budget == null ? 0 : budget.getProgress(), waiterSequence.incrementAndGet());
+        synchronized (lock) {
+            waiters.add(waiter);
+            long deadline = clock.getAsLong() + maxWaitMillis;
+            try {
+                while (true) {
+                    refill();
+                    boolean first = waiters.peek() == waiter;
+                    if (first && tokens >= 1) {
+                        tokens -= 1;
+                        break;
+                    }
+                    // only the first waiter needs to wake up exactly when the next token is available
+                    long waitMillis = first ? Math.max(1, millisUntilNextToken()) : 100;
+                    long now = clock.getAsLong();
+                    if (now >= deadline || (first && now + waitMillis > deadline)) {
+                        throw new IOException(String.format(
+                                "GitHub request would have to wait more than %d s for its turn (rate limit remaining=%d, " +
+                                        "reset at %s, rate=%.4f requests/s), giving up.", TimeUnit.MILLISECONDS.toSeconds(maxWaitMillis),
+                                rateLimitRemaining, new Date(rateLimitResetMillis), currentRate()));
+                    }
+                    lock.wait(Math.min(waitMillis, deadline - now));
+                }
+            } finally {
+                waiters.remove(waiter);
+                // let the next waiter check whether it can go
+                lock.notifyAll();
+            }
+        }
+        if (budget != null) {
+            budget.recordRequest();
+        }
+    }
+
+    /**
+     * Records the rate limit info returned by GitHub.
+     *
+     * @param remaining    value of the X-RateLimit-Remaining header
+     * @param resetSeconds value of the X-RateLimit-Reset header (epoch seconds)
+     * @param notModified  whether the response was 304, which does not count against the rate limit
+     */
+    public void recordResponse(int remaining, long resetSeconds, boolean notModified) {
+        synchronized (lock) {
+            refill();
+            rateLimitRemaining = remaining;
+            rateLimitResetMillis = TimeUnit.SECONDS.toMillis(resetSeconds);
+            boolean exhausted = remaining < RESERVED_BUDGET;
+            if (exhausted && !throttled) {
+                logger.warn("GitHub API rate limit nearly exhausted ({} requests remaining), throttling the requests until " +
+                                    "the rate limit gets reset at {}.", remaining, new Date(rateLimitResetMillis));
+            } else if (!exhausted && throttled) {
+                logger.info("GitHub API rate limit budget available again ({} requests remaining), no longer throttling the requests.",
+                            remaining);
+            }
+            throttled = exhausted;
+        }
+        BuildBudget budget = CURRENT_BUDGET.get();
+        if (budget != null && notModified) {
+            budget.recordNotModified();
+        }
+    }
+
+    /**
+     * Registers new budget for a build.
+     */
+    public BuildBudget createBudget(String buildName) {
+        BuildBudget budget = new BuildBudget(buildName);
+        synchronized (recentBudgets) {
+            recentBudgets.addFirst(budget);
+            if (recentBudgets.size() > MAX_RECENT_BUDGETS) {
+                recentBudgets.removeLast();
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * @return budgets of the most recent builds, newest first
+     */
+    public List<BuildBudget> getRecentBudgets() {
+        synchronized (recentBudgets) {
+            return new ArrayList<>(recentBudgets);
+        }
+    }
+
+    public int getRateLimitRemaining() {
+        synchronized (lock) {
+            return rateLimitRemaining;
+        }
+    }
+
+    /**
+     * @return whether the rate limit is nearly exhausted and the requests are throttled until it gets reset
+     */
+    public boolean isThrottled() {
+        synchronized (lock) {
+            return throttled;
+        }
+    }
+
+    /**
+     * @return current rate (requests per second) the requests are sent at
+     */
+    double getRate() {
+        synchronized (lock) {
+            return currentRate();
+        }
+    }
+
+    int getWaitingRequests() {
+        synchronized (lock) {
+            return waiters.size();
+        }
+    }
+
+    public String getStatistics() {
+        synchronized (lock) {
+            return String.format("GitHub request scheduler: rate limit remaining=%d, rate=%.2f requests/s, waiting requests=%d%s",
+                                 rateLimitRemaining, currentRate(), waiters.size(),
+                                 throttled ? ", throttled until the rate limit reset at " + new Date(rateLimitResetMillis) : "");
+        }
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        tokens = Math.min(BURST_CAPACITY, tokens + (now - lastRefill) * currentRate() / 1000);
+        lastRefill = now;
+    }
+
+    private long millisUntilNextToken() {
+        return (long) Math.ceil((1 - tokens) * 1000 / currentRate());
+    }
+
+    /**
+     * Spreads the remaining rate limit budget over the time left until the rate limit gets reset.
+     */
+    private double currentRate() {
+        if (rateLimitRemaining < 0) {
+            return DEFAULT_REQUESTS_PER_SECOND;
+        }
+        double secondsToReset = Math.max(1, (rateLimitResetMillis - clock.getAsLong()) / 1000.0);
+        double sustainableRate = (rateLimitRemaining - RESERVED_BUDGET) / secondsToReset;
+        return Math.min(DEFAULT_REQUESTS_PER_SECOND, Math.max(1 / secondsToReset, sustainableRate));
+    }
+
+    private static class Waiter {
+        private final int priority;
+        private final long sequence;
+
+        private Waiter(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * GitHub API usage of a single build. The progress of the build is used as the priority of its requests.
+     */
+    public static class BuildBudget {
+        private final String buildName;
+        private final AtomicInteger progress = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong notModified = new AtomicLong();
+        private final AtomicLong mergeablePolls = new AtomicLong();
+        private final AtomicLong mergeableWaitMillis = new AtomicLong();
+
+        BuildBudget(String buildName) {
+            this.buildName = buildName;
+        }
+
+        public String getBuildName() {
+            return buildName;
+        }
+
+        public int getProgress() {
+            return progress.get();
+        }
+
+        /**
+         * Marks the build as further along, so its requests get higher priority.
+         */
+        public void advance() {
+            progress.incrementAndGet();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getNotModified() {
+            return notModified.get();
+        }
+
+        /**
+         * @return number of requests which counted against the rate limit
+         */
+        public long getChargedRequests() {
+            return requests.get() - notModified.get();
+        }
+
+        /**
+         * @return number of times the mergeable status of the PRs was polled on behalf of the build
+         */
+        public long getMergeablePolls() {
+            return mergeablePolls.get();
+        }
+
+        /**
+         * @return time the build spent waiting for GitHub to compute the mergeable status of the PRs
+         */
+        public long getMergeableWaitMillis() {
+            return mergeableWaitMillis.get();
+        }
+
+        void recordMergeablePoll() {
+            mergeablePolls.incrementAndGet();
+        }
+
+        void recordMergeableWait(long millis) {
+            mergeableWaitMillis.addAndGet(millis);
+        }
+
+        private void recordRequest() {
+            requests.incrementAndGet();
+        }
+
+        private void recordNotModified() {
+            notModified.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("GitHub API usage of %s: %d requests (%d not modified, %d counted against the rate limit)",
+                                 buildName, getRequests(), getNotModified(), getChargedRequests());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.HttpConnector;
+
+/**
+ * Minimal client for the GitHub REST API, used for the calls which need features not offered by
+ * {@link org.kohsuke.github.GitHub}, e.g. conditional requests using ETags.
+ */
+public class GitHubRestClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private final String apiUrl;
+    private final String oauthToken;
+    private final HttpConnector connector;
+
+    public GitHubRestClient(String apiUrl, String oauthToken) {
+        this(apiUrl, oauthToken, HttpConnector.DEFAULT);
+    }
+
+    /**
+     * @param connector connector used to open the HTTP connections, so that they can be shared with
+     *                  {@link org.kohsuke.github.GitHub} client
+     */
+    public GitHubRestClient(String apiUrl, String oauthToken, HttpConnector connector) {
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+        this.oauthToken = oauthToken;
+        this.connector = connector;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Executes GET request against the specified API path.
+     *
+     * @param path API path (including the query string), e.g. /repos/kiegroup/drools/pulls?state=open
+     * @param etag ETag returned by previous request for the same path. If not null, the request is sent as conditional
+     *             one and GitHub responds with 304 (which does not count against the rate limit) in case nothing changed
+     * @return response returned by GitHub
+     */
+    public Response get(String path, String etag) throws IOException {
+        return execute("GET", path, etag, null);
+    }
+
+    /**
+     * Executes POST request against the specified API path, e.g. a GraphQL query.
+     *
+     * @param path API path or absolute URL, e.g. https://api.github.com/graphql
+     * @param json JSON request body
+     * @return response returned by GitHub
+     */
+    public Response post(String path, String json) throws IOException {
+        return execute("POST", path, null, json);
+    }
+
+    private Response execute(String method, String path, String etag, String requestBody) throws IOException {
+        URL url = new URL(path.startsWith("http://") || path.startsWith("https://") ? path : apiUrl + path);
+        HttpURLConnection connection = connector.connect(url);
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+        if (oauthToken != null) {
+            connection.setRequestProperty("Authorization", "token " + oauthToken);
+        }
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (requestBody != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(requestBody.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        boolean hasNextPage = hasNextPage(connection.getHeaderField("Link"));
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return new Response(status, etag, null, hasNextPage);
+        }
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new IOException("GitHub API request '" + method + " " + url + "' failed with status " + status + ": " +
+                                          readBody(connection.getErrorStream()));
+        }
+        return new Response(status, connection.getHeaderField("ETag"), readBody(connection.getInputStream()), hasNextPage);
+    }
+
+    private static boolean hasNextPage(String linkHeader) {
+        return linkHeader != null && linkHeader.contains("rel=\"next\"");
+    }
+
+    private static String readBody(InputStream input) throws IOException {
+        if (input == null) {
+            return "";
+        }
+        try (InputStream in = input) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class Response {
+        private final int status;
+        private final String etag;
+        private final String body;
+        private final boolean hasNextPage;
+
+        public Response(int status, String etag, String body, boolean hasNextPage) {
+            this.status = status;
+            this.etag = etag;
+            this.body = body;
+            this.hasNextPage = hasNextPage;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isNotModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public boolean hasNextPage() {
+            return hasNextPage;
+        }
+    }
+}
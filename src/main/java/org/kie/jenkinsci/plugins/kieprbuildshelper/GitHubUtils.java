@@ -15,11 +15,19 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
-import hudson.EnvVars;
 import hudson.FilePath;
-import hudson.model.BuildListener;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.transport.RefSpec;
-import org.jenkinsci.plugins.gitclient.Git;
 import org.jenkinsci.plugins.gitclient.GitClient;
 import org.kohsuke.github.GHIssueState;
 import org.kohsuke.github.GHPullRequest;
@@ -28,15 +36,25 @@ import org.kohsuke.github.GitHub;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class GitHubUtils {
 
+    /**
+     * Default location of the reference repositories, see {@link ReferenceMirrors#getReferenceBasedir(hudson.EnvVars)}.
+     */
     public static final File GIT_REFERENCE_BASEDIR = new File("/home/jenkins/git-repos/");
 
+    private static final int CHANGED_FILES_PAGE_SIZE = 100;
+
     public static final Pattern GITHUB_PR_URL_PATTERN = Pattern.compile("\\w+://github.com/.+/(.+)/pull/\\d+");
 
     public static List<GHPullRequest> getOpenPullRequests(GitHubRepository repo, GitHub github) {
@@ -51,24 +69,67 @@ public class GitHubUtils {
      * @param repo         GitHub repository to check against
      * @param sourceBranch source branch name
      * @param github       GitHub API object
+     * @param restClient   GitHub REST client used to refresh the {@link OpenPullRequestIndex}
      * @return optionally pull request which is both open and created against the specific source branch
      */
-    public static Optional<GitHubPRSummary> findOpenPullRequest(GitHubRepository repo, GitBranch sourceBranch, String prAuthor, GitHub github) {
+    public static Optional<GitHubPRSummary> findOpenPullRequest(GitHubRepository repo, GitBranch sourceBranch, String prAuthor,
+                                                                GitHub github, GitHubRestClient restClient) {
+        OpenPullRequestIndex index = OpenPullRequestIndex.getInstance();
         try {
-            List<GHPullRequest> prs = getOpenPullRequests(repo, github);
-            for (GHPullRequest pr : prs) {
-                // check if the PR source branch and name of the fork are the ones we are looking for
-                if (pr.getHead().getRef().equals(sourceBranch.getName()) &&
-                        pr.getHead().getRepository().getOwner().getLogin().equals(prAuthor)) {
-                    return Optional.of(GitHubPRSummary.fromGHPullRequest(pr, github));
+            Optional<Integer> prNumber = index.findPullRequestNumber(repo, sourceBranch, prAuthor, restClient);
+            if (!prNumber.isPresent()) {
+                return Optional.empty();
+            }
+            GHPullRequest pr = github.getRepository(repo.getFullName()).getPullRequest(prNumber.get());
+            if (pr.getState() != GHIssueState.OPEN) {
+                // the PR got closed since the index was last refreshed, so revalidate it and try once more
+                index.invalidate(repo);
+                prNumber = index.findPullRequestNumber(repo, sourceBranch, prAuthor, restClient);
+                if (!prNumber.isPresent()) {
+                    return Optional.empty();
                 }
+                pr = github.getRepository(repo.getFullName()).getPullRequest(prNumber.get());
             }
-            return Optional.empty();
+            return Optional.of(GitHubPRSummary.fromGHPullRequest(pr, github));
         } catch (IOException e) {
             throw new RuntimeException("Failed to get info about PRs for " + repo, e);
         }
     }
 
+    /**
+     * Lists the files changed by the PR, i.e. the files which differ between the PR merge ref and its base. Renamed files
+     * are listed under both the old and the new name.
+     *
+     * @param restClient GitHub REST client
+     * @param repo       GitHub repository the PR was submitted against
+     * @param prNumber   number of the PR
+     * @return paths of the changed files, relative to the repository root
+     */
+    public static Set<String> getChangedFiles(GitHubRestClient restClient, GitHubRepository repo, int prNumber) {
+        Set<String> changedFiles = new LinkedHashSet<>();
+        try {
+            int pageNumber = 1;
+            boolean hasNextPage = true;
+            while (hasNextPage) {
+                GitHubRestClient.Response response = restClient.get(
+                        "/repos/" + repo.getFullName() + "/pulls/" + prNumber + "/files?per_page=" + CHANGED_FILES_PAGE_SIZE + "&page=" + pageNumber, null);
+                JSONArray files = JSONArray.fromObject(response.getBody());
+                for (int i = 0; i < files.size(); i++) {
+                    JSONObject file = files.getJSONObject(i);
+                    changedFiles.add(file.getString("filename"));
+                    if (file.has("previous_filename")) {
+                        changedFiles.add(file.getString("previous_filename"));
+                    }
+                }
+                hasNextPage = response.hasNextPage();
+                pageNumber++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get files changed by PR " + prNumber + " for " + repo, e);
+        }
+        return changedFiles;
+    }
+
     /**
      * Clones the specified repository, then fetches the requested refspec and checkouts the destination part.
      *
@@ -85,20 +146,107 @@ public class GitHubUtils {
         gitClient.checkout().ref(refspec.getDestination()).execute();
     }
 
-    public static void cloneRepositories(FilePath basedir, List<Tuple<GitHubRepository, RefSpec>> repositoriesWithRefspec,
-                                         File referenceBasedir, BuildListener listener) throws IOException, InterruptedException {
-        for (Tuple<GitHubRepository, RefSpec> repoWithRefSpec : repositoriesWithRefspec) {
-            GitHubRepository ghRepo = repoWithRefSpec._1();
-            RefSpec refspec = repoWithRefSpec._2();
-            FilePath repoDir = new FilePath(basedir, ghRepo.getName());
-            repoDir.mkdirs();
-            GitClient gitClient = Git.with(listener, new EnvVars())
-                    .in(repoDir)
-                    .using("git")
-                    .getClient();
-            File referenceDir = new File(referenceBasedir, ghRepo.getName() + ".git");
-            cloneFetchCheckout(gitClient, ghRepo, refspec, referenceDir);
+    /**
+     * Updates already cloned repository to the specified refspec. Only the refspec is fetched, the destination branch is
+     * then re-created from the fetched commit and the working tree gets cleaned (including the ignored files).
+     *
+     * @param gitClient git client. Already setup to work in the directory with existing clone.
+     * @param refspec {@link RefSpec} to fetch. The destination part is the branch being checked out
+     *
+     * @throws InterruptedException when interrupted while performing Git operations
+     */
+    public static void fetchResetClean(GitClient gitClient, RefSpec refspec) throws InterruptedException {
+        // fetch into remote tracking ref, the destination branch may be checked-out and git refuses to fetch into it
+        RefSpec forcedRefspec = refspec.setForceUpdate(true)
+                .setDestination(Constants.R_REMOTES + "origin/" + refspec.getDestination());
+        gitClient.fetch("origin", forcedRefspec);
+        ObjectId fetched = gitClient.revParse(forcedRefspec.getDestination());
+        // detach HEAD first, so that the destination branch can be deleted and re-created
+        gitClient.checkout().ref(fetched.name()).execute();
+        gitClient.checkout().ref(fetched.name()).branch(refspec.getDestination()).deleteBranchIfExist(true).execute();
+        gitClient.clean();
+    }
+
+    /**
+     * Reads the commit the last fetch into the repository got for the refspec requested on the command line, i.e. the
+     * first entry of FETCH_HEAD not marked as not-for-merge (the tags fetched along are marked so).
+     *
+     * @return SHA of the fetched commit, as advertised by the remote during the fetch
+     * @throws GitException in case the FETCH_HEAD is missing or does not contain such entry
+     */
+    public static ObjectId readFetchHead(File repoDir) throws IOException {
+        File fetchHead = new File(repoDir, Constants.DOT_GIT + "/" + Constants.FETCH_HEAD);
+        if (!fetchHead.isFile()) {
+            throw new GitException("No " + Constants.FETCH_HEAD + " found in " + repoDir);
         }
+        // <sha> TAB [not-for-merge] TAB <description>
+        for (String line : Files.readAllLines(fetchHead.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", 3);
+            if (fields.length == 3 && fields[1].isEmpty() && ObjectId.isId(fields[0])) {
+                return ObjectId.fromString(fields[0]);
+            }
+        }
+        throw new GitException("No fetched commit found in " + fetchHead);
+    }
+
+    /**
+     * Makes sure the HEAD points to the destination branch of the refspec and to the commit fetched for it.
+     *
+     * @param fetched SHA the fetch got for the source of the refspec, see {@link #readFetchHead(File)}
+     * @return SHA of the checked-out commit
+     */
+    public static ObjectId verifyCheckedOut(GitClient gitClient, RefSpec refspec, ObjectId fetched) throws InterruptedException {
+        ObjectId branch = gitClient.revParse(Constants.R_HEADS + refspec.getDestination());
+        ObjectId head = gitClient.revParse(Constants.HEAD);
+        if (!head.equals(branch) || !head.equals(fetched)) {
+            throw new RuntimeException("Checked-out commit " + head.name() + " (branch " + refspec.getDestination() + " at " +
+                                               branch.name() + ") does not match the commit " + fetched.name() +
+                                               " fetched for refspec " + refspec + "!");
+        }
+        return head;
+    }
+
+    /**
+     * Makes sure the working tree of the reused repository has no modified or untracked (not ignored) files.
+     *
+     * @throws GitException in case the working tree is not clean, the repository should be cloned again then
+     */
+    public static void verifyClean(File repoDir) throws IOException {
+        Repository repository = new FileRepositoryBuilder().setWorkTree(repoDir).setMustExist(true).build();
+        try {
+            org.eclipse.jgit.api.Status status = Git.wrap(repository).status().call();
+            if (!status.isClean()) {
+                throw new GitException("Working tree of " + repoDir + " is not clean, modified files: " +
+                                               status.getUncommittedChanges() + ", untracked files: " + status.getUntracked());
+            }
+        } catch (GitAPIException e) {
+            throw new GitException("Failed to get status of " + repoDir, e);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Clones the repositories (on the machine the basedir is located on) into subdirectories named after the repositories.
+     *
+     * @param config options of the clone phase, see {@link CloneRepositoriesCallable}
+     * @return results of the individual clones, keyed by repository name
+     */
+    public static Map<String, CloneRepositoriesCallable.CloneResult> cloneRepositories(FilePath basedir,
+                                                                                      List<Tuple<GitHubRepository, RefSpec>> repositoriesWithRefspec,
+                                                                                      File referenceBasedir, CloneConfig config,
+                                                                                      TaskListener listener)
+            throws IOException, InterruptedException {
+        basedir.mkdirs();
+        return basedir.act(new CloneRepositoriesCallable(repositoriesWithRefspec, referenceBasedir, config, listener));
+    }
+
+    /**
+     * @return location of the reference (bare) repository for the specified GitHub repository, on the machine the
+     *         launcher is running on
+     */
+    public static FilePath getReferenceRepository(Launcher launcher, File referenceBasedir, GitHubRepository repo) {
+        return new FilePath(launcher.getChannel(), new File(referenceBasedir, repo.getName() + ".git").getPath());
     }
 
     public static void logRepositories(List<Tuple<GitHubRepository, RefSpec>> repos, PrintStream buildLogger) {
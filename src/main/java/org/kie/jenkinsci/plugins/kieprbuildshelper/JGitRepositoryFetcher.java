@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.plugins.git.GitException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Gets the requested refspec into the repository directory using JGit, directly inside the agent JVM.
+ *
+ * Everything the repository needs is fetched using single connection to the remote (for {@link CloneStrategy#FULL}
+ * the branches are fetched together with the refspec, instead of clone followed by fetch). The JGit object caches are
+ * shared by the whole agent JVM (including the git plugin), so their JGit defaults are kept.
+ *
+ * Shallow and partial fetches are not supported by JGit, see {@link #getEffectiveStrategy(CloneStrategy)}.
+ */
+public class JGitRepositoryFetcher {
+
+    private static final RefSpec BRANCHES_REFSPEC = new RefSpec("+refs/heads/*:refs/remotes/origin/*");
+
+    private JGitRepositoryFetcher() {
+    }
+
+    /**
+     * @return strategy actually used when cloning using JGit: shallow and partial fetches are not supported, so the
+     *         {@link CloneStrategy#SHALLOW} and {@link CloneStrategy#BLOBLESS} strategies fall back to
+     *         {@link CloneStrategy#INIT_FETCH}, which fetches the full history of the requested revision
+     */
+    public static CloneStrategy getEffectiveStrategy(CloneStrategy strategy) {
+        return strategy == CloneStrategy.SHALLOW || strategy == CloneStrategy.BLOBLESS ? CloneStrategy.INIT_FETCH : strategy;
+    }
+
+    /**
+     * Clones the repository into empty directory and checkouts the destination part of the refspec, using the
+     * {@link #getEffectiveStrategy(CloneStrategy) effective strategy}.
+     *
+     * @return SHA the remote advertised for the source of the refspec during the fetch
+     */
+    public static ObjectId cloneFresh(File repoDir, GitHubRepository ghRepo, RefSpec refspec, File referenceDir,
+                                  CloneStrategy strategy, PrintStream logger) throws InterruptedException {
+        File gitDir = new File(repoDir, Constants.DOT_GIT);
+        try {
+            Repository created = new FileRepositoryBuilder().setWorkTree(repoDir).setGitDir(gitDir).build();
+            try {
+                created.create();
+                StoredConfig config = created.getConfig();
+                config.setString("remote", "origin", "url", ghRepo.getReadOnlyCloneURL());
+                config.setString("remote", "origin", "fetch", BRANCHES_REFSPEC.toString());
+                config.save();
+            } finally {
+                created.close();
+            }
+            File referenceObjects = new File(referenceDir, Constants.OBJECTS);
+            if (referenceObjects.isDirectory()) {
+                // JGit reads the alternates when opening the repository, so write them before reopening it
+                Files.write(new File(gitDir, Constants.OBJECTS + "/info/alternates").toPath(),
+                            (referenceObjects.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new GitException("Failed to initialize repository " + repoDir, e);
+        }
+        CloneStrategy effectiveStrategy = getEffectiveStrategy(strategy);
+        if (effectiveStrategy != strategy) {
+            logger.println(strategy + " strategy is not supported by JGit, falling back to " + effectiveStrategy +
+                                   " (full history of the requested revision is fetched).");
+        }
+        return fetchCheckout(repoDir, refspec, effectiveStrategy == CloneStrategy.FULL, false, logger);
+    }
+
+    /**
+     * Updates existing clone to the refspec, see {@link GitHubUtils#fetchResetClean(org.jenkinsci.plugins.gitclient.GitClient, RefSpec)}.
+     *
+     * @return SHA the remote advertised for the source of the refspec during the fetch
+     */
+    public static ObjectId update(File repoDir, RefSpec refspec, PrintStream logger) throws InterruptedException {
+        return fetchCheckout(repoDir, refspec, false, true, logger);
+    }
+
+    private static ObjectId fetchCheckout(File repoDir, RefSpec refspec, boolean fetchBranches, boolean clean, PrintStream logger)
+            throws InterruptedException {
+        Repository repository;
+        try {
+            repository = new FileRepositoryBuilder().setWorkTree(repoDir).setGitDir(new File(repoDir, Constants.DOT_GIT))
+                    .setMustExist(true).build();
+        } catch (IOException e) {
+            throw new GitException("Failed to open repository " + repoDir, e);
+        }
+        try {
+            // fetch into remote tracking ref, same as the CLI strategies do
+            String trackingRef = Constants.R_REMOTES + "origin/" + refspec.getDestination();
+            String source = expandSource(refspec.getSource());
+            List<RefSpec> refSpecs = new ArrayList<>();
+            refSpecs.add(new RefSpec("+" + source + ":" + trackingRef));
+            if (fetchBranches) {
+                refSpecs.add(BRANCHES_REFSPEC);
+            }
+            String url = repository.getConfig().getString("remote", "origin", "url");
+            Transport transport = Transport.open(repository, new URIish(url));
+            FetchResult result;
+            try {
+                transport.setTagOpt(TagOpt.NO_TAGS);
+                result = transport.fetch(new TextProgressMonitor(new OutputStreamWriter(logger, StandardCharsets.UTF_8)), refSpecs);
+            } finally {
+                transport.close();
+            }
+            Ref advertised = result.getAdvertisedRef(source);
+            ObjectId fetched = repository.resolve(trackingRef);
+            if (advertised == null || fetched == null) {
+                throw new GitException("Refspec " + refspec + " did not fetch anything from " + url);
+            }
+            if (!fetched.equals(advertised.getObjectId())) {
+                throw new GitException("Refspec " + refspec + " fetched " + fetched.name() + ", but " + url + " advertised " +
+                                               advertised.getObjectId().name());
+            }
+            // point the destination branch to the fetched commit and make it the current branch, then reset the
+            // working tree, which works the same for both new and existing clones
+            String branchRef = Constants.R_HEADS + refspec.getDestination();
+            RefUpdate branchUpdate = repository.updateRef(branchRef);
+            branchUpdate.setNewObjectId(fetched);
+            branchUpdate.setForceUpdate(true);
+            checkRefUpdate(branchUpdate.forceUpdate(), branchRef);
+            checkRefUpdate(repository.updateRef(Constants.HEAD).link(branchRef), Constants.HEAD);
+            Git git = Git.wrap(repository);
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(Constants.HEAD).call();
+            if (clean) {
+                git.clean().setCleanDirectories(true).setIgnore(false).call();
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrupted while fetching " + refspec + " into " + repoDir);
+            }
+            return fetched;
+        } catch (IOException | URISyntaxException | GitAPIException e) {
+            throw new GitException("Failed to fetch " + refspec + " into " + repoDir, e);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * The CLI git looks up short names like "pull/1/merge" on the remote side, JGit needs the full ref name.
+     */
+    static String expandSource(String source) {
+        if (source.startsWith(Constants.R_REFS)) {
+            return source;
+        }
+        if (source.startsWith("pull/")) {
+            return Constants.R_REFS + source;
+        }
+        return Constants.R_HEADS + source;
+    }
+
+    private static void checkRefUpdate(RefUpdate.Result result, String ref) {
+        switch (result) {
+            case NEW:
+            case FORCED:
+            case FAST_FORWARD:
+            case NO_CHANGE:
+                return;
+            default:
+                throw new GitException("Failed to update " + ref + ": " + result);
+        }
+    }
+}
@@ -41,7 +41,15 @@ public class KiePRBuildsHelper extends JobProperty<Job<?, ?>> {
     @Extension
     public static class KiePRBuildsHelperDescriptor extends JobPropertyDescriptor {
 
+        public static final int DEFAULT_MIRROR_REFRESH_MINUTES = 60;
+        public static final int DEFAULT_ARTIFACT_CACHE_SIZE_GB = 20;
+        public static final int DEFAULT_TRASH_MIN_FREE_SPACE_GB = 10;
+
         private String ghOAuthToken;
+        private boolean searchPullRequests;
+        private int mirrorRefreshMinutes = DEFAULT_MIRROR_REFRESH_MINUTES;
+        private int artifactCacheSizeGb = DEFAULT_ARTIFACT_CACHE_SIZE_GB;
+        private int trashMinFreeSpaceGb = DEFAULT_TRASH_MIN_FREE_SPACE_GB;
 
         public KiePRBuildsHelperDescriptor() {
             super(KiePRBuildsHelper.class);
@@ -56,6 +64,10 @@ public class KiePRBuildsHelper extends JobProperty<Job<?, ?>> {
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             ghOAuthToken = formData.getString("ghOAuthToken");
+            searchPullRequests = formData.optBoolean("searchPullRequests");
+            mirrorRefreshMinutes = formData.optInt("mirrorRefreshMinutes", DEFAULT_MIRROR_REFRESH_MINUTES);
+            artifactCacheSizeGb = formData.optInt("artifactCacheSizeGb", DEFAULT_ARTIFACT_CACHE_SIZE_GB);
+            trashMinFreeSpaceGb = formData.optInt("trashMinFreeSpaceGb", DEFAULT_TRASH_MIN_FREE_SPACE_GB);
             save();
             return super.configure(req, formData);
         }
@@ -69,6 +81,51 @@ public class KiePRBuildsHelper extends JobProperty<Job<?, ?>> {
             return ghOAuthToken;
         }
 
+        public void setGhOAuthToken(String ghOAuthToken) {
+            this.ghOAuthToken = ghOAuthToken;
+            save();
+        }
+
+        /**
+         * @return true if the PRs in the chain repositories should be looked up using single GitHub search query
+         *         (see {@link PullRequestSearch}) instead of listing the open PRs for every repository
+         */
+        public boolean isSearchPullRequests() {
+            return searchPullRequests;
+        }
+
+        /**
+         * @return how often (in minutes) the reference mirrors get refreshed in the background, 0 disables the refresh
+         */
+        public int getMirrorRefreshMinutes() {
+            return mirrorRefreshMinutes;
+        }
+
+        /**
+         * @return maximum size (in GB) of the artifact cache on every agent, see {@link ArtifactCache}
+         */
+        public int getArtifactCacheSizeGb() {
+            // configurations stored before the option existed are loaded with 0
+            return artifactCacheSizeGb > 0 ? artifactCacheSizeGb : DEFAULT_ARTIFACT_CACHE_SIZE_GB;
+        }
+
+        public long getArtifactCacheSizeBytes() {
+            return getArtifactCacheSizeGb() * 1024L * 1024L * 1024L;
+        }
+
+        /**
+         * @return free space (in GB) on the disk of the agent trash, below which the builds wait for the trash to be
+         *         deleted, see {@link WorkspaceTrash}
+         */
+        public int getTrashMinFreeSpaceGb() {
+            // configurations stored before the option existed are loaded with 0
+            return trashMinFreeSpaceGb > 0 ? trashMinFreeSpaceGb : DEFAULT_TRASH_MIN_FREE_SPACE_GB;
+        }
+
+        public long getTrashMinFreeSpaceBytes() {
+            return getTrashMinFreeSpaceGb() * 1024L * 1024L * 1024L;
+        }
+
     }
 
 }
@@ -19,6 +19,15 @@ public class MavenBuildConfig {
     private final String mavenHome;
     private final String mavenOpts;
     private final String mavenArgs;
+    private MavenBuildMode buildMode = MavenBuildMode.SEQUENTIAL;
+    private int buildParallelism = 1;
+    private int buildMemoryBudget;
+    private boolean useArtifactCache;
+    private MavenEngine mavenEngine = MavenEngine.MVN;
+    private String mvndHome;
+    private String artifactsCleanUpPatterns;
+    private MavenOutput mavenOutput = MavenOutput.FULL;
+    private boolean archiveAllMavenLogs;
 
     public MavenBuildConfig(String mavenHome, String mavenOpts, String mavenArgs) {
         this.mavenHome = mavenHome;
@@ -37,4 +46,105 @@ public class MavenBuildConfig {
     public String getMavenArgs() {
         return mavenArgs;
     }
+
+    public MavenBuildMode getBuildMode() {
+        // configs stored before the option existed are loaded with null
+        return buildMode == null ? MavenBuildMode.SEQUENTIAL : buildMode;
+    }
+
+    public void setBuildMode(MavenBuildMode buildMode) {
+        this.buildMode = buildMode;
+    }
+
+    /**
+     * @return number of Maven threads (-T) used for the {@link MavenBuildMode#AGGREGATED} build, unless the Maven
+     *         arguments already specify it, or the maximum number of concurrent builds in the
+     *         {@link MavenBuildMode#PARALLEL} mode
+     */
+    public int getBuildParallelism() {
+        return Math.max(1, buildParallelism);
+    }
+
+    public void setBuildParallelism(int buildParallelism) {
+        this.buildParallelism = buildParallelism;
+    }
+
+    /**
+     * @return memory (in MB) available for the concurrent builds in the {@link MavenBuildMode#PARALLEL} mode, each
+     *         build is expected to use up to the -Xmx from the MAVEN_OPTS; 0 if not limited
+     */
+    public int getBuildMemoryBudget() {
+        return Math.max(0, buildMemoryBudget);
+    }
+
+    public void setBuildMemoryBudget(int buildMemoryBudget) {
+        this.buildMemoryBudget = buildMemoryBudget;
+    }
+
+    /**
+     * @return whether to skip the builds of the repositories already built on the agent, see {@link ArtifactCache}
+     */
+    public boolean isUseArtifactCache() {
+        return useArtifactCache;
+    }
+
+    public void setUseArtifactCache(boolean useArtifactCache) {
+        this.useArtifactCache = useArtifactCache;
+    }
+
+    public MavenEngine getMavenEngine() {
+        // configs stored before the option existed are loaded with null
+        return mavenEngine == null ? MavenEngine.MVN : mavenEngine;
+    }
+
+    public void setMavenEngine(MavenEngine mavenEngine) {
+        this.mavenEngine = mavenEngine;
+    }
+
+    /**
+     * @return mvnd installation directory, used with the {@link MavenEngine#MVND}
+     */
+    public String getMvndHome() {
+        return mvndHome;
+    }
+
+    public void setMvndHome(String mvndHome) {
+        this.mvndHome = mvndHome;
+    }
+
+    /**
+     * @return glob patterns (one per line) of the directories deleted after the build of every repository, see
+     *         {@link CleanUpBuildArtifactsCallable}. The default patterns are used if null or blank.
+     */
+    public String getArtifactsCleanUpPatterns() {
+        return artifactsCleanUpPatterns;
+    }
+
+    public void setArtifactsCleanUpPatterns(String artifactsCleanUpPatterns) {
+        this.artifactsCleanUpPatterns = artifactsCleanUpPatterns;
+    }
+
+    /**
+     * @return what part of the Maven output gets to the build console, see {@link MavenLogPipeline}
+     */
+    public MavenOutput getMavenOutput() {
+        // configs stored before the option existed are loaded with null
+        return mavenOutput == null ? MavenOutput.FULL : mavenOutput;
+    }
+
+    public void setMavenOutput(MavenOutput mavenOutput) {
+        this.mavenOutput = mavenOutput;
+    }
+
+    /**
+     * @return whether to archive the Maven logs of all the builds with the {@link MavenOutput#FILTERED} output, by
+     *         default only the logs of the failed builds are archived and the rest stays on the agent
+     */
+    public boolean isArchiveAllMavenLogs() {
+        return archiveAllMavenLogs;
+    }
+
+    public void setArchiveAllMavenLogs(boolean archiveAllMavenLogs) {
+        this.archiveAllMavenLogs = archiveAllMavenLogs;
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+/**
+ * How the cloned repositories are built, see {@link RepositoriesBuild}. The {@link #PARALLEL} mode with more than one
+ * concurrent build requires Maven 3.9 or newer, with older versions the repositories are built one at a time, see
+ * {@link RepositoryBuildScheduler}.
+ */
+public enum MavenBuildMode {
+
+    SEQUENTIAL("One Maven build per repository, in the repository-list.txt order"),
+    AGGREGATED("Single Maven reactor build of all the repositories (generated aggregator pom)"),
+    PARALLEL("One Maven build per repository, independent repositories built concurrently (dependency graph from the poms)");
+
+    private final String displayName;
+
+    MavenBuildMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
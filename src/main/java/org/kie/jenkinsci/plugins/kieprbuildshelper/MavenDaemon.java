@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+
+/**
+ * Maven daemon (mvnd) running on the agent. The daemon keeps the Maven JVM warm between the builds (JIT compiled code,
+ * cached plugin classloaders), the builds are sent to it by the mvnd client over a local socket. Daemons are started on
+ * demand by the client and shared by all the builds running on the agent.
+ *
+ * The client picks an idle daemon started with the same JVM options ({@code -Dmvnd.jvmArgs}, taken from MAVEN_OPTS)
+ * or spawns a new one, so the builds with different MAVEN_OPTS running on the other executors of the agent get their
+ * own daemons. The daemons are never stopped by the builds ({@code mvnd --stop} stops all the daemons on the agent,
+ * including the busy ones), the client itself replaces the daemons which stopped responding.
+ */
+public class MavenDaemon {
+
+    private final String mvndHome;
+
+    /**
+     * @param mvndHome mvnd installation directory on the agent
+     */
+    public MavenDaemon(String mvndHome) {
+        if (mvndHome == null || mvndHome.trim().isEmpty()) {
+            throw new IllegalArgumentException("Maven daemon home needs to be set when using the Maven daemon engine!");
+        }
+        this.mvndHome = mvndHome.trim();
+    }
+
+    public String getExecutable() {
+        return mvndHome + "/bin/mvnd";
+    }
+
+    /**
+     * Prints the status of the daemons on the agent to the build log. The daemons are not touched, a daemon matching
+     * the JVM options of the build is picked (or started) by the client.
+     */
+    public void printStatus(Launcher launcher, FilePath workingDir, EnvVars envVars, PrintStream buildLogger)
+            throws IOException, InterruptedException {
+        int exitCode = launcher.launch()
+                .cmds(getExecutable(), "--status")
+                .envs(envVars)
+                .pwd(workingDir)
+                .stdout(buildLogger)
+                .stderr(buildLogger)
+                .join();
+        if (exitCode != 0) {
+            buildLogger.println("Maven daemon status check failed (exit code " + exitCode + "), the client will start a new daemon if needed.");
+        }
+    }
+
+    /**
+     * @return the command line executing the build using the daemon
+     */
+    public String createCommand(String mavenArgLine, String jvmOpts) {
+        StringBuilder command = new StringBuilder(getExecutable());
+        if (jvmOpts != null && !jvmOpts.trim().isEmpty()) {
+            // the daemons are matched by their JVM options, so the build runs in a daemon started with these
+            command.append(" \"-Dmvnd.jvmArgs=").append(jvmOpts.trim()).append('"');
+        }
+        return command.append(' ').append(mavenArgLine.trim()).toString();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.console.LineTransformationOutputStream;
+
+/**
+ * Processes the Maven output on the agent, so that only a small part of it crosses the remoting channel and ends up in
+ * the build log on the controller:
+ * <ul>
+ *     <li>every line is written to the (compressed) log file of the repository, archived after the build when it fails</li>
+ *     <li>errors, warnings (up to {@link #MAX_CONSOLE_WARNINGS}) and everything from the reactor summary on are
+ *     forwarded to the console as they come</li>
+ *     <li>the last lines are kept in a ring buffer, which is dumped to the console in case the build fails (see
+ *     {@link #dumpTail()}), so the failure can be investigated without downloading the full log</li>
+ * </ul>
+ */
+public class MavenLogPipeline extends LineTransformationOutputStream {
+
+    public static final String LOG_SUFFIX = ".log.gz";
+
+    public static final int DEFAULT_TAIL_LINES = 1000;
+
+    static final int MAX_CONSOLE_WARNINGS = 100;
+
+    /**
+     * Only the beginning of the lines is matched, to avoid decoding the long ones (e.g. class paths).
+     */
+    private static final int MATCHED_PREFIX_BYTES = 64;
+
+    /**
+     * E.g. "[ERROR] Failed to execute goal ...", optionally preceded by the ANSI color codes.
+     */
+    private static final Pattern CONSOLE_LINE_PATTERN = Pattern.compile("^(?:\\u001B\\[[;\\d]*m)*\\[(ERROR|FATAL|WARNING|WARN)\\]");
+
+    private static final Pattern REACTOR_SUMMARY_PATTERN = Pattern.compile("^(?:\\u001B\\[[;\\d]*m)*\\[INFO\\]\\s+Reactor Summary");
+
+    private final OutputStream console;
+    private final OutputStream log;
+    private final byte[][] tail;
+    private int tailStart;
+    private int tailSize;
+    private boolean inReactorSummary;
+    private long lines;
+    private long bytes;
+    private long consoleLines;
+    private long warnings;
+
+    /**
+     * @param console   stream the filtered output is written to, not closed by this stream
+     * @param log       stream the full output is written to, closed by this stream
+     * @param tailLines number of the last lines kept for {@link #dumpTail()}
+     */
+    public MavenLogPipeline(OutputStream console, OutputStream log, int tailLines) {
+        this.console = console;
+        this.log = log;
+        this.tail = new byte[Math.max(1, tailLines)][];
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        lines++;
+        bytes += len;
+        log.write(b, 0, len);
+        addToTail(b, len);
+        if (isForwarded(new String(b, 0, Math.min(len, MATCHED_PREFIX_BYTES), StandardCharsets.UTF_8))) {
+            writeToConsole(b, len);
+        }
+    }
+
+    private boolean isForwarded(String linePrefix) throws IOException {
+        if (inReactorSummary) {
+            return true;
+        }
+        if (REACTOR_SUMMARY_PATTERN.matcher(linePrefix).find()) {
+            inReactorSummary = true;
+            return true;
+        }
+        Matcher matcher = CONSOLE_LINE_PATTERN.matcher(linePrefix);
+        if (!matcher.find()) {
+            return false;
+        }
+        if (matcher.group(1).startsWith("WARN") && ++warnings > MAX_CONSOLE_WARNINGS) {
+            if (warnings == MAX_CONSOLE_WARNINGS + 1) {
+                writeToConsole("[further warnings are left out from the console, see the full Maven log]\n");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void addToTail(byte[] b, int len) {
+        byte[] line = new byte[len];
+        System.arraycopy(b, 0, line, 0, len);
+        if (tailSize < tail.length) {
+            tail[(tailStart + tailSize++) % tail.length] = line;
+        } else {
+            // overwrite the oldest line
+            tail[tailStart] = line;
+            tailStart = (tailStart + 1) % tail.length;
+        }
+    }
+
+    /**
+     * Writes the last lines of the output (including those already forwarded) to the console.
+     */
+    public void dumpTail() throws IOException {
+        forceEol();
+        writeToConsole("----- last " + tailSize + " lines of the Maven output -----\n");
+        for (int i = 0; i < tailSize; i++) {
+            byte[] line = tail[(tailStart + i) % tail.length];
+            writeToConsole(line, line.length);
+            if (line.length == 0 || line[line.length - 1] != '\n') {
+                // the last line of the output does not need to be terminated
+                console.write('\n');
+            }
+        }
+        writeToConsole("----- end of the Maven output -----\n");
+    }
+
+    private void writeToConsole(String line) throws IOException {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        writeToConsole(b, b.length);
+    }
+
+    private void writeToConsole(byte[] b, int len) throws IOException {
+        consoleLines++;
+        console.write(b, 0, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        log.flush();
+        console.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        forceEol();
+        log.close();
+        console.flush();
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(lines, bytes, consoleLines);
+    }
+
+    /**
+     * Number of the lines (and bytes) of the Maven output, compared to the number of the lines written to the console.
+     */
+    public static class Statistics implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long lines;
+        private final long bytes;
+        private final long consoleLines;
+
+        Statistics(long lines, long bytes, long consoleLines) {
+            this.lines = lines;
+            this.bytes = bytes;
+            this.consoleLines = consoleLines;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getConsoleLines() {
+            return consoleLines;
+        }
+
+        @Override
+        public String toString() {
+            return lines + " lines (" + FormatUtils.formatBytes(bytes) + ") of Maven output, " +
+                    consoleLines + " lines written to the console";
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Maven module (single pom.xml) of a repository, as declared in the pom. Only the info needed to figure out the
+ * dependencies between the modules is kept.
+ */
+public class MavenModule implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String repository;
+    private final String path;
+    private final String groupId;
+    private final String artifactId;
+    private final String name;
+    private final Set<String> dependencies;
+    private final boolean profileOnly;
+
+    /**
+     * @param repository   name of the repository containing the module
+     * @param path         path of the module directory, relative to the repository root ("" for the root module)
+     * @param name         name of the module as displayed by Maven ({@code <name>}, or artifactId if not specified)
+     * @param dependencies keys (see {@link #getKey()}) of the parent, dependencies, imported BOMs and plugins
+     */
+    public MavenModule(String repository, String path, String groupId, String artifactId, String name, Set<String> dependencies) {
+        this(repository, path, groupId, artifactId, name, dependencies, false);
+    }
+
+    /**
+     * @param profileOnly whether the module is declared only in a profile (of its parent or of any of its ancestors),
+     *                    so it is part of the reactor only when the profile is active
+     */
+    public MavenModule(String repository, String path, String groupId, String artifactId, String name, Set<String> dependencies,
+                       boolean profileOnly) {
+        this.repository = repository;
+        this.path = path;
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.name = name;
+        this.dependencies = Collections.unmodifiableSet(dependencies);
+        this.profileOnly = profileOnly;
+    }
+
+    public static String toKey(String groupId, String artifactId) {
+        return groupId + ":" + artifactId;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return key identifying the module, in the format {@code groupId:artifactId}
+     */
+    public String getKey() {
+        return toKey(groupId, artifactId);
+    }
+
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return whether the module is declared only in a profile, such modules can not be selected using -pl unless the
+     *         profile is active
+     */
+    public boolean isProfileOnly() {
+        return profileOnly;
+    }
+
+    @Override
+    public String toString() {
+        return "MavenModule{" +
+                "repository='" + repository + '\'' +
+                ", path='" + path + '\'' +
+                ", key='" + getKey() + '\'' +
+                '}';
+    }
+}
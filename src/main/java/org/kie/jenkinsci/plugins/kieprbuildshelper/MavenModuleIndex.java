@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Index of the Maven modules of multiple (cloned) repositories, built by parsing their pom.xml files. Used to find out
+ * the dependencies between the repositories and to map the Maven modules back to the repositories.
+ *
+ * The poms are not interpolated (apart from the project/parent groupId references), so only the dependencies
+ * declared using the literal groupId and artifactId are recognized. That is the case for all the KIE repositories.
+ */
+public class MavenModuleIndex {
+
+    private static final String DEFAULT_PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+
+    private final Map<String, List<MavenModule>> modulesByRepo;
+    private final Map<String, MavenModule> modulesByKey = new HashMap<>();
+    private final Map<String, List<MavenModule>> modulesByName = new HashMap<>();
+
+    /**
+     * @param modulesByRepo modules of the individual repositories, in the order the repositories should be built
+     */
+    public MavenModuleIndex(Map<String, List<MavenModule>> modulesByRepo) {
+        this.modulesByRepo = new LinkedHashMap<>(modulesByRepo);
+        for (List<MavenModule> modules : modulesByRepo.values()) {
+            for (MavenModule module : modules) {
+                modulesByKey.put(module.getKey(), module);
+                modulesByName.computeIfAbsent(module.getName(), name -> new ArrayList<>()).add(module);
+            }
+        }
+    }
+
+    /**
+     * Scans the poms of the repositories cloned in the subdirectories of the base directory.
+     */
+    public static MavenModuleIndex scan(FilePath basedir, List<GitHubRepository> repos) throws IOException, InterruptedException {
+        List<String> repoNames = new ArrayList<>();
+        repos.forEach(repo -> repoNames.add(repo.getName()));
+        return new MavenModuleIndex(basedir.act(new ScanRepositoriesCallable(repoNames)));
+    }
+
+    /**
+     * Scans the poms of single repository, cloned in the specified directory.
+     *
+     * @return modules of the repository, empty list if the repository does not contain pom.xml
+     */
+    public static List<MavenModule> scanRepository(FilePath repoDir, String repoName) throws IOException, InterruptedException {
+        return repoDir.act(new ScanRepositoryCallable(repoName));
+    }
+
+    public Set<String> getRepositories() {
+        return modulesByRepo.keySet();
+    }
+
+    public List<MavenModule> getModules(String repo) {
+        return modulesByRepo.getOrDefault(repo, Collections.emptyList());
+    }
+
+    /**
+     * @param key module key, see {@link MavenModule#getKey()}
+     * @return the module, or null if none of the repositories contains it
+     */
+    public MavenModule findModule(String key) {
+        return modulesByKey.get(key);
+    }
+
+    /**
+     * @param name module name, as displayed by Maven
+     * @return modules with the specified name (there might be more of them, names are not unique)
+     */
+    public List<MavenModule> findModulesByName(String name) {
+        return modulesByName.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * @return for every repository, the other repositories (from the index) its modules depend on
+     */
+    public Map<String, Set<String>> getRepositoryDependencies() {
+        Map<String, Set<String>> repoDependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, List<MavenModule>> repoModules : modulesByRepo.entrySet()) {
+            String repo = repoModules.getKey();
+            Set<String> dependencies = new LinkedHashSet<>();
+            for (MavenModule module : repoModules.getValue()) {
+                for (String dependencyKey : module.getDependencies()) {
+                    MavenModule dependency = modulesByKey.get(dependencyKey);
+                    if (dependency != null && !dependency.getRepository().equals(repo)) {
+                        dependencies.add(dependency.getRepository());
+                    }
+                }
+            }
+            repoDependencies.put(repo, dependencies);
+        }
+        return repoDependencies;
+    }
+
+    /**
+     * Parses the pom.xml in the repository root and the poms of all the (transitive) modules, including the ones
+     * declared in profiles (see {@link MavenModule#isProfileOnly()}).
+     *
+     * @return modules of the repository, empty list if the repository does not contain pom.xml
+     */
+    public static List<MavenModule> scanRepository(File repoDir, String repoName) throws IOException {
+        return scanRepository(new LocalRepositoryFiles(repoDir), repoName);
+    }
+
+    /**
+     * Same as {@link #scanRepository(File, String)}, reading the poms using the specified {@link RepositoryFiles}, e.g.
+     * directly from git objects.
+     */
+    public static List<MavenModule> scanRepository(RepositoryFiles files, String repoName) throws IOException {
+        List<MavenModule> modules = new ArrayList<>();
+        scanModule("pom.xml", false, files, repoName, modules, new HashSet<>());
+        return modules;
+    }
+
+    private static void scanModule(String pomPath, boolean profileOnly, RepositoryFiles files, String repoName,
+                                   List<MavenModule> modules, Set<String> visited) throws IOException {
+        if (!visited.add(pomPath)) {
+            return;
+        }
+        Element project;
+        try (InputStream pom = files.openFile(pomPath)) {
+            if (pom == null) {
+                return;
+            }
+            project = parsePom(pom, pomPath);
+        }
+        Element parent = child(project, "parent");
+        String parentGroupId = parent == null ? null : childText(parent, "groupId");
+        String groupId = childText(project, "groupId");
+        if (groupId == null) {
+            groupId = parentGroupId;
+        }
+        String artifactId = childText(project, "artifactId");
+        String name = childText(project, "name");
+
+        Set<String> dependencies = new LinkedHashSet<>();
+        if (parent != null) {
+            addDependency(dependencies, parent, groupId, parentGroupId, null);
+        }
+        for (Element dependency : children(child(project, "dependencies"), "dependency")) {
+            addDependency(dependencies, dependency, groupId, parentGroupId, null);
+        }
+        for (Element dependency : children(child(child(project, "dependencyManagement"), "dependencies"), "dependency")) {
+            // only the imported BOMs need to be built before the module
+            if ("import".equals(childText(dependency, "scope"))) {
+                addDependency(dependencies, dependency, groupId, parentGroupId, null);
+            }
+        }
+        for (Element plugin : children(child(child(project, "build"), "plugins"), "plugin")) {
+            addDependency(dependencies, plugin, groupId, parentGroupId, DEFAULT_PLUGIN_GROUP_ID);
+        }
+        int lastSlash = pomPath.lastIndexOf('/');
+        String path = lastSlash < 0 ? "" : pomPath.substring(0, lastSlash);
+        modules.add(new MavenModule(repoName, path, groupId, artifactId, name == null ? artifactId : name, dependencies, profileOnly));
+
+        // the modules declared outside of the profiles go first, so the ones declared in both places are not profile-only
+        for (Element module : children(child(project, "modules"), "module")) {
+            scanModule(resolveModulePom(path, module, files), profileOnly, files, repoName, modules, visited);
+        }
+        for (Element profile : children(child(project, "profiles"), "profile")) {
+            for (Element module : children(child(profile, "modules"), "module")) {
+                scanModule(resolveModulePom(path, module, files), true, files, repoName, modules, visited);
+            }
+        }
+    }
+
+    private static String resolveModulePom(String parentPath, Element module, RepositoryFiles files) throws IOException {
+        String modulePath = resolvePath(parentPath, module.getTextContent().trim());
+        if (files.isDirectory(modulePath)) {
+            modulePath = resolvePath(modulePath, "pom.xml");
+        }
+        return modulePath;
+    }
+
+    /**
+     * @return normalized path (using forward slashes) of the path relative to the specified directory
+     */
+    static String resolvePath(String dir, String relativePath) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : (dir + "/" + relativePath).split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment) && !segments.isEmpty() && !"..".equals(segments.peekLast())) {
+                segments.removeLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static void addDependency(Set<String> dependencies, Element dependency, String projectGroupId, String parentGroupId,
+                                      String defaultGroupId) {
+        String groupId = childText(dependency, "groupId");
+        if (groupId == null) {
+            groupId = defaultGroupId;
+        } else if ("${project.groupId}".equals(groupId) || "${pom.groupId}".equals(groupId)) {
+            groupId = projectGroupId;
+        } else if ("${project.parent.groupId}".equals(groupId)) {
+            groupId = parentGroupId;
+        }
+        String artifactId = childText(dependency, "artifactId");
+        if (groupId != null && artifactId != null) {
+            dependencies.add(MavenModule.toKey(groupId, artifactId));
+        }
+    }
+
+    private static Element parsePom(InputStream pom, String pomPath) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(pom).getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Can not parse " + pomPath, e);
+        }
+    }
+
+    private static Element child(Element element, String name) {
+        if (element == null) {
+            return null;
+        }
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element element, String name) {
+        List<Element> children = new ArrayList<>();
+        if (element == null) {
+            return children;
+        }
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static String childText(Element element, String name) {
+        Element child = child(element, name);
+        if (child == null) {
+            return null;
+        }
+        String text = child.getTextContent().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Read-only access to the files of a repository, using paths relative to the repository root.
+     */
+    public interface RepositoryFiles {
+
+        /**
+         * @return stream with the content of the file, or null if there is no such file
+         */
+        InputStream openFile(String path) throws IOException;
+
+        boolean isDirectory(String path) throws IOException;
+    }
+
+    private static class LocalRepositoryFiles implements RepositoryFiles {
+        private final File repoDir;
+
+        private LocalRepositoryFiles(File repoDir) {
+            this.repoDir = repoDir;
+        }
+
+        @Override
+        public InputStream openFile(String path) throws IOException {
+            File file = new File(repoDir, path);
+            return file.isFile() ? new FileInputStream(file) : null;
+        }
+
+        @Override
+        public boolean isDirectory(String path) {
+            return new File(repoDir, path).isDirectory();
+        }
+    }
+
+    /**
+     * Scans the repositories on the agent, so that the poms do not need to be transferred to the controller.
+     */
+    private static class ScanRepositoriesCallable extends MasterToSlaveFileCallable<Map<String, List<MavenModule>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> repoNames;
+
+        private ScanRepositoriesCallable(List<String> repoNames) {
+            this.repoNames = repoNames;
+        }
+
+        @Override
+        public Map<String, List<MavenModule>> invoke(File basedir, VirtualChannel channel) throws IOException {
+            Map<String, List<MavenModule>> modulesByRepo = new LinkedHashMap<>();
+            for (String repoName : repoNames) {
+                modulesByRepo.put(repoName, scanRepository(new File(basedir, repoName), repoName));
+            }
+            return modulesByRepo;
+        }
+    }
+
+    private static class ScanRepositoryCallable extends MasterToSlaveFileCallable<List<MavenModule>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String repoName;
+
+        private ScanRepositoryCallable(String repoName) {
+            this.repoName = repoName;
+        }
+
+        @Override
+        public List<MavenModule> invoke(File repoDir, VirtualChannel channel) throws IOException {
+            return scanRepository(repoDir, repoName);
+        }
+    }
+}
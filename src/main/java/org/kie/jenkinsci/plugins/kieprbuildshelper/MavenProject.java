@@ -15,15 +15,26 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Proc;
 import hudson.model.BuildListener;
+import hudson.model.TaskListener;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 
 public class MavenProject {
 
@@ -32,6 +43,8 @@ public class MavenProject {
     private final String mavenOpts;
     private final Launcher launcher;
     private final BuildListener listener;
+    private MavenDaemon mavenDaemon;
+    private MavenLogPipeline.Statistics logStatistics;
 
     public MavenProject(FilePath projectBasedir, String mavenHome, String mavenOpts, Launcher launcher, BuildListener listener) {
         this.projectBasedir = projectBasedir;
@@ -41,6 +54,13 @@ public class MavenProject {
         this.listener = listener;
     }
 
+    /**
+     * @param mavenDaemon daemon executing the builds instead of a new Maven JVM, or null to use the plain mvn
+     */
+    public void setMavenDaemon(MavenDaemon mavenDaemon) {
+        this.mavenDaemon = mavenDaemon;
+    }
+
     /**
      * Builds this Maven project using the specified arguments.
      *
@@ -49,18 +69,58 @@ public class MavenProject {
      * @param buildLogger    build logger used to print info messages about the progress
      */
     public void build(String mavenArgLine, EnvVars envVars, PrintStream buildLogger) {
+        build(mavenArgLine, envVars, buildLogger, listener.getLogger());
+    }
+
+    /**
+     * Builds this Maven project using the specified arguments.
+     *
+     * @param mavenArgLine   Maven argument line with goals, profiles, etc
+     * @param envVars        environmental variables passed to the Maven process
+     * @param buildLogger    build logger used to print info messages about the progress
+     * @param output         stream the output of the Maven process is written to
+     */
+    public void build(String mavenArgLine, EnvVars envVars, PrintStream buildLogger, OutputStream output) {
+        build(mavenArgLine, envVars, buildLogger, output, null);
+    }
+
+    /**
+     * Builds this Maven project using the specified arguments. In case the log file is specified, the Maven process is
+     * started directly on the agent and its output is processed there (see {@link MavenLogPipeline}), only the filtered
+     * output is written to the specified stream.
+     *
+     * @param mavenArgLine   Maven argument line with goals, profiles, etc
+     * @param envVars        environmental variables passed to the Maven process
+     * @param buildLogger    build logger used to print info messages about the progress
+     * @param output         stream the (filtered) output of the Maven process is written to
+     * @param logFile        compressed log file on the agent the full output is written to, or null to write the full
+     *                       output to the output stream
+     */
+    public void build(String mavenArgLine, EnvVars envVars, PrintStream buildLogger, OutputStream output, FilePath logFile) {
         int exitCode;
         try {
             envVars.put("MAVEN_OPTS", mavenOpts);
             buildLogger.println("MAVEN_OPTS=" + envVars.get("MAVEN_OPTS"));
-            Proc proc = launcher.launch()
-                    .cmdAsSingleString(mavenHome + "/bin/mvn " + mavenArgLine.trim())
-                    .envs(envVars)
-                    .pwd(projectBasedir)
-                    .stdout(listener.getLogger())
-                    .stderr(listener.getLogger())
-                    .start();
-            exitCode = proc.join();
+            String command = mavenDaemon == null ?
+                    mavenHome + "/bin/mvn " + mavenArgLine.trim() :
+                    mavenDaemon.createCommand(mavenArgLine, mavenOpts);
+            if (logFile == null) {
+                Proc proc = launcher.launch()
+                        .cmdAsSingleString(command)
+                        .envs(envVars)
+                        .pwd(projectBasedir)
+                        .stdout(output)
+                        .stderr(output)
+                        .start();
+                exitCode = proc.join();
+            } else {
+                ProcessResult result = logFile.act(new BuildCallable(command, envVars, projectBasedir.getRemote(),
+                                                                     new RemoteOutputStream(output), listener));
+                exitCode = result.exitCode;
+                logStatistics = result.statistics;
+                buildLogger.println(logStatistics + ", full log stored in " + logFile.getRemote() + " (" +
+                                            FormatUtils.formatBytes(result.logFileBytes) + ").");
+            }
         } catch (Exception e) {
             throw new RuntimeException("Error while executing Maven process!", e);
         }
@@ -69,28 +129,84 @@ public class MavenProject {
         }
     }
 
-    private static final String CLEAN_UP_SCRIPT =
-            "find . -type d -wholename '*/target/*wildfly*Final' -prune -exec rm -rf {} \\;\n" +
-            "find . -type d -wholename '*/target/cargo' -prune -exec rm -rf {} \\;\n" +
-            "find . -type d -name 'gwt-unitCache' -prune -exec rm -rf {} \\;";
+    /**
+     * @return statistics of the Maven output of the last build with the log file, null if there was no such build
+     */
+    public MavenLogPipeline.Statistics getLogStatistics() {
+        return logStatistics;
+    }
 
-    public void cleanUpBuildArtifacts(FilePath workspace) {
-        FilePath cleanUpScript = new FilePath(workspace, "clean-up-script.sh");
-        int exitCode;
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(CLEAN_UP_SCRIPT.getBytes(StandardCharsets.UTF_8))){
-            cleanUpScript.copyFrom(bais);
-            Proc proc = launcher.launch()
-                    .cmdAsSingleString("sh " + cleanUpScript.getRemote())
-                    .pwd(projectBasedir)
-                    .stdout(listener.getLogger())
-                    .stderr(listener.getLogger())
-                    .start();
-            exitCode = proc.join();
+    /**
+     * Deletes the build artifacts not needed after the build, see {@link CleanUpBuildArtifactsCallable}.
+     *
+     * @param patterns glob patterns of the directories to delete
+     */
+    public CleanUpBuildArtifactsCallable.CleanUpResult cleanUpBuildArtifacts(List<String> patterns) {
+        try {
+            CleanUpBuildArtifactsCallable.CleanUpResult result = projectBasedir.act(new CleanUpBuildArtifactsCallable(patterns));
+            listener.getLogger().println("Clean-up of build artifacts in " + projectBasedir.getRemote() + ": " + result + ".");
+            return result;
         } catch (Exception e) {
-            throw new RuntimeException("Error while executing clean-up script '" + cleanUpScript.getRemote() + "'!", e);
+            throw new RuntimeException("Error while cleaning-up build artifacts in '" + projectBasedir.getRemote() + "'!", e);
         }
-        if (exitCode != 0) {
-            throw new RuntimeException("Error while executing clean-up script, non-zero exit code!");
+    }
+
+    private static class ProcessResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int exitCode;
+        private final MavenLogPipeline.Statistics statistics;
+        private final long logFileBytes;
+
+        private ProcessResult(int exitCode, MavenLogPipeline.Statistics statistics, long logFileBytes) {
+            this.exitCode = exitCode;
+            this.statistics = statistics;
+            this.logFileBytes = logFileBytes;
+        }
+    }
+
+    /**
+     * Runs the Maven process on the agent, passing its output through the {@link MavenLogPipeline}. The console
+     * stream is a remote stream of the build log, so only the filtered output crosses the channel.
+     */
+    private static class BuildCallable extends MasterToSlaveFileCallable<ProcessResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String command;
+        private final EnvVars envVars;
+        private final String workingDir;
+        private final OutputStream console;
+        private final TaskListener listener;
+
+        private BuildCallable(String command, EnvVars envVars, String workingDir, OutputStream console, TaskListener listener) {
+            this.command = command;
+            this.envVars = envVars;
+            this.workingDir = workingDir;
+            this.console = console;
+            this.listener = listener;
+        }
+
+        @Override
+        public ProcessResult invoke(File logFile, VirtualChannel channel) throws IOException, InterruptedException {
+            Files.createDirectories(logFile.getParentFile().toPath());
+            MavenLogPipeline pipeline = new MavenLogPipeline(console, new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(logFile)), 64 * 1024), MavenLogPipeline.DEFAULT_TAIL_LINES);
+            int exitCode;
+            try {
+                // killed in case the build gets aborted (the thread executing the callable gets interrupted)
+                exitCode = new Launcher.LocalLauncher(listener).launch()
+                        .cmdAsSingleString(command)
+                        .envs(envVars)
+                        .pwd(workingDir)
+                        .stdout(pipeline)
+                        .join();
+                if (exitCode != 0) {
+                    pipeline.dumpTail();
+                }
+            } finally {
+                pipeline.close();
+            }
+            return new ProcessResult(exitCode, pipeline.getStatistics(), logFile.length());
         }
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.console.LineTransformationOutputStream;
+
+/**
+ * Passes the Maven output through, while collecting the module results printed in the reactor summary at the end of
+ * the build.
+ */
+public class MavenReactorSummary extends LineTransformationOutputStream {
+
+    public static final String SUCCESS = "SUCCESS";
+    public static final String FAILURE = "FAILURE";
+    public static final String SKIPPED = "SKIPPED";
+    public static final String NOT_BUILT = "NOT BUILT";
+
+    /**
+     * E.g. "[INFO] KIE :: Drools Core ........................... SUCCESS [ 12.345 s]", long names are not padded with
+     * the dots. The overall "[INFO] BUILD SUCCESS" line is excluded.
+     */
+    static final Pattern SUMMARY_LINE_PATTERN =
+            Pattern.compile("^\\[INFO\\] (?!BUILD \\w+$)(.+?) \\.* ?(" + SUCCESS + "|" + FAILURE + "|" + SKIPPED + ")( \\[.*\\])?\\s*$");
+
+    private final OutputStream delegate;
+    private final Map<String, String> moduleResults = new LinkedHashMap<>();
+
+    public MavenReactorSummary(OutputStream delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        delegate.write(b, 0, len);
+        Matcher matcher = SUMMARY_LINE_PATTERN.matcher(trimEOL(new String(b, 0, len, StandardCharsets.UTF_8)));
+        if (matcher.matches()) {
+            synchronized (moduleResults) {
+                moduleResults.put(matcher.group(1).trim(), matcher.group(2));
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // flushes the last unterminated line, the delegate is the build log, so do not close it
+        forceEol();
+        delegate.flush();
+    }
+
+    /**
+     * @return results of the modules, keyed by the module name, in the order they were printed
+     */
+    public Map<String, String> getModuleResults() {
+        synchronized (moduleResults) {
+            return new LinkedHashMap<>(moduleResults);
+        }
+    }
+
+    /**
+     * Maps the module results back to the repositories. Repository failed in case any of its modules failed, was
+     * skipped in case any of its modules was skipped and succeeded in case all of its modules succeeded.
+     *
+     * @return results of the specified repositories, {@link #NOT_BUILT} for the repositories not found in the summary
+     */
+    public Map<String, String> getRepositoryResults(MavenModuleIndex index, Collection<String> repos) {
+        Map<String, String> repoResults = new LinkedHashMap<>();
+        repos.forEach(repo -> repoResults.put(repo, NOT_BUILT));
+        for (Map.Entry<String, String> moduleResult : getModuleResults().entrySet()) {
+            // module names are not unique, so attribute the result to all the candidate repositories
+            List<MavenModule> modules = index.findModulesByName(moduleResult.getKey());
+            for (MavenModule module : modules) {
+                String current = repoResults.get(module.getRepository());
+                if (current != null) {
+                    repoResults.put(module.getRepository(), worse(current, moduleResult.getValue()));
+                }
+            }
+        }
+        return repoResults;
+    }
+
+    private static String worse(String current, String result) {
+        return severity(result) > severity(current) ? result : current;
+    }
+
+    private static int severity(String result) {
+        switch (result) {
+            case FAILURE:
+                return 3;
+            case SKIPPED:
+                return 2;
+            case SUCCESS:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
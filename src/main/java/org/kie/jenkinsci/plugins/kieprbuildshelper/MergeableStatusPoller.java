@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GitHub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controller-wide service which polls GitHub for the mergeable status of PRs. GitHub computes the status
+ * asynchronously, so it is usually not available right after the PR gets created or updated.
+ *
+ * Requests for the same PR are deduplicated, so concurrent builds share single polling loop. Computed results are cached
+ * by the PR head and base SHAs, so the status of PR which did not change since the last time is never polled again.
+ * The polling interval adapts to how long GitHub took to compute the status for the previous PRs.
+ */
+public class MergeableStatusPoller {
+
+    private static final Logger logger = LoggerFactory.getLogger(MergeableStatusPoller.class);
+
+    private static final long MIN_POLL_INTERVAL_MILLIS = 500;
+    private static final long MAX_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    static final long MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final int MAX_CACHED_RESULTS = 1000;
+
+    private static final MergeableStatusPoller INSTANCE = new MergeableStatusPoller(
+            Executors.newScheduledThreadPool(2, new NamingThreadFactory(new DaemonThreadFactory(), "KIE mergeable status poller")),
+            System::currentTimeMillis);
+
+    public static MergeableStatusPoller getInstance() {
+        return INSTANCE;
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> pendingPolls = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> cachedResults = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            });
+
+    /**
+     * Exponential moving average of the time GitHub needed to compute the mergeable status. Used as the initial
+     * polling interval.
+     */
+    private final AtomicLong averageComputationMillis = new AtomicLong(TimeUnit.SECONDS.toMillis(2));
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+
+    MergeableStatusPoller(ScheduledExecutorService scheduler, LongSupplier clock) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the cached mergeable status for the specified PR, in case it was already computed for its current head and base.
+     */
+    public Boolean getCachedStatus(GHPullRequest pr, GitHubRepository repo) {
+        Boolean cached = cachedResults.get(cacheKey(pr, repo));
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Records already known mergeable status, e.g. the one returned directly with the PR.
+     */
+    public void cacheStatus(GHPullRequest pr, GitHubRepository repo, boolean mergeable) {
+        cachedResults.put(cacheKey(pr, repo), mergeable);
+    }
+
+    /**
+     * Gets the mergeable status for the specified PR. The returned future is completed once GitHub finishes computing
+     * the status, or completed exceptionally in case GitHub did not manage to do so in time.
+     *
+     * @param pr     the PR to get the status for
+     * @param repo   GitHub repository the PR was submitted against
+     * @param github configured Github instance used to talk to Github REST API
+     * @return future mergeable status
+     */
+    public CompletableFuture<Boolean> getMergeableStatus(GHPullRequest pr, GitHubRepository repo, GitHub github) {
+        String key = cacheKey(pr, repo);
+        Boolean cached = cachedResults.get(key);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+        return pendingPolls.computeIfAbsent(key, k -> {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            future.whenComplete((mergeable, error) -> {
+                if (mergeable != null) {
+                    cachedResults.put(key, mergeable);
+                }
+                pendingPolls.remove(key);
+            });
+            long startTime = clock.getAsLong();
+            // the requests are attributed to the build which started the polling
+            GitHubRequestScheduler.BuildBudget budget = GitHubRequestScheduler.getCurrentBudget();
+            schedulePoll(future, repo, pr.getNumber(), github, budget, startTime, averageComputationMillis.get(), 1);
+            return future;
+        });
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     * @param attempt number of the poll, starting from 1
+     */
+    private void schedulePoll(CompletableFuture<Boolean> future, GitHubRepository repo, int prNumber, GitHub github,
+                              GitHubRequestScheduler.BuildBudget budget, long startTime, long delayMillis, int attempt) {
+        long delay = Math.max(MIN_POLL_INTERVAL_MILLIS, Math.min(delayMillis, MAX_POLL_INTERVAL_MILLIS));
+        scheduler.schedule(() -> {
+            GitHubRequestScheduler.BuildBudget previous = GitHubRequestScheduler.setCurrentBudget(budget);
+            try {
+                poll(future, repo, prNumber, github, budget, startTime, delay, attempt);
+            } finally {
+                GitHubRequestScheduler.setCurrentBudget(previous);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(CompletableFuture<Boolean> future, GitHubRepository repo, int prNumber, GitHub github,
+                      GitHubRequestScheduler.BuildBudget budget, long startTime, long lastDelayMillis, int attempt) {
+        polls.incrementAndGet();
+        if (budget != null) {
+            budget.recordMergeablePoll();
+        }
+        logger.debug("Trying to get mergeable status for PR #{}, repo {}", prNumber, repo);
+        try {
+            // this is a workaround for incomplete json message received by github api (in some cases). The mergeable
+            // status is sometimes 'null' and subsequent calls to pr.getMergeable() won't fetch the updated content
+            GHPullRequest pr = github.getRepository(repo.getFullName()).getPullRequest(prNumber);
+            Boolean mergeable = pr.getMergeable();
+            if (mergeable != null) {
+                long computationMillis = clock.getAsLong() - startTime;
+                averageComputationMillis.updateAndGet(average -> (3 * average + computationMillis) / 4);
+                // the head might have been updated in the meantime, so cache the result for the PR we got
+                cacheStatus(pr, repo, mergeable);
+                PluginMetrics.getInstance().recordMergeablePollAttempts(attempt);
+                future.complete(mergeable);
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to get mergeable status for PR #{}, repo {}", prNumber, repo, e);
+        }
+        if (clock.getAsLong() - startTime > MAX_WAIT_MILLIS) {
+            PluginMetrics.getInstance().recordMergeablePollAttempts(attempt);
+            future.completeExceptionally(new IllegalStateException("Failed to get mergeable status for PR #" + prNumber +
+                                                                           ", repo " + repo + " in " + MAX_WAIT_MILLIS + " ms"));
+        } else {
+            schedulePoll(future, repo, prNumber, github, budget, startTime, lastDelayMillis * 2, attempt + 1);
+        }
+    }
+
+    private static String cacheKey(GHPullRequest pr, GitHubRepository repo) {
+        return repo.getFullName().toLowerCase(Locale.ENGLISH) + "#" + pr.getNumber() + "@" + pr.getHead().getSha() + ":" + pr.getBase().getSha();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with fixed bucket boundaries, exposed as a Prometheus histogram (see {@link PluginMetrics}).
+ *
+ * The boundaries grow exponentially with linear sub-buckets between the powers of two (similar to
+ * HdrHistogram), so the relative error of the recorded values is bounded no matter their magnitude. Every bucket is
+ * a striped {@link LongAdder}, so concurrent builds recording the values do not contend on a single counter.
+ */
+public class MetricsHistogram {
+
+    /**
+     * Number of linear sub-buckets between two powers of two.
+     */
+    private static final int SUB_BUCKETS = 2;
+
+    private final long[] upperBounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param lowestBound  upper bound of the first bucket
+     * @param highestBound values higher than this are counted only in the +Inf bucket
+     */
+    public MetricsHistogram(long lowestBound, long highestBound) {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(lowestBound);
+        for (long power = Long.highestOneBit(lowestBound); bounds.get(bounds.size() - 1) < highestBound; power *= 2) {
+            for (int i = 1; i <= SUB_BUCKETS; i++) {
+                long bound = power + power * i / SUB_BUCKETS;
+                if (bound > bounds.get(bounds.size() - 1)) {
+                    bounds.add(bound);
+                }
+            }
+        }
+        upperBounds = bounds.stream().mapToLong(Long::longValue).toArray();
+        buckets = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        buckets[bucketIndex(value)].increment();
+        sum.add(value);
+    }
+
+    private int bucketIndex(long value) {
+        int low = 0;
+        int high = upperBounds.length;
+        // the first bucket with upper bound >= value, or the +Inf bucket
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (upperBounds[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return upper bounds of the buckets, without the +Inf bucket
+     */
+    public long[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * @return cumulative counts (number of values lower or equal to the bucket upper bound) of the buckets, the last
+     *         one being the +Inf bucket, i.e. the total count
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            counts[i] = cumulative;
+        }
+        return counts;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controller-wide index of open pull requests, keyed by repository. For every repository it maps
+ * (head owner, head branch) to the PR number, so that finding the PR for specific branch does not require
+ * paging through all open PRs for every single build.
+ *
+ * The index for each repository is kept for {@link #DEFAULT_TTL_MILLIS} and then revalidated using conditional
+ * (If-None-Match) requests. Responses with status 304 do not count against the GitHub API rate limit. The number of
+ * indexed repositories is bounded, the least recently used ones are evicted first.
+ *
+ * A lookup which does not find the PR in a fresh index revalidates it as well, so that PRs opened after the last
+ * refresh are found right away. Such revalidation costs only the (free) 304 responses in case nothing changed, still
+ * every page needs to be requested, so the index is revalidated this way at most once per
+ * {@link #DEFAULT_NEGATIVE_TTL_MILLIS}.
+ */
+public class OpenPullRequestIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenPullRequestIndex.class);
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    public static final int DEFAULT_MAX_REPOSITORIES = 200;
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final OpenPullRequestIndex INSTANCE =
+            new OpenPullRequestIndex(DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_MAX_REPOSITORIES,
+                                     System::currentTimeMillis);
+
+    public static OpenPullRequestIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LongSupplier clock;
+    private final Map<GitHubRepository, RepositoryEntry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong negativeRevalidations = new AtomicLong();
+    private final AtomicLong notModifiedPages = new AtomicLong();
+    private final AtomicLong fetchedPages = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttlMillis         time after which the index of a repository is revalidated
+     * @param negativeTtlMillis time within which a lookup not finding the PR does not revalidate the index again
+     */
+    OpenPullRequestIndex(long ttlMillis, long negativeTtlMillis, final int maxRepositories, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<GitHubRepository, RepositoryEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GitHubRepository, RepositoryEntry> eldest) {
+                if (size() > maxRepositories) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Finds number of the open PR with the specified head.
+     *
+     * @param repo       GitHub repository the PR was submitted against
+     * @param headBranch source branch of the PR
+     * @param headOwner  owner of the fork the PR was submitted from
+     * @param client     client used to (re)fetch the open PRs in case the index for the repository is not fresh
+     * @return optionally number of the open PR
+     */
+    public Optional<Integer> findPullRequestNumber(GitHubRepository repo, GitBranch headBranch, String headOwner,
+                                                   GitHubRestClient client) throws IOException {
+        RepositoryEntry entry = getOrCreateEntry(repo);
+        // lock only the single repository, so that concurrent builds wait for one refresh instead of each doing its own
+        synchronized (entry) {
+            String headKey = headKey(headOwner, headBranch.getName());
+            long now = clock.getAsLong();
+            if (!entry.isFresh(now, ttlMillis)) {
+                misses.incrementAndGet();
+                refresh(repo, entry, client);
+                entry.lastRefreshed = now;
+            } else if (entry.prNumbersByHead.containsKey(headKey) || entry.isFresh(now, negativeTtlMillis)) {
+                hits.incrementAndGet();
+            } else {
+                // the PR might have been opened after the last refresh, the ETags make this cheap if nothing changed
+                misses.incrementAndGet();
+                negativeRevalidations.incrementAndGet();
+                refresh(repo, entry, client);
+                entry.lastRefreshed = now;
+            }
+            return Optional.ofNullable(entry.prNumbersByHead.get(headKey));
+        }
+    }
+
+    /**
+     * Marks the index for specified repository as stale, so it gets revalidated during the next lookup.
+     */
+    public void invalidate(GitHubRepository repo) {
+        RepositoryEntry entry;
+        synchronized (entries) {
+            entry = entries.get(repo);
+        }
+        if (entry != null) {
+            synchronized (entry) {
+                entry.lastRefreshed = Long.MIN_VALUE;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of lookups which revalidated a fresh index because the PR was not found in it, counted as misses
+     *         as well
+     */
+    public long getNegativeRevalidations() {
+        return negativeRevalidations.get();
+    }
+
+    public long getNotModifiedPages() {
+        return notModifiedPages.get();
+    }
+
+    public long getFetchedPages() {
+        return fetchedPages.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public String getStatistics() {
+        return String.format("Open PR index: size=%d, hits=%d, misses=%d, revalidations of not found PRs=%d, pages fetched=%d, " +
+                             "pages not modified (304)=%d, evictions=%d", getSize(), getHits(), getMisses(),
+                             getNegativeRevalidations(), getFetchedPages(), getNotModifiedPages(), getEvictions());
+    }
+
+    private RepositoryEntry getOrCreateEntry(GitHubRepository repo) {
+        synchronized (entries) {
+            return entries.computeIfAbsent(repo, r -> new RepositoryEntry());
+        }
+    }
+
+    private void refresh(GitHubRepository repo, RepositoryEntry entry, GitHubRestClient client) throws IOException {
+        List<Page> pages = new ArrayList<>();
+        int pageNumber = 1;
+        boolean hasNextPage = true;
+        while (hasNextPage) {
+            Page cachedPage = pageNumber <= entry.pages.size() ? entry.pages.get(pageNumber - 1) : null;
+            GitHubRestClient.Response response = client.get(pullsPath(repo, pageNumber), cachedPage == null ? null : cachedPage.etag);
+            Page page;
+            if (response.isNotModified() && cachedPage != null) {
+                notModifiedPages.incrementAndGet();
+                page = cachedPage;
+            } else {
+                fetchedPages.incrementAndGet();
+                page = Page.parse(response);
+            }
+            pages.add(page);
+            hasNextPage = page.hasNextPage;
+            pageNumber++;
+        }
+        entry.update(pages);
+        logger.debug("Refreshed open PR index for {}: {} open PRs in {} pages", repo, entry.prNumbersByHead.size(), pages.size());
+    }
+
+    private static String pullsPath(GitHubRepository repo, int pageNumber) {
+        return "/repos/" + repo.getFullName() + "/pulls?state=open&per_page=" + PAGE_SIZE + "&page=" + pageNumber;
+    }
+
+    private static String headKey(String headOwner, String headBranch) {
+        // GitHub logins are not case sensitive, branch names are
+        return headOwner.toLowerCase(Locale.ENGLISH) + ":" + headBranch;
+    }
+
+    private static class RepositoryEntry {
+        private long lastRefreshed = Long.MIN_VALUE;
+        private List<Page> pages = Collections.emptyList();
+        private Map<String, Integer> prNumbersByHead = Collections.emptyMap();
+
+        private boolean isFresh(long now, long ttlMillis) {
+            return lastRefreshed != Long.MIN_VALUE && now - lastRefreshed < ttlMillis;
+        }
+
+        private void update(List<Page> newPages) {
+            Map<String, Integer> newIndex = new HashMap<>();
+            for (Page page : newPages) {
+                // the same head may be used for several PRs (against different branches), keep the newest one
+                page.prNumbersByHead.forEach(newIndex::putIfAbsent);
+            }
+            this.pages = newPages;
+            this.prNumbersByHead = newIndex;
+        }
+    }
+
+    private static class Page {
+        private final String etag;
+        private final boolean hasNextPage;
+        private final Map<String, Integer> prNumbersByHead;
+
+        private Page(String etag, boolean hasNextPage, Map<String, Integer> prNumbersByHead) {
+            this.etag = etag;
+            this.hasNextPage = hasNextPage;
+            this.prNumbersByHead = prNumbersByHead;
+        }
+
+        private static Page parse(GitHubRestClient.Response response) {
+            Map<String, Integer> prNumbersByHead = new HashMap<>();
+            JSONArray prs = JSONArray.fromObject(response.getBody());
+            for (int i = 0; i < prs.size(); i++) {
+                JSONObject pr = prs.getJSONObject(i);
+                JSONObject head = pr.getJSONObject("head");
+                JSONObject headRepo = head.optJSONObject("repo");
+                if (headRepo == null || headRepo.isNullObject()) {
+                    // the fork the PR was submitted from has been deleted in the meantime
+                    continue;
+                }
+                String headOwner = headRepo.getJSONObject("owner").getString("login");
+                prNumbersByHead.putIfAbsent(headKey(headOwner, head.getString("ref")), pr.getInt("number"));
+            }
+            return new Page(response.getEtag(), response.hasNextPage(), prNumbersByHead);
+        }
+    }
+}
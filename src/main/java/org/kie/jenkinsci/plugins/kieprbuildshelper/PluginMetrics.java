@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Controller-wide metrics of the builders, exposed in the Prometheus text format (see {@link PluginMetricsAction}).
+ * Complements the per-build {@link BuildPerformanceAction}, which the metrics are recorded from once the build finishes.
+ *
+ * All the counters and histograms are lock-free ({@link LongAdder}s), so recording the metrics never blocks the builds.
+ * The statistics of the controller-wide caches are read when the metrics are rendered.
+ */
+public class PluginMetrics {
+
+    private static final String PREFIX = "kie_pr_";
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private static final PluginMetrics INSTANCE = new PluginMetrics(System::currentTimeMillis);
+
+    public static PluginMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<String, LongAdder> builds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final MetricsHistogram gitHubRequestsPerBuild = new MetricsHistogram(1, 10_000);
+    private final MetricsHistogram mergeablePollAttempts = new MetricsHistogram(1, 100);
+    private final ConcurrentMap<String, MetricsHistogram> phaseDurations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MetricsHistogram> cloneDurations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MetricsHistogram> mavenDurations = new ConcurrentHashMap<>();
+
+    /**
+     * Number of builds finished in the individual minutes of the last hour, the slot of a minute is reused once the
+     * minute is older than an hour.
+     */
+    private final AtomicLongArray minuteBuilds = new AtomicLongArray(MINUTES_PER_HOUR);
+    private final AtomicLongArray minuteIds = new AtomicLongArray(MINUTES_PER_HOUR);
+
+    PluginMetrics(LongSupplier clock) {
+        this.clock = clock;
+        for (int i = 0; i < MINUTES_PER_HOUR; i++) {
+            minuteIds.set(i, -1);
+        }
+    }
+
+    /**
+     * Records the metrics of a finished build.
+     */
+    public void recordBuild(BuildPerformanceAction performance) {
+        boolean failed = performance.isFailed();
+        increment(builds, labels("builder", performance.getBuilder(), "result", failed ? "failure" : "success"));
+        if (failed) {
+            String failedPhase = performance.getFailedPhase();
+            increment(failures, labels("phase", failedPhase == null ? "unknown" : failedPhase));
+        }
+        Long gitHubRequests = performance.getCounters().get(BuildPerformanceAction.GITHUB_REQUESTS);
+        if (gitHubRequests != null) {
+            gitHubRequestsPerBuild.record(gitHubRequests);
+        }
+        performance.getPhaseDurations().forEach((phase, millis) -> durationHistogram(phaseDurations, labels("phase", phase)).record(millis));
+        performance.getCloneDurations().forEach((repo, millis) -> durationHistogram(cloneDurations, labels("repo", repo)).record(millis));
+        performance.getMavenDurations().forEach((repo, millis) -> durationHistogram(mavenDurations, labels("repo", repo)).record(millis));
+        recordBuildFinished();
+    }
+
+    /**
+     * @param attempts number of polls needed to get the mergeable status of single PR
+     */
+    public void recordMergeablePollAttempts(int attempts) {
+        mergeablePollAttempts.record(attempts);
+    }
+
+    /**
+     * @return number of builds finished within the last hour
+     */
+    public long getBuildsInLastHour() {
+        long currentMinute = currentMinute();
+        long count = 0;
+        for (int i = 0; i < MINUTES_PER_HOUR; i++) {
+            if (currentMinute - minuteIds.get(i) < MINUTES_PER_HOUR) {
+                count += minuteBuilds.get(i);
+            }
+        }
+        return count;
+    }
+
+    private void recordBuildFinished() {
+        long minute = currentMinute();
+        int slot = (int) (minute % MINUTES_PER_HOUR);
+        long slotMinute = minuteIds.get(slot);
+        if (slotMinute != minute && minuteIds.compareAndSet(slot, slotMinute, minute)) {
+            // builds finishing right at the minute boundary might get lost, that is fine for a gauge
+            minuteBuilds.set(slot, 0);
+        }
+        minuteBuilds.incrementAndGet(slot);
+    }
+
+    private long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(clock.getAsLong());
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text exposition format
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        writeCounters(out, "builds_total", "Finished builds, by builder and result", builds);
+        writeCounters(out, "build_failures_total", "Failed builds, by the phase they failed in", failures);
+        writeGauge(out, "builds_last_hour", "Builds finished within the last hour", getBuildsInLastHour());
+        writeHistogram(out, "github_requests_per_build", "GitHub API requests made by single build", "", gitHubRequestsPerBuild, false);
+        writeHistogram(out, "mergeable_poll_attempts", "Polls needed to get the mergeable status of single PR", "", mergeablePollAttempts, false);
+        writeHistograms(out, "phase_duration_seconds", "Duration of the build phases", phaseDurations);
+        writeHistograms(out, "clone_duration_seconds", "Clone duration, by repository", cloneDurations);
+        writeHistograms(out, "maven_duration_seconds", "Maven build duration, by repository", mavenDurations);
+
+        RepositoryListCache repositoryListCache = RepositoryListCache.getInstance();
+        writeCounter(out, "repository_list_cache_hits_total", "Repository lists served from the cache", repositoryListCache.getHits());
+        writeCounter(out, "repository_list_cache_not_modified_total", "Repository lists revalidated using conditional requests",
+                     repositoryListCache.getNotModified());
+        writeCounter(out, "repository_list_downloads_total", "Repository lists downloaded", repositoryListCache.getDownloads());
+        OpenPullRequestIndex openPullRequestIndex = OpenPullRequestIndex.getInstance();
+        writeCounter(out, "open_pr_index_hits_total", "PR lookups served from the open PR index", openPullRequestIndex.getHits());
+        writeCounter(out, "open_pr_index_misses_total", "PR lookups not served from the open PR index", openPullRequestIndex.getMisses());
+        writeCounter(out, "open_pr_index_fetched_pages_total", "Pages of open PRs fetched from GitHub", openPullRequestIndex.getFetchedPages());
+        writeCounter(out, "open_pr_index_not_modified_pages_total", "Pages of open PRs revalidated using conditional requests",
+                     openPullRequestIndex.getNotModifiedPages());
+        MergeableStatusPoller mergeableStatusPoller = MergeableStatusPoller.getInstance();
+        writeCounter(out, "mergeable_status_cache_hits_total", "Mergeable statuses served from the cache", mergeableStatusPoller.getCacheHits());
+        writeCounter(out, "mergeable_status_polls_total", "Mergeable status polls", mergeableStatusPoller.getPolls());
+        RepositoryDependencyIndex repositoryDependencyIndex = RepositoryDependencyIndex.getInstance();
+        writeCounter(out, "dependency_index_hits_total", "Repositories whose modules were up-to-date in the dependency index",
+                     repositoryDependencyIndex.getHits());
+        writeCounter(out, "dependency_index_scans_total", "Repositories scanned for the dependency index", repositoryDependencyIndex.getScans());
+        writeGauge(out, "github_rate_limit_remaining", "Remaining GitHub API rate limit",
+                   GitHubRequestScheduler.getInstance().getRateLimitRemaining());
+        return out.toString();
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counters, String labels) {
+        counters.computeIfAbsent(labels, key -> new LongAdder()).increment();
+    }
+
+    private static MetricsHistogram durationHistogram(ConcurrentMap<String, MetricsHistogram> histograms, String labels) {
+        // from 100 ms up to 4 hours
+        return histograms.computeIfAbsent(labels, key -> new MetricsHistogram(100, TimeUnit.HOURS.toMillis(4)));
+    }
+
+    /**
+     * @param namesAndValues label names and values, alternating
+     * @return the labels formatted for the Prometheus text format, without the curly braces
+     */
+    static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (labels.length() > 0) {
+                labels.append(',');
+            }
+            String value = namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            labels.append(namesAndValues[i]).append("=\"").append(value).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, String value) {
+        out.append(PREFIX).append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void writeCounter(StringBuilder out, String name, String help, long value) {
+        writeHeader(out, name, help, "counter");
+        writeSample(out, name, "", Long.toString(value));
+    }
+
+    private static void writeGauge(StringBuilder out, String name, String help, long value) {
+        writeHeader(out, name, help, "gauge");
+        writeSample(out, name, "", Long.toString(value));
+    }
+
+    private static void writeCounters(StringBuilder out, String name, String help, Map<String, LongAdder> counters) {
+        writeHeader(out, name, help, "counter");
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            writeSample(out, name, counter.getKey(), Long.toString(counter.getValue().sum()));
+        }
+    }
+
+    private static void writeHistograms(StringBuilder out, String name, String help, Map<String, MetricsHistogram> histograms) {
+        writeHeader(out, name, help, "histogram");
+        for (Map.Entry<String, MetricsHistogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            writeHistogramSamples(out, name, histogram.getKey(), histogram.getValue(), true);
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String help, String labels, MetricsHistogram histogram,
+                                       boolean millisToSeconds) {
+        writeHeader(out, name, help, "histogram");
+        writeHistogramSamples(out, name, labels, histogram, millisToSeconds);
+    }
+
+    private static void writeHistogramSamples(StringBuilder out, String name, String labels, MetricsHistogram histogram,
+                                              boolean millisToSeconds) {
+        long[] upperBounds = histogram.getUpperBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        String labelsPrefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < upperBounds.length; i++) {
+            writeSample(out, name + "_bucket", labelsPrefix + "le=\"" + formatValue(upperBounds[i], millisToSeconds) + "\"",
+                        Long.toString(counts[i]));
+        }
+        writeSample(out, name + "_bucket", labelsPrefix + "le=\"+Inf\"", Long.toString(counts[counts.length - 1]));
+        writeSample(out, name + "_sum", labels, formatValue(histogram.getSum(), millisToSeconds));
+        writeSample(out, name + "_count", labels, Long.toString(counts[counts.length - 1]));
+    }
+
+    private static String formatValue(long value, boolean millisToSeconds) {
+        return millisToSeconds ? String.format(Locale.ENGLISH, "%.3f", value / 1000.0) : Long.toString(value);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes the {@link PluginMetrics} in the Prometheus text format on {@code <Jenkins URL>/kie-pr-metrics/}. Accessing
+ * the metrics requires the overall read permission, same as any other page.
+ */
+@Extension
+public class PluginMetricsAction implements RootAction {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType(CONTENT_TYPE);
+        PrintWriter writer = rsp.getWriter();
+        writer.write(PluginMetrics.getInstance().render());
+        writer.flush();
+    }
+
+    @Override
+    public String getIconFileName() {
+        // not shown in the side panel, meant to be scraped
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "KIE PR builds metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "kie-pr-metrics";
+    }
+}
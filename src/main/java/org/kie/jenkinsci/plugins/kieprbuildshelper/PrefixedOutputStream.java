@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import hudson.console.LineTransformationOutputStream;
+
+/**
+ * Prefixes every line with specified string. Whole lines are written at once, so the output from several streams
+ * (e.g. from repositories being cloned in parallel) sharing the same delegate does not get mixed together.
+ */
+public class PrefixedOutputStream extends LineTransformationOutputStream {
+
+    private final OutputStream delegate;
+    private final byte[] prefix;
+
+    public PrefixedOutputStream(OutputStream delegate, String prefix) {
+        this.delegate = delegate;
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        synchronized (delegate) {
+            delegate.write(prefix);
+            delegate.write(b, 0, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // flushes the last unterminated line, the delegate is shared, so do not close it
+        forceEol();
+        delegate.flush();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.github.GitHub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the open PRs for a specific branch in all the chain repositories at once, using single (paginated) GitHub
+ * GraphQL search query, instead of listing open PRs for every repository separately.
+ *
+ * The query returns the PR head and the mergeable status as well, so in most cases no other request is needed to
+ * create the {@link GitHubPRSummary}.
+ */
+public class PullRequestSearch {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullRequestSearch.class);
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String QUERY =
+            "query($q: String!, $cursor: String) {" +
+            "  search(query: $q, type: ISSUE, first: " + PAGE_SIZE + ", after: $cursor) {" +
+            "    pageInfo { hasNextPage endCursor }" +
+            "    nodes {" +
+            "      ... on PullRequest {" +
+            "        number mergeable headRefName baseRefName" +
+            "        repository { name owner { login } }" +
+            "        headRepository { name owner { login } }" +
+            "      }" +
+            "    }" +
+            "  }" +
+            "}";
+
+    private final GitHubRestClient client;
+
+    public PullRequestSearch(GitHubRestClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Finds the open PRs created from the specified branch. The search stops as soon as PR was found for every one of
+     * the specified repositories.
+     *
+     * @param repos        repositories to search the PRs in
+     * @param sourceBranch source branch of the PRs
+     * @param prAuthor     author of the PRs, also the owner of the forks the PRs were submitted from
+     * @return the found PRs, keyed by the repository they were submitted against
+     */
+    public Map<GitHubRepository, Result> findOpenPullRequests(Collection<GitHubRepository> repos, GitBranch sourceBranch,
+                                                              String prAuthor) throws IOException {
+        Map<GitHubRepository, Result> results = new HashMap<>();
+        Set<GitHubRepository> wantedRepos = new HashSet<>(repos);
+        if (wantedRepos.isEmpty()) {
+            return results;
+        }
+        String searchQuery = createSearchQuery(wantedRepos, sourceBranch, prAuthor);
+        String cursor = null;
+        int pages = 0;
+        boolean hasNextPage = true;
+        while (hasNextPage && results.size() < wantedRepos.size()) {
+            JSONObject search = executeQuery(searchQuery, cursor);
+            pages++;
+            JSONArray nodes = search.getJSONArray("nodes");
+            for (int i = 0; i < nodes.size(); i++) {
+                Result result = Result.parse(nodes.getJSONObject(i));
+                if (result != null && wantedRepos.contains(result.getTargetRepo()) &&
+                        result.getSourceBranch().equals(sourceBranch) &&
+                        result.getSourceRepo().getOwner().equalsIgnoreCase(prAuthor)) {
+                    // results are sorted from the newest, keep the newest PR in case there are more of them
+                    results.putIfAbsent(result.getTargetRepo(), result);
+                }
+            }
+            JSONObject pageInfo = search.getJSONObject("pageInfo");
+            hasNextPage = pageInfo.getBoolean("hasNextPage");
+            cursor = pageInfo.optString("endCursor", null);
+        }
+        logger.debug("Search '{}' found {} PRs in {} pages", searchQuery, results.size(), pages);
+        return results;
+    }
+
+    private JSONObject executeQuery(String searchQuery, String cursor) throws IOException {
+        JSONObject variables = new JSONObject();
+        variables.put("q", searchQuery);
+        if (cursor != null) {
+            variables.put("cursor", cursor);
+        }
+        JSONObject request = new JSONObject();
+        request.put("query", QUERY);
+        request.put("variables", variables);
+        GitHubRestClient.Response response = client.post(graphQLUrl(client.getApiUrl()), request.toString());
+        JSONObject json = JSONObject.fromObject(response.getBody());
+        if (json.has("errors")) {
+            throw new IOException("GitHub GraphQL search '" + searchQuery + "' failed: " + json.get("errors"));
+        }
+        return json.getJSONObject("data").getJSONObject("search");
+    }
+
+    private static String createSearchQuery(Collection<GitHubRepository> repos, GitBranch sourceBranch, String prAuthor) {
+        StringBuilder query = new StringBuilder("is:pr is:open sort:created-desc")
+                .append(" head:").append(sourceBranch.getName())
+                .append(" author:").append(prAuthor);
+        Set<String> owners = new LinkedHashSet<>();
+        repos.forEach(repo -> owners.add(repo.getOwner()));
+        owners.forEach(owner -> query.append(" org:").append(owner));
+        return query.toString();
+    }
+
+    /**
+     * GitHub Enterprise serves the GraphQL API from /api/graphql, while the REST API is served from /api/v3.
+     */
+    private static String graphQLUrl(String apiUrl) {
+        if (apiUrl.endsWith("/api/v3")) {
+            return apiUrl.substring(0, apiUrl.length() - "v3".length()) + "graphql";
+        }
+        return apiUrl + "/graphql";
+    }
+
+    /**
+     * PR found by the search. The mergeable status is {@code null} in case GitHub did not compute it yet.
+     */
+    public static class Result {
+        private final int number;
+        private final GitHubRepository targetRepo;
+        private final GitBranch targetBranch;
+        private final GitHubRepository sourceRepo;
+        private final GitBranch sourceBranch;
+        private final Boolean mergeable;
+
+        public Result(int number, GitHubRepository targetRepo, GitBranch targetBranch, GitHubRepository sourceRepo,
+                      GitBranch sourceBranch, Boolean mergeable) {
+            this.number = number;
+            this.targetRepo = targetRepo;
+            this.targetBranch = targetBranch;
+            this.sourceRepo = sourceRepo;
+            this.sourceBranch = sourceBranch;
+            this.mergeable = mergeable;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public GitHubRepository getTargetRepo() {
+            return targetRepo;
+        }
+
+        public GitHubRepository getSourceRepo() {
+            return sourceRepo;
+        }
+
+        public GitBranch getSourceBranch() {
+            return sourceBranch;
+        }
+
+        public Boolean getMergeable() {
+            return mergeable;
+        }
+
+        /**
+         * Creates the PR summary. GitHub is only queried in case the mergeable status was not known at the time of the search.
+         */
+        public GitHubPRSummary toPRSummary(GitHub github) throws IOException {
+            if (mergeable != null) {
+                return new GitHubPRSummary(number, targetRepo, targetBranch, sourceRepo, sourceBranch, mergeable);
+            }
+            return GitHubPRSummary.fromGHPullRequest(github.getRepository(targetRepo.getFullName()).getPullRequest(number), github);
+        }
+
+        private static Result parse(JSONObject node) {
+            JSONObject headRepository = node.optJSONObject("headRepository");
+            if (node.isEmpty() || headRepository == null || headRepository.isNullObject()) {
+                // either not a PR or the fork the PR was submitted from has been deleted in the meantime
+                return null;
+            }
+            JSONObject repository = node.getJSONObject("repository");
+            GitHubRepository targetRepo = new GitHubRepository(repository.getJSONObject("owner").getString("login"),
+                                                               repository.getString("name"));
+            GitHubRepository sourceRepo = new GitHubRepository(headRepository.getJSONObject("owner").getString("login"),
+                                                               headRepository.getString("name"));
+            return new Result(node.getInt("number"), targetRepo, new GitBranch(node.getString("baseRefName")), sourceRepo,
+                              new GitBranch(node.getString("headRefName")), parseMergeable(node.optString("mergeable")));
+        }
+
+        private static Boolean parseMergeable(String mergeable) {
+            if ("MERGEABLE".equals(mergeable)) {
+                return true;
+            } else if ("CONFLICTING".equals(mergeable)) {
+                return false;
+            }
+            // UNKNOWN
+            return null;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the reference (bare) mirrors of the GitHub repositories, which are used to speed up the clones.
+ *
+ * The mirrors are stored in the reference directory of each agent, which can be configured using the
+ * {@link #REFERENCE_DIR_ENV_VAR} environment variable (e.g. in the node properties). Missing mirrors are created on
+ * demand, existing ones are refreshed in the background (see {@link ReferenceMirrorsRefreshWork}) and after builds.
+ *
+ * Updates of a single mirror are serialized using a file lock, so concurrent builds (also from different Jenkins
+ * instances sharing the agent) do not update the same mirror at once. Reading the mirror (e.g. cloning with it as a
+ * reference) does not need the lock, git updates the objects and refs atomically.
+ */
+public class ReferenceMirrors {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceMirrors.class);
+
+    public static final String REFERENCE_DIR_ENV_VAR = "KIE_GIT_REFERENCE_DIR";
+
+    /**
+     * Mirrors updated more recently than this are not refreshed after builds.
+     */
+    private static final long REFRESH_AFTER_BUILD_MIN_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ReferenceMirrors INSTANCE = new ReferenceMirrors();
+
+    public static ReferenceMirrors getInstance() {
+        return INSTANCE;
+    }
+
+    private final ExecutorService refreshExecutor =
+            Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "KIE reference mirrors refresh"));
+
+    /**
+     * @param envVars environment variables of the build (or of the node)
+     * @return reference directory configured for the node, or the default {@link GitHubUtils#GIT_REFERENCE_BASEDIR}
+     */
+    public static File getReferenceBasedir(EnvVars envVars) {
+        String referenceDir = envVars.get(REFERENCE_DIR_ENV_VAR);
+        if (referenceDir == null || referenceDir.trim().isEmpty()) {
+            return GitHubUtils.GIT_REFERENCE_BASEDIR;
+        }
+        return new File(referenceDir.trim());
+    }
+
+    /**
+     * Creates the missing mirrors (waiting for the concurrent updates of the same mirrors to finish first) and prints
+     * how long ago each of the mirrors was updated.
+     */
+    public void prepareMirrors(FilePath referenceBasedir, List<GitHubRepository> repos, TaskListener listener)
+            throws IOException, InterruptedException {
+        Map<String, Long> ages = referenceBasedir.act(new UpdateMirrorsCallable(toMirrorSpecs(repos), false, true, 0, listener));
+        PrintStream buildLogger = listener.getLogger();
+        buildLogger.println("Reference mirrors in " + referenceBasedir.getRemote() + " (time since last update):");
+        for (Map.Entry<String, Long> age : ages.entrySet()) {
+            buildLogger.println("\t" + age.getKey() + ": " + formatAge(age.getValue()));
+        }
+    }
+
+    /**
+     * Refreshes the mirrors in the background, unless they were updated just recently or are being updated right now.
+     */
+    public void refreshMirrorsAsync(FilePath referenceBasedir, List<GitHubRepository> repos) {
+        List<MirrorSpec> specs = toMirrorSpecs(repos);
+        refreshExecutor.submit(() -> {
+            try {
+                referenceBasedir.act(new UpdateMirrorsCallable(specs, true, false, REFRESH_AFTER_BUILD_MIN_AGE_MILLIS, TaskListener.NULL));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                logger.warn("Failed to refresh reference mirrors in " + referenceBasedir.getRemote(), e);
+            }
+        });
+    }
+
+    /**
+     * Refreshes all the existing mirrors in the reference directory which were not updated for the specified time.
+     *
+     * @return time since the last update of the individual mirrors, keyed by repository name
+     */
+    public Map<String, Long> refreshAllMirrors(FilePath referenceBasedir, long maxAgeMillis, TaskListener listener)
+            throws IOException, InterruptedException {
+        return referenceBasedir.act(new UpdateMirrorsCallable(null, true, false, maxAgeMillis, listener));
+    }
+
+    static String formatAge(long ageMillis) {
+        if (ageMillis < 0) {
+            return "never updated";
+        }
+        return TimeUnit.MILLISECONDS.toMinutes(ageMillis) + " min";
+    }
+
+    private static List<MirrorSpec> toMirrorSpecs(List<GitHubRepository> repos) {
+        List<MirrorSpec> specs = new ArrayList<>();
+        for (GitHubRepository repo : repos) {
+            specs.add(new MirrorSpec(repo.getName(), repo.getReadOnlyCloneURL()));
+        }
+        return specs;
+    }
+
+    private static class MirrorSpec implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String url;
+
+        private MirrorSpec(String name, String url) {
+            this.name = name;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Creates and/or refreshes the mirrors, running on the agent the reference directory is located on.
+     */
+    private static class UpdateMirrorsCallable extends MasterToSlaveFileCallable<Map<String, Long>> {
+        private static final long serialVersionUID = 1L;
+
+        private static final RefSpec MIRROR_REFSPEC = new RefSpec("+refs/heads/*:refs/heads/*");
+
+        private final List<MirrorSpec> mirrors;
+        private final boolean refreshExisting;
+        private final boolean waitForLock;
+        private final long maxAgeMillis;
+        private final TaskListener listener;
+
+        /**
+         * @param mirrors         mirrors to update, null for all the existing mirrors in the reference directory
+         * @param refreshExisting whether to fetch the existing mirrors, or just create the missing ones
+         * @param waitForLock     whether to wait for concurrent update of the same mirror, or skip the mirror
+         * @param maxAgeMillis    existing mirrors updated more recently than this are not refreshed
+         */
+        private UpdateMirrorsCallable(List<MirrorSpec> mirrors, boolean refreshExisting, boolean waitForLock, long maxAgeMillis,
+                                      TaskListener listener) {
+            this.mirrors = mirrors;
+            this.refreshExisting = refreshExisting;
+            this.waitForLock = waitForLock;
+            this.maxAgeMillis = maxAgeMillis;
+            this.listener = listener;
+        }
+
+        @Override
+        public Map<String, Long> invoke(File referenceBasedir, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String, Long> ages = new LinkedHashMap<>();
+            List<MirrorSpec> mirrorsToUpdate = mirrors != null ? mirrors : listExistingMirrors(referenceBasedir);
+            if (mirrorsToUpdate.isEmpty()) {
+                return ages;
+            }
+            if (!referenceBasedir.mkdirs() && !referenceBasedir.isDirectory()) {
+                throw new IOException("Can not create reference directory " + referenceBasedir);
+            }
+            for (MirrorSpec mirror : mirrorsToUpdate) {
+                File mirrorDir = new File(referenceBasedir, mirror.name + ".git");
+                if (!needsUpdate(mirrorDir)) {
+                    ages.put(mirror.name, getAge(mirrorDir));
+                    continue;
+                }
+                try (Closeable lock = AgentFileLock.lock(new File(referenceBasedir, mirror.name + ".mirror-lock"), waitForLock)) {
+                    // the mirror might have been updated while waiting for the lock
+                    if (lock != null && needsUpdate(mirrorDir)) {
+                        updateMirror(mirrorDir, mirror);
+                    }
+                }
+                ages.put(mirror.name, getAge(mirrorDir));
+            }
+            return ages;
+        }
+
+        private boolean needsUpdate(File mirrorDir) {
+            if (!exists(mirrorDir)) {
+                return true;
+            }
+            if (!refreshExisting) {
+                return false;
+            }
+            long age = getAge(mirrorDir);
+            return age < 0 || age >= maxAgeMillis;
+        }
+
+        private void updateMirror(File mirrorDir, MirrorSpec mirror) throws InterruptedException {
+            PrintStream buildLogger = listener.getLogger();
+            boolean created = !exists(mirrorDir);
+            try {
+                GitClient gitClient = Git.with(listener, new EnvVars())
+                        .in(mirrorDir)
+                        .using("git")
+                        .getClient();
+                String url = mirror.url;
+                if (created) {
+                    buildLogger.println("Creating reference mirror " + mirrorDir + " from " + url);
+                    gitClient.init_().workspace(mirrorDir.getAbsolutePath()).bare(true).execute();
+                    gitClient.setRemoteUrl("origin", url);
+                } else {
+                    String remoteUrl = gitClient.getRemoteUrl("origin");
+                    url = remoteUrl != null ? remoteUrl : url;
+                    buildLogger.println("Refreshing reference mirror " + mirrorDir + " from " + url);
+                }
+                gitClient.fetch_().from(new URIish(url), Collections.singletonList(MIRROR_REFSPEC)).prune().execute();
+            } catch (GitException | URISyntaxException e) {
+                // the clones still work without the reference, they just need to download more
+                buildLogger.println("Failed to update reference mirror " + mirrorDir + ": " + e.getMessage());
+                if (created) {
+                    deleteQuietly(mirrorDir);
+                }
+            }
+        }
+
+        private static List<MirrorSpec> listExistingMirrors(File referenceBasedir) {
+            List<MirrorSpec> existing = new ArrayList<>();
+            File[] mirrorDirs = referenceBasedir.listFiles(file -> file.isDirectory() && file.getName().endsWith(".git"));
+            if (mirrorDirs != null) {
+                for (File mirrorDir : mirrorDirs) {
+                    String name = mirrorDir.getName().substring(0, mirrorDir.getName().length() - ".git".length());
+                    // mirrors not created by the plugin might not have the remote configured, they are all KIE repos
+                    existing.add(new MirrorSpec(name, new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, name).getReadOnlyCloneURL()));
+                }
+            }
+            return existing;
+        }
+
+        private static boolean exists(File mirrorDir) {
+            return new File(mirrorDir, "HEAD").isFile();
+        }
+
+        /**
+         * @return time since the last fetch into the mirror, or -1 if it was never fetched
+         */
+        private static long getAge(File mirrorDir) {
+            File fetchHead = new File(mirrorDir, "FETCH_HEAD");
+            return fetchHead.isFile() ? Math.max(0, System.currentTimeMillis() - fetchHead.lastModified()) : -1;
+        }
+
+        private static void deleteQuietly(File dir) {
+            try {
+                Util.deleteRecursive(dir);
+            } catch (IOException e) {
+                // ignore, the directory without HEAD is not considered to be a mirror anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically refreshes the reference mirrors on all the online nodes. The refresh interval is configured globally,
+ * see {@link KiePRBuildsHelper.KiePRBuildsHelperDescriptor#getMirrorRefreshMinutes()}.
+ */
+@Extension
+public class ReferenceMirrorsRefreshWork extends AsyncPeriodicWork {
+
+    public ReferenceMirrorsRefreshWork() {
+        super("KIE reference mirrors refresh");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        // the mirrors not updated for the configured interval are refreshed, so just check often enough
+        return TimeUnit.MINUTES.toMillis(5);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        int refreshMinutes = KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().getMirrorRefreshMinutes();
+        if (refreshMinutes <= 0) {
+            return;
+        }
+        for (Computer computer : Jenkins.getInstance().getComputers()) {
+            VirtualChannel channel = computer.getChannel();
+            if (channel == null || computer.isOffline()) {
+                continue;
+            }
+            File referenceBasedir = ReferenceMirrors.getReferenceBasedir(computer.buildEnvironment(listener));
+            try {
+                Map<String, Long> ages = ReferenceMirrors.getInstance().refreshAllMirrors(
+                        new FilePath(channel, referenceBasedir.getPath()), TimeUnit.MINUTES.toMillis(refreshMinutes), listener);
+                for (Map.Entry<String, Long> age : ages.entrySet()) {
+                    listener.getLogger().printf("%s: %s %s (time since last update)%n", computer.getDisplayName(), age.getKey(),
+                                                ReferenceMirrors.formatAge(age.getValue()));
+                }
+            } catch (IOException e) {
+                // continue with other nodes
+                e.printStackTrace(listener.error("Failed to refresh reference mirrors on " + computer.getDisplayName()));
+            }
+        }
+    }
+}
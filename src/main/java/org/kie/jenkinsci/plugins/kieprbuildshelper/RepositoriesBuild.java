@@ -0,0 +1,482 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+
+/**
+ * Builds the cloned repositories using Maven, according to the configured {@link MavenBuildMode}.
+ */
+public class RepositoriesBuild {
+
+    public static final String AGGREGATOR_POM = "kie-aggregator-pom.xml";
+
+    /**
+     * Suffix of the directory (next to the repositories directory) the compressed Maven logs are stored in, in case
+     * the output is {@link MavenOutput#FILTERED}.
+     */
+    public static final String MAVEN_LOGS_DIR_SUFFIX = "-maven-logs";
+
+    private static final Pattern THREADS_OPTION_PATTERN = Pattern.compile("(^|\\s)(-T|--threads)(\\s|=|\\d)");
+
+    private final FilePath reposDir;
+    private final MavenBuildConfig mavenBuildConfig;
+    private final EnvVars envVars;
+    private final Launcher launcher;
+    private final BuildListener listener;
+    private final PrintStream buildLogger;
+    private Map<String, List<String>> modulePaths = Collections.emptyMap();
+    private ArtifactCache artifactCache;
+    private Map<String, String> revisions = Collections.emptyMap();
+    private String buildEnvironment;
+    private List<String> buildOrder = Collections.emptyList();
+    private MavenModuleIndex index;
+    private MavenDaemon mavenDaemon;
+    private String concurrentBuildArgs = "";
+    private final Map<String, Long> mavenDurations = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final AtomicLong cleanUpMillis = new AtomicLong();
+    private final AtomicLong cleanUpBytes = new AtomicLong();
+    private final AtomicLong mavenOutputLines = new AtomicLong();
+    private final AtomicLong mavenOutputBytes = new AtomicLong();
+    private final AtomicLong mavenConsoleLines = new AtomicLong();
+    private final Set<String> failedMavenLogs = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    public RepositoriesBuild(FilePath reposDir, MavenBuildConfig mavenBuildConfig, EnvVars envVars, Launcher launcher,
+                             BuildListener listener) {
+        this.reposDir = reposDir;
+        this.mavenBuildConfig = mavenBuildConfig;
+        this.envVars = envVars;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.buildLogger = listener.getLogger();
+    }
+
+    /**
+     * Restricts the builds of the specified repositories to the specified modules and the modules depending on them
+     * (-pl ... -amd). The restriction is not applied in the {@link MavenBuildMode#AGGREGATED} mode, where the modules
+     * declared only in inactive profiles could not be selected.
+     *
+     * @param modulePaths paths of the modules (relative to the repository root) to build, keyed by repository name,
+     *                    repositories not present in the map are built in full
+     */
+    public void setModuleSelection(Map<String, List<String>> modulePaths) {
+        this.modulePaths = modulePaths;
+    }
+
+    /**
+     * Skips the builds of the repositories whose artifacts are found in the agent {@link ArtifactCache} and stores the
+     * artifacts of the built ones. Not supported in the {@link MavenBuildMode#AGGREGATED} mode.
+     *
+     * @param cloneResults results of the clones (with the SHAs of the checked-out commits), keyed by repository name,
+     *                     repositories without the result are not cached
+     * @param maxSizeBytes maximum size of the cache on the agent
+     */
+    public void useArtifactCache(Map<String, CloneRepositoriesCallable.CloneResult> cloneResults, long maxSizeBytes)
+            throws IOException, InterruptedException {
+        FilePath cacheDir = new FilePath(launcher.getChannel(), ArtifactCache.getCacheDir(envVars).getPath());
+        String localRepository = ArtifactCache.findLocalRepository(mavenBuildConfig.getMavenArgs(), mavenBuildConfig.getMavenOpts());
+        this.artifactCache = new ArtifactCache(cacheDir, localRepository, maxSizeBytes);
+        this.revisions = new LinkedHashMap<>();
+        cloneResults.forEach((repo, result) -> revisions.put(repo, result.getSha()));
+        String mavenInstallation = mavenBuildConfig.getMavenEngine() == MavenEngine.MVND ?
+                mavenBuildConfig.getMvndHome() : mavenBuildConfig.getMavenHome();
+        this.buildEnvironment = ArtifactCache.describeEnvironment(ArtifactCache.describeJdk(launcher.getChannel(), envVars),
+                                                                  mavenInstallation, mavenBuildConfig.getMavenOpts());
+    }
+
+    /**
+     * Builds the repositories cloned in the subdirectories of the repositories directory.
+     *
+     * @param repos            repositories to build, in the order from the repository-list.txt
+     * @param cleanUpArtifacts whether to remove the big build artifacts (e.g. unpacked containers) after the build
+     */
+    public void build(List<GitHubRepository> repos, boolean cleanUpArtifacts) throws IOException, InterruptedException {
+        buildOrder = repos.stream().map(GitHubRepository::getName).collect(Collectors.toList());
+        MavenBuildMode buildMode = mavenBuildConfig.getBuildMode();
+        if (buildMode != MavenBuildMode.SEQUENTIAL || artifactCache != null) {
+            index = MavenModuleIndex.scan(reposDir, repos);
+        }
+        if (mavenBuildConfig.getMavenEngine() == MavenEngine.MVND) {
+            mavenDaemon = new MavenDaemon(mavenBuildConfig.getMvndHome());
+            buildLogger.println("Building using the Maven daemon " + mavenDaemon.getExecutable());
+            mavenDaemon.printStatus(launcher, reposDir, envVars, buildLogger);
+        }
+        if (mavenBuildConfig.getMavenOutput() == MavenOutput.FILTERED) {
+            // logs of the previous build
+            getMavenLogsDir().deleteRecursive();
+            buildLogger.println("Showing only errors, warnings and reactor summary of the Maven output, full logs are stored in " +
+                                        getMavenLogsDir().getRemote() + (mavenBuildConfig.isArchiveAllMavenLogs() ?
+                                        " and archived after the build." : ", the logs of the failed builds are archived after the build."));
+        }
+        switch (buildMode) {
+            case AGGREGATED:
+                buildAggregated(repos, cleanUpArtifacts);
+                break;
+            case PARALLEL:
+                buildInParallel(cleanUpArtifacts);
+                break;
+            default:
+                buildSequentially(repos, cleanUpArtifacts);
+        }
+        if (artifactCache != null && buildMode != MavenBuildMode.AGGREGATED) {
+            buildLogger.println(artifactCache.getStatistics());
+        }
+    }
+
+    private void buildSequentially(List<GitHubRepository> repos, boolean cleanUpArtifacts) throws IOException, InterruptedException {
+        for (GitHubRepository repo : repos) {
+            buildRepository(repo.getName(), buildLogger, listener.getLogger(), cleanUpArtifacts);
+        }
+    }
+
+    /**
+     * Builds single repository, unless its artifacts could be restored from the artifact cache.
+     */
+    private void buildRepository(String repo, PrintStream logger, OutputStream output, boolean cleanUpArtifacts)
+            throws IOException, InterruptedException {
+        String cacheKey = null;
+        ArtifactCache.Lookup lookup = null;
+        if (artifactCache != null && revisions.containsKey(repo)) {
+            cacheKey = ArtifactCache.computeKey(repo, revisions.get(repo), getUpstreamRevisions(repo), getMavenArgs(repo),
+                                                buildEnvironment);
+            try {
+                lookup = artifactCache.restore(cacheKey);
+            } catch (IOException e) {
+                logger.println("Failed to look up repository " + repo + " in the artifact cache, building it: " + e.getMessage());
+            }
+            if (lookup != null && lookup.isHit()) {
+                logger.println("Restored " + lookup.getFiles() + " files (" + FormatUtils.formatBytes(lookup.getBytes()) +
+                                       ") of repository " + repo + " from the artifact cache, skipping its build.");
+                return;
+            }
+        }
+        MavenProject mavenProject = createMavenProject(new FilePath(reposDir, repo));
+        long buildStart = System.nanoTime();
+        // MavenProject sets MAVEN_OPTS into the env vars, so every build needs its own copy
+        runMaven(mavenProject, repo, getMavenArgs(repo) + concurrentBuildArgs, new EnvVars(envVars), logger, output);
+        mavenDurations.put(repo, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - buildStart));
+        if (lookup != null) {
+            try {
+                long bytes = artifactCache.store(cacheKey, new FilePath(reposDir, repo), index.getModules(repo), lookup);
+                logger.println("Stored " + FormatUtils.formatBytes(bytes) + " of artifacts of repository " + repo +
+                                       " into the artifact cache.");
+            } catch (IOException e) {
+                // the build itself succeeded, the next one will just need to build the repository again
+                logger.println("Failed to store artifacts of repository " + repo + " into the artifact cache: " + e.getMessage());
+            }
+        }
+        if (cleanUpArtifacts) {
+            cleanUpBuildArtifacts(mavenProject);
+        }
+    }
+
+    /**
+     * @return SHAs of the repositories built before the specified one, the build results depend on them as well
+     */
+    private List<String> getUpstreamRevisions(String repo) {
+        List<String> upstreamRevisions = new ArrayList<>();
+        for (String upstreamRepo : buildOrder.subList(0, buildOrder.indexOf(repo))) {
+            upstreamRevisions.add(upstreamRepo + "@" + revisions.getOrDefault(upstreamRepo, "unknown"));
+        }
+        return upstreamRevisions;
+    }
+
+    /**
+     * Builds the repositories concurrently, following the dependencies between them found in their poms. The output of
+     * each build is prefixed with the repository name.
+     */
+    private void buildInParallel(boolean cleanUpArtifacts) throws IOException, InterruptedException {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> repoDependencies : index.getRepositoryDependencies().entrySet()) {
+            if (index.getModules(repoDependencies.getKey()).isEmpty()) {
+                buildLogger.println("Repository " + repoDependencies.getKey() + " does not contain pom.xml, excluding it from the build.");
+            } else {
+                dependencies.put(repoDependencies.getKey(), repoDependencies.getValue());
+            }
+        }
+        int maxConcurrentBuilds = RepositoryBuildScheduler.maxConcurrentBuilds(mavenBuildConfig.getBuildParallelism(),
+                mavenBuildConfig.getBuildMemoryBudget() * 1024L * 1024L, mavenBuildConfig.getMavenOpts());
+        if (maxConcurrentBuilds > 1) {
+            String mavenInstallation = mavenBuildConfig.getMavenEngine() == MavenEngine.MVND ?
+                    mavenBuildConfig.getMvndHome() : mavenBuildConfig.getMavenHome();
+            String mavenVersion = mavenInstallation == null ? null :
+                    RepositoryBuildScheduler.detectMavenVersion(new FilePath(launcher.getChannel(), mavenInstallation.trim()));
+            if (!RepositoryBuildScheduler.supportsLocalRepositoryLocking(mavenVersion)) {
+                // the concurrent builds would write into the shared local repository without any locking
+                buildLogger.println((mavenVersion == null ? "Version of Maven in " + mavenInstallation + " not detected" :
+                        "Maven " + mavenVersion + " does not support locking the local repository") +
+                                            " (Maven 3.9 or newer is needed for the concurrent builds), building one repository at a time.");
+                maxConcurrentBuilds = 1;
+            }
+        }
+        RepositoryBuildScheduler scheduler = new RepositoryBuildScheduler(dependencies, maxConcurrentBuilds, buildLogger);
+        buildLogger.println("Building repositories " + dependencies.keySet() + ", up to " + maxConcurrentBuilds + " at a time.");
+        if (maxConcurrentBuilds > 1 && !mavenBuildConfig.getMavenArgs().contains("aether.syncContext.named.factory")) {
+            // the builds share the local repository, concurrent downloads of the same artifact could corrupt it
+            concurrentBuildArgs = " " + RepositoryBuildScheduler.LOCAL_REPOSITORY_LOCKING_ARGS;
+            buildLogger.println("Concurrent builds share the local Maven repository, locking it using " +
+                                        RepositoryBuildScheduler.LOCAL_REPOSITORY_LOCKING_ARGS + ".");
+        }
+        for (Map.Entry<String, Set<String>> repoDependencies : dependencies.entrySet()) {
+            buildLogger.println("\t" + repoDependencies.getKey() + " depends on " + repoDependencies.getValue());
+        }
+        buildLogger.println("Longest chain of dependent repositories: " + scheduler.criticalPath(repo -> 1));
+
+        Map<String, Long> durations = scheduler.run(repo -> {
+            PrefixedOutputStream output = new PrefixedOutputStream(listener.getLogger(), "[" + repo + "] ");
+            try {
+                buildRepository(repo, new PrintStream(output, true), output, cleanUpArtifacts);
+            } finally {
+                output.close();
+            }
+        });
+        long totalMillis = durations.values().stream().mapToLong(Long::longValue).sum();
+        List<String> criticalPath = scheduler.criticalPath(durations::get);
+        long criticalPathMillis = criticalPath.stream().mapToLong(durations::get).sum();
+        buildLogger.println("Critical path: " + criticalPath + " (" + FormatUtils.formatMillis(criticalPathMillis) +
+                                    "), sum of all the build times: " + FormatUtils.formatMillis(totalMillis) + ".");
+    }
+
+    /**
+     * Builds all the repositories using single Maven invocation. The generated aggregator pom lists the repositories
+     * as modules, so Maven orders all the modules based on their actual dependencies and (with -T) builds the
+     * independent ones in parallel, even if they are from different repositories.
+     */
+    private void buildAggregated(List<GitHubRepository> repos, boolean cleanUpArtifacts) throws IOException, InterruptedException {
+        if (artifactCache != null) {
+            buildLogger.println("Artifact cache is not supported by the aggregated build, building all the repositories.");
+        }
+        List<String> mavenRepos = new ArrayList<>();
+        for (GitHubRepository repo : repos) {
+            if (index.getModules(repo.getName()).isEmpty()) {
+                buildLogger.println("Repository " + repo.getName() + " does not contain pom.xml, excluding it from the aggregated build.");
+            } else {
+                mavenRepos.add(repo.getName());
+            }
+        }
+        if (mavenRepos.isEmpty()) {
+            return;
+        }
+        if (!modulePaths.isEmpty()) {
+            buildLogger.println("Module selection is not supported by the aggregated build, building repositories " + modulePaths.keySet() + " in full.");
+        }
+        new FilePath(reposDir, AGGREGATOR_POM).write(createAggregatorPom(mavenRepos), StandardCharsets.UTF_8.name());
+        String mavenArgs = mavenBuildConfig.getMavenArgs().trim();
+        if (!THREADS_OPTION_PATTERN.matcher(mavenArgs).find()) {
+            mavenArgs += " -T " + mavenBuildConfig.getBuildParallelism();
+        }
+        mavenArgs += " -f " + AGGREGATOR_POM;
+        buildLogger.println("Building repositories " + mavenRepos + " using single Maven reactor.");
+
+        MavenReactorSummary summary = new MavenReactorSummary(listener.getLogger());
+        RuntimeException failure = null;
+        long buildStart = System.nanoTime();
+        try {
+            runMaven(createMavenProject(reposDir), "kie-aggregator", mavenArgs, envVars, buildLogger, summary);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            summary.close();
+            // the repositories are built by single reactor, so there are no durations of the individual repositories
+            mavenDurations.put(AGGREGATOR_POM, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - buildStart));
+        }
+        Map<String, String> repoResults = summary.getRepositoryResults(index, mavenRepos);
+        List<String> failedRepos = new ArrayList<>();
+        buildLogger.println("Results of the aggregated build per repository:");
+        for (Map.Entry<String, String> repoResult : repoResults.entrySet()) {
+            buildLogger.println("\t" + repoResult.getKey() + ": " + repoResult.getValue());
+            if (MavenReactorSummary.FAILURE.equals(repoResult.getValue())) {
+                failedRepos.add(repoResult.getKey());
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException("Aggregated Maven build failed! Failed repositories: " + failedRepos, failure);
+        }
+        if (cleanUpArtifacts) {
+            for (String repo : mavenRepos) {
+                cleanUpBuildArtifacts(createMavenProject(new FilePath(reposDir, repo)));
+            }
+        }
+    }
+
+    /**
+     * Runs the Maven build, writing the full output into the per-repository log file on the agent in case the output
+     * is {@link MavenOutput#FILTERED}.
+     */
+    private void runMaven(MavenProject mavenProject, String logName, String mavenArgs, EnvVars buildEnvVars, PrintStream logger,
+                          OutputStream output) {
+        if (mavenBuildConfig.getMavenOutput() != MavenOutput.FILTERED) {
+            mavenProject.build(mavenArgs, buildEnvVars, logger, output);
+            return;
+        }
+        FilePath logFile = getMavenLogsDir().child(logName + MavenLogPipeline.LOG_SUFFIX);
+        try {
+            mavenProject.build(mavenArgs, buildEnvVars, logger, output, logFile);
+        } catch (RuntimeException e) {
+            failedMavenLogs.add(logFile.getName());
+            throw e;
+        } finally {
+            // failed builds are counted as well
+            MavenLogPipeline.Statistics statistics = mavenProject.getLogStatistics();
+            if (statistics != null) {
+                mavenOutputLines.addAndGet(statistics.getLines());
+                mavenOutputBytes.addAndGet(statistics.getBytes());
+                mavenConsoleLines.addAndGet(statistics.getConsoleLines());
+            }
+        }
+    }
+
+    /**
+     * @return directory the compressed Maven logs are stored in, next to the repositories directory so that they
+     *         survive the clean-up of the repositories
+     */
+    public FilePath getMavenLogsDir() {
+        return reposDir.sibling(reposDir.getName() + MAVEN_LOGS_DIR_SUFFIX);
+    }
+
+    /**
+     * Archives the compressed Maven logs of the failed builds (or of all the builds, see
+     * {@link MavenBuildConfig#isArchiveAllMavenLogs()}) as the build artifacts (under the {@link #getMavenLogsDir()}
+     * name), in case the output was {@link MavenOutput#FILTERED}. The other logs stay on the agent until the next build.
+     * Failures are just reported to the build log.
+     */
+    public void archiveMavenLogs(Run<?, ?> build) {
+        if (mavenBuildConfig.getMavenOutput() != MavenOutput.FILTERED) {
+            return;
+        }
+        FilePath logsDir = getMavenLogsDir();
+        try {
+            if (!logsDir.isDirectory()) {
+                return;
+            }
+            Map<String, String> logs = new LinkedHashMap<>();
+            for (FilePath log : logsDir.list("*" + MavenLogPipeline.LOG_SUFFIX)) {
+                if (mavenBuildConfig.isArchiveAllMavenLogs() || failedMavenLogs.contains(log.getName())) {
+                    logs.put(logsDir.getName() + "/" + log.getName(), log.getName());
+                }
+            }
+            if (logs.isEmpty()) {
+                return;
+            }
+            build.getArtifactManager().archive(logsDir, launcher, listener, logs);
+            buildLogger.println("Archived " + logs.size() + " Maven logs from " + logsDir.getRemote() + ".");
+        } catch (IOException e) {
+            buildLogger.println("Failed to archive the Maven logs from " + logsDir.getRemote() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            buildLogger.println("Interrupted while archiving the Maven logs from " + logsDir.getRemote() + ".");
+        }
+    }
+
+    private void cleanUpBuildArtifacts(MavenProject mavenProject) {
+        long cleanUpStart = System.nanoTime();
+        try {
+            CleanUpBuildArtifactsCallable.CleanUpResult result =
+                    mavenProject.cleanUpBuildArtifacts(CleanUpBuildArtifactsCallable.parsePatterns(mavenBuildConfig.getArtifactsCleanUpPatterns()));
+            cleanUpBytes.addAndGet(result.getBytesFreed());
+        } finally {
+            cleanUpMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cleanUpStart));
+        }
+    }
+
+    /**
+     * @return duration (in milliseconds) of the Maven builds of the individual repositories built so far, in the order
+     *         they finished. Repositories restored from the artifact cache are not included.
+     */
+    public Map<String, Long> getMavenDurations() {
+        synchronized (mavenDurations) {
+            return new LinkedHashMap<>(mavenDurations);
+        }
+    }
+
+    /**
+     * @return total time spent removing the build artifacts after the builds
+     */
+    public long getCleanUpMillis() {
+        return cleanUpMillis.get();
+    }
+
+    /**
+     * @return number of bytes freed by the clean-up of the build artifacts so far
+     */
+    public long getCleanUpBytes() {
+        return cleanUpBytes.get();
+    }
+
+    /**
+     * @return statistics of the Maven output of the builds so far, or null in case the output is not
+     *         {@link MavenOutput#FILTERED}
+     */
+    public MavenLogPipeline.Statistics getMavenOutputStatistics() {
+        if (mavenBuildConfig.getMavenOutput() != MavenOutput.FILTERED) {
+            return null;
+        }
+        return new MavenLogPipeline.Statistics(mavenOutputLines.get(), mavenOutputBytes.get(), mavenConsoleLines.get());
+    }
+
+    private String getMavenArgs(String repo) {
+        List<String> paths = modulePaths.get(repo);
+        if (paths == null) {
+            return mavenBuildConfig.getMavenArgs();
+        }
+        return mavenBuildConfig.getMavenArgs().trim() + " -pl " + String.join(",", paths) + " -amd";
+    }
+
+    static String createAggregatorPom(List<String> moduleDirs) {
+        StringBuilder pom = new StringBuilder();
+        pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>org.kie.jenkinsci.plugins</groupId>\n");
+        pom.append("  <artifactId>kie-pr-builds-aggregator</artifactId>\n");
+        pom.append("  <version>1.0</version>\n");
+        pom.append("  <packaging>pom</packaging>\n");
+        pom.append("  <modules>\n");
+        for (String moduleDir : moduleDirs) {
+            pom.append("    <module>").append(moduleDir).append("</module>\n");
+        }
+        pom.append("  </modules>\n");
+        pom.append("</project>\n");
+        return pom.toString();
+    }
+
+    private MavenProject createMavenProject(FilePath projectBasedir) {
+        MavenProject mavenProject = new MavenProject(projectBasedir, mavenBuildConfig.getMavenHome(), mavenBuildConfig.getMavenOpts(),
+                                                     launcher, listener);
+        mavenProject.setMavenDaemon(mavenDaemon);
+        return mavenProject;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Builds the repositories concurrently, following the dependency graph between them. Repository is started as soon as
+ * all the repositories it depends on are built successfully, repositories which are ready at the same time are started
+ * in the order they were specified (the repository-list.txt order).
+ *
+ * The number of concurrent builds is limited by the parallelism and by the memory budget (each build is expected to
+ * use up to its -Xmx). Once any of the builds fails, no new builds are started, the running ones are let to finish.
+ *
+ * The concurrent builds share the local Maven repository (downstream builds need the artifacts installed by the
+ * upstream ones), so they need to be run with {@link #LOCAL_REPOSITORY_LOCKING_ARGS}. Maven versions older than 3.9
+ * do not support locking the local repository and must not be used with more than one concurrent build, see
+ * {@link #supportsLocalRepositoryLocking(String)}.
+ */
+public class RepositoryBuildScheduler {
+
+    /**
+     * Maven (3.9+) arguments which make the concurrent builds lock the artifacts they download or install into the
+     * shared local repository.
+     */
+    public static final String LOCAL_REPOSITORY_LOCKING_ARGS =
+            "-Daether.syncContext.named.factory=file-lock -Daether.syncContext.named.nameMapper=file-gav";
+
+    private static final Pattern MAVEN_CORE_JAR_PATTERN = Pattern.compile("maven-core-(\\d+)\\.(\\d+)[^/]*\\.jar");
+
+    private static final Pattern MAX_HEAP_PATTERN = Pattern.compile("(^|\\s)-Xmx(\\d+)([kKmMgGtT]?)(\\s|$)");
+
+    private final Map<String, Set<String>> dependencies;
+    private final int maxConcurrentBuilds;
+    private final PrintStream logger;
+
+    /**
+     * @param dependencies for every repository to build, the repositories it depends on, in the order the repositories
+     *                     should be preferred; dependencies on repositories not being built are ignored
+     * @param maxConcurrentBuilds maximum number of repositories built at the same time
+     */
+    public RepositoryBuildScheduler(Map<String, Set<String>> dependencies, int maxConcurrentBuilds, PrintStream logger) {
+        this.dependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> repoDependencies : dependencies.entrySet()) {
+            Set<String> knownDependencies = new LinkedHashSet<>(repoDependencies.getValue());
+            knownDependencies.retainAll(dependencies.keySet());
+            knownDependencies.remove(repoDependencies.getKey());
+            this.dependencies.put(repoDependencies.getKey(), knownDependencies);
+        }
+        this.maxConcurrentBuilds = Math.max(1, maxConcurrentBuilds);
+        this.logger = logger;
+    }
+
+    /**
+     * Single repository build.
+     */
+    @FunctionalInterface
+    public interface RepositoryBuild {
+        void build(String repo) throws Exception;
+    }
+
+    /**
+     * Builds all the repositories, blocking until the builds are finished.
+     *
+     * @return durations (in milliseconds) of the finished builds, keyed by repository name, in the order of completion
+     * @throws RuntimeException in case any of the builds failed, after all the running builds finished
+     */
+    public Map<String, Long> run(RepositoryBuild repositoryBuild) throws InterruptedException {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        if (dependencies.isEmpty()) {
+            return durations;
+        }
+        List<String> pending = new ArrayList<>(dependencies.keySet());
+        Set<String> finished = new HashSet<>();
+        Map<Future<Long>, String> running = new HashMap<>();
+        String failedRepo = null;
+        Throwable failure = null;
+
+        int threads = Math.min(maxConcurrentBuilds, pending.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamingThreadFactory(new DaemonThreadFactory(), "KIE repository build"));
+        try {
+            CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                if (failure == null) {
+                    List<String> ready = nextReadyRepos(pending, finished, running.size());
+                    if (ready.isEmpty() && running.isEmpty()) {
+                        // the pom dependencies contain a cycle, fall back to the specified order for the rest
+                        logger.println("Dependencies of repositories " + pending + " contain a cycle, building them in the specified order.");
+                        ready.add(pending.get(0));
+                    }
+                    for (String repo : ready) {
+                        pending.remove(repo);
+                        logger.println("Starting build of repository " + repo + ".");
+                        running.put(completionService.submit(() -> {
+                            long start = System.nanoTime();
+                            repositoryBuild.build(repo);
+                            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        }), repo);
+                    }
+                } else if (running.isEmpty()) {
+                    break;
+                }
+                Future<Long> completed = completionService.take();
+                String repo = running.remove(completed);
+                try {
+                    long duration = completed.get();
+                    durations.put(repo, duration);
+                    finished.add(repo);
+                    logger.println("Repository " + repo + " built in " + FormatUtils.formatMillis(duration) + ".");
+                } catch (ExecutionException e) {
+                    logger.println("Build of repository " + repo + " failed" +
+                                           (failure == null ? ", not starting any new builds." : "."));
+                    if (failure == null) {
+                        failedRepo = repo;
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            throw new RuntimeException("Build of repository " + failedRepo + " failed! Repositories not built: " + pending, failure);
+        }
+        return durations;
+    }
+
+    /**
+     * @return repositories which have all the dependencies built and can be started now, in the preferred order
+     */
+    private List<String> nextReadyRepos(List<String> pending, Set<String> finished, int runningBuilds) {
+        List<String> ready = new ArrayList<>();
+        for (String repo : pending) {
+            if (runningBuilds + ready.size() >= maxConcurrentBuilds) {
+                break;
+            }
+            if (finished.containsAll(dependencies.get(repo))) {
+                ready.add(repo);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Finds the most expensive chain of dependent repositories. The whole build can not finish faster than the sum of
+     * the chain build times, no matter the parallelism.
+     *
+     * @param cost cost of building single repository, e.g. its build duration (or 1 to find the longest chain)
+     * @return repositories of the critical path, starting with the one without any dependencies
+     */
+    public List<String> criticalPath(ToLongFunction<String> cost) {
+        Map<String, Long> pathCosts = new HashMap<>();
+        Map<String, String> predecessors = new HashMap<>();
+        String last = null;
+        for (String repo : topologicalOrder()) {
+            long pathCost = 0;
+            for (String dependency : dependencies.get(repo)) {
+                Long dependencyCost = pathCosts.get(dependency);
+                if (dependencyCost != null && dependencyCost > pathCost) {
+                    pathCost = dependencyCost;
+                    predecessors.put(repo, dependency);
+                }
+            }
+            pathCost += cost.applyAsLong(repo);
+            pathCosts.put(repo, pathCost);
+            if (last == null || pathCost > pathCosts.get(last)) {
+                last = repo;
+            }
+        }
+        List<String> path = new ArrayList<>();
+        for (String repo = last; repo != null; repo = predecessors.get(repo)) {
+            path.add(repo);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private List<String> topologicalOrder() {
+        List<String> order = new ArrayList<>();
+        List<String> remaining = new ArrayList<>(dependencies.keySet());
+        Set<String> visited = new HashSet<>();
+        while (!remaining.isEmpty()) {
+            String next = null;
+            for (String repo : remaining) {
+                if (visited.containsAll(dependencies.get(repo))) {
+                    next = repo;
+                    break;
+                }
+            }
+            if (next == null) {
+                // cycle, the rest is ordered as specified
+                order.addAll(remaining);
+                break;
+            }
+            remaining.remove(next);
+            visited.add(next);
+            order.add(next);
+        }
+        return order;
+    }
+
+    /**
+     * Computes how many builds can run at the same time.
+     *
+     * @param parallelism       configured parallelism
+     * @param memoryBudgetBytes memory available for all the builds, 0 or less if not limited
+     * @param mavenOpts         MAVEN_OPTS of the builds, used to find out the memory needed by single build
+     */
+    public static int maxConcurrentBuilds(int parallelism, long memoryBudgetBytes, String mavenOpts) {
+        int maxBuilds = Math.max(1, parallelism);
+        long maxHeap = parseMaxHeap(mavenOpts);
+        if (memoryBudgetBytes > 0 && maxHeap > 0) {
+            maxBuilds = (int) Math.min(maxBuilds, Math.max(1, memoryBudgetBytes / maxHeap));
+        }
+        return maxBuilds;
+    }
+
+    /**
+     * Finds out the Maven version from the maven-core jar of the installation, {@code lib} for Maven and
+     * {@code mvn/lib} for the Maven daemon (which embeds Maven).
+     *
+     * @param mavenHome Maven (or mvnd) installation directory on the agent
+     * @return version of the maven-core jar (e.g. 3.9.6), or null if not found
+     */
+    public static String detectMavenVersion(FilePath mavenHome) throws IOException, InterruptedException {
+        if (!mavenHome.isDirectory()) {
+            return null;
+        }
+        for (FilePath jar : mavenHome.list("lib/maven-core-*.jar,mvn/lib/maven-core-*.jar")) {
+            Matcher matcher = MAVEN_CORE_JAR_PATTERN.matcher(jar.getName());
+            if (matcher.matches()) {
+                return jar.getName().substring("maven-core-".length(), jar.getName().length() - ".jar".length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param mavenVersion Maven version, see {@link #detectMavenVersion(FilePath)}, null if not known
+     * @return whether the Maven version supports {@link #LOCAL_REPOSITORY_LOCKING_ARGS} (3.9 or newer), older versions
+     *         silently ignore them
+     */
+    public static boolean supportsLocalRepositoryLocking(String mavenVersion) {
+        if (mavenVersion == null) {
+            return false;
+        }
+        Matcher matcher = MAVEN_CORE_JAR_PATTERN.matcher("maven-core-" + mavenVersion + ".jar");
+        if (!matcher.matches()) {
+            return false;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        return major > 3 || (major == 3 && minor >= 9);
+    }
+
+    /**
+     * @return maximum heap size in bytes specified by the -Xmx option (the last one wins, same as for the JVM),
+     *         -1 if not specified
+     */
+    public static long parseMaxHeap(String jvmOpts) {
+        if (jvmOpts == null) {
+            return -1;
+        }
+        long maxHeap = -1;
+        Matcher matcher = MAX_HEAP_PATTERN.matcher(jvmOpts);
+        int from = 0;
+        while (from < jvmOpts.length() && matcher.find(from)) {
+            String unit = matcher.group(3).toLowerCase();
+            // no unit means bytes, then k, m, g and t are the consecutive powers of 1024
+            int exponent = unit.isEmpty() ? 0 : "kmgt".indexOf(unit) + 1;
+            maxHeap = Long.parseLong(matcher.group(2)) << (10 * exponent);
+            // the trailing whitespace could be the leading one of the next option
+            from = matcher.end(3);
+        }
+        return maxHeap;
+    }
+}
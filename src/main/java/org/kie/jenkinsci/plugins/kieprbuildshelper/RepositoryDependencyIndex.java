@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Controller-wide, per-branch index of the Maven modules (published artifacts and their dependencies) of the
+ * repositories from the repository-list.txt, used to find out which repositories are related to the repository being
+ * built (see {@link RepositoryLists#pruneUnrelatedRepos(List, GitHubRepository, MavenModuleIndex)}).
+ *
+ * The poms are read directly from the reference mirrors (see {@link ReferenceMirrors}) on the agent, so the repositories
+ * do not need to be cloned first. The modules of every repository are cached together with the commit of the branch
+ * they were read from and re-read only once the mirror contains a newer commit.
+ */
+public class RepositoryDependencyIndex {
+
+    private static final RepositoryDependencyIndex INSTANCE = new RepositoryDependencyIndex();
+
+    public static RepositoryDependencyIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<GitBranch, Map<String, ScannedRepository>> branches = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong scans = new AtomicLong();
+
+    RepositoryDependencyIndex() {
+    }
+
+    /**
+     * Same as {@link #getIndex(FilePath, List)}, printing whether the index is available to the build log.
+     *
+     * @return index of the repositories, or null in case it is not available
+     */
+    public MavenModuleIndex getIndex(FilePath referenceDir, List<Tuple<GitHubRepository, GitBranch>> repos, PrintStream buildLogger)
+            throws InterruptedException {
+        try {
+            MavenModuleIndex index = getIndex(referenceDir, repos);
+            if (index == null) {
+                buildLogger.println("Not all the repositories are mirrored in " + referenceDir.getRemote() +
+                                            " yet, dependencies between the repositories are not known.");
+            } else {
+                buildLogger.println(getStatistics());
+            }
+            return index;
+        } catch (IOException e) {
+            buildLogger.println("Failed to read the dependencies between the repositories from the mirrors in " +
+                                        referenceDir.getRemote() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param referenceDir reference directory with the mirrors of the repositories
+     * @param repos        repositories (with their branches) to index, in the order from the repository-list.txt
+     * @return index of the repositories, or null in case some of the repositories are not mirrored yet (or their
+     *         mirrors do not contain the branch), so that the dependencies between the repositories are not known
+     */
+    public MavenModuleIndex getIndex(FilePath referenceDir, List<Tuple<GitHubRepository, GitBranch>> repos)
+            throws IOException, InterruptedException {
+        Map<String, String> branchesByRepo = new LinkedHashMap<>();
+        Map<String, String> knownCommits = new HashMap<>();
+        synchronized (branches) {
+            for (Tuple<GitHubRepository, GitBranch> repo : repos) {
+                branchesByRepo.put(repo._1().getName(), repo._2().getName());
+                ScannedRepository scanned = branches.getOrDefault(repo._2(), new HashMap<>()).get(repo._1().getName());
+                if (scanned != null) {
+                    knownCommits.put(repo._1().getName(), scanned.commit);
+                }
+            }
+        }
+        Map<String, ScannedRepository> scannedRepos = referenceDir.act(new ScanMirrorsCallable(branchesByRepo, knownCommits));
+
+        Map<String, List<MavenModule>> modulesByRepo = new LinkedHashMap<>();
+        synchronized (branches) {
+            for (Tuple<GitHubRepository, GitBranch> repo : repos) {
+                String repoName = repo._1().getName();
+                ScannedRepository scanned = scannedRepos.get(repoName);
+                if (scanned == null) {
+                    return null;
+                }
+                Map<String, ScannedRepository> branchRepos = branches.computeIfAbsent(repo._2(), branch -> new HashMap<>());
+                if (scanned.modules == null) {
+                    // the mirror did not change since the last scan
+                    scanned = branchRepos.get(repoName);
+                    hits.incrementAndGet();
+                } else {
+                    branchRepos.put(repoName, scanned);
+                    scans.incrementAndGet();
+                }
+                modulesByRepo.put(repoName, scanned.modules);
+            }
+        }
+        return new MavenModuleIndex(modulesByRepo);
+    }
+
+    /**
+     * @return number of times the modules of a repository were up-to-date and did not need to be scanned
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getScans() {
+        return scans.get();
+    }
+
+    public String getStatistics() {
+        return "Repository dependency index: " + hits.get() + " repositories up-to-date, " + scans.get() + " repositories scanned.";
+    }
+
+    /**
+     * Modules of a repository, read from the specified commit.
+     */
+    private static class ScannedRepository implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String commit;
+        private final List<MavenModule> modules;
+
+        /**
+         * @param modules modules of the repository, or null if not scanned as the commit is the already known one
+         */
+        private ScannedRepository(String commit, List<MavenModule> modules) {
+            this.commit = commit;
+            this.modules = modules;
+        }
+    }
+
+    /**
+     * Reads the poms from the mirrors in the reference directory. Repositories which are not mirrored, or whose mirrors
+     * do not contain the branch, are left out from the result.
+     */
+    private static class ScanMirrorsCallable extends MasterToSlaveFileCallable<Map<String, ScannedRepository>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> branchesByRepo;
+        private final Map<String, String> knownCommits;
+
+        private ScanMirrorsCallable(Map<String, String> branchesByRepo, Map<String, String> knownCommits) {
+            this.branchesByRepo = branchesByRepo;
+            this.knownCommits = knownCommits;
+        }
+
+        @Override
+        public Map<String, ScannedRepository> invoke(File referenceDir, VirtualChannel channel) throws IOException {
+            Map<String, ScannedRepository> scannedRepos = new HashMap<>();
+            for (Map.Entry<String, String> repoBranch : branchesByRepo.entrySet()) {
+                String repoName = repoBranch.getKey();
+                File gitDir = new File(referenceDir, repoName + ".git");
+                if (!new File(gitDir, "objects").isDirectory()) {
+                    continue;
+                }
+                Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+                try {
+                    ObjectId commitId = repository.resolve("refs/heads/" + repoBranch.getValue());
+                    if (commitId == null) {
+                        continue;
+                    }
+                    String commit = commitId.getName();
+                    if (commit.equals(knownCommits.get(repoName))) {
+                        scannedRepos.put(repoName, new ScannedRepository(commit, null));
+                        continue;
+                    }
+                    RevWalk revWalk = new RevWalk(repository);
+                    try {
+                        RevTree tree = revWalk.parseCommit(commitId).getTree();
+                        List<MavenModule> modules = MavenModuleIndex.scanRepository(new MirrorFiles(repository, tree), repoName);
+                        scannedRepos.put(repoName, new ScannedRepository(commit, modules));
+                    } finally {
+                        revWalk.release();
+                    }
+                } finally {
+                    repository.close();
+                }
+            }
+            return scannedRepos;
+        }
+    }
+
+    /**
+     * Files of single commit of a (bare) repository.
+     */
+    private static class MirrorFiles implements MavenModuleIndex.RepositoryFiles {
+        private final Repository repository;
+        private final RevTree tree;
+
+        private MirrorFiles(Repository repository, RevTree tree) {
+            this.repository = repository;
+            this.tree = tree;
+        }
+
+        @Override
+        public InputStream openFile(String path) throws IOException {
+            TreeWalk treeWalk = find(path);
+            if (treeWalk == null || (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+                return null;
+            }
+            return repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).openStream();
+        }
+
+        @Override
+        public boolean isDirectory(String path) throws IOException {
+            TreeWalk treeWalk = find(path);
+            return treeWalk != null && (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+        }
+
+        private TreeWalk find(String path) throws IOException {
+            if (path.isEmpty() || path.startsWith("..")) {
+                return null;
+            }
+            return TreeWalk.forPath(repository, path, tree);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Controller-wide cache of the repository-list.txt files, keyed by (repository, branch) and shared by all the builders.
+ *
+ * Cached lists are used for {@link #DEFAULT_TTL_MILLIS} and then revalidated using conditional (If-None-Match)
+ * requests. The number of cached lists is bounded, the least recently used ones are evicted first.
+ */
+public class RepositoryListCache {
+
+    /**
+     * System property overriding the base URL the repository lists are fetched from.
+     */
+    public static final String BASE_URL_PROPERTY = RepositoryListCache.class.getName() + ".baseUrl";
+    public static final String DEFAULT_BASE_URL = "https://raw.githubusercontent.com";
+    public static final String REPOSITORY_LIST_PATH = "script/repository-list.txt";
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int MAX_ENTRIES = 50;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private static final RepositoryListCache INSTANCE =
+            new RepositoryListCache(System.getProperty(BASE_URL_PROPERTY, DEFAULT_BASE_URL), DEFAULT_TTL_MILLIS, MAX_ENTRIES, System::currentTimeMillis);
+
+    public static RepositoryListCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final String baseUrl;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<Tuple<GitHubRepository, GitBranch>, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+
+    RepositoryListCache(String baseUrl, long ttlMillis, final int maxEntries, LongSupplier clock) {
+        this.baseUrl = baseUrl;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Tuple<GitHubRepository, GitBranch>, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Tuple<GitHubRepository, GitBranch>, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param repo   GitHub repository containing the repository-list.txt
+     * @param branch branch to get the file from
+     * @return lines of the repository-list.txt
+     */
+    public List<String> getRepositoryList(GitHubRepository repo, GitBranch branch) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(Tuple.of(repo, branch), key -> new Entry());
+        }
+        // lock only the single entry, so that concurrent builds wait for one download instead of each doing its own
+        synchronized (entry) {
+            long now = clock.getAsLong();
+            if (entry.lines != null && now - entry.lastValidated < ttlMillis) {
+                hits.incrementAndGet();
+                return entry.lines;
+            }
+            URL url = createUrl(repo, branch);
+            try {
+                download(url, entry);
+            } catch (IOException e) {
+                throw new RuntimeException("Can not fetch kiegroup repository list '" + url + "'!", e);
+            }
+            entry.lastValidated = now;
+            return entry.lines;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    private void download(URL url, Entry entry) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (entry.lines != null && entry.etag != null) {
+            connection.setRequestProperty("If-None-Match", entry.etag);
+        }
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            notModified.incrementAndGet();
+            return;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected HTTP status " + status);
+        }
+        try (InputStream input = connection.getInputStream()) {
+            entry.lines = Collections.unmodifiableList(IOUtils.readLines(input, StandardCharsets.UTF_8));
+        }
+        entry.etag = connection.getHeaderField("ETag");
+        downloads.incrementAndGet();
+    }
+
+    private URL createUrl(GitHubRepository repo, GitBranch branch) {
+        String strUrl = baseUrl + "/" + repo.getFullName() + "/" + branch.getName() + "/" + REPOSITORY_LIST_PATH;
+        try {
+            return new URL(strUrl);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException("Invalid repository-list URL: " + strUrl, e);
+        }
+    }
+
+    private static class Entry {
+        private List<String> lines;
+        private String etag;
+        private long lastValidated;
+    }
+}
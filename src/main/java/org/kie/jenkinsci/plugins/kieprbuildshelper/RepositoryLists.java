@@ -15,59 +15,163 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
 public class RepositoryLists {
 
     public static final String KIE_ORG_UNIT = "kiegroup";
     public static final GitHubRepository KIE_BOOTSTRAP_REPO = new GitHubRepository(KIE_ORG_UNIT, "droolsjbpm-build-bootstrap");
 
+    private static final long MAX_MIRROR_AGE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Repositories which are never built, no matter what the dependencies between the repositories are.
+     */
+    private static final List<GitHubRepository> NEVER_BUILT_REPOS = Collections.unmodifiableList(Arrays.asList(
+            // nothing depends on stuff from -tools repo
+            new GitHubRepository(KIE_ORG_UNIT, "droolsjbpm-tools"),
+            // no need to build docs as other repos do not depend on them
+            new GitHubRepository(KIE_ORG_UNIT, "kie-docs")));
+
 
     public static List<Tuple<GitHubRepository, GitBranch>> create(Tuple<GitHubRepository, GitBranch> repositoryListLocation,
                                                                   GitBranch kieBranch) {
+        return create(repositoryListLocation, kieBranch, null);
+    }
 
+    /**
+     * @param bootstrapMirror local mirror of the {@link #KIE_BOOTSTRAP_REPO}. The repository-list.txt is read directly
+     *                        from the mirror in case it was updated recently, instead of fetching it from GitHub.
+     *                        Can be null.
+     */
+    public static List<Tuple<GitHubRepository, GitBranch>> create(Tuple<GitHubRepository, GitBranch> repositoryListLocation,
+                                                                  GitBranch kieBranch, FilePath bootstrapMirror) {
+        List<GitHubRepository> repoList = null;
+        if (bootstrapMirror != null && KIE_BOOTSTRAP_REPO.equals(repositoryListLocation._1())) {
+            repoList = readKIERepositoryListFromMirror(bootstrapMirror, repositoryListLocation._2());
+        }
+        if (repoList == null) {
+            repoList = fetchKIERepositoryList(repositoryListLocation._1(), repositoryListLocation._2());
+        }
         List<Tuple<GitHubRepository, GitBranch>> repos = new ArrayList<>();
-        fetchKIERepositoryList(repositoryListLocation._1(), repositoryListLocation._2()).forEach(r -> repos.add(new Tuple<>(r, kieBranch)));
+        repoList.forEach(r -> repos.add(new Tuple<>(r, kieBranch)));
         return repos;
     }
 
     public static List<GitHubRepository> fetchKIERepositoryList(GitHubRepository repo, GitBranch branch) {
-        List<GitHubRepository> repos = new ArrayList<>();
-        URL reposFileUrl = createUrlForRepositoryList(repo, branch);
-        try (InputStream input = reposFileUrl.openStream()) {
-            for (String repoName : IOUtils.readLines(input)) {
-            	repos.add(new GitHubRepository(KIE_ORG_UNIT, repoName));
-            }
+        return toRepositories(RepositoryListCache.getInstance().getRepositoryList(repo, branch));
+    }
+
+    /**
+     * @return list of repositories or null in case the mirror does not exist, is not fresh enough or does not contain
+     *         the specified branch
+     */
+    private static List<GitHubRepository> readKIERepositoryListFromMirror(FilePath mirror, GitBranch branch) {
+        try {
+            List<String> lines = mirror.act(new ReadRepositoryListFromMirror(branch.getName(), MAX_MIRROR_AGE_MILLIS));
+            return lines == null ? null : toRepositories(lines);
         } catch (IOException e) {
-            throw new RuntimeException("Can not fetch kiegroup repository list '" + reposFileUrl + "'!", e);
+            // fall back to fetching the list from GitHub
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading repository list from " + mirror.getRemote(), e);
+        }
+    }
+
+    private static List<GitHubRepository> toRepositories(List<String> repoNames) {
+        List<GitHubRepository> repos = new ArrayList<>();
+        for (String repoName : repoNames) {
+            repos.add(new GitHubRepository(KIE_ORG_UNIT, repoName));
         }
         return repos;
     }
 
-    private static URL createUrlForRepositoryList(GitHubRepository repo, GitBranch branch) {
-        String strUrl = "https://raw.githubusercontent.com/" + repo.getFullName() + "/" + branch.getName() + "/script/repository-list.txt";
-        try {
-            return new URL(strUrl);
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("Invalid repository-list URL: " + strUrl, e);
+    /**
+     * Removes the repositories the base repository is not related to, see
+     * {@link #pruneUnrelatedRepos(List, GitHubRepository, MavenModuleIndex)}, and the repositories which are never
+     * built (droolsjbpm-tools and kie-docs). In case the dependencies between the repositories are not known, falls
+     * back to {@link #filterOutUnnecessaryRepos(List, GitHubRepository)}.
+     *
+     * @param index index of all the repositories, see {@link RepositoryDependencyIndex}. Can be null.
+     */
+    public static List<Tuple<GitHubRepository, GitBranch>> filterOutUnnecessaryRepos(List<Tuple<GitHubRepository, GitBranch>> repos,
+                                                                                     GitHubRepository baseRepo, MavenModuleIndex index) {
+        if (index == null || !index.getRepositories().contains(baseRepo.getName())) {
+            // the hardcoded filter removes the repositories in place
+            return filterOutUnnecessaryRepos(new ArrayList<>(repos), baseRepo);
+        }
+        List<Tuple<GitHubRepository, GitBranch>> related = new ArrayList<>(pruneUnrelatedRepos(repos, baseRepo, index));
+        related.removeIf(repo -> NEVER_BUILT_REPOS.contains(repo._1()));
+        return related;
+    }
+
+    /**
+     * Keeps only the base repository and the repositories which are its transitive upstream (the base repository
+     * depends on them) or downstream (they depend on the base repository) dependencies, according to the dependencies
+     * declared in the poms of the repositories. The order of the repositories is kept.
+     *
+     * @param index index of all the repositories, see {@link RepositoryDependencyIndex}. In case it is null or does not
+     *              contain the base repository, the repositories are returned unchanged.
+     */
+    public static List<Tuple<GitHubRepository, GitBranch>> pruneUnrelatedRepos(List<Tuple<GitHubRepository, GitBranch>> repos,
+                                                                               GitHubRepository baseRepo, MavenModuleIndex index) {
+        if (index == null || !index.getRepositories().contains(baseRepo.getName())) {
+            return repos;
+        }
+        Map<String, Set<String>> upstreamRepos = index.getRepositoryDependencies();
+        Map<String, Set<String>> downstreamRepos = new HashMap<>();
+        upstreamRepos.forEach((repo, dependencies) ->
+                dependencies.forEach(dependency -> downstreamRepos.computeIfAbsent(dependency, key -> new HashSet<>()).add(repo)));
+        Set<String> relatedRepos = new HashSet<>();
+        relatedRepos.add(baseRepo.getName());
+        relatedRepos.addAll(findTransitive(baseRepo.getName(), upstreamRepos));
+        relatedRepos.addAll(findTransitive(baseRepo.getName(), downstreamRepos));
+        return repos.stream().filter(repo -> relatedRepos.contains(repo._1().getName())).collect(Collectors.toList());
+    }
+
+    private static Set<String> findTransitive(String repo, Map<String, Set<String>> edges) {
+        Set<String> found = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(edges.getOrDefault(repo, Collections.emptySet()));
+        while (!toVisit.isEmpty()) {
+            String next = toVisit.pop();
+            if (found.add(next)) {
+                toVisit.addAll(edges.getOrDefault(next, Collections.emptySet()));
+            }
         }
+        return found;
     }
 
     /**
-     * TODO: this is an ugly hack. The dependency between repositories (or directly modules) should to be checked automatically for every build
+     * Hardcoded list of the repositories not needed for the builds. Used only when the dependencies between the
+     * repositories are not known yet (e.g. the repositories are not mirrored on the agent).
      */
     public static List<Tuple<GitHubRepository, GitBranch>> filterOutUnnecessaryRepos(List<Tuple<GitHubRepository, GitBranch>> repos, GitHubRepository baseRepo) {
-    	// nothing depends on stuff from -tools repo
-        repos.removeIf(repo -> repo._1().equals(new GitHubRepository("kiegroup", "droolsjbpm-tools")));
-        // no need to build docs as other repos do not depend on them
-        repos.removeIf(repo -> repo._1().equals(new GitHubRepository("kiegroup", "kie-docs")));
+        repos.removeIf(repo -> NEVER_BUILT_REPOS.contains(repo._1()));
 
         if ("kie-docs".equals(baseRepo.getName())) {
             // we only need to build repos up to "guvnor" as that's what kie-docs-code depends on
@@ -81,4 +185,39 @@ public class RepositoryLists {
         }
         return repos;
     }
+
+    /**
+     * Reads the repository-list.txt from local (bare) mirror of the {@link #KIE_BOOTSTRAP_REPO}, in case it was
+     * fetched recently.
+     */
+    private static class ReadRepositoryListFromMirror extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String branch;
+        private final long maxAgeMillis;
+
+        private ReadRepositoryListFromMirror(String branch, long maxAgeMillis) {
+            this.branch = branch;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        @Override
+        public List<String> invoke(File gitDir, VirtualChannel channel) throws IOException {
+            File fetchHead = new File(gitDir, "FETCH_HEAD");
+            if (!fetchHead.isFile() || System.currentTimeMillis() - fetchHead.lastModified() > maxAgeMillis) {
+                return null;
+            }
+            Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+            try {
+                ObjectId blobId = repository.resolve("refs/heads/" + branch + ":" + RepositoryListCache.REPOSITORY_LIST_PATH);
+                if (blobId == null) {
+                    return null;
+                }
+                byte[] content = repository.open(blobId, Constants.OBJ_BLOB).getBytes();
+                return IOUtils.readLines(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+            } finally {
+                repository.close();
+            }
+        }
+    }
 }
@@ -15,13 +15,16 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.eclipse.jgit.transport.RefSpec;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import hudson.EnvVars;
@@ -44,6 +47,11 @@ public class StandardBuildUpstreamReposBuilder extends Builder {
     private final String baseRepository;
     private final String branch;
     private final MavenBuildConfig mavenBuildConfig;
+    private int cloneParallelism = 1;
+    private boolean reuseRepositories;
+    private boolean trashRepositories;
+    private CloneStrategy cloneStrategy = CloneStrategy.FULL;
+    private GitEngine gitEngine = GitEngine.CLI;
 
     private transient PrintStream buildLogger;
 
@@ -74,41 +82,232 @@ public class StandardBuildUpstreamReposBuilder extends Builder {
         return mavenBuildConfig.getMavenArgs();
     }
 
+    public MavenBuildMode getBuildMode() {
+        return mavenBuildConfig.getBuildMode();
+    }
+
+    @DataBoundSetter
+    public void setBuildMode(MavenBuildMode buildMode) {
+        mavenBuildConfig.setBuildMode(buildMode);
+    }
+
+    public int getBuildParallelism() {
+        return mavenBuildConfig.getBuildParallelism();
+    }
+
+    @DataBoundSetter
+    public void setBuildParallelism(int buildParallelism) {
+        mavenBuildConfig.setBuildParallelism(buildParallelism);
+    }
+
+    /**
+     * @return whether to skip the builds of the upstream repositories already built on the agent, see {@link ArtifactCache}
+     */
+    public boolean isUseArtifactCache() {
+        return mavenBuildConfig.isUseArtifactCache();
+    }
+
+    @DataBoundSetter
+    public void setUseArtifactCache(boolean useArtifactCache) {
+        mavenBuildConfig.setUseArtifactCache(useArtifactCache);
+    }
+
+    public int getBuildMemoryBudget() {
+        return mavenBuildConfig.getBuildMemoryBudget();
+    }
+
+    @DataBoundSetter
+    public void setBuildMemoryBudget(int buildMemoryBudget) {
+        mavenBuildConfig.setBuildMemoryBudget(buildMemoryBudget);
+    }
+
+    public MavenEngine getMavenEngine() {
+        return mavenBuildConfig.getMavenEngine();
+    }
+
+    @DataBoundSetter
+    public void setMavenEngine(MavenEngine mavenEngine) {
+        mavenBuildConfig.setMavenEngine(mavenEngine);
+    }
+
+    public String getMvndHome() {
+        return mavenBuildConfig.getMvndHome();
+    }
+
+    @DataBoundSetter
+    public void setMvndHome(String mvndHome) {
+        mavenBuildConfig.setMvndHome(mvndHome);
+    }
+
+    public String getArtifactsCleanUpPatterns() {
+        return mavenBuildConfig.getArtifactsCleanUpPatterns();
+    }
+
+    @DataBoundSetter
+    public void setArtifactsCleanUpPatterns(String artifactsCleanUpPatterns) {
+        mavenBuildConfig.setArtifactsCleanUpPatterns(artifactsCleanUpPatterns);
+    }
+
+    public MavenOutput getMavenOutput() {
+        return mavenBuildConfig.getMavenOutput();
+    }
+
+    @DataBoundSetter
+    public void setMavenOutput(MavenOutput mavenOutput) {
+        mavenBuildConfig.setMavenOutput(mavenOutput);
+    }
+
+    public boolean isArchiveAllMavenLogs() {
+        return mavenBuildConfig.isArchiveAllMavenLogs();
+    }
+
+    @DataBoundSetter
+    public void setArchiveAllMavenLogs(boolean archiveAllMavenLogs) {
+        mavenBuildConfig.setArchiveAllMavenLogs(archiveAllMavenLogs);
+    }
+
+    /**
+     * @return maximum number of repositories cloned at the same time
+     */
+    public int getCloneParallelism() {
+        // builders configured before the option existed are loaded with 0
+        return Math.max(1, cloneParallelism);
+    }
+
+    @DataBoundSetter
+    public void setCloneParallelism(int cloneParallelism) {
+        this.cloneParallelism = cloneParallelism;
+    }
+
+    /**
+     * @return whether to keep the cloned repositories between builds and just update them to the required refspecs,
+     *         instead of deleting them and cloning from scratch
+     */
+    public boolean isReuseRepositories() {
+        return reuseRepositories;
+    }
+
+    @DataBoundSetter
+    public void setReuseRepositories(boolean reuseRepositories) {
+        this.reuseRepositories = reuseRepositories;
+    }
+
+    /**
+     * @return whether to move the repositories cloned by the previous build to the agent trash instead of deleting
+     *         them before the build, see {@link WorkspaceTrash}
+     */
+    public boolean isTrashRepositories() {
+        return trashRepositories;
+    }
+
+    @DataBoundSetter
+    public void setTrashRepositories(boolean trashRepositories) {
+        this.trashRepositories = trashRepositories;
+    }
+
+    /**
+     * @return how to get the required revisions into the cloned repositories
+     */
+    public CloneStrategy getCloneStrategy() {
+        return cloneStrategy == null ? CloneStrategy.FULL : cloneStrategy;
+    }
+
+    @DataBoundSetter
+    public void setCloneStrategy(CloneStrategy cloneStrategy) {
+        this.cloneStrategy = cloneStrategy;
+    }
+
+    /**
+     * @return git implementation used to clone the repositories
+     */
+    public GitEngine getGitEngine() {
+        return gitEngine == null ? GitEngine.CLI : gitEngine;
+    }
+
+    @DataBoundSetter
+    public void setGitEngine(GitEngine gitEngine) {
+        this.gitEngine = gitEngine;
+    }
+
     @Override
     public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) {
+        FilePath referenceDir = null;
+        List<GitHubRepository> mirroredRepos = new ArrayList<>();
+        BuildPerformanceAction performance = new BuildPerformanceAction("Upstream repositories builder for standard builds");
+        build.addAction(performance);
+        RepositoriesBuild repositoriesBuild = null;
         try {
+            performance.startPhase(BuildPerformanceAction.PHASE_INIT);
             buildLogger = listener.getLogger();
             buildLogger.printf("Upstream repositories builder for standard builds started (repository=%s, branch=%s).%n", baseRepository, branch);
             EnvVars envVars = build.getEnvironment(launcher.getListener());
+            File referenceBasedir = ReferenceMirrors.getReferenceBasedir(envVars);
+            referenceDir = new FilePath(launcher.getChannel(), referenceBasedir.getPath());
 
             FilePath workspace = build.getWorkspace();
             FilePath upstreamReposDir = new FilePath(workspace, "upstream-repos");
             // clean-up the destination directory to avoid stale content
-            buildLogger.println("Cleaning-up directory " + upstreamReposDir.getRemote());
-            upstreamReposDir.deleteRecursive();
+            performance.startPhase(BuildPerformanceAction.PHASE_WORKSPACE_CLEAN_UP);
+            if (reuseRepositories) {
+                buildLogger.println("Reusing repositories cloned by previous builds in " + upstreamReposDir.getRemote());
+            } else if (trashRepositories) {
+                buildLogger.println("Moving directory " + upstreamReposDir.getRemote() + " to the trash");
+                performance.recordTrash(WorkspaceTrash.moveToTrash(upstreamReposDir, build.getBuiltOn(),
+                        KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().getTrashMinFreeSpaceBytes(), listener));
+            } else {
+                buildLogger.println("Cleaning-up directory " + upstreamReposDir.getRemote());
+                upstreamReposDir.deleteRecursive();
+            }
             
             GitBranch gitBranch = new GitBranch(branch);
 
+            performance.startPhase(BuildPerformanceAction.PHASE_REPOSITORY_LIST);
             Tuple<GitHubRepository, GitBranch> repositoryListLocation = Tuple.of(RepositoryLists.KIE_BOOTSTRAP_REPO,  gitBranch);
-            List<Tuple<GitHubRepository, GitBranch>> allRepos = RepositoryLists.create(repositoryListLocation, gitBranch);
+            FilePath bootstrapMirror = GitHubUtils.getReferenceRepository(launcher, referenceBasedir,
+                                                                          RepositoryLists.KIE_BOOTSTRAP_REPO);
+            List<Tuple<GitHubRepository, GitBranch>> allRepos = RepositoryLists.create(repositoryListLocation, gitBranch, bootstrapMirror);
+            MavenModuleIndex repositoryIndex = RepositoryDependencyIndex.getInstance().getIndex(referenceDir, allRepos, buildLogger);
             List<Tuple<GitHubRepository, GitBranch>> filteredRepos =
-                    RepositoryLists.filterOutUnnecessaryRepos(allRepos, GitHubRepository.from(baseRepository));
+                    RepositoryLists.filterOutUnnecessaryRepos(allRepos, GitHubRepository.from(baseRepository), repositoryIndex);
             List<Tuple<GitHubRepository, RefSpec>> upstreamRepos = gatherUpstreamReposToBuild(GitHubRepository.from(baseRepository), filteredRepos);
 
             GitHubUtils.logRepositories(upstreamRepos, buildLogger);
             // clone upstream repositories
-            GitHubUtils.cloneRepositories(upstreamReposDir, upstreamRepos, GitHubUtils.GIT_REFERENCE_BASEDIR, listener);
+            mirroredRepos.add(RepositoryLists.KIE_BOOTSTRAP_REPO);
+            upstreamRepos.stream().map(Tuple::_1).filter(repo -> !mirroredRepos.contains(repo)).forEach(mirroredRepos::add);
+            performance.startPhase(BuildPerformanceAction.PHASE_MIRRORS);
+            ReferenceMirrors.getInstance().prepareMirrors(referenceDir, mirroredRepos, listener);
+            // the repositories not being built are mirrored in the background, so that their dependencies are known
+            allRepos.stream().map(Tuple::_1).filter(repo -> !mirroredRepos.contains(repo)).forEach(mirroredRepos::add);
+            performance.startPhase(BuildPerformanceAction.PHASE_CLONE);
+            CloneConfig cloneConfig = new CloneConfig(getCloneParallelism(), reuseRepositories, getCloneStrategy(), getGitEngine());
+            Map<String, CloneRepositoriesCallable.CloneResult> cloneResults =
+                    GitHubUtils.cloneRepositories(upstreamReposDir, upstreamRepos, referenceBasedir, cloneConfig, listener);
+            performance.recordClones(cloneResults);
 
             // build upstream repositories using Maven
-            for (GitHubRepository repo : upstreamRepos.stream().map(Tuple::_1).collect(Collectors.toList())) {
-                MavenProject mavenProject = new MavenProject(new FilePath(upstreamReposDir,
-                        repo.getName()), mavenBuildConfig.getMavenHome(), mavenBuildConfig.getMavenOpts(), launcher, listener);
-                mavenProject.build(mavenBuildConfig.getMavenArgs(), envVars, buildLogger);
+            performance.startPhase(BuildPerformanceAction.PHASE_MAVEN);
+            repositoriesBuild = new RepositoriesBuild(upstreamReposDir, mavenBuildConfig, envVars, launcher, listener);
+            if (mavenBuildConfig.isUseArtifactCache()) {
+                repositoriesBuild.useArtifactCache(cloneResults, KiePRBuildsHelper.getKiePRBuildsHelperDescriptor().getArtifactCacheSizeBytes());
             }
+            repositoriesBuild.build(upstreamRepos.stream().map(Tuple::_1).collect(Collectors.toList()), false);
+            performance.finishPhase();
         } catch (Exception ex) {
+            performance.failPhase();
             buildLogger.println("Unexpected error while executing the StandardBuildsUpstreamReposBuilder! " + ex.getMessage());
             ex.printStackTrace(buildLogger);
             return false;
+        } finally {
+            // the standard builds do not call GitHub API
+            if (repositoriesBuild != null) {
+                repositoriesBuild.archiveMavenLogs(build);
+            }
+            performance.recordStatistics(null, repositoriesBuild);
+            PluginMetrics.getInstance().recordBuild(performance);
+            if (!mirroredRepos.isEmpty()) {
+                ReferenceMirrors.getInstance().refreshMirrorsAsync(referenceDir, mirroredRepos);
+            }
         }
 
         buildLogger.println("Upstream repositories builder finished successfully.");
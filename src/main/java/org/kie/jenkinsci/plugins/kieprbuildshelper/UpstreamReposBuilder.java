@@ -13,6 +13,7 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /**
@@ -43,6 +44,18 @@ public class UpstreamReposBuilder extends AbstractPRBuilder {
         super(mavenHome, mavenOpts, mavenArgs);
     }
 
+    /**
+     * @return whether to skip the builds of the upstream repositories already built on the agent, see {@link ArtifactCache}
+     */
+    public boolean isUseArtifactCache() {
+        return getMavenBuildConfig().isUseArtifactCache();
+    }
+
+    @DataBoundSetter
+    public void setUseArtifactCache(boolean useArtifactCache) {
+        getMavenBuildConfig().setUseArtifactCache(useArtifactCache);
+    }
+
     @Override
     protected String getDescription() {
         return "Upstream repositories builder for PR builds";
@@ -55,6 +68,8 @@ public class UpstreamReposBuilder extends AbstractPRBuilder {
 
     /**
      * Get list of upstream repositories that need to be build before the base repository (repository with the PR).
+     * In case the dependencies between the repositories are known, only the repositories the base repository
+     * (transitively) depends on are built.
      *
      * @param prRepo GitHub repository that the PR was submitted against
      * @param allRepos list of all repositories for the specific build chain
@@ -63,7 +78,7 @@ public class UpstreamReposBuilder extends AbstractPRBuilder {
     @Override
     protected List<Tuple<GitHubRepository, GitBranch>> getReposToBuild(GitHubRepository prRepo, List<Tuple<GitHubRepository, GitBranch>> allRepos) {
         List<Tuple<GitHubRepository, GitBranch>> result = new ArrayList<>();
-        for (Tuple<GitHubRepository, GitBranch> repoWithBranch : allRepos) {
+        for (Tuple<GitHubRepository, GitBranch> repoWithBranch : RepositoryLists.pruneUnrelatedRepos(allRepos, prRepo, getRepositoryIndex())) {
             GitHubRepository repo = repoWithBranch._1();
             if (repo.equals(prRepo)) {
                 // we encountered the PR repo, so all upstream repos were already processed and we can return the result
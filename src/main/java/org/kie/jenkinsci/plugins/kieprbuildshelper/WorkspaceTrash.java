@@ -0,0 +1,459 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-agent trash for the repositories cloned by the previous builds. Instead of deleting the repositories before the
+ * build (which takes minutes for the whole chain), the directory is atomically renamed into the trash directory in the
+ * agent root and deleted in the background by a reaper running in the agent JVM, so the build can start cloning right
+ * away.
+ *
+ * The reaper deletes at most {@link #MAX_CONCURRENT_DELETIONS} directories at the same time, using {@code rm -rf} with
+ * the lowest CPU ({@code nice}) and I/O ({@code ionice}, idle class) priority when available, so the deletion does not
+ * slow down the builds running on the agent. The size of the deleted directories is measured by {@code du} inside the
+ * same low priority command, right before the deletion, the pending directories are not measured. Directories left in
+ * the trash by the previous agent sessions (or whose deletion failed) are picked up again by the next build. In case
+ * the free space on the disk drops below the configured minimum while the trash is not empty, i.e. the builds fill the
+ * disk faster than the reaper is able to empty it, the builds wait for the reaper before moving more directories into
+ * the trash.
+ *
+ * The trash needs to be on the same file system as the workspace, otherwise the rename is not possible and the directory
+ * is deleted synchronously, as before.
+ */
+public class WorkspaceTrash {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkspaceTrash.class);
+
+    /**
+     * Trash directory, relative to the agent root.
+     */
+    public static final String TRASH_DIR = "kie-trash";
+
+    private static final int MAX_CONCURRENT_DELETIONS = 2;
+    private static final long THROTTLE_POLL_MILLIS = 5000;
+    private static final long MAX_THROTTLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * Reapers of the trash directories, living in the agent JVM.
+     */
+    private static final Map<String, Reaper> REAPERS = new HashMap<>();
+
+    private WorkspaceTrash() {
+    }
+
+    /**
+     * Moves the directory into the trash of the node and prints the trash status to the build log. The directory is
+     * deleted right away in case it can not be moved into the trash.
+     *
+     * @param dir          directory to delete
+     * @param node         node the directory is on
+     * @param minFreeBytes minimum free space on the disk of the trash, the build waits for the reaper below it
+     * @return status of the trash, or null in case the trash of the node is not available
+     */
+    public static TrashResult moveToTrash(FilePath dir, Node node, long minFreeBytes, TaskListener listener)
+            throws IOException, InterruptedException {
+        FilePath rootPath = node == null ? null : node.getRootPath();
+        if (rootPath == null) {
+            listener.getLogger().println("Root directory of the agent not available, deleting directory " + dir.getRemote());
+            dir.deleteRecursive();
+            return null;
+        }
+        TrashResult result = dir.act(new MoveToTrashCallable(rootPath.child(TRASH_DIR).getRemote(), minFreeBytes, listener));
+        listener.getLogger().println(result);
+        return result;
+    }
+
+    /**
+     * @return the reaper of the trash directory, created (and scheduling the directories already in the trash) on the
+     *         first call
+     */
+    static Reaper getReaper(Path trashDir) throws IOException {
+        Reaper reaper;
+        synchronized (REAPERS) {
+            reaper = REAPERS.computeIfAbsent(trashDir.toAbsolutePath().toString(),
+                                             path -> new Reaper(trashDir, createDeleteCommand()));
+        }
+        reaper.scheduleTrash();
+        return reaper;
+    }
+
+    /**
+     * @return shell command measuring the directory (passed as the last argument) by {@code du -sb} and deleting it by
+     *         {@code rm -rf}, prefixed by {@code nice} and {@code ionice} (those available on the agent), or null in case
+     *         the directories should be deleted directly by the JVM (Windows)
+     */
+    static List<String> createDeleteCommand() {
+        if (File.pathSeparatorChar != ':') {
+            return null;
+        }
+        List<String> command = new ArrayList<>();
+        if (isOnPath("nice")) {
+            command.addAll(Arrays.asList("nice", "-n", "19"));
+        }
+        if (isOnPath("ionice")) {
+            command.addAll(Arrays.asList("ionice", "-c", "3"));
+        }
+        // the exit code is the one of rm, the size is just not counted when du does not support -b (non-GNU du)
+        command.addAll(Arrays.asList("sh", "-c", "du -sb -- \"$1\" 2>/dev/null; rm -rf -- \"$1\"", "sh"));
+        return command;
+    }
+
+    private static boolean isOnPath(String executable) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            if (!dir.isEmpty() && new File(dir, executable).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return total size of the regular files in the directory, used only when deleting the directory directly by the JVM
+     */
+    static long sizeOf(Path dir) throws IOException {
+        AtomicLong bytes = new AtomicLong();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    bytes.addAndGet(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted in the meantime, or not readable, the size is just an estimate
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return bytes.get();
+    }
+
+    /**
+     * Deletes the directories in the trash directory in the background.
+     */
+    static class Reaper {
+        private final Path trashDir;
+        private final List<String> deleteCommand;
+        private final ThreadPoolExecutor executor;
+        private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+        private final AtomicLong reapedDirectories = new AtomicLong();
+        private final AtomicLong reapedBytes = new AtomicLong();
+
+        /**
+         * @param deleteCommand command deleting the directory passed as the last argument and printing its size in
+         *                      bytes as the first word of the output, or null to delete the directories directly
+         */
+        Reaper(Path trashDir, List<String> deleteCommand) {
+            this.trashDir = trashDir;
+            this.deleteCommand = deleteCommand == null ? null : Collections.unmodifiableList(new ArrayList<>(deleteCommand));
+            this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_DELETIONS, MAX_CONCURRENT_DELETIONS, 1, TimeUnit.MINUTES,
+                                                   new LinkedBlockingQueue<>(),
+                                                   new NamingThreadFactory(runnable -> {
+                                                       Thread thread = new DaemonThreadFactory().newThread(runnable);
+                                                       thread.setPriority(Thread.MIN_PRIORITY);
+                                                       return thread;
+                                                   }, "KIE trash reaper"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Schedules the deletion of all the directories in the trash which are not scheduled yet.
+         */
+        void scheduleTrash() throws IOException {
+            if (!Files.isDirectory(trashDir)) {
+                return;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(trashDir)) {
+                for (Path entry : entries) {
+                    schedule(entry);
+                }
+            }
+        }
+
+        void schedule(Path entry) {
+            if (pending.add(entry)) {
+                executor.execute(() -> reap(entry));
+            }
+        }
+
+        /**
+         * Moves the directory into the trash and schedules its deletion.
+         *
+         * @throws AtomicMoveNotSupportedException in case the directory is not on the same file system as the trash
+         */
+        void moveToTrash(File dir) throws IOException {
+            Files.createDirectories(trashDir);
+            // unique name, so that the same directory can be trashed again before the previous one is deleted
+            Path entry = trashDir.resolve(dir.getName() + "-" + System.currentTimeMillis() + "-" +
+                                                  UUID.randomUUID().toString().substring(0, 8));
+            Files.move(dir.toPath(), entry, StandardCopyOption.ATOMIC_MOVE);
+            schedule(entry);
+        }
+
+        private void reap(Path entry) {
+            try {
+                reapedBytes.addAndGet(delete(entry));
+                reapedDirectories.incrementAndGet();
+            } catch (IOException e) {
+                logger.warn("Failed to delete " + entry + " from the trash, the deletion is retried by the next build.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pending.remove(entry);
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return size of the deleted directory, or 0 in case the delete command did not measure it
+         */
+        private long delete(Path entry) throws IOException, InterruptedException {
+            if (deleteCommand != null) {
+                List<String> command = new ArrayList<>(deleteCommand);
+                command.add(entry.toString());
+                Process process = new ProcessBuilder(command)
+                        .redirectError(new File("/dev/null"))
+                        .start();
+                String output;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    output = reader.readLine();
+                    while (reader.readLine() != null) {
+                        // drain the output, so the command does not block on a full pipe
+                    }
+                }
+                int exitCode = process.waitFor();
+                if (exitCode == 0 && !Files.exists(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    return parseSize(output);
+                }
+                logger.warn("'{}' exited with code {}, deleting {} directly.", String.join(" ", command), exitCode, entry);
+            }
+            long bytes = sizeOf(entry);
+            Util.deleteRecursive(entry.toFile());
+            return bytes;
+        }
+
+        private static long parseSize(String output) {
+            if (output != null) {
+                String[] words = output.trim().split("\\s+");
+                try {
+                    return Long.parseLong(words[0]);
+                } catch (NumberFormatException e) {
+                    logger.debug("Unexpected output of the delete command: {}", output);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Waits until the free space on the disk of the trash grows over the minimum, the trash is empty, or
+         * {@link #MAX_THROTTLE_MILLIS} passes, whichever comes first.
+         *
+         * @return how long (in milliseconds) the build waited
+         */
+        long awaitFreeSpace(long minFreeBytes, PrintStream buildLogger) throws IOException, InterruptedException {
+            long startNanos = System.nanoTime();
+            long waitedMillis = 0;
+            boolean throttled = false;
+            while (minFreeBytes > 0 && !pending.isEmpty() && getUsableBytes() < minFreeBytes) {
+                if (waitedMillis >= MAX_THROTTLE_MILLIS) {
+                    buildLogger.println("Free space on the disk still below " + FormatUtils.formatBytes(minFreeBytes) +
+                                                " after " + FormatUtils.formatMillis(waitedMillis) + ", not waiting for the trash anymore.");
+                    break;
+                }
+                if (!throttled) {
+                    throttled = true;
+                    buildLogger.println("Only " + FormatUtils.formatBytes(getUsableBytes()) + " free on the disk of " +
+                                                trashDir + ", waiting until the " + pending.size() + " directories in the trash get deleted.");
+                }
+                synchronized (this) {
+                    wait(THROTTLE_POLL_MILLIS);
+                }
+                waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            }
+            return waitedMillis;
+        }
+
+        long getUsableBytes() throws IOException {
+            return Files.getFileStore(Files.isDirectory(trashDir) ? trashDir : trashDir.getParent()).getUsableSpace();
+        }
+
+        /**
+         * @return number of directories waiting for (or being in) the deletion
+         */
+        int getPendingDirectories() {
+            return pending.size();
+        }
+
+        TrashResult getResult(boolean moved, long throttledMillis) throws IOException {
+            return new TrashResult(trashDir.toString(), moved, pending.size(), getUsableBytes(), throttledMillis,
+                                   reapedDirectories.get(), reapedBytes.get());
+        }
+    }
+
+    /**
+     * Status of the trash after moving a directory into it.
+     */
+    public static class TrashResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String trashDir;
+        private final boolean moved;
+        private final int pendingDirectories;
+        private final long usableBytes;
+        private final long throttledMillis;
+        private final long reapedDirectories;
+        private final long reapedBytes;
+
+        TrashResult(String trashDir, boolean moved, int pendingDirectories, long usableBytes, long throttledMillis,
+                    long reapedDirectories, long reapedBytes) {
+            this.trashDir = trashDir;
+            this.moved = moved;
+            this.pendingDirectories = pendingDirectories;
+            this.usableBytes = usableBytes;
+            this.throttledMillis = throttledMillis;
+            this.reapedDirectories = reapedDirectories;
+            this.reapedBytes = reapedBytes;
+        }
+
+        /**
+         * @return false if the directory did not exist or was deleted synchronously
+         */
+        public boolean isMoved() {
+            return moved;
+        }
+
+        public int getPendingDirectories() {
+            return pendingDirectories;
+        }
+
+        public long getUsableBytes() {
+            return usableBytes;
+        }
+
+        /**
+         * @return how long (in milliseconds) the build waited for the reaper to free the disk space
+         */
+        public long getThrottledMillis() {
+            return throttledMillis;
+        }
+
+        /**
+         * @return number of directories deleted from the trash since the agent started
+         */
+        public long getReapedDirectories() {
+            return reapedDirectories;
+        }
+
+        /**
+         * @return size of the directories deleted from the trash since the agent started, measured right before the
+         *         deletion
+         */
+        public long getReapedBytes() {
+            return reapedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Trash " + trashDir + ": " + pendingDirectories + " directories pending deletion, " +
+                    FormatUtils.formatBytes(usableBytes) + " free on the disk, " + reapedDirectories +
+                    " directories (" + FormatUtils.formatBytes(reapedBytes) + ") deleted since the agent started" +
+                    (throttledMillis > 0 ? ", build waited " + FormatUtils.formatMillis(throttledMillis) + " for the disk space." : ".");
+        }
+    }
+
+    private static class MoveToTrashCallable extends MasterToSlaveFileCallable<TrashResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String trashDir;
+        private final long minFreeBytes;
+        private final TaskListener listener;
+
+        private MoveToTrashCallable(String trashDir, long minFreeBytes, TaskListener listener) {
+            this.trashDir = trashDir;
+            this.minFreeBytes = minFreeBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        public TrashResult invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            PrintStream buildLogger = listener.getLogger();
+            Reaper reaper = getReaper(Paths.get(trashDir));
+            long throttledMillis = reaper.awaitFreeSpace(minFreeBytes, buildLogger);
+            if (!dir.exists()) {
+                return reaper.getResult(false, throttledMillis);
+            }
+            try {
+                reaper.moveToTrash(dir);
+                return reaper.getResult(true, throttledMillis);
+            } catch (IOException e) {
+                // most likely the workspace is on a different file system than the trash
+                buildLogger.println("Failed to move " + dir + " to the trash " + trashDir + " (" + e + "), deleting it.");
+                Util.deleteRecursive(dir);
+                return reaper.getResult(false, throttledMillis);
+            }
+        }
+    }
+}
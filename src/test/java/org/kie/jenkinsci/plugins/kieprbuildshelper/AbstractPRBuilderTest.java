@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.Test;
+
+public class AbstractPRBuilderTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+    private static final GitHubRepository JBPM = new GitHubRepository("kiegroup", "jbpm");
+    private static final GitHubRepository INTEGRATION = new GitHubRepository("kiegroup", "droolsjbpm-integration");
+
+    @Test(timeout = 10_000)
+    public void resolveRefSpecsInRepositoryListOrder() throws Exception {
+        CountDownLatch otherReposResolved = new CountDownLatch(2);
+        Function<GitHubRepository, Optional<GitHubPRSummary>> prLookup = repo -> {
+            if (repo.equals(DROOLS)) {
+                // the first repository gets resolved last
+                await(otherReposResolved);
+                return Optional.of(pr(12, DROOLS, true));
+            }
+            otherReposResolved.countDown();
+            return Optional.empty();
+        };
+
+        List<Tuple<GitHubRepository, RefSpec>> refSpecs = AbstractPRBuilder.transformToRefSpecs(
+                Arrays.asList(Tuple.of(DROOLS, GitBranch.MASTER), Tuple.of(JBPM, GitBranch.MASTER),
+                              Tuple.of(INTEGRATION, new GitBranch("7.x"))), prLookup, 8);
+
+        Assertions.assertThat(refSpecs).containsExactly(
+                Tuple.of(DROOLS, new RefSpec("pull/12/merge:pr12-DROOLS-1-merge")),
+                Tuple.of(JBPM, new RefSpec("master:master-pr-build")),
+                Tuple.of(INTEGRATION, new RefSpec("7.x:7.x-pr-build")));
+    }
+
+    @Test(timeout = 10_000)
+    public void resolveAtMostMaxParallelRepositoriesAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Function<GitHubRepository, Optional<GitHubPRSummary>> prLookup = repo -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            running.decrementAndGet();
+            return Optional.empty();
+        };
+        List<Tuple<GitHubRepository, GitBranch>> repos = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            repos.add(Tuple.of(new GitHubRepository("kiegroup", "repo-" + i), GitBranch.MASTER));
+        }
+
+        Assertions.assertThat(AbstractPRBuilder.transformToRefSpecs(repos, prLookup, 3)).hasSize(10);
+        Assertions.assertThat(maxRunning.get()).isGreaterThan(1).isLessThanOrEqualTo(3);
+    }
+
+    @Test(timeout = 10_000)
+    public void failFastOnNotMergeablePullRequestAndCancelRemainingResolutions() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Function<GitHubRepository, Optional<GitHubPRSummary>> prLookup = repo -> {
+            if (repo.equals(DROOLS)) {
+                try {
+                    // never resolved on its own
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return Optional.empty();
+            }
+            return Optional.of(pr(34, repo, false));
+        };
+
+        try {
+            AbstractPRBuilder.transformToRefSpecs(
+                    Arrays.asList(Tuple.of(DROOLS, GitBranch.MASTER), Tuple.of(JBPM, GitBranch.MASTER)), prLookup, 8);
+            Assertions.fail("PR which is not mergeable must fail the resolution");
+        } catch (RuntimeException e) {
+            Assertions.assertThat(e.getMessage()).contains("PR 34 for repo " + JBPM).contains("not automatically mergeable");
+        }
+        Assertions.assertThat(cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static GitHubPRSummary pr(int number, GitHubRepository repo, boolean mergeable) {
+        return new GitHubPRSummary(number, repo, GitBranch.MASTER, new GitHubRepository("john", repo.getName()),
+                                   new GitBranch("DROOLS-1"), mergeable);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
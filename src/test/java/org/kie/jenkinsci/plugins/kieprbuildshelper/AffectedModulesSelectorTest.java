@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class AffectedModulesSelectorTest {
+
+    private final MavenModule droolsParent = module("drools", "", "drools-parent");
+    private final MavenModule droolsCore = module("drools", "drools-core", "drools-core", "org.kie:drools-parent");
+    private final MavenModule droolsCompiler = module("drools", "drools-compiler", "drools-compiler", "org.kie:drools-parent", "org.kie:drools-core");
+    private final MavenModule jbpmParent = module("jbpm", "", "jbpm-parent");
+    private final MavenModule jbpmFlow = module("jbpm", "jbpm-flow", "jbpm-flow", "org.kie:jbpm-parent", "org.kie:drools-core");
+    private final MavenModule jbpmAudit = module("jbpm", "jbpm-audit", "jbpm-audit", "org.kie:jbpm-parent");
+    private final MavenModule optaplannerParent = module("optaplanner", "", "optaplanner-parent");
+    private final MavenModule optaplannerCore = module("optaplanner", "optaplanner-core", "optaplanner-core", "org.kie:optaplanner-parent",
+                                                       "org.kie:drools-compiler");
+
+    private final AffectedModulesSelector selector = new AffectedModulesSelector(createIndex());
+
+    @Test
+    public void mapChangedFilesToModules() {
+        Set<MavenModule> changed = selector.findChangedModules("drools", Arrays.asList(
+                "drools-core/src/main/java/org/drools/core/Rule.java", "README.md", "drools-core/pom.xml"));
+        Assertions.assertThat(changed).containsExactly(droolsCore);
+
+        Assertions.assertThat(selector.findChangedModules("drools", Collections.singletonList("pom.xml"))).containsExactly(droolsParent);
+        Assertions.assertThat(selector.findChangedModules("drools", Collections.singletonList(".gitignore"))).isEmpty();
+    }
+
+    @Test
+    public void selectOnlyAffectedModulesOfDownstreamRepos() {
+        Set<MavenModule> affected = selector.findAffectedModules(Collections.singleton(droolsCompiler));
+        Assertions.assertThat(affected).containsOnly(droolsCompiler, optaplannerCore);
+
+        Map<String, AffectedModulesSelector.Selection> selections = selector.select(Arrays.asList("jbpm", "optaplanner"), affected);
+        Assertions.assertThat(selections.get("jbpm").isSkipped()).isTrue();
+        Assertions.assertThat(selections.get("optaplanner").isSkipped()).isFalse();
+        Assertions.assertThat(selections.get("optaplanner").getModulePaths()).containsExactly("optaplanner-core");
+    }
+
+    @Test
+    public void buildWholeRepoWhenParentIsAffected() {
+        Set<MavenModule> affected = selector.findAffectedModules(Collections.singleton(droolsParent));
+        Assertions.assertThat(affected).contains(droolsCore, droolsCompiler, jbpmFlow, optaplannerCore).doesNotContain(jbpmAudit);
+
+        Map<String, AffectedModulesSelector.Selection> selections = selector.select(Arrays.asList("jbpm", "optaplanner"), affected);
+        Assertions.assertThat(selections.get("jbpm").getModulePaths()).containsExactly("jbpm-flow");
+        Assertions.assertThat(selections.get("optaplanner").getModulePaths()).containsExactly("optaplanner-core");
+
+        selections = selector.select(Collections.singletonList("jbpm"), selector.findAffectedModules(Collections.singleton(jbpmParent)));
+        Assertions.assertThat(selections.get("jbpm").isFull()).isTrue();
+    }
+
+    @Test
+    public void leaveModulesDeclaredInProfilesOutOfSelection() {
+        MavenModule webapp = new MavenModule("kie-wb", "kie-wb-webapp", "org.kie", "kie-wb-webapp", "kie-wb-webapp",
+                                             Collections.singleton("org.kie:drools-core"), true);
+        MavenModule common = module("kie-wb", "kie-wb-common", "kie-wb-common", "org.kie:drools-compiler");
+        Map<String, List<MavenModule>> modules = new LinkedHashMap<>();
+        modules.put("drools", Arrays.asList(droolsParent, droolsCore, droolsCompiler));
+        modules.put("kie-wb", Arrays.asList(module("kie-wb", "", "kie-wb-parent"), common, webapp));
+        AffectedModulesSelector selector = new AffectedModulesSelector(new MavenModuleIndex(modules));
+
+        Map<String, AffectedModulesSelector.Selection> selections = selector.select(Collections.singletonList("kie-wb"),
+                selector.findAffectedModules(Collections.singleton(droolsCore)));
+        Assertions.assertThat(selections.get("kie-wb").getModulePaths()).containsExactly("kie-wb-common");
+
+        // only the profile module is affected, it can not be selected using -pl
+        selections = selector.select(Collections.singletonList("kie-wb"), Collections.singleton(webapp));
+        Assertions.assertThat(selections.get("kie-wb").isFull()).isTrue();
+    }
+
+    private MavenModuleIndex createIndex() {
+        Map<String, List<MavenModule>> modules = new LinkedHashMap<>();
+        modules.put("drools", Arrays.asList(droolsParent, droolsCore, droolsCompiler));
+        modules.put("jbpm", Arrays.asList(jbpmParent, jbpmFlow, jbpmAudit));
+        modules.put("optaplanner", Arrays.asList(optaplannerParent, optaplannerCore));
+        return new MavenModuleIndex(modules);
+    }
+
+    private static MavenModule module(String repo, String path, String artifactId, String... dependencies) {
+        return new MavenModule(repo, path, "org.kie", artifactId, artifactId, new LinkedHashSet<>(Arrays.asList(dependencies)));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import hudson.FilePath;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String ENVIRONMENT = ArtifactCache.describeEnvironment("/opt/jdk1.8 1.8.0_151", "/opt/maven", "-Xmx1g");
+
+    @Test
+    public void computeKeyFromRevisionsArgsAndEnvironment() {
+        String key = ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), "clean install", ENVIRONMENT);
+        Assertions.assertThat(key).startsWith("drools-").isEqualTo(
+                ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), " clean install ", ENVIRONMENT));
+        Assertions.assertThat(key)
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abd", Collections.singletonList("boot@123"), "clean install", ENVIRONMENT))
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@124"), "clean install", ENVIRONMENT))
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), "clean install -Dfull", ENVIRONMENT))
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), "clean install",
+                                                       ArtifactCache.describeEnvironment("/opt/jdk9 9.0.1", "/opt/maven", "-Xmx1g")))
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), "clean install",
+                                                       ArtifactCache.describeEnvironment("/opt/jdk1.8 1.8.0_151", "/opt/maven-3.5", "-Xmx1g")))
+                .isNotEqualTo(ArtifactCache.computeKey("drools", "abc", Collections.singletonList("boot@123"), "clean install",
+                                                       ArtifactCache.describeEnvironment("/opt/jdk1.8 1.8.0_151", "/opt/maven", "-Xmx2g")));
+    }
+
+    @Test
+    public void findLocalRepository() {
+        Assertions.assertThat(ArtifactCache.findLocalRepository("-B -Dmaven.repo.local=/tmp/m2 clean install", "-Xmx1g"))
+                .isEqualTo("/tmp/m2");
+        Assertions.assertThat(ArtifactCache.findLocalRepository("clean install", "-Xmx1g -Dmaven.repo.local=/opt/m2")).isEqualTo("/opt/m2");
+        Assertions.assertThat(ArtifactCache.findLocalRepository("clean install", "-Xmx1g")).isNull();
+    }
+
+    @Test
+    public void storeAndRestoreArtifacts() throws Exception {
+        File localRepo = tmp.newFolder("m2");
+        ArtifactCache cache = new ArtifactCache(new FilePath(tmp.newFolder("cache")), localRepo.getPath(), 1024 * 1024);
+        String key = ArtifactCache.computeKey("drools", "abc", Collections.emptyList(), "clean install", ENVIRONMENT);
+
+        File repoDir = tmp.newFolder("drools");
+
+        ArtifactCache.Lookup lookup = cache.restore(key);
+        Assertions.assertThat(lookup.isHit()).isFalse();
+        write(new File(repoDir, "drools-core/target/drools-core-7.0.0-SNAPSHOT.jar"), 100, System.currentTimeMillis());
+        File jar = new File(localRepo, "org/drools/drools-core/7.0.0-SNAPSHOT/drools-core-7.0.0-SNAPSHOT.jar");
+        write(jar, 100, System.currentTimeMillis());
+        Assertions.assertThat(cache.store(key, new FilePath(repoDir), Arrays.asList(module("drools-core"), module("drools-compiler")),
+                                          lookup)).isEqualTo(100);
+
+        // restored over the file installed in the meantime
+        write(jar, 50, System.currentTimeMillis());
+        lookup = cache.restore(key);
+        Assertions.assertThat(lookup.isHit()).isTrue();
+        Assertions.assertThat(lookup.getFiles()).isEqualTo(1);
+        Assertions.assertThat(jar).hasBinaryContent(new byte[100]);
+        Assertions.assertThat(jar.getParentFile().list()).containsOnly(jar.getName());
+        Assertions.assertThat(cache.getHits()).isEqualTo(1);
+        Assertions.assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void storePomsKeepingSourceModificationTime() throws Exception {
+        File localRepo = tmp.newFolder("m2");
+        ArtifactCache cache = new ArtifactCache(new FilePath(tmp.newFolder("cache")), localRepo.getPath(), 1024 * 1024);
+        String key = ArtifactCache.computeKey("droolsjbpm-build-bootstrap", "abc", Collections.emptyList(), "clean install", ENVIRONMENT);
+        long checkoutTime = System.currentTimeMillis() - 3600_000;
+        File repoDir = tmp.newFolder("droolsjbpm-build-bootstrap");
+        write(new File(repoDir, "pom.xml"), 200, checkoutTime);
+        write(new File(repoDir, "kie-bom/pom.xml"), 100, checkoutTime);
+        File stalePom = new File(localRepo, "org/kie/kie-parent/6.5.0.Final/kie-parent-6.5.0.Final.pom");
+        write(stalePom, 10, checkoutTime);
+
+        ArtifactCache.Lookup lookup = cache.restore(key);
+        // the installer keeps the modification time of the pom.xml, only the metadata gets the current one
+        File pom = new File(localRepo, "org/kie/kie-parent/7.0.0-SNAPSHOT/kie-parent-7.0.0-SNAPSHOT.pom");
+        write(pom, 200, checkoutTime);
+        write(new File(pom.getParentFile(), "maven-metadata-local.xml"), 30, System.currentTimeMillis());
+        File bom = new File(localRepo, "org/kie/kie-bom/7.0.0-SNAPSHOT/kie-bom-7.0.0-SNAPSHOT.pom");
+        write(bom, 100, checkoutTime);
+        write(new File(bom.getParentFile(), "_remote.repositories"), 5, System.currentTimeMillis());
+        Assertions.assertThat(cache.store(key, new FilePath(repoDir), Arrays.asList(
+                new MavenModule("droolsjbpm-build-bootstrap", "", "org.kie", "kie-parent", "KIE Parent", Collections.emptySet()),
+                new MavenModule("droolsjbpm-build-bootstrap", "kie-bom", "org.kie", "kie-bom", "KIE BOM", Collections.emptySet())),
+                                          lookup)).isEqualTo(335);
+
+        Files.delete(pom.toPath());
+        Files.delete(bom.toPath());
+        lookup = cache.restore(key);
+        Assertions.assertThat(lookup.isHit()).isTrue();
+        Assertions.assertThat(lookup.getFiles()).isEqualTo(4);
+        Assertions.assertThat(pom).hasBinaryContent(new byte[200]);
+        Assertions.assertThat(bom).hasBinaryContent(new byte[100]);
+    }
+
+    @Test
+    public void doNotStoreArtifactsInstalledByConcurrentBuild() throws Exception {
+        File localRepo = tmp.newFolder("m2");
+        ArtifactCache cache = new ArtifactCache(new FilePath(tmp.newFolder("cache")), localRepo.getPath(), 1024 * 1024);
+        String key = ArtifactCache.computeKey("drools", "abc", Collections.emptyList(), "clean install", ENVIRONMENT);
+        File repoDir = tmp.newFolder("drools");
+
+        ArtifactCache.Lookup lookup = cache.restore(key);
+        write(new File(repoDir, "drools-core/target/drools-core-7.0.0-SNAPSHOT.jar"), 100, System.currentTimeMillis());
+        // the build of another PR overwrote the jar installed by this build in the shared local repository
+        write(new File(localRepo, "org/drools/drools-core/7.0.0-SNAPSHOT/drools-core-7.0.0-SNAPSHOT.jar"), 120,
+              System.currentTimeMillis());
+        try {
+            cache.store(key, new FilePath(repoDir), Collections.singletonList(module("drools-core")), lookup);
+            Assertions.fail("Artifacts installed by the concurrent build must not be stored");
+        } catch (IOException e) {
+            Assertions.assertThat(e.getMessage()).contains("drools-core-7.0.0-SNAPSHOT.jar was not produced by the build");
+        }
+        Assertions.assertThat(cache.restore(key).isHit()).isFalse();
+    }
+
+    private static MavenModule module(String artifactId) {
+        return new MavenModule("drools", artifactId, "org.drools", artifactId, artifactId, Collections.emptySet());
+    }
+
+    private static void write(File file, int size, long lastModified) throws Exception {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[size]);
+        Assertions.assertThat(file.setLastModified(lastModified)).isTrue();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class BuildPerformanceActionTest {
+
+    @Test
+    public void recordPhasesInOrder() {
+        BuildPerformanceAction performance = new BuildPerformanceAction("test");
+        performance.startPhase(BuildPerformanceAction.PHASE_INIT);
+        performance.startPhase(BuildPerformanceAction.PHASE_PR_LOOKUPS);
+        performance.startPhase(BuildPerformanceAction.PHASE_REPOSITORY_LIST);
+        performance.startPhase(BuildPerformanceAction.PHASE_PR_LOOKUPS);
+        performance.startPhase(BuildPerformanceAction.PHASE_CLONE);
+        performance.failPhase();
+
+        Assertions.assertThat(performance.getPhaseDurations().keySet()).containsExactly(
+                BuildPerformanceAction.PHASE_INIT, BuildPerformanceAction.PHASE_PR_LOOKUPS,
+                BuildPerformanceAction.PHASE_REPOSITORY_LIST, BuildPerformanceAction.PHASE_CLONE);
+        Assertions.assertThat(performance.getFailedPhase()).isEqualTo(BuildPerformanceAction.PHASE_CLONE);
+        performance.finishPhase();
+        Assertions.assertThat(performance.getPhaseDurations()).hasSize(4);
+    }
+
+    @Test
+    public void recordCountersAndMavenDurations() {
+        BuildPerformanceAction performance = new BuildPerformanceAction("test");
+        Map<String, Long> durations = new LinkedHashMap<>();
+        durations.put("drools", 1000L);
+        durations.put("jbpm", 2000L);
+        performance.recordMavenDurations(durations);
+        performance.recordMavenDurations(Collections.singletonMap("optaplanner", 500L));
+        performance.setCounter(BuildPerformanceAction.GITHUB_REQUESTS, 42);
+
+        Assertions.assertThat(performance.getMavenDurations()).containsKeys("drools", "jbpm", "optaplanner");
+        Assertions.assertThat(performance.getCounters()).containsEntry(BuildPerformanceAction.BUILT_REPOSITORIES, 3L)
+                .containsEntry(BuildPerformanceAction.GITHUB_REQUESTS, 42L);
+        Assertions.assertThat(performance.getFailedPhase()).isNull();
+    }
+}
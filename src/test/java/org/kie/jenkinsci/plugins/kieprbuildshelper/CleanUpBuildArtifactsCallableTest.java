@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CleanUpBuildArtifactsCallableTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void deleteMatchingDirectories() throws Exception {
+        File repo = tmp.newFolder("drools");
+        TestFiles.write(repo, "drools-core/target/wildfly-10.1.0.Final/bin/standalone.sh", 100);
+        TestFiles.write(repo, "drools-core/target/classes/Foo.class", 10);
+        TestFiles.write(repo, "drools-wb/drools-wb-webapp/target/cargo/installs/server.zip", 1000);
+        TestFiles.write(repo, "drools-wb/drools-wb-webapp/gwt-unitCache/cache", 50);
+        TestFiles.write(repo, "target/cargo/log.txt", 5);
+        TestFiles.write(repo, ".git/gwt-unitCache/not-traversed", 1);
+
+        CleanUpBuildArtifactsCallable.CleanUpResult result =
+                new CleanUpBuildArtifactsCallable(CleanUpBuildArtifactsCallable.DEFAULT_PATTERNS).invoke(repo, null);
+
+        Assertions.assertThat(result.getDeletedDirectories()).isEqualTo(4);
+        Assertions.assertThat(result.getBytesFreed()).isEqualTo(1155);
+        Assertions.assertThat(new File(repo, "drools-core/target/wildfly-10.1.0.Final")).doesNotExist();
+        Assertions.assertThat(new File(repo, "drools-wb/drools-wb-webapp/target/cargo")).doesNotExist();
+        Assertions.assertThat(new File(repo, "drools-wb/drools-wb-webapp/gwt-unitCache")).doesNotExist();
+        Assertions.assertThat(new File(repo, "target/cargo")).doesNotExist();
+        Assertions.assertThat(new File(repo, "drools-core/target/classes/Foo.class")).exists();
+        Assertions.assertThat(new File(repo, ".git/gwt-unitCache/not-traversed")).exists();
+    }
+
+    @Test
+    public void missingDirectoryIsNotCleanedUp() throws Exception {
+        CleanUpBuildArtifactsCallable.CleanUpResult result =
+                new CleanUpBuildArtifactsCallable(CleanUpBuildArtifactsCallable.DEFAULT_PATTERNS).invoke(new File(tmp.getRoot(), "missing"), null);
+        Assertions.assertThat(result.getDeletedDirectories()).isZero();
+    }
+
+    @Test
+    public void parsePatterns() {
+        Assertions.assertThat(CleanUpBuildArtifactsCallable.parsePatterns(null)).isEqualTo(CleanUpBuildArtifactsCallable.DEFAULT_PATTERNS);
+        Assertions.assertThat(CleanUpBuildArtifactsCallable.parsePatterns(" \n")).isEqualTo(CleanUpBuildArtifactsCallable.DEFAULT_PATTERNS);
+        Assertions.assertThat(CleanUpBuildArtifactsCallable.parsePatterns("**/target/cargo\r\n\n **/node_modules \n"))
+                .isEqualTo(Arrays.asList("**/target/cargo", "**/node_modules"));
+    }
+}
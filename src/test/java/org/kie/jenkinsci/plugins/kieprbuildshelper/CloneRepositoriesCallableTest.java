@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import hudson.util.StreamTaskListener;
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CloneRepositoriesCallableTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public LocalGitHub gitHub = new LocalGitHub();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private File basedir;
+    private RevCommit initial;
+
+    @Before
+    public void setUp() throws Exception {
+        initial = gitHub.createRepository(DROOLS);
+        basedir = tmp.newFolder("repos");
+    }
+
+    @Test
+    public void reuseRepositoryClonedUsingSameStrategy() throws Exception {
+        CloneRepositoriesCallable.CloneResult result = cloneDrools(CloneStrategy.INIT_FETCH);
+        Assertions.assertThat(result.isIncremental()).isFalse();
+        Assertions.assertThat(result.getSha()).isEqualTo(initial.name());
+        Assertions.assertThat(CloneRepositoriesCallable.readCloneStrategy(new File(basedir, "drools"))).isEqualTo(CloneStrategy.INIT_FETCH);
+
+        RevCommit pushed = gitHub.commit(DROOLS, "README.md", "drools");
+        result = cloneDrools(CloneStrategy.INIT_FETCH);
+        Assertions.assertThat(result.isIncremental()).isTrue();
+        Assertions.assertThat(result.getSha()).isEqualTo(pushed.name());
+    }
+
+    @Test
+    public void cloneAgainWhenStrategyDiffers() throws Exception {
+        cloneDrools(CloneStrategy.INIT_FETCH);
+
+        CloneRepositoriesCallable.CloneResult result = cloneDrools(CloneStrategy.FULL);
+
+        Assertions.assertThat(result.isIncremental()).isFalse();
+        Assertions.assertThat(result.getStrategy()).isEqualTo(CloneStrategy.FULL);
+        Assertions.assertThat(output.toString(StandardCharsets.UTF_8.name()))
+                .contains("Existing repository was cloned using INIT_FETCH strategy, cloning it again using FULL strategy.");
+        Assertions.assertThat(CloneRepositoriesCallable.readCloneStrategy(new File(basedir, "drools"))).isEqualTo(CloneStrategy.FULL);
+    }
+
+    @Test
+    public void jgitStrategyFallbackDoesNotForceNewClone() throws Exception {
+        cloneDrools(CloneStrategy.INIT_FETCH);
+
+        CloneRepositoriesCallable.CloneResult result = cloneDrools(CloneStrategy.SHALLOW);
+
+        // JGit clones using INIT_FETCH instead of SHALLOW, so the existing clone matches
+        Assertions.assertThat(result.isIncremental()).isTrue();
+        Assertions.assertThat(result.getStrategy()).isEqualTo(CloneStrategy.INIT_FETCH);
+    }
+
+    @Test
+    public void strategyOfRepositoryNotClonedByPluginIsUnknown() throws Exception {
+        File repoDir = tmp.newFolder("jbpm");
+        Git.init().setDirectory(repoDir).call().close();
+        Assertions.assertThat(CloneRepositoriesCallable.readCloneStrategy(repoDir)).isNull();
+        Assertions.assertThat(CloneRepositoriesCallable.readCloneStrategy(tmp.newFolder("empty"))).isNull();
+    }
+
+    private CloneRepositoriesCallable.CloneResult cloneDrools(CloneStrategy strategy) throws Exception {
+        String branch = gitHub.getDefaultBranch(DROOLS);
+        CloneRepositoriesCallable callable = new CloneRepositoriesCallable(
+                Collections.singletonList(Tuple.of(DROOLS, new RefSpec(branch + ":" + branch + "-pr-build"))),
+                new File(tmp.getRoot(), "reference-repos"), new CloneConfig(1, true, strategy, GitEngine.JGIT),
+                new StreamTaskListener(output));
+        Map<String, CloneRepositoriesCallable.CloneResult> results = callable.invoke(basedir, null);
+        Assertions.assertThat(results).hasSize(1);
+        return results.get("drools");
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class GitHubPRSummaryTest {
+
+    @Test
+    public void parsePRLink() {
+        Assertions.assertThat(GitHubPRSummary.parsePRLink("https://github.com/kiegroup/drools/pull/1234"))
+                .isEqualTo(Tuple.of(new GitHubRepository("kiegroup", "drools"), 1234));
+        Assertions.assertThat(GitHubPRSummary.parsePRLink("https://github.com/kiegroup/drools/pull/1234/"))
+                .isEqualTo(Tuple.of(new GitHubRepository("kiegroup", "drools"), 1234));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalidPRLink() {
+        GitHubPRSummary.parsePRLink("https://gitlab.com/kiegroup/drools/pull/1234");
+    }
+}
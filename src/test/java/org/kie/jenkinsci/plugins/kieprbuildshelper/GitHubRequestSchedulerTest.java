@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class GitHubRequestSchedulerTest {
+
+    private static final long HOUR_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final GitHubRequestScheduler scheduler = new GitHubRequestScheduler(clock::get, TimeUnit.MINUTES.toMillis(5));
+
+    @Test
+    public void spreadRemainingBudgetUntilReset() {
+        Assertions.assertThat(scheduler.getRate()).isEqualTo(10.0, Assertions.offset(1e-9));
+
+        scheduler.recordResponse(3600 + GitHubRequestScheduler.RESERVED_BUDGET, HOUR_SECONDS, false);
+        Assertions.assertThat(scheduler.getRate()).isEqualTo(1.0, Assertions.offset(1e-9));
+
+        scheduler.recordResponse(100_000, HOUR_SECONDS, false);
+        Assertions.assertThat(scheduler.getRate()).isEqualTo(10.0, Assertions.offset(1e-9));
+        Assertions.assertThat(scheduler.isThrottled()).isFalse();
+
+        // only the reserved budget is left, one request per the time left until the reset
+        scheduler.recordResponse(10, HOUR_SECONDS, false);
+        Assertions.assertThat(scheduler.getRate()).isEqualTo(1.0 / HOUR_SECONDS, Assertions.offset(1e-9));
+        Assertions.assertThat(scheduler.isThrottled()).isTrue();
+
+        // reset time passed without any new response
+        clock.set(TimeUnit.SECONDS.toMillis(HOUR_SECONDS) + 1);
+        Assertions.assertThat(scheduler.getRate()).isEqualTo(1.0, Assertions.offset(1e-9));
+
+        scheduler.recordResponse(5000, 2 * HOUR_SECONDS, false);
+        Assertions.assertThat(scheduler.isThrottled()).isFalse();
+    }
+
+    @Test(expected = IOException.class)
+    public void failInsteadOfWaitingUntilReset() throws Exception {
+        drainBurst();
+        scheduler.recordResponse(10, HOUR_SECONDS, false);
+
+        scheduler.acquire();
+    }
+
+    @Test(timeout = 10_000)
+    public void serveBuildsWhichAreFurtherAlongFirst() throws Exception {
+        drainBurst();
+        List<String> served = new CopyOnWriteArrayList<>();
+        GitHubRequestScheduler.BuildBudget started = scheduler.createBudget("started");
+        GitHubRequestScheduler.BuildBudget almostFinished = scheduler.createBudget("almost finished");
+        almostFinished.advance();
+        almostFinished.advance();
+
+        Thread first = startRequest(started, served);
+        waitUntil(() -> scheduler.getWaitingRequests() == 1);
+        Thread second = startRequest(almostFinished, served);
+        waitUntil(() -> scheduler.getWaitingRequests() == 2);
+
+        // one token at the default rate
+        clock.addAndGet(100);
+        waitUntil(() -> served.size() == 1);
+        Assertions.assertThat(served).containsExactly("almost finished");
+        clock.addAndGet(100);
+        first.join();
+        second.join();
+        Assertions.assertThat(served).containsExactly("almost finished", "started");
+        Assertions.assertThat(started.getRequests()).isEqualTo(1);
+        Assertions.assertThat(almostFinished.getRequests()).isEqualTo(1);
+    }
+
+    private void drainBurst() throws Exception {
+        // the clock does not move, so no tokens are added in the meantime
+        for (int i = 0; i < GitHubRequestScheduler.BURST_CAPACITY; i++) {
+            scheduler.acquire();
+        }
+        Assertions.assertThat(scheduler.getWaitingRequests()).isZero();
+    }
+
+    private Thread startRequest(GitHubRequestScheduler.BuildBudget budget, List<String> served) {
+        Thread thread = new Thread(() -> {
+            try {
+                GitHubRequestScheduler.callWithBudget(budget, () -> {
+                    scheduler.acquire();
+                    served.add(budget.getBuildName());
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -1,11 +1,22 @@
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.io.File;
+
+import hudson.plugins.git.GitException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.assertEquals;
 
 public class GitHubUtilsTest {
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void extractRepositoryName() {
         String result = GitHubUtils.extractRepositoryName("https://github.com/kiegroup/optaplanner-wb/pull/198");
@@ -17,4 +28,66 @@ public class GitHubUtilsTest {
     public void extractRepositoryNameWrongUrl() {
         GitHubUtils.extractRepositoryName("https://wrong/url/pull/125");
     }
+
+    @Test
+    public void readCommitFetchedForRequestedRefspec() throws Exception {
+        File repoDir = tmp.newFolder("drools");
+        ObjectId merge;
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            merge = commit(git, "README.md", "drools merged with the PR");
+        }
+        TestFiles.write(new File(repoDir, ".git/FETCH_HEAD"),
+                        "1111111111111111111111111111111111111111\tnot-for-merge\ttag '7.0.0.Final' of git://github.com/kiegroup/drools.git\n" +
+                                merge.name() + "\t\t'refs/pull/7/merge' of git://github.com/kiegroup/drools.git\n");
+
+        assertEquals(merge, GitHubUtils.readFetchHead(repoDir));
+    }
+
+    @Test(expected = GitException.class)
+    public void readFetchHeadOfRepositoryNeverFetched() throws Exception {
+        File repoDir = tmp.newFolder("drools");
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, "README.md", "drools");
+        }
+        GitHubUtils.readFetchHead(repoDir);
+    }
+
+    @Test
+    public void cleanWorkingTreeIgnoringIgnoredFiles() throws Exception {
+        File repoDir = tmp.newFolder("drools");
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, ".gitignore", "target/\n");
+        }
+        TestFiles.write(new File(repoDir, "target/drools-core.jar"), "jar");
+
+        GitHubUtils.verifyClean(repoDir);
+    }
+
+    @Test(expected = GitException.class)
+    public void workingTreeWithUntrackedFilesIsNotClean() throws Exception {
+        File repoDir = tmp.newFolder("drools");
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, "README.md", "drools");
+        }
+        TestFiles.write(new File(repoDir, "leftover.txt"), "from the previous build");
+
+        GitHubUtils.verifyClean(repoDir);
+    }
+
+    @Test(expected = GitException.class)
+    public void workingTreeWithModifiedFilesIsNotClean() throws Exception {
+        File repoDir = tmp.newFolder("drools");
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, "README.md", "drools");
+        }
+        TestFiles.write(new File(repoDir, "README.md"), "modified by the previous build");
+
+        GitHubUtils.verifyClean(repoDir);
+    }
+
+    private static RevCommit commit(Git git, String path, String content) throws Exception {
+        TestFiles.write(new File(git.getRepository().getWorkTree(), path), content);
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage("Update " + path).call();
+    }
 }
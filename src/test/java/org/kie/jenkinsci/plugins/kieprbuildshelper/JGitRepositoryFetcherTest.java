@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JGitRepositoryFetcherTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public LocalGitHub gitHub = new LocalGitHub();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(output, true);
+    private RevCommit initial;
+
+    @Before
+    public void setUp() throws Exception {
+        initial = gitHub.createRepository(DROOLS);
+    }
+
+    @Test
+    public void fallBackToFetchingFullHistoryOfRevision() {
+        Assertions.assertThat(JGitRepositoryFetcher.getEffectiveStrategy(CloneStrategy.SHALLOW)).isEqualTo(CloneStrategy.INIT_FETCH);
+        Assertions.assertThat(JGitRepositoryFetcher.getEffectiveStrategy(CloneStrategy.BLOBLESS)).isEqualTo(CloneStrategy.INIT_FETCH);
+        Assertions.assertThat(JGitRepositoryFetcher.getEffectiveStrategy(CloneStrategy.FULL)).isEqualTo(CloneStrategy.FULL);
+        Assertions.assertThat(JGitRepositoryFetcher.getEffectiveStrategy(CloneStrategy.INIT_FETCH)).isEqualTo(CloneStrategy.INIT_FETCH);
+    }
+
+    @Test
+    public void clonePullRequestMergeRef() throws Exception {
+        RevCommit merge = gitHub.commit(DROOLS, "drools-core/pom.xml", "<project/>\n");
+        gitHub.updateRef(DROOLS, "refs/pull/1/merge", merge);
+        File repoDir = tmp.newFolder("drools");
+
+        ObjectId fetched = JGitRepositoryFetcher.cloneFresh(repoDir, DROOLS, new RefSpec("pull/1/merge:pr1-DROOLS-1-merge"),
+                                                            new File(tmp.getRoot(), "missing"), CloneStrategy.SHALLOW, logger);
+
+        Assertions.assertThat(fetched).isEqualTo(merge);
+
+        Assertions.assertThat(output.toString(StandardCharsets.UTF_8.name()))
+                .contains("SHALLOW strategy is not supported by JGit, falling back to INIT_FETCH");
+        try (Git git = Git.open(repoDir)) {
+            Assertions.assertThat(git.getRepository().getFullBranch()).isEqualTo(Constants.R_HEADS + "pr1-DROOLS-1-merge");
+            Assertions.assertThat(git.getRepository().resolve(Constants.HEAD)).isEqualTo(merge);
+            // the whole history of the revision is fetched
+            Assertions.assertThat(git.log().call()).extracting(RevCommit::getId).containsExactly(merge, initial);
+        }
+        Assertions.assertThat(new File(repoDir, "drools-core/pom.xml")).isFile();
+    }
+
+    @Test
+    public void updateExistingCloneAndRemoveLeftovers() throws Exception {
+        String branch = gitHub.getDefaultBranch(DROOLS);
+        RefSpec refspec = new RefSpec(branch + ":" + branch + "-pr-build");
+        File repoDir = tmp.newFolder("drools");
+        JGitRepositoryFetcher.cloneFresh(repoDir, DROOLS, refspec, new File(tmp.getRoot(), "missing"), CloneStrategy.FULL, logger);
+        TestFiles.write(new File(repoDir, "target/classes/Rule.class"), "class");
+        TestFiles.write(new File(repoDir, "pom.xml"), "<project>modified</project>\n");
+
+        RevCommit pushed = gitHub.commit(DROOLS, "README.md", "drools");
+        Assertions.assertThat(JGitRepositoryFetcher.update(repoDir, refspec, logger)).isEqualTo(pushed);
+
+        try (Git git = Git.open(repoDir)) {
+            Assertions.assertThat(git.getRepository().resolve(Constants.HEAD)).isEqualTo(pushed);
+            Assertions.assertThat(git.status().call().isClean()).isTrue();
+        }
+        Assertions.assertThat(new File(repoDir, "target")).doesNotExist();
+        Assertions.assertThat(new File(repoDir, "README.md")).isFile();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Stand-in for the GitHub git hosting: bare repositories in a temporary directory, which
+ * {@link GitHubRepository#getReadOnlyCloneURL()} points to while the rule is active. Commits are created in working
+ * copies of the repositories and pushed to the bare ones.
+ */
+class LocalGitHub extends ExternalResource {
+
+    private final TemporaryFolder basedir = new TemporaryFolder();
+    private String previousCloneUrl;
+
+    @Override
+    protected void before() throws Throwable {
+        basedir.create();
+        previousCloneUrl = System.getProperty(GitHubRepository.CLONE_URL_PROPERTY);
+        // file:/// URLs, the CLI git does not understand the file:/path ones
+        System.setProperty(GitHubRepository.CLONE_URL_PROPERTY, "file://" + new File(basedir.getRoot(), "hosted").getAbsolutePath());
+    }
+
+    @Override
+    protected void after() {
+        if (previousCloneUrl == null) {
+            System.clearProperty(GitHubRepository.CLONE_URL_PROPERTY);
+        } else {
+            System.setProperty(GitHubRepository.CLONE_URL_PROPERTY, previousCloneUrl);
+        }
+        basedir.delete();
+    }
+
+    /**
+     * Creates the hosted (bare) repository with single commit on the default branch.
+     *
+     * @return the initial commit
+     */
+    RevCommit createRepository(GitHubRepository repo) throws Exception {
+        Git.init().setBare(true).setDirectory(getHostedDir(repo)).call().close();
+        try (Git git = Git.init().setDirectory(getWorkDir(repo)).call()) {
+            return commitAndPush(git, repo, "pom.xml", "<project/>\n");
+        }
+    }
+
+    /**
+     * Commits the file into the current branch of the repository and pushes all the branches to the hosted one.
+     */
+    RevCommit commit(GitHubRepository repo, String path, String content) throws Exception {
+        try (Git git = Git.open(getWorkDir(repo))) {
+            return commitAndPush(git, repo, path, content);
+        }
+    }
+
+    /**
+     * @return name of the default branch of the repositories
+     */
+    String getDefaultBranch(GitHubRepository repo) throws IOException {
+        try (Git git = Git.open(getWorkDir(repo))) {
+            return git.getRepository().getBranch();
+        }
+    }
+
+    /**
+     * Points the ref (e.g. refs/pull/1/merge) of the hosted repository to the commit.
+     */
+    void updateRef(GitHubRepository repo, String ref, ObjectId target) throws IOException {
+        Repository hosted = openHosted(repo);
+        try {
+            RefUpdate update = hosted.updateRef(ref);
+            update.setNewObjectId(target);
+            update.forceUpdate();
+        } finally {
+            hosted.close();
+        }
+    }
+
+    /**
+     * Deletes the ref (e.g. refs/heads/7.x) from the hosted repository.
+     */
+    void deleteRef(GitHubRepository repo, String ref) throws IOException {
+        Repository hosted = openHosted(repo);
+        try {
+            RefUpdate update = hosted.updateRef(ref);
+            update.setForceUpdate(true);
+            update.delete();
+        } finally {
+            hosted.close();
+        }
+    }
+
+    File getHostedDir(GitHubRepository repo) {
+        return new File(basedir.getRoot(), "hosted/" + repo.getOwner() + "/" + repo.getName() + ".git");
+    }
+
+    private Repository openHosted(GitHubRepository repo) throws IOException {
+        return new FileRepositoryBuilder().setGitDir(getHostedDir(repo)).setMustExist(true).build();
+    }
+
+    private File getWorkDir(GitHubRepository repo) {
+        return new File(basedir.getRoot(), "work/" + repo.getOwner() + "/" + repo.getName());
+    }
+
+    private RevCommit commitAndPush(Git git, GitHubRepository repo, String path, String content) throws Exception {
+        TestFiles.write(new File(git.getRepository().getWorkTree(), path), content);
+        git.add().addFilepattern(path).call();
+        RevCommit commit = git.commit().setMessage("Update " + path).call();
+        git.push().setRemote(getHostedDir(repo).toURI().toString()).setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*")).call();
+        return commit;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MavenDaemonTest {
+
+    private final MavenDaemon mavenDaemon = new MavenDaemon("/opt/tools/mvnd");
+
+    @Test
+    public void createCommandWithJvmOpts() {
+        Assertions.assertThat(mavenDaemon.createCommand(" -B clean install ", " -Xmx2g -XX:+UseG1GC"))
+                .isEqualTo("/opt/tools/mvnd/bin/mvnd \"-Dmvnd.jvmArgs=-Xmx2g -XX:+UseG1GC\" -B clean install");
+    }
+
+    @Test
+    public void createCommandWithoutJvmOpts() {
+        Assertions.assertThat(mavenDaemon.createCommand("clean install", null)).isEqualTo("/opt/tools/mvnd/bin/mvnd clean install");
+        Assertions.assertThat(mavenDaemon.createCommand("clean install", " ")).isEqualTo("/opt/tools/mvnd/bin/mvnd clean install");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mvndHomeRequired() {
+        new MavenDaemon(" ");
+    }
+
+    @Test
+    public void mvndHomeTrimmed() {
+        Assertions.assertThat(new MavenDaemon(" /opt/tools/mvnd ").getExecutable()).isEqualTo("/opt/tools/mvnd/bin/mvnd");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MavenLogPipelineTest {
+
+    @Test
+    public void forwardErrorsWarningsAndReactorSummary() throws Exception {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        MavenLogPipeline pipeline = new MavenLogPipeline(console, log, 10);
+        String output = "[INFO] Scanning for projects...\n" +
+                "Downloading: https://repo.maven.apache.org/maven2/org/kie/kie-api/7.0.0/kie-api-7.0.0.pom\n" +
+                "[WARNING] Some problems were encountered while building the effective model\n" +
+                "[INFO] Building KIE :: Drools Core 7.0.0-SNAPSHOT\n" +
+                "\u001B[1;31m[ERROR]\u001B[m Tests run: 2, Failures: 1\n" +
+                "[INFO] Reactor Summary:\n" +
+                "[INFO] KIE :: Drools Core ............................. FAILURE [ 12.345 s]\n" +
+                "[INFO] BUILD FAILURE\n";
+        write(pipeline, output);
+        pipeline.close();
+
+        Assertions.assertThat(log.toString(StandardCharsets.UTF_8.name())).isEqualTo(output);
+        Assertions.assertThat(console.toString(StandardCharsets.UTF_8.name())).isEqualTo(
+                "[WARNING] Some problems were encountered while building the effective model\n" +
+                "\u001B[1;31m[ERROR]\u001B[m Tests run: 2, Failures: 1\n" +
+                "[INFO] Reactor Summary:\n" +
+                "[INFO] KIE :: Drools Core ............................. FAILURE [ 12.345 s]\n" +
+                "[INFO] BUILD FAILURE\n");
+        MavenLogPipeline.Statistics statistics = pipeline.getStatistics();
+        Assertions.assertThat(statistics.getLines()).isEqualTo(8);
+        Assertions.assertThat(statistics.getBytes()).isEqualTo(output.length());
+        Assertions.assertThat(statistics.getConsoleLines()).isEqualTo(5);
+    }
+
+    @Test
+    public void limitWarnings() throws Exception {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        MavenLogPipeline pipeline = new MavenLogPipeline(console, new ByteArrayOutputStream(), 10);
+        for (int i = 0; i < MavenLogPipeline.MAX_CONSOLE_WARNINGS * 2; i++) {
+            write(pipeline, "[WARNING] deprecated API used " + i + "\n");
+        }
+        write(pipeline, "[ERROR] compilation failed\n");
+        pipeline.close();
+
+        String[] consoleLines = console.toString(StandardCharsets.UTF_8.name()).split("\n");
+        Assertions.assertThat(consoleLines).hasSize(MavenLogPipeline.MAX_CONSOLE_WARNINGS + 2);
+        Assertions.assertThat(consoleLines[MavenLogPipeline.MAX_CONSOLE_WARNINGS]).contains("further warnings are left out");
+        Assertions.assertThat(consoleLines[MavenLogPipeline.MAX_CONSOLE_WARNINGS + 1]).isEqualTo("[ERROR] compilation failed");
+    }
+
+    @Test
+    public void dumpTail() throws Exception {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        MavenLogPipeline pipeline = new MavenLogPipeline(console, new ByteArrayOutputStream(), 3);
+        for (int i = 1; i <= 5; i++) {
+            write(pipeline, "[INFO] line " + i + "\n");
+        }
+        write(pipeline, "unterminated");
+        pipeline.dumpTail();
+        pipeline.close();
+
+        Assertions.assertThat(console.toString(StandardCharsets.UTF_8.name())).isEqualTo(
+                "----- last 3 lines of the Maven output -----\n" +
+                "[INFO] line 4\n" +
+                "[INFO] line 5\n" +
+                "unterminated\n" +
+                "----- end of the Maven output -----\n");
+    }
+
+    private static void write(MavenLogPipeline pipeline, String output) throws Exception {
+        pipeline.write(output.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenModuleIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void scanModulesAndRepositoryDependencies() throws IOException {
+        File droolsDir = tmp.newFolder("drools");
+        writePom(droolsDir, "<groupId>org.drools</groupId><artifactId>drools-parent</artifactId><name>Drools</name>" +
+                "<modules><module>drools-core</module></modules>");
+        writePom(new File(droolsDir, "drools-core"), "<parent><groupId>org.drools</groupId><artifactId>drools-parent</artifactId></parent>" +
+                "<artifactId>drools-core</artifactId>");
+        File jbpmDir = tmp.newFolder("jbpm");
+        writePom(jbpmDir, "<groupId>org.jbpm</groupId><artifactId>jbpm</artifactId>" +
+                "<profiles><profile><modules><module>jbpm-flow</module></modules></profile></profiles>");
+        writePom(new File(jbpmDir, "jbpm-flow"), "<parent><groupId>org.jbpm</groupId><artifactId>jbpm</artifactId></parent>" +
+                "<artifactId>jbpm-flow</artifactId><dependencies><dependency><groupId>org.drools</groupId>" +
+                "<artifactId>drools-core</artifactId></dependency></dependencies>");
+
+        Map<String, List<MavenModule>> modules = new LinkedHashMap<>();
+        modules.put("drools", MavenModuleIndex.scanRepository(droolsDir, "drools"));
+        modules.put("jbpm", MavenModuleIndex.scanRepository(jbpmDir, "jbpm"));
+        MavenModuleIndex index = new MavenModuleIndex(modules);
+
+        MavenModule droolsCore = index.findModule("org.drools:drools-core");
+        Assertions.assertThat(droolsCore.getRepository()).isEqualTo("drools");
+        Assertions.assertThat(droolsCore.getPath()).isEqualTo("drools-core");
+        Assertions.assertThat(droolsCore.getName()).isEqualTo("drools-core");
+        Assertions.assertThat(index.findModulesByName("Drools")).extracting(MavenModule::getKey).containsExactly("org.drools:drools-parent");
+        Assertions.assertThat(index.findModule("org.jbpm:jbpm-flow").getDependencies())
+                .containsExactly("org.jbpm:jbpm", "org.drools:drools-core");
+        Assertions.assertThat(index.getRepositoryDependencies().get("jbpm")).containsExactly("drools");
+        Assertions.assertThat(index.getRepositoryDependencies().get("drools")).isEmpty();
+        Assertions.assertThat(droolsCore.isProfileOnly()).isFalse();
+        Assertions.assertThat(index.findModule("org.jbpm:jbpm-flow").isProfileOnly()).isTrue();
+    }
+
+    @Test
+    public void markModulesDeclaredOnlyInProfiles() throws IOException {
+        File kieWbDir = tmp.newFolder("kie-wb-distributions");
+        writePom(kieWbDir, "<groupId>org.kie</groupId><artifactId>kie-wb-distributions</artifactId>" +
+                "<modules><module>kie-wb-common</module></modules>" +
+                "<profiles><profile><modules><module>kie-wb-common</module><module>kie-wb-webapp</module></modules></profile></profiles>");
+        writePom(new File(kieWbDir, "kie-wb-common"), "<groupId>org.kie</groupId><artifactId>kie-wb-common</artifactId>");
+        writePom(new File(kieWbDir, "kie-wb-webapp"), "<groupId>org.kie</groupId><artifactId>kie-wb-webapp</artifactId>" +
+                "<modules><module>kie-wb-webapp-tests</module></modules>");
+        writePom(new File(kieWbDir, "kie-wb-webapp/kie-wb-webapp-tests"), "<groupId>org.kie</groupId>" +
+                "<artifactId>kie-wb-webapp-tests</artifactId>");
+
+        List<MavenModule> modules = MavenModuleIndex.scanRepository(kieWbDir, "kie-wb-distributions");
+        Assertions.assertThat(modules).extracting(MavenModule::getPath)
+                .containsExactly("", "kie-wb-common", "kie-wb-webapp", "kie-wb-webapp/kie-wb-webapp-tests");
+        Assertions.assertThat(modules).extracting(MavenModule::isProfileOnly).containsExactly(false, false, true, true);
+    }
+
+    @Test
+    public void repositoryWithoutPom() throws IOException {
+        Assertions.assertThat(MavenModuleIndex.scanRepository(tmp.newFolder("docs"), "docs")).isEmpty();
+    }
+
+    @Test
+    public void resolveModulePaths() {
+        Assertions.assertThat(MavenModuleIndex.resolvePath("", "drools-core")).isEqualTo("drools-core");
+        Assertions.assertThat(MavenModuleIndex.resolvePath("drools-core", "pom.xml")).isEqualTo("drools-core/pom.xml");
+        Assertions.assertThat(MavenModuleIndex.resolvePath("kie-wb/kie-wb-parent", "../kie-wb-api/")).isEqualTo("kie-wb/kie-wb-api");
+        Assertions.assertThat(MavenModuleIndex.resolvePath("", "./bom/../pom-all.xml")).isEqualTo("pom-all.xml");
+    }
+
+    private static void writePom(File dir, String content) throws IOException {
+        dir.mkdirs();
+        Files.write(new File(dir, "pom.xml").toPath(),
+                    ("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">" + content + "</project>").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MavenReactorSummaryTest {
+
+    @Test
+    public void mapModuleResultsToRepositories() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        MavenReactorSummary summary = new MavenReactorSummary(log);
+        String output = "[INFO] Reactor Summary:\n" +
+                "[INFO] \n" +
+                "[INFO] KIE :: Drools Core ............................... SUCCESS [ 12.345 s]\n" +
+                "[INFO] jbpm-flow ........................................ FAILURE [  1.001 s]\n" +
+                "[INFO] jbpm-bpmn2 ....................................... SKIPPED\n" +
+                "[INFO] BUILD FAILURE\n";
+        summary.write(output.getBytes(StandardCharsets.UTF_8));
+        summary.close();
+
+        Assertions.assertThat(new String(log.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(output);
+        Assertions.assertThat(summary.getModuleResults()).containsOnlyKeys("KIE :: Drools Core", "jbpm-flow", "jbpm-bpmn2");
+
+        Map<String, List<MavenModule>> modules = new LinkedHashMap<>();
+        modules.put("drools", Collections.singletonList(module("drools", "drools-core", "KIE :: Drools Core")));
+        modules.put("jbpm", Arrays.asList(module("jbpm", "jbpm-flow", "jbpm-flow"), module("jbpm", "jbpm-bpmn2", "jbpm-bpmn2")));
+        modules.put("optaplanner", Collections.singletonList(module("optaplanner", "optaplanner-core", "optaplanner-core")));
+        Map<String, String> repoResults =
+                summary.getRepositoryResults(new MavenModuleIndex(modules), Arrays.asList("drools", "jbpm", "optaplanner"));
+
+        Assertions.assertThat(repoResults).containsEntry("drools", MavenReactorSummary.SUCCESS)
+                .containsEntry("jbpm", MavenReactorSummary.FAILURE)
+                .containsEntry("optaplanner", MavenReactorSummary.NOT_BUILT);
+    }
+
+    private static MavenModule module(String repo, String artifactId, String name) {
+        return new MavenModule(repo, artifactId, "org.kie", artifactId, name, Collections.emptySet());
+    }
+}
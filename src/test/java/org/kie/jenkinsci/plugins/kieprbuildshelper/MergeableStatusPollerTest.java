@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHCommitPointer;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MergeableStatusPollerTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final MergeableStatusPoller poller = new MergeableStatusPoller(scheduler, clock::get);
+    private GitHub github;
+    private GHRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        github = mock(GitHub.class);
+        repository = mock(GHRepository.class);
+        when(github.getRepository("kiegroup/drools")).thenReturn(repository);
+    }
+
+    @Test
+    public void pollUntilGitHubComputesStatus() throws Exception {
+        GHPullRequest pr = mockPullRequest(7, "head1");
+        when(pr.getMergeable()).thenReturn(null, null, true);
+
+        CompletableFuture<Boolean> status = poller.getMergeableStatus(pr, DROOLS, github);
+        List<Long> delays = runPolls(status);
+
+        Assertions.assertThat(status.get()).isTrue();
+        Assertions.assertThat(delays).containsExactly(2000L, 4000L, 8000L);
+        Assertions.assertThat(poller.getPolls()).isEqualTo(3);
+        Assertions.assertThat(poller.getCachedStatus(pr, DROOLS)).isTrue();
+
+        // GitHub took 14 s, so the next PR is polled later
+        GHPullRequest otherPr = mockPullRequest(8, "head2");
+        when(otherPr.getMergeable()).thenReturn(false);
+        CompletableFuture<Boolean> otherStatus = poller.getMergeableStatus(otherPr, DROOLS, github);
+        Assertions.assertThat(runPolls(otherStatus)).containsExactly(5000L);
+        Assertions.assertThat(otherStatus.get()).isFalse();
+    }
+
+    @Test
+    public void cachedStatusIsNotPolledAgain() throws Exception {
+        GHPullRequest pr = mockPullRequest(7, "head1");
+        poller.cacheStatus(pr, DROOLS, true);
+
+        Assertions.assertThat(poller.getMergeableStatus(pr, DROOLS, github).get()).isTrue();
+
+        Assertions.assertThat(scheduler.tasks).isEmpty();
+        Assertions.assertThat(poller.getCacheHits()).isEqualTo(1);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void failWhenStatusIsNotComputedInTime() throws Exception {
+        GHPullRequest pr = mockPullRequest(7, "head1");
+        when(pr.getMergeable()).thenReturn(null);
+
+        CompletableFuture<Boolean> status = poller.getMergeableStatus(pr, DROOLS, github);
+        List<Long> delays = runPolls(status);
+
+        Assertions.assertThat(status.isCompletedExceptionally()).isTrue();
+        // the interval doubles up to the maximum
+        Assertions.assertThat(delays).startsWith(2000L, 4000L, 8000L, 15000L, 15000L);
+        Assertions.assertThat(clock.get() - 1000).isGreaterThan(MergeableStatusPoller.MAX_WAIT_MILLIS);
+        Assertions.assertThat(poller.getCachedStatus(pr, DROOLS)).isNull();
+        // next build polls again
+        Assertions.assertThat(poller.getMergeableStatus(pr, DROOLS, github)).isNotSameAs(status);
+
+        status.get();
+    }
+
+    @Test
+    public void concurrentBuildsShareSinglePoll() throws Exception {
+        GHPullRequest pr = mockPullRequest(7, "head1");
+        when(pr.getMergeable()).thenReturn(true);
+
+        CompletableFuture<Boolean> firstBuild = poller.getMergeableStatus(pr, DROOLS, github);
+        CompletableFuture<Boolean> secondBuild = poller.getMergeableStatus(pr, DROOLS, github);
+        GHPullRequest otherPr = mockPullRequest(8, "head2");
+        when(otherPr.getMergeable()).thenReturn(false);
+        CompletableFuture<Boolean> thirdBuild = poller.getMergeableStatus(otherPr, DROOLS, github);
+
+        Assertions.assertThat(secondBuild).isSameAs(firstBuild);
+        Assertions.assertThat(thirdBuild).isNotSameAs(firstBuild);
+        Assertions.assertThat(scheduler.tasks).hasSize(2);
+        runPolls(firstBuild);
+        Assertions.assertThat(firstBuild.get()).isTrue();
+        Assertions.assertThat(secondBuild.get()).isTrue();
+        Assertions.assertThat(poller.getPolls()).isEqualTo(1);
+    }
+
+    private GHPullRequest mockPullRequest(int number, String headSha) throws Exception {
+        GHPullRequest pr = mock(GHPullRequest.class);
+        GHCommitPointer head = mock(GHCommitPointer.class);
+        GHCommitPointer base = mock(GHCommitPointer.class);
+        when(head.getSha()).thenReturn(headSha);
+        when(base.getSha()).thenReturn("base");
+        when(pr.getNumber()).thenReturn(number);
+        when(pr.getHead()).thenReturn(head);
+        when(pr.getBase()).thenReturn(base);
+        when(repository.getPullRequest(number)).thenReturn(pr);
+        return pr;
+    }
+
+    /**
+     * Runs the scheduled polls (moving the clock by their delays) until the status is completed.
+     *
+     * @return delays of the polls
+     */
+    private List<Long> runPolls(CompletableFuture<Boolean> status) {
+        List<Long> delays = new ArrayList<>();
+        while (!status.isDone() && !scheduler.tasks.isEmpty() && delays.size() < 100) {
+            ScheduledTask task = scheduler.tasks.removeFirst();
+            clock.addAndGet(task.delayMillis);
+            delays.add(task.delayMillis);
+            task.command.run();
+        }
+        Assertions.assertThat(status.isDone()).isTrue();
+        return delays;
+    }
+
+    private static class ScheduledTask {
+        private final Runnable command;
+        private final long delayMillis;
+
+        private ScheduledTask(Runnable command, long delayMillis) {
+            this.command = command;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    /**
+     * Keeps the scheduled tasks to be run by the test, in the order they were scheduled.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+        private final Deque<ScheduledTask> tasks = new ArrayDeque<>();
+
+        private ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.addLast(new ScheduledTask(command, unit.toMillis(delay)));
+            return null;
+        }
+    }
+}
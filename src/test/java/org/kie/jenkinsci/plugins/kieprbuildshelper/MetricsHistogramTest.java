@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class MetricsHistogramTest {
+
+    @Test
+    public void logLinearBuckets() {
+        MetricsHistogram histogram = new MetricsHistogram(1, 16);
+        Assertions.assertThat(histogram.getUpperBounds()).containsExactly(1, 2, 3, 4, 6, 8, 12, 16);
+    }
+
+    @Test
+    public void cumulativeCounts() {
+        MetricsHistogram histogram = new MetricsHistogram(1, 16);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(6);
+        histogram.record(100);
+
+        Assertions.assertThat(histogram.getCumulativeCounts()).containsExactly(1, 1, 1, 1, 3, 3, 3, 3, 4);
+        Assertions.assertThat(histogram.getSum()).isEqualTo(112);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OpenPullRequestIndexTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+    private static final String PAGE_1 = "/repos/kiegroup/drools/pulls?state=open&per_page=100&page=1";
+    private static final String PAGE_2 = "/repos/kiegroup/drools/pulls?state=open&per_page=100&page=2";
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private GitHubRestClient client;
+    private OpenPullRequestIndex index;
+
+    @Before
+    public void setUp() {
+        client = mock(GitHubRestClient.class);
+        index = new OpenPullRequestIndex(60_000, 15_000, 2, clock::get);
+    }
+
+    @Test
+    public void findPullRequestAcrossPages() throws Exception {
+        when(client.get(eq(PAGE_1), (String) isNull())).thenReturn(
+                new GitHubRestClient.Response(200, "\"etag1\"", pullsJson(12, "john", "JBPM-123"), true));
+        when(client.get(eq(PAGE_2), (String) isNull())).thenReturn(
+                new GitHubRestClient.Response(200, "\"etag2\"", pullsJson(7, "Jane", "DROOLS-1"), false));
+
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).hasValue(7);
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("JBPM-123"), "john", client)).hasValue(12);
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("JBPM-123"), "jane", client)).isEmpty();
+
+        Assertions.assertThat(index.getMisses()).isEqualTo(1);
+        Assertions.assertThat(index.getHits()).isEqualTo(2);
+        Assertions.assertThat(index.getFetchedPages()).isEqualTo(2);
+    }
+
+    @Test
+    public void revalidateWithEtagsAfterTtl() throws Exception {
+        when(client.get(eq(PAGE_1), (String) isNull())).thenReturn(
+                new GitHubRestClient.Response(200, "\"etag1\"", pullsJson(12, "john", "JBPM-123"), false));
+        when(client.get(PAGE_1, "\"etag1\"")).thenReturn(new GitHubRestClient.Response(304, "\"etag1\"", null, false));
+
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("JBPM-123"), "john", client)).hasValue(12);
+        clock.addAndGet(60_000);
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("JBPM-123"), "john", client)).hasValue(12);
+
+        verify(client, times(1)).get(PAGE_1, "\"etag1\"");
+        Assertions.assertThat(index.getNotModifiedPages()).isEqualTo(1);
+        Assertions.assertThat(index.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void revalidateFreshIndexWhenPullRequestNotFound() throws Exception {
+        when(client.get(eq(PAGE_1), (String) isNull())).thenReturn(
+                new GitHubRestClient.Response(200, "\"etag1\"", pullsJson(12, "john", "JBPM-123"), false));
+        when(client.get(PAGE_1, "\"etag1\"")).thenReturn(
+                new GitHubRestClient.Response(304, "\"etag1\"", null, false),
+                new GitHubRestClient.Response(200, "\"etag2\"", pullsJson(13, "jane", "DROOLS-1"), false));
+
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("JBPM-123"), "john", client)).hasValue(12);
+        // not found right after the refresh, not revalidated again
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).isEmpty();
+        clock.addAndGet(15_000);
+        // not opened yet, revalidated using the ETag
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).isEmpty();
+        clock.addAndGet(1000);
+        // not revalidated again within the negative TTL
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).isEmpty();
+        clock.addAndGet(15_000);
+        // opened within the TTL of the index
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).hasValue(13);
+        Assertions.assertThat(index.findPullRequestNumber(DROOLS, new GitBranch("DROOLS-1"), "jane", client)).hasValue(13);
+
+        verify(client, times(2)).get(PAGE_1, "\"etag1\"");
+        Assertions.assertThat(index.getNegativeRevalidations()).isEqualTo(2);
+        Assertions.assertThat(index.getNotModifiedPages()).isEqualTo(1);
+        Assertions.assertThat(index.getMisses()).isEqualTo(3);
+        Assertions.assertThat(index.getHits()).isEqualTo(3);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedRepository() throws Exception {
+        when(client.get(anyString(), (String) isNull())).thenReturn(new GitHubRestClient.Response(200, null, "[]", false));
+
+        index.findPullRequestNumber(DROOLS, GitBranch.MASTER, "john", client);
+        index.findPullRequestNumber(new GitHubRepository("kiegroup", "jbpm"), GitBranch.MASTER, "john", client);
+        index.findPullRequestNumber(new GitHubRepository("kiegroup", "optaplanner"), GitBranch.MASTER, "john", client);
+
+        Assertions.assertThat(index.getSize()).isEqualTo(2);
+        Assertions.assertThat(index.getEvictions()).isEqualTo(1);
+    }
+
+    private static String pullsJson(int number, String headOwner, String headRef) {
+        return "[{\"number\": " + number + ", \"head\": {\"ref\": \"" + headRef + "\", \"repo\": {\"owner\": {\"login\": \"" +
+                headOwner + "\"}}}}, {\"number\": 1, \"head\": {\"ref\": \"deleted-fork\", \"repo\": null}}]";
+    }
+}
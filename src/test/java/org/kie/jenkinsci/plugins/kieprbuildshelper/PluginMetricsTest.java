@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class PluginMetricsTest {
+
+    private final AtomicLong time = new AtomicLong(TimeUnit.DAYS.toMillis(1000));
+    private final PluginMetrics metrics = new PluginMetrics(time::get);
+
+    @Test
+    public void countBuildsInLastHour() {
+        metrics.recordBuild(new BuildPerformanceAction("upstream"));
+        time.addAndGet(TimeUnit.MINUTES.toMillis(30));
+        metrics.recordBuild(new BuildPerformanceAction("upstream"));
+        metrics.recordBuild(new BuildPerformanceAction("downstream"));
+        Assertions.assertThat(metrics.getBuildsInLastHour()).isEqualTo(3);
+
+        time.addAndGet(TimeUnit.MINUTES.toMillis(45));
+        Assertions.assertThat(metrics.getBuildsInLastHour()).isEqualTo(2);
+        time.addAndGet(TimeUnit.MINUTES.toMillis(30));
+        metrics.recordBuild(new BuildPerformanceAction("upstream"));
+        Assertions.assertThat(metrics.getBuildsInLastHour()).isEqualTo(1);
+    }
+
+    @Test
+    public void renderBuildsAndFailures() {
+        BuildPerformanceAction failedBuild = new BuildPerformanceAction("upstream");
+        failedBuild.startPhase(BuildPerformanceAction.PHASE_CLONE);
+        failedBuild.failPhase();
+        metrics.recordBuild(failedBuild);
+        metrics.recordBuild(new BuildPerformanceAction("upstream"));
+
+        Assertions.assertThat(metrics.render())
+                .contains("kie_pr_builds_total{builder=\"upstream\",result=\"failure\"} 1\n")
+                .contains("kie_pr_builds_total{builder=\"upstream\",result=\"success\"} 1\n")
+                .contains("kie_pr_build_failures_total{phase=\"clone\"} 1\n")
+                .contains("kie_pr_phase_duration_seconds_count{phase=\"clone\"} 1\n")
+                .contains("kie_pr_builds_last_hour 2\n");
+    }
+
+    @Test
+    public void escapeLabelValues() {
+        Assertions.assertThat(PluginMetrics.labels("repo", "a\"b\\c", "result", "ok")).isEqualTo("repo=\"a\\\"b\\\\c\",result=\"ok\"");
+    }
+}
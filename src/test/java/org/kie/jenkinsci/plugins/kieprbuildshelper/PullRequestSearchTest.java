@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PullRequestSearchTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository("kiegroup", "drools");
+    private static final GitHubRepository JBPM = new GitHubRepository("kiegroup", "jbpm");
+    private static final GitBranch BRANCH = new GitBranch("JBPM-1234");
+
+    private final List<JSONObject> receivedRequests = new ArrayList<>();
+    private HttpServer server;
+    private PullRequestSearch search;
+
+    @Before
+    public void startGitHubStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/graphql", exchange -> {
+            JSONObject request;
+            try (InputStream input = exchange.getRequestBody()) {
+                request = JSONObject.fromObject(IOUtils.toString(input, StandardCharsets.UTF_8));
+            }
+            receivedRequests.add(request);
+            boolean firstPage = !request.getJSONObject("variables").has("cursor");
+            byte[] response = (firstPage ? firstPage() : secondPage()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        server.start();
+        search = new PullRequestSearch(new GitHubRestClient("http://localhost:" + server.getAddress().getPort(), "token"));
+    }
+
+    @After
+    public void stopGitHubStandIn() {
+        server.stop(0);
+    }
+
+    @Test
+    public void findPullRequestsAcrossPages() throws IOException {
+        Map<GitHubRepository, PullRequestSearch.Result> results = search.findOpenPullRequests(Arrays.asList(DROOLS, JBPM), BRANCH, "john");
+
+        Assertions.assertThat(results).containsOnlyKeys(DROOLS, JBPM);
+        Assertions.assertThat(results.get(DROOLS).getNumber()).isEqualTo(12);
+        Assertions.assertThat(results.get(DROOLS).getMergeable()).isTrue();
+        Assertions.assertThat(results.get(JBPM).getNumber()).isEqualTo(34);
+        Assertions.assertThat(results.get(JBPM).getMergeable()).isNull();
+        Assertions.assertThat(receivedRequests).hasSize(2);
+        Assertions.assertThat(receivedRequests.get(0).getJSONObject("variables").getString("q"))
+                .isEqualTo("is:pr is:open sort:created-desc head:JBPM-1234 author:john org:kiegroup");
+    }
+
+    @Test
+    public void stopSearchingOnceAllReposAreResolved() throws IOException {
+        Map<GitHubRepository, PullRequestSearch.Result> results = search.findOpenPullRequests(Arrays.asList(DROOLS), BRANCH, "john");
+
+        Assertions.assertThat(results).containsOnlyKeys(DROOLS);
+        Assertions.assertThat(receivedRequests).hasSize(1);
+    }
+
+    @Test
+    public void noRequestForEmptyChain() throws IOException {
+        Assertions.assertThat(search.findOpenPullRequests(new ArrayList<>(), BRANCH, "john")).isEmpty();
+        Assertions.assertThat(receivedRequests).isEmpty();
+    }
+
+    private static String firstPage() {
+        return "{\"data\": {\"search\": {\"pageInfo\": {\"hasNextPage\": true, \"endCursor\": \"Y3Vyc29y\"}, \"nodes\": [" +
+                pullRequestJson(12, "drools", "john", "JBPM-1234", "MERGEABLE") + ", " +
+                // same branch name, but from different fork
+                pullRequestJson(13, "jbpm", "jane", "JBPM-1234", "MERGEABLE") +
+                "]}}}";
+    }
+
+    private static String secondPage() {
+        return "{\"data\": {\"search\": {\"pageInfo\": {\"hasNextPage\": false, \"endCursor\": \"Y3Vyc29yMg==\"}, \"nodes\": [" +
+                pullRequestJson(34, "jbpm", "john", "JBPM-1234", "UNKNOWN") +
+                "]}}}";
+    }
+
+    private static String pullRequestJson(int number, String repoName, String headOwner, String headRef, String mergeable) {
+        return "{\"number\": " + number + ", \"mergeable\": \"" + mergeable + "\", \"headRefName\": \"" + headRef + "\", " +
+                "\"baseRefName\": \"master\", \"repository\": {\"name\": \"" + repoName + "\", \"owner\": {\"login\": \"kiegroup\"}}, " +
+                "\"headRepository\": {\"name\": \"" + repoName + "\", \"owner\": {\"login\": \"" + headOwner + "\"}}}";
+    }
+}
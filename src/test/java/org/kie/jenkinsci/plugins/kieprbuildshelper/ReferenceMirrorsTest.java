@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReferenceMirrorsTest {
+
+    private static final GitHubRepository DROOLS = new GitHubRepository(RepositoryLists.KIE_ORG_UNIT, "drools");
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public LocalGitHub gitHub = new LocalGitHub();
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final TaskListener listener = new StreamTaskListener(output);
+    private final ReferenceMirrors mirrors = ReferenceMirrors.getInstance();
+    // the builds holding the mirror lock and waiting for it, the lock is released by the thread which acquired it
+    private final ExecutorService otherBuild = Executors.newSingleThreadExecutor();
+    private final ExecutorService waitingBuild = Executors.newSingleThreadExecutor();
+    private File referenceDir;
+    private FilePath referenceBasedir;
+    private RevCommit initial;
+    private String branch;
+
+    @Before
+    public void setUp() throws Exception {
+        initial = gitHub.createRepository(DROOLS);
+        branch = Constants.R_HEADS + gitHub.getDefaultBranch(DROOLS);
+        referenceDir = new File(tmp.getRoot(), "reference");
+        referenceBasedir = new FilePath(referenceDir);
+    }
+
+    @After
+    public void tearDown() {
+        otherBuild.shutdownNow();
+        waitingBuild.shutdownNow();
+    }
+
+    @Test
+    public void createMissingMirror() throws Exception {
+        mirrors.prepareMirrors(referenceBasedir, Collections.singletonList(DROOLS), listener);
+
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(initial);
+        Assertions.assertThat(getOutput()).contains("Creating reference mirror").contains("drools: 0 min");
+    }
+
+    @Test
+    public void refreshOnlyMirrorsOlderThanMaxAge() throws Exception {
+        mirrors.prepareMirrors(referenceBasedir, Collections.singletonList(DROOLS), listener);
+        RevCommit pushed = gitHub.commit(DROOLS, "README.md", "drools");
+
+        Map<String, Long> ages = mirrors.refreshAllMirrors(referenceBasedir, HOUR_MILLIS, listener);
+        Assertions.assertThat(ages).containsKey("drools");
+        Assertions.assertThat(ages.get("drools")).isGreaterThanOrEqualTo(0L).isLessThan(HOUR_MILLIS);
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(initial);
+
+        mirrors.refreshAllMirrors(referenceBasedir, 0, listener);
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(pushed);
+        Assertions.assertThat(getOutput()).contains("Refreshing reference mirror");
+    }
+
+    @Test
+    public void pruneBranchesDeletedOnGitHub() throws Exception {
+        gitHub.updateRef(DROOLS, "refs/heads/7.x", initial);
+        mirrors.prepareMirrors(referenceBasedir, Collections.singletonList(DROOLS), listener);
+        Assertions.assertThat(resolveMirrorRef("refs/heads/7.x")).isEqualTo(initial);
+
+        gitHub.deleteRef(DROOLS, "refs/heads/7.x");
+        mirrors.refreshAllMirrors(referenceBasedir, 0, listener);
+
+        Assertions.assertThat(resolveMirrorRef("refs/heads/7.x")).isNull();
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(initial);
+    }
+
+    @Test(timeout = 60_000)
+    public void skipRefreshOfMirrorLockedByAnotherBuild() throws Exception {
+        mirrors.prepareMirrors(referenceBasedir, Collections.singletonList(DROOLS), listener);
+        RevCommit pushed = gitHub.commit(DROOLS, "README.md", "drools");
+
+        Closeable lock = lockInOtherBuild();
+        mirrors.refreshAllMirrors(referenceBasedir, 0, listener);
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(initial);
+
+        releaseInOtherBuild(lock);
+        mirrors.refreshAllMirrors(referenceBasedir, 0, listener);
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(pushed);
+    }
+
+    @Test(timeout = 60_000)
+    public void waitForMirrorLockedByAnotherBuild() throws Exception {
+        referenceDir.mkdirs();
+        Closeable lock = lockInOtherBuild();
+
+        Future<?> build = waitingBuild.submit(() -> {
+            mirrors.prepareMirrors(referenceBasedir, Collections.singletonList(DROOLS), listener);
+            return null;
+        });
+        Thread.sleep(500);
+        Assertions.assertThat(build.isDone()).isFalse();
+        Assertions.assertThat(new File(referenceDir, "drools.git")).doesNotExist();
+
+        releaseInOtherBuild(lock);
+        build.get();
+        Assertions.assertThat(resolveMirrorRef(branch)).isEqualTo(initial);
+    }
+
+    private Closeable lockInOtherBuild() throws Exception {
+        File lockFile = new File(referenceDir, DROOLS.getName() + ".mirror-lock");
+        return otherBuild.submit(() -> AgentFileLock.lock(lockFile, true)).get();
+    }
+
+    private void releaseInOtherBuild(Closeable lock) throws Exception {
+        otherBuild.submit(() -> {
+            lock.close();
+            return null;
+        }).get();
+    }
+
+    private ObjectId resolveMirrorRef(String ref) throws Exception {
+        Repository mirror = new FileRepositoryBuilder().setGitDir(new File(referenceDir, DROOLS.getName() + ".git"))
+                .setMustExist(true).build();
+        try {
+            return mirror.resolve(ref);
+        } finally {
+            mirror.close();
+        }
+    }
+
+    private String getOutput() throws Exception {
+        return output.toString(StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.FilePath;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryBuildSchedulerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+    @Test
+    public void buildDependenciesFirstAndIndependentReposConcurrently() throws Exception {
+        Map<String, Set<String>> dependencies = chain();
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        new RepositoryBuildScheduler(dependencies, 4, logger).run(repo -> {
+            for (String dependency : dependencies.get(repo)) {
+                Assertions.assertThat(finished).contains(dependency);
+            }
+            started.add(repo);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            finished.add(repo);
+        });
+        Assertions.assertThat(finished).containsOnlyElementsOf(dependencies.keySet()).hasSize(dependencies.size());
+        Assertions.assertThat(started.get(0)).isEqualTo("droolsjbpm-build-bootstrap");
+        // optaplanner and jbpm only depend on drools
+        Assertions.assertThat(maxRunning.get()).isGreaterThan(1);
+    }
+
+    @Test
+    public void stopSchedulingAfterFailure() throws Exception {
+        List<String> built = Collections.synchronizedList(new ArrayList<>());
+        try {
+            new RepositoryBuildScheduler(chain(), 1, logger).run(repo -> {
+                if (repo.equals("drools")) {
+                    throw new IllegalStateException("compilation failure");
+                }
+                built.add(repo);
+            });
+            Assertions.fail("The build should have failed");
+        } catch (RuntimeException e) {
+            Assertions.assertThat(e).hasMessageContaining("drools").hasCauseInstanceOf(IllegalStateException.class);
+        }
+        Assertions.assertThat(built).containsExactly("droolsjbpm-build-bootstrap");
+    }
+
+    @Test
+    public void findCriticalPath() {
+        RepositoryBuildScheduler scheduler = new RepositoryBuildScheduler(chain(), 2, logger);
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("droolsjbpm-build-bootstrap", 1L);
+        durations.put("drools", 10L);
+        durations.put("optaplanner", 50L);
+        durations.put("jbpm", 20L);
+        durations.put("kie-wb-common", 20L);
+        Assertions.assertThat(scheduler.criticalPath(durations::get))
+                .containsExactly("droolsjbpm-build-bootstrap", "drools", "optaplanner");
+        Assertions.assertThat(scheduler.criticalPath(repo -> 1))
+                .containsExactly("droolsjbpm-build-bootstrap", "drools", "jbpm", "kie-wb-common");
+    }
+
+    @Test
+    public void limitConcurrentBuildsByMemoryBudget() {
+        Assertions.assertThat(RepositoryBuildScheduler.parseMaxHeap("-Xms1g -Xmx2g")).isEqualTo(2L << 30);
+        Assertions.assertThat(RepositoryBuildScheduler.parseMaxHeap("-Xmx512m -XX:+UseG1GC -Xmx1536M")).isEqualTo(1536L << 20);
+        Assertions.assertThat(RepositoryBuildScheduler.parseMaxHeap("-Xms1g")).isEqualTo(-1);
+        Assertions.assertThat(RepositoryBuildScheduler.maxConcurrentBuilds(4, 5L << 30, "-Xmx2g")).isEqualTo(2);
+        Assertions.assertThat(RepositoryBuildScheduler.maxConcurrentBuilds(4, 1L << 30, "-Xmx2g")).isEqualTo(1);
+        Assertions.assertThat(RepositoryBuildScheduler.maxConcurrentBuilds(4, 0, "-Xmx2g")).isEqualTo(4);
+        Assertions.assertThat(RepositoryBuildScheduler.maxConcurrentBuilds(4, 5L << 30, "")).isEqualTo(4);
+    }
+
+    @Test
+    public void detectMavenVersionFromMavenCoreJar() throws Exception {
+        File maven = tmp.newFolder("apache-maven-3.3.9");
+        TestFiles.write(maven, "lib/maven-core-3.3.9.jar", 1);
+        TestFiles.write(maven, "lib/maven-compat-3.3.9.jar", 1);
+        File mvnd = tmp.newFolder("mvnd");
+        TestFiles.write(mvnd, "mvn/lib/maven-core-3.9.6.jar", 1);
+
+        Assertions.assertThat(RepositoryBuildScheduler.detectMavenVersion(new FilePath(maven))).isEqualTo("3.3.9");
+        Assertions.assertThat(RepositoryBuildScheduler.detectMavenVersion(new FilePath(mvnd))).isEqualTo("3.9.6");
+        Assertions.assertThat(RepositoryBuildScheduler.detectMavenVersion(new FilePath(tmp.newFolder("empty")))).isNull();
+        Assertions.assertThat(RepositoryBuildScheduler.detectMavenVersion(new FilePath(new File(tmp.getRoot(), "missing")))).isNull();
+    }
+
+    @Test
+    public void lockLocalRepositoryOnlyWithMaven39OrNewer() {
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("3.3.9")).isFalse();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("3.5.4")).isFalse();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("3.8.8")).isFalse();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("3.9.0")).isTrue();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("3.10.1")).isTrue();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("4.0.0-rc-2")).isTrue();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking(null)).isFalse();
+        Assertions.assertThat(RepositoryBuildScheduler.supportsLocalRepositoryLocking("unknown")).isFalse();
+    }
+
+    private static Map<String, Set<String>> chain() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("droolsjbpm-build-bootstrap", Collections.emptySet());
+        dependencies.put("drools", set("droolsjbpm-build-bootstrap"));
+        dependencies.put("optaplanner", set("droolsjbpm-build-bootstrap", "drools"));
+        dependencies.put("jbpm", set("drools"));
+        dependencies.put("kie-wb-common", set("jbpm", "drools", "uberfire"));
+        return dependencies;
+    }
+
+    private static Set<String> set(String... repos) {
+        return new LinkedHashSet<>(Arrays.asList(repos));
+    }
+}
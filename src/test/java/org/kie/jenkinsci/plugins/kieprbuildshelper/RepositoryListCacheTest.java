@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpServer;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepositoryListCacheTest {
+
+    private static final String ETAG = "\"abc123\"";
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong clock = new AtomicLong(1000);
+    private HttpServer server;
+    private RepositoryListCache cache;
+
+    @Before
+    public void startRawGitHubStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/kiegroup/droolsjbpm-build-bootstrap/master/script/repository-list.txt", exchange -> {
+            requests.incrementAndGet();
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] response = "drools\njbpm\n".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(response);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        cache = new RepositoryListCache("http://localhost:" + server.getAddress().getPort(), 60_000, 10, clock::get);
+    }
+
+    @After
+    public void stopRawGitHubStandIn() {
+        server.stop(0);
+    }
+
+    @Test
+    public void useCachedListWithinTtl() {
+        Assertions.assertThat(cache.getRepositoryList(RepositoryLists.KIE_BOOTSTRAP_REPO, GitBranch.MASTER)).containsExactly("drools", "jbpm");
+        Assertions.assertThat(cache.getRepositoryList(RepositoryLists.KIE_BOOTSTRAP_REPO, GitBranch.MASTER)).containsExactly("drools", "jbpm");
+
+        Assertions.assertThat(requests.get()).isEqualTo(1);
+        Assertions.assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void revalidateUsingEtagAfterTtl() {
+        cache.getRepositoryList(RepositoryLists.KIE_BOOTSTRAP_REPO, GitBranch.MASTER);
+        clock.addAndGet(60_000);
+
+        Assertions.assertThat(cache.getRepositoryList(RepositoryLists.KIE_BOOTSTRAP_REPO, GitBranch.MASTER)).containsExactly("drools", "jbpm");
+        Assertions.assertThat(requests.get()).isEqualTo(2);
+        Assertions.assertThat(cache.getNotModified()).isEqualTo(1);
+        Assertions.assertThat(cache.getDownloads()).isEqualTo(1);
+    }
+}
@@ -15,7 +15,13 @@
 
 package org.kie.jenkinsci.plugins.kieprbuildshelper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -68,4 +74,48 @@ public class RepositoryListsTest {
         );
     }
 
+    @Test
+    public void pruneReposUnrelatedToBaseRepo() {
+        List<Tuple<GitHubRepository, GitBranch>> repos = toRepos("droolsjbpm-build-bootstrap", "drools", "optaplanner", "jbpm",
+                                                                 "droolsjbpm-tools", "kie-docs");
+        Map<String, List<MavenModule>> modules = new LinkedHashMap<>();
+        modules.put("droolsjbpm-build-bootstrap", Collections.singletonList(module("droolsjbpm-build-bootstrap", "kie-parent")));
+        modules.put("drools", Collections.singletonList(module("drools", "drools-core", "org.kie:kie-parent")));
+        modules.put("optaplanner", Collections.singletonList(module("optaplanner", "optaplanner-core", "org.kie:kie-parent", "org.kie:drools-core")));
+        modules.put("jbpm", Collections.singletonList(module("jbpm", "jbpm-flow", "org.kie:kie-parent")));
+        modules.put("droolsjbpm-tools", Collections.singletonList(module("droolsjbpm-tools", "drools-eclipse", "org.kie:drools-core")));
+        modules.put("kie-docs", Collections.emptyList());
+        MavenModuleIndex index = new MavenModuleIndex(modules);
+
+        Assertions.assertThat(RepositoryLists.filterOutUnnecessaryRepos(repos, new GitHubRepository("kiegroup", "drools"), index))
+                .isEqualTo(toRepos("droolsjbpm-build-bootstrap", "drools", "optaplanner"));
+        Assertions.assertThat(RepositoryLists.pruneUnrelatedRepos(repos, new GitHubRepository("kiegroup", "jbpm"), index))
+                .isEqualTo(toRepos("droolsjbpm-build-bootstrap", "jbpm"));
+        // the index alone keeps the downstream droolsjbpm-tools
+        Assertions.assertThat(RepositoryLists.pruneUnrelatedRepos(repos, new GitHubRepository("kiegroup", "drools"), index))
+                .isEqualTo(toRepos("droolsjbpm-build-bootstrap", "drools", "optaplanner", "droolsjbpm-tools"));
+        Assertions.assertThat(repos).hasSize(6);
+    }
+
+    @Test
+    public void fallBackToHardcodedFilterWithoutIndex() {
+        List<Tuple<GitHubRepository, GitBranch>> repos = toRepos("drools", "jbpm", "droolsjbpm-tools", "kie-docs");
+        Assertions.assertThat(RepositoryLists.filterOutUnnecessaryRepos(repos, new GitHubRepository("kiegroup", "drools"), null))
+                .isEqualTo(toRepos("drools", "jbpm"));
+        Assertions.assertThat(repos).hasSize(4);
+        Assertions.assertThat(RepositoryLists.pruneUnrelatedRepos(repos, new GitHubRepository("kiegroup", "drools"), null))
+                .isEqualTo(repos);
+    }
+
+    private static List<Tuple<GitHubRepository, GitBranch>> toRepos(String... names) {
+        List<Tuple<GitHubRepository, GitBranch>> repos = new ArrayList<>();
+        for (String name : names) {
+            repos.add(Tuple.of(new GitHubRepository("kiegroup", name), GitBranch.MASTER));
+        }
+        return repos;
+    }
+
+    private static MavenModule module(String repo, String artifactId, String... dependencies) {
+        return new MavenModule(repo, "", "org.kie", artifactId, artifactId, new LinkedHashSet<>(Arrays.asList(dependencies)));
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Creates the files used by the tests, including the missing parent directories.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a file of the specified size (filled with zeros) to the path relative to the base directory.
+     */
+    static void write(File basedir, String path, int size) throws IOException {
+        File file = new File(basedir, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[size]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kie.jenkinsci.plugins.kieprbuildshelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkspaceTrashTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void movedDirectoryIsDeletedInBackground() throws Exception {
+        File reposDir = tmp.newFolder("upstream-repos");
+        TestFiles.write(reposDir, "drools/pom.xml", 100);
+        TestFiles.write(reposDir, "jbpm/jbpm-flow/pom.xml", 50);
+        Path trashDir = tmp.getRoot().toPath().resolve("kie-trash");
+
+        WorkspaceTrash.Reaper reaper = new WorkspaceTrash.Reaper(trashDir, null);
+        reaper.moveToTrash(reposDir);
+
+        Assertions.assertThat(reposDir).doesNotExist();
+        awaitEmpty(reaper);
+        Assertions.assertThat(trashDir.toFile().list()).isEmpty();
+        WorkspaceTrash.TrashResult result = reaper.getResult(true, 0);
+        Assertions.assertThat(result.getReapedDirectories()).isEqualTo(1);
+        Assertions.assertThat(result.getReapedBytes()).isEqualTo(150);
+        Assertions.assertThat(result.getPendingDirectories()).isZero();
+    }
+
+    @Test
+    public void leftoverDirectoriesAreDeletedUsingCommand() throws Exception {
+        Path trashDir = tmp.newFolder("kie-trash").toPath();
+        TestFiles.write(trashDir.toFile(), "upstream-repos-1/drools/pom.xml", 10);
+        TestFiles.write(trashDir.toFile(), "upstream-repos-2/jbpm/pom.xml", 20);
+
+        WorkspaceTrash.Reaper reaper = new WorkspaceTrash.Reaper(trashDir, WorkspaceTrash.createDeleteCommand());
+        reaper.scheduleTrash();
+
+        awaitEmpty(reaper);
+        Assertions.assertThat(trashDir.toFile().list()).isEmpty();
+        WorkspaceTrash.TrashResult result = reaper.getResult(false, 0);
+        Assertions.assertThat(result.getReapedDirectories()).isEqualTo(2);
+        // du counts the directories too
+        Assertions.assertThat(result.getReapedBytes()).isGreaterThanOrEqualTo(30);
+    }
+
+    @Test
+    public void buildWaitsForReaperWhenDiskIsFull() throws Exception {
+        Path trashDir = tmp.newFolder("kie-trash").toPath();
+        TestFiles.write(trashDir.toFile(), "upstream-repos-1/drools/pom.xml", 10);
+        // slow reaper, so that the build finds the directory still in the trash
+        WorkspaceTrash.Reaper reaper = new WorkspaceTrash.Reaper(
+                trashDir, Arrays.asList("sh", "-c", "sleep 1 && rm -rf -- \"$1\"", "sh"));
+        reaper.scheduleTrash();
+        ByteArrayOutputStream buildLog = new ByteArrayOutputStream();
+
+        // no disk has that much free space, so the build waits until the trash is empty
+        long waitedMillis = reaper.awaitFreeSpace(Long.MAX_VALUE, new PrintStream(buildLog, true, "UTF-8"));
+
+        Assertions.assertThat(reaper.getPendingDirectories()).isZero();
+        Assertions.assertThat(trashDir.toFile().list()).isEmpty();
+        Assertions.assertThat(waitedMillis).isGreaterThan(0);
+        Assertions.assertThat(new String(buildLog.toByteArray(), StandardCharsets.UTF_8))
+                .contains("waiting until the 1 directories in the trash get deleted");
+        Assertions.assertThat(reaper.getResult(false, waitedMillis).getThrottledMillis()).isEqualTo(waitedMillis);
+    }
+
+    @Test
+    public void noThrottlingWithEmptyTrash() throws Exception {
+        WorkspaceTrash.Reaper reaper = new WorkspaceTrash.Reaper(tmp.newFolder("kie-trash").toPath(), null);
+        Assertions.assertThat(reaper.awaitFreeSpace(Long.MAX_VALUE, System.out)).isZero();
+    }
+
+    @Test
+    public void sizeOf() throws Exception {
+        File dir = tmp.newFolder("repo");
+        TestFiles.write(dir, "a/b/c.txt", 7);
+        TestFiles.write(dir, "d.txt", 3);
+        Assertions.assertThat(WorkspaceTrash.sizeOf(dir.toPath())).isEqualTo(10);
+    }
+
+    private static void awaitEmpty(WorkspaceTrash.Reaper reaper) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (reaper.getPendingDirectories() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertThat(reaper.getPendingDirectories()).isZero();
+    }
+}